@@ -222,6 +222,12 @@ public class OI {
 
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CONSTRUCTORS
     
+    // Relay autotune, writes the suggested gains to Preferences (outside the
+    // RobotBuilder block so an export doesn't drop them)
+    SmartDashboard.putData("Autotune Fwd", new AutotunePidCmd("Fwd", 15));
+    SmartDashboard.putData("Autotune Rot", new AutotunePidCmd("Rot", 15));
+    SmartDashboard.putData("Autotune Elev", new AutotunePidCmd("Elev", 15));
+
 
     xBox_Drive_Fwd_Btn = new AxisButton(driverXboxCtlr, 0.02, 3);
     xBox_Drive_Fwd_Btn.whenPressed(new driveByJoystickCmd());
@@ -24,6 +24,9 @@ import edu.wpi.first.wpilibj.PowerDistributionPanel;
 import edu.wpi.first.wpilibj.Preferences;
 
 import robot.utils.Map;
+import robot.utils.DashboardPublisher;
+import robot.utils.LoopProfiler;
+import robot.utils.Rmath;
 
 /**
  * The VM is configured to automatically run this class, and to call the
@@ -47,6 +50,7 @@ public class Robot extends TimedRobot {
     SendableChooser<String> rocketChooser = new SendableChooser<String>(); 
 
     public static Timer sysTimer = new Timer();
+    public static DashboardPublisher dashboard = new DashboardPublisher();
 	String fmsGameData;
 	Boolean switchLeftLit, scaleLeftLit, switchRightLit, scaleRightLit;
 	Boolean printBatVoltFlag;
@@ -166,11 +170,44 @@ public class Robot extends TimedRobot {
     @Override
     public void disabledInit(){
         Robot.manipulatorSubSys.cargoMtrStop();
+        Robot.drivetrain.logOdometryJitter();
+        Robot.logger.appendLog(dashboard.getReport());
+        if (LoopProfiler.ENABLED) {
+            // a line per component, one log record is too short for all of it
+            for (String line : LoopProfiler.getReport().split("\n")) {
+                Robot.logger.appendLog(line);
+            }
+        }
+    }
+
+    // Loop period summary for the dashboard, refreshed about once a second
+    // (set every 50 loops, so minPeriod is a bit under that)
+    private final DashboardPublisher.Entry
+        dLoopP99 = dashboard.number("Loop p99 ms", 0.1, 0.9),
+        dLoopMax = dashboard.number("Loop Max ms", 0.1, 0.9),
+        dLoopOverruns = dashboard.number("Loop Overruns", 0, 0.9),
+        dLoopOffender = dashboard.string("Loop Top Offender", 0.9);
+
+    // first thing in every mode's periodic, so the profiler times the loop
+    // from here to here
+    private void runScheduler() {
+        if (LoopProfiler.ENABLED) LoopProfiler.startLoop();
+        Scheduler.getInstance().run();
+        if (LoopProfiler.ENABLED) {
+            LoopProfiler.endLoop();
+            if (LoopProfiler.getLoops() % 50 == 0) {
+                dLoopP99.set(Rmath.mRound(LoopProfiler.getPercentileMs(LoopProfiler.LOOP, 99), 2));
+                dLoopMax.set(Rmath.mRound(LoopProfiler.getMaxMs(LoopProfiler.LOOP), 2));
+                dLoopOverruns.set(LoopProfiler.getOverruns());
+                dLoopOffender.set(LoopProfiler.getTopOffender());
+            }
+        }
+        dashboard.flush();
     }
 
     @Override
     public void disabledPeriodic() {
-        Scheduler.getInstance().run();
+        runScheduler();
     }
 
     @Override
@@ -227,15 +264,15 @@ public class Robot extends TimedRobot {
         double rbt_Pos_o = 0;   // Robot Orientation 0=fwd, -90=left facing, 90=right facing
 
     	if ((orientChoice.equals("Fwd")) && (locChoice.equals("Left Level 1"))){
-            rbt_Pos_x = Map.StartingPos_Left_FacingFwd_X;
-            rbt_Pos_y = Map.StartingPos_Left_FacingFwd_Y;
-            rbt_Pos_o = Map.StartingPos_Left_FacingFwd_O;
+            rbt_Pos_x = Map.getStartX(Map.START_LEFT_FACING_FWD);
+            rbt_Pos_y = Map.getStartY(Map.START_LEFT_FACING_FWD);
+            rbt_Pos_o = Map.getStartO(Map.START_LEFT_FACING_FWD);
     	}       
 
     	if ((orientChoice.equals("Left")) && (locChoice.equals("Left Level 1"))){
-            rbt_Pos_x = Map.StartingPos_Left_FacingLeft_X;
-            rbt_Pos_y = Map.StartingPos_Left_FacingLeft_Y;
-            rbt_Pos_o = Map.StartingPos_Left_FacingLeft_O;
+            rbt_Pos_x = Map.getStartX(Map.START_LEFT_FACING_LEFT);
+            rbt_Pos_y = Map.getStartY(Map.START_LEFT_FACING_LEFT);
+            rbt_Pos_o = Map.getStartO(Map.START_LEFT_FACING_LEFT);
         } 
 
         if (xBoxLRChoice.equals("Left"))
@@ -244,33 +281,33 @@ public class Robot extends TimedRobot {
             Robot.drivetrain.setXBoxRightMode();
 
     	if (locChoice.equals("Ctr")){
-            rbt_Pos_x = Map.StartingPos_Ctr_FacingFwd_X;
-            rbt_Pos_y = Map.StartingPos_Ctr_FacingFwd_Y;
-            rbt_Pos_o = Map.StartingPos_Ctr_FacingFwd_O;
+            rbt_Pos_x = Map.getStartX(Map.START_CTR_FACING_FWD);
+            rbt_Pos_y = Map.getStartY(Map.START_CTR_FACING_FWD);
+            rbt_Pos_o = Map.getStartO(Map.START_CTR_FACING_FWD);
         } 
         
     	if ((orientChoice.equals("Fwd")) && (locChoice.equals("Right Level 1"))){
-            rbt_Pos_x = Map.StartingPos_Right_FacingFwd_X;
-            rbt_Pos_y = Map.StartingPos_Right_FacingFwd_Y;
-            rbt_Pos_o = Map.StartingPos_Right_FacingFwd_O;
+            rbt_Pos_x = Map.getStartX(Map.START_RIGHT_FACING_FWD);
+            rbt_Pos_y = Map.getStartY(Map.START_RIGHT_FACING_FWD);
+            rbt_Pos_o = Map.getStartO(Map.START_RIGHT_FACING_FWD);
         } 
         
     	if ((orientChoice.equals("Right")) && (locChoice.equals("Right Level 1"))){
-            rbt_Pos_x = Map.StartingPos_Right_FacingRight_X;
-            rbt_Pos_y = Map.StartingPos_Right_FacingRight_Y;
-            rbt_Pos_o = Map.StartingPos_Right_FacingRight_O;
+            rbt_Pos_x = Map.getStartX(Map.START_RIGHT_FACING_RIGHT);
+            rbt_Pos_y = Map.getStartY(Map.START_RIGHT_FACING_RIGHT);
+            rbt_Pos_o = Map.getStartO(Map.START_RIGHT_FACING_RIGHT);
         } 
 
         // Level 2
         if (locChoice.equals("Left Level 2")){
-            rbt_Pos_x = Map.StartingPos_Level2_Left_Fwd_FacingLeft_X;
-            rbt_Pos_y = Map.StartingPos_Level2_Left_Fwd_FacingLeft_Y;
-            rbt_Pos_o = Map.StartingPos_Level2_Left_Fwd_FacingLeft_O;
+            rbt_Pos_x = Map.getStartX(Map.START_LEVEL2_LEFT_FWD);
+            rbt_Pos_y = Map.getStartY(Map.START_LEVEL2_LEFT_FWD);
+            rbt_Pos_o = Map.getStartO(Map.START_LEVEL2_LEFT_FWD);
         } 
         if (locChoice.equals("Right Level 2")){
-            rbt_Pos_x = Map.StartingPos_Level2_Right_Fwd_FacingLeft_X;
-            rbt_Pos_y = Map.StartingPos_Level2_Right_Fwd_FacingLeft_Y;
-            rbt_Pos_o = Map.StartingPos_Level2_Right_Fwd_FacingLeft_O;
+            rbt_Pos_x = Map.getStartX(Map.START_LEVEL2_RIGHT_FWD);
+            rbt_Pos_y = Map.getStartY(Map.START_LEVEL2_RIGHT_FWD);
+            rbt_Pos_o = Map.getStartO(Map.START_LEVEL2_RIGHT_FWD);
         }
      	
         line = " Starting Position X=" + rbt_Pos_x + " Y= " + rbt_Pos_y +  " O= "    + rbt_Pos_o;
@@ -293,7 +330,7 @@ public class Robot extends TimedRobot {
      */
     @Override
     public void autonomousPeriodic() {
-        Scheduler.getInstance().run();
+        runScheduler();
         if ( logCntr % 10 == 0)             Robot.logger.appendLogPosition("Auto Periodic Position"); // log every 200 ms
         logCntr++;
     }
@@ -339,7 +376,7 @@ public class Robot extends TimedRobot {
      */
     @Override
     public void teleopPeriodic() {
-        Scheduler.getInstance().run();
+        runScheduler();
         if ( logCntr % 10 == 0) Robot.logger.appendLogPosition("Teleop Periodic Position"); // log every 200 ms
         logCntr++;
         /*
@@ -0,0 +1,176 @@
+package robot.commands;
+
+import edu.wpi.first.wpilibj.command.Command;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import robot.Robot;
+import robot.subsystems.ElevSubSys;
+import robot.utils.RelayAutotuner;
+import robot.utils.RelayAutotuner.TuneRule;
+
+/**
+ * Relay autotune of one PID loop, writing the suggested gains back to the
+ * Preferences keys the loop reads its gains from.
+ *
+ * loop parameter :
+ *		Fwd  -> drive straight, oscillates about 24 in. ahead   (Drive_11_PID_Fwd_P, Drive_13_PID_Fwd_D)
+ *		Rot  -> point turn, oscillates about the current yaw    (Drive_21_PID_Rot_P, Drive_23_PID_Rot_D)
+ *		Elev -> elevator, oscillates about its current position (elev_60_PID_P, elev_61_PID_I, elev_62_PID_D)
+ *
+ * The drive PIDs run with I = 0, so they get PD gains and their I key is
+ * left alone. Nothing is written if the relay never settled into a steady
+ * limit cycle; the relay trace is saved like any other PID trace.
+ */
+public class AutotunePidCmd extends Command {
+	// relay amplitude, hysteresis band and the biggest error we let it reach
+	private static final double FWD_SETPOINT = 24;			// inches
+	private static final double FWD_RELAY = 0.35;
+	private static final double FWD_HYST = 0.5;
+	private static final double FWD_MAX_ERR = 24;
+
+	private static final double ROT_RELAY = 0.45;			// needs to beat the scrub friction
+	private static final double ROT_HYST = 1.0;				// degrees
+	private static final double ROT_MAX_ERR = 45;
+
+	private static final double ELEV_RELAY = 0.25;			// about the hold power
+	private static final double ELEV_HYST = 0.25;			// inches
+	private static final double ELEV_MAX_ERR = 12;
+	private static final double ELEV_MIN_POS = 15;			// stay clear of the ends
+	private static final double ELEV_MAX_POS = 45;
+
+	private static final int TUNE_CYCLES = 4;
+	private static final double MAX_PERIOD_SPREAD = 0.25;	// of the average period
+
+	private String m_loop;
+	private double m_TO;
+	private RelayAutotuner mTuner;
+	private String line;
+
+	public AutotunePidCmd(String loop, double TO) {
+		m_loop = loop;
+		m_TO = TO;
+		if (m_loop.equals("Elev")) {
+			requires(Robot.elevSubSys);
+		} else {
+			requires(Robot.drivetrain);
+		}
+	}
+
+	// Called just before this Command runs the first time
+	@Override
+	protected void initialize() {
+		setTimeout(m_TO);
+		switch (m_loop) {
+			case "Fwd":
+				mTuner = new RelayAutotuner(FWD_SETPOINT, FWD_RELAY, FWD_HYST, 0, TUNE_CYCLES);
+				mTuner.setMaxExcursion(FWD_MAX_ERR);
+				mTuner.setRule(TuneRule.PD);
+				break;
+			case "Rot":
+				mTuner = new RelayAutotuner(Robot.drivetrain.getGyroYaw(), ROT_RELAY, ROT_HYST, 0, TUNE_CYCLES);
+				mTuner.setInputRange(-180, 180);
+				mTuner.setMaxExcursion(ROT_MAX_ERR);
+				mTuner.setRule(TuneRule.PD);
+				break;
+			case "Elev":
+				double pos = Robot.elevSubSys.getElevPosition();
+				pos = Math.max(ELEV_MIN_POS, Math.min(ELEV_MAX_POS, pos));
+				mTuner = new RelayAutotuner(pos, ELEV_RELAY, ELEV_HYST, ElevSubSys.KHoldSpeed, TUNE_CYCLES);
+				// allow for the first move from where we are up/down to the setpoint
+				mTuner.setMaxExcursion(ELEV_MAX_ERR + Math.abs(pos - Robot.elevSubSys.getElevPosition()));
+				mTuner.setRule(TuneRule.ZN_PID);
+				break;
+			default:
+				mTuner = null;
+		}
+		line = "Autotune PID Cmd Init (Loop=" + m_loop + "  TO=" + m_TO + ")";
+		System.out.println(line);
+		Robot.logger.appendLog(line);
+		if (mTuner == null) {
+			return;
+		}
+		mTuner.setTimeout(m_TO);
+
+		if (m_loop.equals("Fwd"))		{ Robot.drivetrain.autotuneStraightPid(mTuner); }
+		else if (m_loop.equals("Rot"))	{ Robot.drivetrain.autotuneRotatePid(mTuner); }
+		else							{ Robot.elevSubSys.autotuneElevPid(mTuner); }
+	}
+
+	// Called repeatedly when this Command is scheduled to run
+	@Override
+	protected void execute() {
+		// the relay is stepped by the subsystem's PID
+	}
+
+	// Make this return true when this Command no longer needs to run execute()
+	@Override
+	protected boolean isFinished() {
+		if (mTuner == null) {
+			return true;
+		}
+		if (isTimedOut()) {
+			line = "AutotunePidCmd - Has timed out !!";
+			Robot.logger.appendLog(line);
+			System.out.println(line);
+			return true;
+		}
+		return mTuner.isFinished();
+	}
+
+	// Called once after isFinished returns true
+	@Override
+	protected void end() {
+		if (mTuner == null) {
+			line = "AutotunePidCmd - Unknown loop " + m_loop;
+			Robot.logger.appendLog(line);
+			System.out.println(line);
+			return;
+		}
+		if (m_loop.equals("Elev")) {
+			Robot.elevSubSys.stopElevPid();
+			Robot.elevSubSys.elevHoldMtr();
+		} else {
+			Robot.drivetrain.stopPID();
+		}
+
+		line = "AutotunePidCmd " + m_loop + " - " + mTuner.getReport();
+		Robot.logger.appendLog(line);
+		System.out.println(line);
+		SmartDashboard.putString("Autotune " + m_loop, mTuner.getReport());
+
+		if (!mTuner.isDone()) {
+			return;
+		}
+		if (mTuner.getPeriodSpread() > MAX_PERIOD_SPREAD) {
+			line = "AutotunePidCmd - Periods too uneven, gains NOT saved";
+			Robot.logger.appendLog(line);
+			System.out.println(line);
+			return;
+		}
+		switch (m_loop) {
+			case "Fwd":
+				Robot.prefs.putDouble("Drive_11_PID_Fwd_P", mTuner.getKp());
+				Robot.prefs.putDouble("Drive_13_PID_Fwd_D", mTuner.getKd());
+				break;
+			case "Rot":
+				Robot.prefs.putDouble("Drive_21_PID_Rot_P", mTuner.getKp());
+				Robot.prefs.putDouble("Drive_23_PID_Rot_D", mTuner.getKd());
+				break;
+			case "Elev":
+				Robot.prefs.putDouble("elev_60_PID_P", mTuner.getKp());
+				Robot.prefs.putDouble("elev_61_PID_I", mTuner.getKi());
+				Robot.prefs.putDouble("elev_62_PID_D", mTuner.getKd());
+				Robot.elevSubSys.getElevPrefs();
+				break;
+		}
+		line = "AutotunePidCmd - " + m_loop + " gains saved to Preferences";
+		Robot.logger.appendLog(line);
+		System.out.println(line);
+	}
+
+	// Called when another command which requires one or more of the same
+	// subsystems is scheduled to run
+	@Override
+	protected void interrupted() {
+		end();
+	}
+}
@@ -153,8 +153,9 @@ public final class CmdDualPidToCoord extends Command
         // IOW, what a vision system would be doing for a visually
         // acquired target.
         // start by getting the current location (from drivetrain posn tracker)
-        double currX = Robot.drivetrain.getXinFt() ;
-        double currY = Robot.drivetrain.getYinFt() ;
+        Robot.drivetrain.getPoseFt(mPose) ;
+        double currX = mPose[0] ;
+        double currY = mPose[1] ;
         System.out.printf("currx=%g curry=%g\n", currX, currY);
         double deltaX = mTargetX - currX ;
         double deltaY = mTargetY - currY ;
@@ -163,12 +164,13 @@ public final class CmdDualPidToCoord extends Command
     }
 
     private double getBearingToTargDegCW() {
-        double currX = Robot.drivetrain.getXinFt() ;
-        double currY = Robot.drivetrain.getYinFt() ;
-        double deltaX = mTargetX - currX ;
-        double deltaY = mTargetY - currY ;    
+        // x, y and orientation from the same odometry snapshot
+        Robot.drivetrain.getPoseFt(mPose) ;
+        double deltaX = mTargetX - mPose[0] ;
+        double deltaY = mTargetY - mPose[1] ;    
         double psiCCWdeg = Math.atan(deltaY/deltaX)*180.0/Math.PI ;
-        double botAbsOrientCCW = Robot.drivetrain.getOrientDegCCW();
+        double botAbsOrientCCW = mPose[2] ;
         return (botAbsOrientCCW - psiCCWdeg) ;
     }
+    private final double[] mPose = new double[4] ;
 }
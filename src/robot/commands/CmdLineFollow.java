@@ -18,6 +18,8 @@ import javax.imageio.ImageIO;
 import edu.wpi.first.wpilibj.command.Command;
 import robot.Robot;
 import robot.utils.LineFollowController;
+import robot.utils.PathBitmap;
+import robot.utils.PathDistanceField;
 
 public class CmdLineFollow extends Command {
 	
@@ -28,6 +30,7 @@ public class CmdLineFollow extends Command {
     // the controller
     LineFollowController mController ;
     boolean mAbort = false ;
+    private final double[] mPose = new double[4] ;    // x, y ft, orient deg CCW, time
 
     // controller variables passed to this command and sent to 
     // the controller in initialize    
@@ -86,17 +89,24 @@ public class CmdLineFollow extends Command {
             mAbort = true ;
             return ;
         }
+        // binarize it once here, the controller only does bit tests per cycle,
+        // and build the distance field its lateral error comes from
+        PathBitmap path = new PathBitmap(img) ;
+        PathDistanceField field = new PathDistanceField(path,
+                LineFollowController.fieldCellPix(mPixPerIn, mLineWidthInches)) ;
                
         // create and pass params to a controller
         // the init call could move to the command initialize() method
         // at the cost of storing more member vars
         mController = LineFollowController.getInstance() ;
-        double x = Robot.drivetrain.getXinFt() ;
-        double y = Robot.drivetrain.getYinFt() ;
-        double orient = Robot.drivetrain.getOrientDegCCW() ;
+        Robot.drivetrain.getPoseFt(mPose) ;
+        double x = mPose[0] ;
+        double y = mPose[1] ;
+        double orient = mPose[2] ;
         mController.init(
                         mBaseAccel,   // base drive power
-                        img,          // image of path
+                        path,         // image of path
+                        field,        // distance from the line
                         mPixPerIn,    // image scale in pix/in
                         mLineWidthInches,   // width of the line in inches
                         mEndTheta,    // final desired angle (Double.Nan if don't care)
@@ -128,9 +138,11 @@ public class CmdLineFollow extends Command {
         mPreviousTime = now;
         
         double vel = Robot.drivetrain.getVelocityInFtPerSec() ;
-        double x = Robot.drivetrain.getXinFt() ;
-        double y = Robot.drivetrain.getYinFt() ;
-        double orient = Robot.drivetrain.getOrientDegCCW() ;
+        // x, y and orientation from the same odometry snapshot
+        Robot.drivetrain.getPoseFt(mPose) ;
+        double x = mPose[0] ;
+        double y = mPose[1] ;
+        double orient = mPose[2] ;
         LineFollowController.MotorControlStruct 
                 ctrl =  mController.update(x,y,orient,vel,elapsed);
         
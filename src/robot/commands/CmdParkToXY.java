@@ -136,20 +136,20 @@ public final class CmdParkToXY extends Command
         // IOW, what a vision system would be doing for a visually
         // acquired target.
         // start by getting the current location (from drivetrain posn tracker)
-        double currX = Robot.drivetrain.getXinFt() ;
-        double currY = Robot.drivetrain.getYinFt() ;
-        double deltaX = mTargetX - currX ;
-        double deltaY = mTargetY - currY ;
+        Robot.drivetrain.getPoseFt(mPose) ;
+        double deltaX = mTargetX - mPose[0] ;
+        double deltaY = mTargetY - mPose[1] ;
         return Math.sqrt(deltaX*deltaX + deltaY*deltaY) ;
     }
 
     private double getBearingToTargDegCW() {
-        double currX = Robot.drivetrain.getXinFt() ;
-        double currY = Robot.drivetrain.getYinFt() ;
-        double deltaX = mTargetX - currX ;
-        double deltaY = mTargetY - currY ;    
+        // x, y and orientation from the same odometry snapshot
+        Robot.drivetrain.getPoseFt(mPose) ;
+        double deltaX = mTargetX - mPose[0] ;
+        double deltaY = mTargetY - mPose[1] ;    
         double psiCCWdeg = Math.atan2(deltaY,deltaX)*180.0/Math.PI ;
-        double botAbsOrientCCW = Robot.drivetrain.getOrientDegCCW();
+        double botAbsOrientCCW = mPose[2] ;
         return (botAbsOrientCCW - psiCCWdeg) ;
     }    
+    private final double[] mPose = new double[4] ;
 }
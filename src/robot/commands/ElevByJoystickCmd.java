@@ -12,6 +12,7 @@
 package robot.commands;
 import edu.wpi.first.wpilibj.command.Command;
 import robot.Robot;
+import robot.utils.LoopProfiler;
 import robot.subsystems.ElevSubSys;
 import robot.subsystems.ElevSubSys.ElevDir;
 import edu.wpi.first.wpilibj.Joystick;
@@ -58,6 +59,7 @@ public class ElevByJoystickCmd extends Command {
     // Called repeatedly when this Command is scheduled to run
     @Override
     protected void execute() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
         if (joyCo.getRawButton(1) == false) {
             // Trigger not pushed 
         	Robot.elevSubSys.elevHoldMtr();
@@ -65,6 +67,7 @@ public class ElevByJoystickCmd extends Command {
     		calcElevMtrSpd();
             Robot.elevSubSys.elevMoveMtr(motorSpeed, dir);
     	}
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.ELEV_JOY_CMD, t0);
     }
 
     // Make this return true when this Command no longer needs to run execute()
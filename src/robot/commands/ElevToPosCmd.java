@@ -10,8 +10,11 @@
 
 
 package robot.commands;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.command.Command;
 import robot.*;
+import robot.subsystems.ElevSubSys;
+import robot.utils.MotionProfile;
 //import robot.subsystems.ManipulatorSubSys;
 
 /**
@@ -60,6 +63,21 @@ public class ElevToPosCmd extends Command {
 	public static final double ELEV_RETREIVE_CARGO_LS_VALUE = 43;		// 44mag cnt 62652
 	public static final double ELEV_RETREIVE_CARGO_FLOOR_VALUE = 0;
 
+	// every position a preset can ask for, profiles between them are planned at startup
+	public static final double[] ELEV_PRESETS = { ELEV_TOP_VALUE, ELEV_BOTTOM_VALUE, ELEV_LWR_HATCH_VALUE,
+			ELEV_EJECT_LWR_CARGO_VALUE, ELEV_EJECT_CARGOSHIP_CARGO_VALUE, ELEV_EJECT_MID_HATCH_VALUE,
+			ELEV_EJECT_MID_CARGO_VALUE, ELEV_EJECT_HIGH_HATCH_VALUE, ELEV_EJECT_HIGH_CARGO_VALUE,
+			ELEV_RETREIVE_CARGO_LS_VALUE, ELEV_RETREIVE_CARGO_FLOOR_VALUE };
+
+	// Follow a motion profile to the target instead of full power bang control
+	public static final boolean USE_MOTION_PROFILE = true;
+	private static final double PROFILE_POS_TOL = 0.5;		// inches, done once the profile is over
+	private static final double PROFILE_SETTLE_TIME = 0.5;	// sec past the profile end to get in tolerance
+	private MotionProfile mProfile = null;
+	private Timer mProfTmr = new Timer();
+	private boolean mMotionMagic = false;					// the Talon is running the move
+	private double mMoveTime = 0;							// sec the Talon's move should take
+
 	// position (mode) parameter :
 	//		Bottom, Top, Position
 	//		Lwr -> 	( Provides Lwr Hatch Eject/Retract, Cargo Eject Position )
@@ -106,6 +124,21 @@ public class ElevToPosCmd extends Command {
 		Robot.logger.appendLog(line);
 
 		moveState = MoveState.STOPPED;
+		mProfile = null;
+		mMotionMagic = false;
+		if (Math.abs(mCurrPos - mTgtPos) > 0.25) {
+			if (Robot.elevSubSys.isMotionMagicReady()) {
+				mMotionMagic = Robot.elevSubSys.elevMotionMagicTo(mTgtPos);
+				mMoveTime = Robot.elevSubSys.getMotionMagicTime(mCurrPos, mTgtPos);
+				mProfTmr.reset();
+				mProfTmr.start();
+			}
+			if (!mMotionMagic && USE_MOTION_PROFILE) {
+				mProfile = Robot.elevSubSys.getProfile(mCurrPos, mTgtPos);
+				mProfTmr.reset();
+				mProfTmr.start();
+			}
+		}
 		
 		if (m_position == "Top"){
 			moveState = MoveState.MOVING_TO_TOP;
@@ -134,6 +167,19 @@ public class ElevToPosCmd extends Command {
     @Override
     protected void execute() {
 		mCurrPos = Robot.elevSubSys.getElevPosition();
+		if (mMotionMagic) {
+			// the Talon runs the move, we just watch for the end of it
+			boolean giveUp = mProfTmr.get() > (mMoveTime + PROFILE_SETTLE_TIME);
+			if (Robot.elevSubSys.isMotionMagicActive() && (Math.abs(mCurrPos - mTgtPos) > PROFILE_POS_TOL) && !giveUp) {
+				return;
+			}
+			finishMove(giveUp);
+			return;
+		}
+		if (mProfile != null) {
+			executeProfile();
+			return;
+		}
 
 		if (moveDir == MoveDir.LOWERING){
 			if (Robot.elevSubSys.isLowerLmtSw_NotPressed()) {
@@ -193,6 +239,48 @@ public class ElevToPosCmd extends Command {
 		
     }
 
+    // One profile sample per loop until the profile is over
+    private void executeProfile() {
+		double t = mProfTmr.get();
+		int i = mProfile.indexAt(t);
+		if (t < mProfile.getDuration()) {
+			Robot.elevSubSys.elevFollowProfile(mProfile.getPos(i), mProfile.getVel(i), mProfile.getAcc(i));
+			return;
+		}
+		finishMove(t > (mProfile.getDuration() + PROFILE_SETTLE_TIME));
+    }
+
+    // The move itself is over: Top and Bottom creep on to their limit switch,
+	// positions hold once within tolerance (or when told to give up settling)
+    private void finishMove(boolean giveUp) {
+		if (moveState == MoveState.MOVING_TO_TOP) {
+			if (Robot.elevSubSys.isUpperLmtSw_NotPressed()) {
+				Robot.elevSubSys.elevRaiseBySpeed(ElevSubSys.KRaiseSlowSpeed);
+			} else {
+				Robot.elevSubSys.elevHoldMtr();
+				moveState = MoveState.DONE;
+			}
+			return;
+		}
+		if (moveState == MoveState.MOVING_TO_BOTTOM) {
+			if (Robot.elevSubSys.isLowerLmtSw_NotPressed()) {
+				Robot.elevSubSys.elevMoveMtr(ElevSubSys.KLowerSlowSpeed, ElevSubSys.ElevDir.LOWERING);
+			} else {
+				Robot.elevSubSys.elevStopMtr();
+				moveState = MoveState.DONE;
+			}
+			return;
+		}
+
+		if ((Math.abs(mCurrPos - mTgtPos) <= PROFILE_POS_TOL) || giveUp) {
+			Robot.elevSubSys.elevHoldMtr();
+			moveState = MoveState.DONE;
+			return;
+		}
+		// still settling, keep pushing toward the final sample
+		Robot.elevSubSys.elevFollowProfile(mTgtPos, 0, 0);
+    }
+
     // Make this return true when this Command no longer needs to run execute()
     @Override
     protected boolean isFinished() {
@@ -13,6 +13,7 @@ package robot.commands;
 //import robot.subsystems.*;
 import edu.wpi.first.wpilibj.command.Command;
 import robot.Robot;
+import robot.utils.LoopProfiler;
 import edu.wpi.first.wpilibj.Joystick;
 
 /**
@@ -118,7 +119,12 @@ public class driveByJoystickCmd extends Command {
     // Called repeatedly when this Command is scheduled to run
     @Override
     protected void execute() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
+        drive();
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.DRIVE_JOY_CMD, t0);
+    }
 
+    private void drive() {
         if (joyType == JoyType.JOY) {
             if (Robot.oi.driverJoystick.getRawButton(JOY_TRIGGER_BTN) == true){
                 //System.out.printf(" y=%g  twist=%g \n\r ",ctrlr.getY(),ctrlr.getTwist());
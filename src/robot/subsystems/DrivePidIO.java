@@ -0,0 +1,18 @@
+package robot.subsystems;
+
+import robot.utils.SuperPid;
+
+/**
+ * What DriveStraightPid and DriveRotatePid read and drive. Drivetrain is
+ * the one on the robot (with its logging and PID status around the calls),
+ * DriveSimHarness puts DriveSimPlant behind one.
+ */
+public interface DrivePidIO {
+    double getAverageDist();                               // inches since the encoders were reset
+    double getGyroYaw();                                   // deg CW, as Drivetrain.getGyroYaw()
+    double getHeadingCorrection();                         // arcade rotation holding the heading
+    void arcadeDrive(double pwr, double rotation);         // DifferentialDrive.arcadeDrive, no negation
+    void tankDrive(double left, double right);             // DifferentialDrive.tankDrive, no negation
+    void updatePidStatus(SuperPid pid, SuperPid.PidStatus status,
+                         double input, double rawOutput, double pidOut, double setpoint);
+}
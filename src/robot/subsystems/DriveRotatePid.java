@@ -0,0 +1,48 @@
+package robot.subsystems;
+
+import robot.utils.SuperPid;
+
+/**
+ * Drivetrain.pidRotateTo's loop: point turn on the gyro yaw, wrapped at
+ * +/-180, bang-bang on small outputs, stops inside 1 degree.
+ */
+public class DriveRotatePid extends SuperPid {
+    private final DrivePidIO mIO;
+
+    public DriveRotatePid(DrivePidIO io, double degrees, double Kp, double Ki, double Kd, double Kf,
+                          double maxPwr, double bbUpper, double bbLower) {
+        super(validateDeg(degrees), Kp, Ki, Kd, Kf);
+        mIO = io;
+        mOptions.setKeepRunningCriteria(false, 1);
+        mOptions.setBangBang(true, bbUpper, bbLower);
+        mOptions.setInputWrap(true, -180, +180);
+        mOptions.setRamping(false, 4);
+        mOptions.setOutputRange(maxPwr, -maxPwr); 	// Limit output (speed)
+    }
+
+    @Override
+    public void applyPidOutput(double output) {
+        mIO.tankDrive(output, -output);
+    }
+
+    @Override
+    public double getPidInput() {
+        return mIO.getGyroYaw();
+    }
+
+    @Override
+    public void updatePidStatus(SuperPid.PidStatus status, double input, double rawOutput, double pidOut, double setpoint) {
+        mIO.updatePidStatus(this, status, input, rawOutput, pidOut, setpoint);
+    }
+
+    // ------- Limit degrees -------
+    private static double validateDeg(double deg) {
+        if (deg > 180) {
+            deg = 180;
+        }
+        if (deg < -180) {
+            deg = -180;
+        }
+        return deg;
+    }
+}
@@ -0,0 +1,68 @@
+package robot.subsystems;
+
+import edu.wpi.first.wpilibj.Timer;
+import robot.utils.GyroIO;
+import robot.utils.MotorIO;
+import robot.utils.SensorReadStats;
+import robot.utils.SwitchIO;
+
+/**
+ * The drivetrain's sensors, read once at the top of Drivetrain.periodic().
+ * Everything on the robot thread for the rest of the cycle (calcStats,
+ * logging, the dashboard, commands) gets these values instead of going
+ * back to the devices.
+ *
+ * Drivetrain keeps two and swaps them each cycle, so one handed out by
+ * getSensors() holds still until the cycle after next. The devices come
+ * in through MotorIO / GyroIO / SwitchIO: the real ones on the robot
+ * (HardwareIO), DriveSimPlant's in DriveSimHarness.
+ */
+public final class DriveSensors {
+    public static final int NUM_READS = 8;
+
+    private final MotorIO mLeft, mRight;                   // the Talons with the encoders
+    private final GyroIO mAhrs;
+    private final SwitchIO mClimbExtend, mClimbRetract;
+
+    private double mTime;
+    private int mLeftPos, mRightPos, mLeftVel, mRightVel;
+    private double mYaw;                                   // raw NavX yaw
+    private boolean mClimbExtendSw, mClimbRetractSw;
+
+    public DriveSensors(MotorIO left, MotorIO right, GyroIO ahrs, SwitchIO climbExtend, SwitchIO climbRetract) {
+        mLeft = left;
+        mRight = right;
+        mAhrs = ahrs;
+        mClimbExtend = climbExtend;
+        mClimbRetract = climbRetract;
+    }
+
+    public void read() {
+        mTime = Timer.getFPGATimestamp();
+        mLeftPos = mLeft.getSelectedSensorPosition(0);
+        mRightPos = mRight.getSelectedSensorPosition(0);
+        mLeftVel = mLeft.getSelectedSensorVelocity(0);
+        mRightVel = mRight.getSelectedSensorVelocity(0);
+        mYaw = mAhrs.getYaw();
+        mClimbExtendSw = mClimbExtend.get();
+        mClimbRetractSw = mClimbRetract.get();
+        SensorReadStats.fetched(NUM_READS);
+    }
+
+    // The encoders were just zeroed. Reading them back now would still get
+    // the old counts (the Talons' next Feedback0 frame has the 0), so zero
+    // ours for the rest of the cycle; the next read() picks up the devices.
+    void encodersReset() {
+        mLeftPos = 0;
+        mRightPos = 0;
+    }
+
+    public double getTime()             { return mTime; }
+    public int getLeftPos()             { SensorReadStats.served(); return mLeftPos; }
+    public int getRightPos()            { SensorReadStats.served(); return mRightPos; }
+    public int getLeftVel()             { SensorReadStats.served(); return mLeftVel; }
+    public int getRightVel()            { SensorReadStats.served(); return mRightVel; }
+    public double getYaw()              { SensorReadStats.served(); return mYaw; }
+    public boolean getClimbExtendSw()   { SensorReadStats.served(); return mClimbExtendSw; }
+    public boolean getClimbRetractSw()  { SensorReadStats.served(); return mClimbRetractSw; }
+}
@@ -0,0 +1,65 @@
+package robot.subsystems;
+
+import robot.utils.SuperPid;
+
+/**
+ * Drivetrain.driveStraightPid's loop: distance PID on the average encoder
+ * distance with a ramped setpoint, output limited by how far it goes, and
+ * the heading held through arcadeDrive's rotation.
+ */
+public class DriveStraightPid extends SuperPid {
+    private final DrivePidIO mIO;
+
+    // rampRate is the setpoint move per 50 ms (Drivetrain.KMOVERT_STRAIGHT)
+    public DriveStraightPid(DrivePidIO io, double distance, double Kp, double Ki, double Kd, double Kf,
+                            double rampRate) {
+        super(distance, Kp, Ki, Kd, Kf);
+        mIO = io;
+        mOptions.setKeepRunningCriteria(true, distance * .01 );
+        mOptions.setRamping(true, rampRate);							// use ramping
+        //mOptions.setOutputRange(KMAXOUT_STRAIGHT, -KMAXOUT_STRAIGHT); 	// Limit output (speed)
+        if (distance > 96) {
+        	mOptions.setOutputRange(0.8, -0.8); 	// Limit output (speed)
+        } else if ( distance >= 20) {
+        	mOptions.setOutputRange(0.75, -0.75); 	// Limit output (speed)
+        } else {
+        	mOptions.setOutputRange(0.7, -0.7); 	// Limit output (speed)
+        }
+        
+        //mOptions.setBangBang(true, KBBANG_UPPER_STRAIGHT, KBBANG_LOWER_STRAIGHT);
+        mOptions.setBangBang(false, 0, 0);
+    }
+
+    @Override
+    public void applyPidOutput(double output) {
+        mIO.arcadeDrive(output, mIO.getHeadingCorrection());
+    }
+
+    @Override
+    public double getPidInput() {
+        return mIO.getAverageDist();
+    }
+
+    @Override
+    public void updatePidStatus(SuperPid.PidStatus status, double input, double rawOutput, double pidOut, double setpoint) {
+        mIO.updatePidStatus(this, status, input, rawOutput, pidOut, setpoint);
+    }
+
+    // Arcade rotation that turns back to tgtYaw (deg CW): proportional to
+    // the wrapped error, limited to +/- limit
+    public static double headingCorrection(double tgtYaw, double yaw, double kCorr, double limit) {
+        double yawerr = tgtYaw - yaw;
+        if (yawerr > 180)  { yawerr -= 360; }
+        if (yawerr < -180) { yawerr += 360; }
+        double correctionValue = yawerr * kCorr;
+        // -- Test for exceeding limits --
+        if (correctionValue < 0) {
+            if (correctionValue < (-limit)) {
+                correctionValue = -limit;
+            }
+        } else if (correctionValue > limit) {
+            correctionValue = limit;
+        }
+        return correctionValue;
+    }
+}
@@ -43,6 +43,7 @@ import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 //import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 import com.kauailabs.navx.frc.AHRS;
 import edu.wpi.first.wpilibj.SPI;
+import edu.wpi.first.wpilibj.Timer;
 import robot.utils.*;
 
 /**
@@ -74,6 +75,11 @@ public class Drivetrain extends Subsystem {
     
     private AHRS mAHRS = new AHRS(SPI.Port.kMXP);
 
+    // Encoders, NavX and climb switches read once per cycle (see DriveSensors)
+    private DriveSensors mSensors;
+    private DriveSensors mSpareSensors;
+    private final PidIO mPidIO = new PidIO();              // what the drive PIDs run through
+
     public enum XBoxLRMode { LEFT, RIGHT };
     private XBoxLRMode xBoxLRMode = XBoxLRMode.RIGHT;	// this keeps track of our current drive mode
 
@@ -84,6 +90,24 @@ public class Drivetrain extends Subsystem {
     public enum DrivePIDStatus {INIT, RUNNING, DONE, STOPPED, ATEND };
     private DrivePIDStatus mDrivePIDStatus = DrivePIDStatus.INIT;
     private SuperPid mSuperPid = null;				// PID Controller
+    private double mLoopDt = 0.02;					// time since last calcStats, the PID's dt
+    private static final int PID_TRACE_FILES = 10;		// pid_fwd_00.bin .. pid_rot_09.bin, oldest reused
+    private int mPidTraceNum = 0;
+
+    // Talon Motion Magic for drive straight (Preferences Drive_60..67). When
+    // enabled and configured driveStraightPid runs the move on the top Talons
+    // with the others following, otherwise it uses the SuperPid.
+    private TalonMotionMagic mLeftMM, mRightMM;
+    private boolean mMMActive = false;
+    private double mMMTgtDist = 0;
+    private boolean mMMPhaseChecked = false;
+    private static final double MM_KP = 0.025;					// 0.05 pwr (51) per inch (~2000 counts)
+    private static final double MM_KF = 0.034;					// 1023 / counts per 100ms at full pwr (~150 in/sec)
+    private static final double MM_CRUISE = 100;				// in/sec
+    private static final double MM_ACCEL = 150;					// in/sec^2
+    private static final double MM_STOP_SPEED = 2.0;			// in/sec, stopped once in tolerance and this slow
+    private static final boolean LEFT_SENSOR_PHASE = true;
+    private static final boolean RIGHT_SENSOR_PHASE = false;
     
     static public double TGT_STRAIGHT = 0;			// Target Distance
     static public double TGT_STRAIGHT_HDG = 0;		// Target HDG    
@@ -102,7 +126,7 @@ public class Drivetrain extends Subsystem {
     static public double TGT_ROT = 0;				// Rotation Tgt Angle
     static public double KP_ROT = 0.048;			// Point Turn P constant
     static public double KI_ROT = 0.000;			// Point Turn I constant	
-    static private double KD_ROT = 0.14;			// Point Turn D constant
+    static public double KD_ROT = 0.14;			// Point Turn D constant
     static public double KF_ROT = 0.000;			// Point Turn F constant
     static public double ROT_MAX_PWR = 0.75;			// PID Min Max Output
     static public double ROT_MOVE_RATE =  3.0;		// PID Setpoint Rate
@@ -154,8 +178,8 @@ public class Drivetrain extends Subsystem {
 
     // These gyro correction values may need to be tweaked based on floor type,
     //private static double GYROCORRCNST = 0.400;   // 0.155 maybe lower than ideal??
-    private static double GYROCORRLIMIT = 0.000;
-    private static double GYROCORRCNST = -0.00;   // 0.155 maybe lower than ideal??
+    static public double GYROCORRLIMIT = 0.000;
+    static public double GYROCORRCNST = -0.00;   // 0.155 maybe lower than ideal??
 
     private double gyroCorrection, gyroCorrectedLeft, gyroCorrectedRight;
     double tgtHdg, lastTgtHdg;
@@ -166,8 +190,8 @@ public class Drivetrain extends Subsystem {
     //private String[] motorModeDesc = {"Coasting", "DriveByJoystick", "Arcade", "Straight", "TankDrive", "PID Fwd", 
     //                                    "PID Rotate", "Velocity" , "DualPidToCoord", "Other"};
     private double m_Zone;
-    private String[] zoneDesc = {"Coasting", "FwdCmd", "PtTurn", "PID Fwd", "PID Rot", "Joystick", "Fwd2Cmd",
-                                "ArcTurn", "Velocity", "Braking", "ArcFollower", "DualPidToCoord", "Other"};	
+    // zone descriptions now live in DriveTelemetry.ZONE_DESC
+    private DriveTelemetry mTelemetry = new DriveTelemetry();	// filled in place by logDrivetrain()
 
     private double mTgtDist, mTgtYaw, mTgtDistRemain, mTgtYawRemain ;
     private double mCurrYaw ;
@@ -193,8 +217,29 @@ public class Drivetrain extends Subsystem {
     private double mLastGyroYaw = 0;			// Used to calculate gyro rot rate
     private double mYawRate = 0;
     
-    // PHS: making the position tracker a full fledged object
-    PositionTracker posnTracker ;
+    // 200 Hz encoder + NavX odometry on its own Notifier thread, the pose
+    // calcStats() and the commands use
+    private OdometryService mOdometry = new OdometryService(this, WHEELBASE);
+    private static final int ODOMETRY_FEEDBACK_MS = 5;     // encoder frames as fast as the odometry reads them
+    private static final int CURRENT_FEEDBACK_MS = 20;     // follower current (Feedback0), read by calcStats every loop
+    private double[] mOdomSnap = new double[OdometryService.SIZE];
+    private double[] mLastOdomSnap = new double[OdometryService.SIZE];
+    private boolean mHaveLastOdom = false;
+    // live pose = pose at the last calcStats + the odometry's motion since,
+    // see setPoseCorrection() (robot thread only)
+    private double[] mLiveSnap = new double[OdometryService.SIZE];
+    private double mCorrRefX, mCorrRefY, mCorrX, mCorrY, mCorrYaw;
+
+    // Timestamped poses so latency compensated sensors (vision) can ask
+    // where we were when their measurement was taken
+    private static final int POSE_HISTORY_SIZE = 128;      // ~2.5 sec at 50 Hz
+    private PoseHistory mPoseHistory = new PoseHistory(POSE_HISTORY_SIZE);
+
+    // Kalman filter fusing encoders, NavX and vision. When USE_POSE_ESTIMATOR
+    // is set its pose drives getPositionX/Y and vision fixes are blended in
+    // by covariance instead of overwriting the position tracker.
+    public static final boolean USE_POSE_ESTIMATOR = true;
+    private PoseEstimator mPoseEst = new PoseEstimator(WHEELBASE);
 
     //private double mLastYaw = 0;			// Used to calculate gyro rot rate
     private double mGyroAngleRate = 0;
@@ -303,6 +348,23 @@ public class Drivetrain extends Subsystem {
 
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CONSTRUCTORS
     
+        // encoders are on the T Talons, the rest just follow along (but their
+        // currents are logged, so they keep Feedback0 at the loop rate)
+        CanFrameProfile.apply(leftTMtr, CanFrameProfile.Role.LEADER_SENSOR, ODOMETRY_FEEDBACK_MS);
+        CanFrameProfile.apply(rightTMtr, CanFrameProfile.Role.LEADER_SENSOR, ODOMETRY_FEEDBACK_MS);
+        CanFrameProfile.apply(leftFMtr, CanFrameProfile.Role.FOLLOWER, CURRENT_FEEDBACK_MS);
+        CanFrameProfile.apply(leftRMtr, CanFrameProfile.Role.FOLLOWER, CURRENT_FEEDBACK_MS);
+        CanFrameProfile.apply(rightFMtr, CanFrameProfile.Role.FOLLOWER, CURRENT_FEEDBACK_MS);
+        CanFrameProfile.apply(rightRMtr, CanFrameProfile.Role.FOLLOWER, CURRENT_FEEDBACK_MS);
+        CanFrameProfile.apply(climbMotor, CanFrameProfile.Role.OPEN_LOOP);
+        MotorIO leftEnc = HardwareIO.talon(leftTMtr);
+        MotorIO rightEnc = HardwareIO.talon(rightTMtr);
+        GyroIO gyro = HardwareIO.navx(mAHRS);
+        SwitchIO climbExtend = HardwareIO.input(climbExtendSwitch);
+        SwitchIO climbRetract = HardwareIO.input(climbRetractSwitch);
+        mSensors = new DriveSensors(leftEnc, rightEnc, gyro, climbExtend, climbRetract);
+        mSpareSensors = new DriveSensors(leftEnc, rightEnc, gyro, climbExtend, climbRetract);
+        readSensors();
         compressor.setClosedLoopControl(true);
 
         //leftFMtr
@@ -347,19 +409,16 @@ public class Drivetrain extends Subsystem {
         rightTMtr.enableCurrentLimit(DRIVE_MTR_CURRENT_LIMIT_FLAG);         // Turn on current limiting
         rightTMtr.configOpenloopRamp(DRIVE_VOLT_RAMP_RATE);                  // Voltage TRamp Rate limiter
 
-        //posnTracker = new PositionTracker(this, WHEELBASE) ;
-         posnTracker = new PositionTracker(this, WHEELBASE, 
-                                                 Field_Position_Startup_X,
-                                                 Field_Position_Startup_Y,
-                                                 Field_Position_Startup_O);
         initVar(); 								// Initialize variables to zero
         initEncoders();
         resetEncodersAndStats();
         //mTgtYaw = mAHRS.getYaw();
         mTgtYaw = mAHRS.getYaw() + Field_Position_Startup_O ;
         
-        differentialDrive.setSafetyEnabled(false);		// possibly remove this line may not be needed
+        configureDrive(differentialDrive);
         getGyroPrefs();
+        initMotionMagic();
+        mOdometry.start();
     }
 
     // Initialize variables at construction
@@ -374,9 +433,9 @@ public class Drivetrain extends Subsystem {
         mLogCoastFlag = false;
         clearPIDdata();
         //posnTracker.init(true);
-        posnTracker.init(Field_Position_Startup_X,
-                         Field_Position_Startup_Y,
-                         Field_Position_Startup_O);
+        resetPose(Field_Position_Startup_X,
+                  Field_Position_Startup_Y,
+                  Field_Position_Startup_O);
         avgVelMinus1 = 0;
         avgVelMinus2 = 0;
         avgVelMinus3 = 0;
@@ -393,7 +452,11 @@ public class Drivetrain extends Subsystem {
 
     @Override
     public void periodic() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
         // Put code here to be run every loop
+        SensorReadStats.endCycle();
+        readSensors();                  // everything this cycle uses these values
+
         if (trans == Gear.HI) {
             gearShiftValve.set(true);
         } else {
@@ -401,6 +464,11 @@ public class Drivetrain extends Subsystem {
         }
         
         calcStats();                    // Calculate current stats for position and speed
+        if (mMMActive) {
+            stepMotionMagicStraight();
+        } else if (mSuperPid != null) {
+            mSuperPid.step(mLoopDt);    // PID runs here, after the sensors are read
+        }
 
         if ( displayCtr % 5 == 0) update_SmartDashboard();      // Update dsiplay every 100 ms
         displayCtr++;
@@ -409,6 +477,8 @@ public class Drivetrain extends Subsystem {
             // We have motion (Coasting) so log
             logDrivetrain();
         }
+
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.DRIVETRAIN, t0);
     }
 
     // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CMDPIDGETTERS
@@ -445,6 +515,14 @@ public class Drivetrain extends Subsystem {
     	logDrivetrain();
     }
     
+    // How the drive is set up once constructed; DriveSimHarness sets its
+    // DifferentialDrive up the same way
+    public static void configureDrive(DifferentialDrive drive) {
+        drive.setExpiration(0.1);
+        drive.setMaxOutput(1.0);
+        drive.setSafetyEnabled(false);		// possibly remove this line may not be needed
+    }
+
     public void stopMtrs() {
     	m_Zone = 0;
         motorMode = 0;
@@ -493,7 +571,7 @@ public class Drivetrain extends Subsystem {
     // ----------------- Climb Methods -------------------------------
     // ---------------------------------------------------------------------
     public boolean isClimbExtended() {
-        if (climbExtendSwitch.get() == CLIMB_EXTENDED_SWITCH_PRESSED ) {
+        if (mSensors.getClimbExtendSw() == CLIMB_EXTENDED_SWITCH_PRESSED ) {
             return true ;
         }
         else {
@@ -503,7 +581,7 @@ public class Drivetrain extends Subsystem {
     }
 
     public boolean isClimbRetracted() {
-        if (climbRetractSwitch.get() == CLIMB_RETRACTED_SWITCH_PRESSED) {
+        if (mSensors.getClimbRetractSw() == CLIMB_RETRACTED_SWITCH_PRESSED) {
             return true ;
         }
         else {
@@ -557,13 +635,15 @@ public class Drivetrain extends Subsystem {
     // ------------------------------------------------------------------------
     // ------------------------ Encoder Methods -------------------------------
     void initEncoders() {
-		leftTMtr.setSensorPhase(true);   
-        rightTMtr.setSensorPhase(false);
+		leftTMtr.setSensorPhase(LEFT_SENSOR_PHASE);   
+        rightTMtr.setSensorPhase(RIGHT_SENSOR_PHASE);
     }
 
     public void resetEncodersAndStats() {				// Set Encoders to zero
     	rightTMtr.getSensorCollection().setQuadraturePosition(0, 10);    	
     	leftTMtr.getSensorCollection().setQuadraturePosition(0, 10);
+        mSensors.encodersReset();								// rest of this cycle reads 0 too
+        mOdometry.encodersReset();
     	
         leftStats.clearStats();
         rightStats.clearStats();
@@ -571,9 +651,10 @@ public class Drivetrain extends Subsystem {
         lastTime = Robot.sysTimer.get();
         //getPIDPrefs();
         //posnTracker.init(false);
-        posnTracker.init(Field_Position_Startup_X,
-                         Field_Position_Startup_Y,
-                         Field_Position_Startup_O);
+        resetPose(Field_Position_Startup_X,
+                  Field_Position_Startup_Y,
+                  Field_Position_Startup_O);
+        mPoseHistory.clear();
     }
     
     public void resetPosition(boolean mode) {
@@ -581,9 +662,9 @@ public class Drivetrain extends Subsystem {
     	//      false - Sets position to continue next segment
     	resetEncodersAndStats();
         //posnTracker.init(mode);
-        posnTracker.init(Field_Position_Startup_X,
-                         Field_Position_Startup_Y,
-                         Field_Position_Startup_O);    	
+        resetPose(Field_Position_Startup_X,
+                  Field_Position_Startup_Y,
+                  Field_Position_Startup_O);
     }
   
     public void setFieldPosition(Position newPos) {
@@ -591,27 +672,106 @@ public class Drivetrain extends Subsystem {
     	//      false - Sets position to continue next segment
     	//resetEncodersAndStats();
         //posnTracker.init(mode);
-        posnTracker.init(newPos.x, newPos.y, newPos.orientCW);
+        resetPose(newPos.x, newPos.y, newPos.orientCW);
+        mPoseHistory.clear();
     }
-    
-    public robot.utils.PositionTracker.Posn getCurrPosition() {
-        robot.utils.PositionTracker.Posn posn = posnTracker.getPosition();
-    	return posn;
+
+    // Odometry and estimator to a new field pose (yaw deg CW). The odometry
+    // takes it on its next run, so getPose() is pinned to it from the latest
+    // raw snapshot until calcStats() sees the result.
+    private void resetPose(double x, double y, double yawDegCW) {
+        mOdometry.reset(x, y, yawDegCW);
+        mPoseEst.reset(x, y, yawDegCW, getGyroYaw());
+        mHaveLastOdom = false;
+        if (mOdometry.getSnapshot(mLiveSnap)) {
+            setPoseCorrection(mLiveSnap, x, y, yawDegCW);
+        }
+    }
+
+    // getPose() = (x, y) + the raw odometry motion since snap, turned so the
+    // raw yaw at snap lines up with yawDegCW
+    private void setPoseCorrection(double[] snap, double x, double y, double yawDegCW) {
+        mCorrRefX = snap[OdometryService.RAW_X];
+        mCorrRefY = snap[OdometryService.RAW_Y];
+        mCorrYaw = Rmath.constrainDeg0To180(yawDegCW - snap[OdometryService.RAW_YAW]);
+        mCorrX = x;
+        mCorrY = y;
+    }
+
+    public PoseEstimator getPoseEstimator()     { return mPoseEst; }
+
+    public void logOdometryJitter() {
+        Robot.logger.appendLog(mOdometry.getJitterReport());
+        Robot.logger.appendLog(CanFrameProfile.getReport());
+    }
+
+    // Interpolated x, y, gyro yaw at an earlier FPGA time (Timer.getFPGATimestamp())
+    // into pose[0..2]. Returns false if that time is older than the history.
+    public boolean getPoseAt(double fpgaTime, double[] pose) {
+        return mPoseHistory.getPoseAt(fpgaTime, pose);
     }
     
+    // As of this cycle's calcStats()
     public double getPositionX()            { return avgStats.currXpos; }
     public double getPositionY()            { return avgStats.currYpos; }
     public double getPositionZ()            { return avgStats.currGyroYaw; }
     public double getTrackerYaw()           { return avgStats.mCurrTrackerYaw; }
+
+    // Latest pose from the odometry thread, pose[0..3] = x, y (in), yaw
+    // (deg CW, like getTrackerYaw), FPGA time; x and y carry the estimator's
+    // corrections. All from one snapshot. Returns false (this cycle's pose
+    // instead) if the odometry has nothing newer.
+    public boolean getPose(double[] pose) {
+        if (!mOdometry.getSnapshot(mLiveSnap)) {
+            pose[0] = avgStats.currXpos;
+            pose[1] = avgStats.currYpos;
+            pose[2] = avgStats.mCurrTrackerYaw;
+            pose[3] = Timer.getFPGATimestamp();
+            return false;
+        }
+        double dx = mLiveSnap[OdometryService.RAW_X] - mCorrRefX;
+        double dy = mLiveSnap[OdometryService.RAW_Y] - mCorrRefY;
+        double c = Math.cos(Math.toRadians(mCorrYaw)), s = Math.sin(Math.toRadians(mCorrYaw));
+        pose[0] = mCorrX + (dx * c) + (dy * s);
+        pose[1] = mCorrY - (dx * s) + (dy * c);
+        pose[2] = mLiveSnap[OdometryService.YAW];
+        pose[3] = mLiveSnap[OdometryService.TIME];
+        return true;
+    }
+
+    // The same in the LineFollow / ...ToXY units: x, y ft, orientation deg CCW
+    public boolean getPoseFt(double[] pose) {
+        boolean live = getPose(pose);
+        pose[0] /= 12.0;
+        pose[1] /= 12.0;
+        pose[2] = mInitialOrientationDegCCW - pose[2];
+        return live;
+    }
     
-    public int getLeftEncoder() 			{ return leftTMtr.getSelectedSensorPosition(0); }
-    public int getRightEncoder()			{ return rightTMtr.getSelectedSensorPosition(0); }
+    // ------------- Sensor snapshot -----------------  
+    private void readSensors() {
+        DriveSensors next = mSpareSensors;
+        next.read();
+        mSpareSensors = mSensors;
+        mSensors = next;
+    }
+
+    public DriveSensors getSensors()        { return mSensors; }
+
+    public int getLeftEncoder() 			{ return mSensors.getLeftPos(); }
+    public int getRightEncoder()			{ return mSensors.getRightPos(); }
 
-    public int getLeftEncoderVel() 			{ return leftTMtr.getSelectedSensorVelocity(0); }
-    public int getRightEncoderVel()			{ return rightTMtr.getSelectedSensorVelocity(0); }    
+    public int getLeftEncoderVel() 			{ return mSensors.getLeftVel(); }
+    public int getRightEncoderVel()			{ return mSensors.getRightVel(); }    
     
     public double getLeftEncoderDist()		{ return (getLeftEncoder() * k_EncConvConst); }
     public double getRightEncoderDist()		{ return (getRightEncoder() * k_EncConvConst); }
+
+    // Straight from the devices, for OdometryService's own thread
+    public double getLeftEncoderDistNow()	{ return (leftTMtr.getSelectedSensorPosition(0) * k_EncConvConst); }
+    public double getRightEncoderDistNow()	{ return (rightTMtr.getSelectedSensorPosition(0) * k_EncConvConst); }
+    public double getGyroYawNow()			{ return mAHRS.getYaw() + Field_Position_Startup_O; }
+
     
     public double getLeftDist()				{ return (leftStats.currDist); }    
     public double getRightDist()			{ return (rightStats.currDist); }    
@@ -654,10 +814,12 @@ public class Drivetrain extends Subsystem {
         if (deltaTime == 0) {
             deltaTime = 0.00000001;			// prevent divide by zero error
         }
+        mLoopDt = deltaTime;
         
         // Calculate Gyro rotation rate 
         mCurrGyroYaw = getGyroYaw();
-        double deltaAngle = mLastGyroYaw - mCurrGyroYaw;
+        // wrapped, crossing +/-180 is a small turn not a 360 deg one
+        double deltaAngle = Rmath.constrainDeg0To180(mLastGyroYaw - mCurrGyroYaw);
         mLastGyroYaw = mCurrGyroYaw;
         mYawRate = deltaAngle / deltaTime;
 
@@ -701,17 +863,61 @@ public class Drivetrain extends Subsystem {
         avgVelMinus1 = avgStats.runningAvgVelocity;
 
         //  ---Calculate Robot position on field---        
-        posnTracker.updatePositions() ;
-        robot.utils.PositionTracker.Posn posn = posnTracker.getPosition() ;
-        avgStats.currXpos=posn.x;
-        avgStats.currYpos=posn.y;
-        avgStats.mCurrTrackerYaw = posn.yaw;
+        // integrated by OdometryService at 200 Hz, this loop only takes its
+        // latest snapshot and moves the estimator by the arcs since the last
+        boolean haveOdom = mOdometry.getSnapshot(mOdomSnap);
+        double poseTime = Timer.getFPGATimestamp();
+        double poseGyro = mCurrGyroYaw;
+        if (haveOdom) {
+            avgStats.currXpos = mOdomSnap[OdometryService.X];
+            avgStats.currYpos = mOdomSnap[OdometryService.Y];
+            avgStats.mCurrTrackerYaw = mOdomSnap[OdometryService.YAW];
+            poseTime = mOdomSnap[OdometryService.TIME];
+            poseGyro = mOdomSnap[OdometryService.GYRO];
+            if (mHaveLastOdom && (poseTime > mLastOdomSnap[OdometryService.TIME])) {
+                predictFromOdometry(mLastOdomSnap, mOdomSnap);
+                mPoseEst.updateGyroYaw(poseGyro);
+            }
+            mHaveLastOdom = true;
+        }
         avgStats.currGyroYaw = mCurrGyroYaw ; 
 
+        double corrYaw = avgStats.mCurrTrackerYaw;
+        if (USE_POSE_ESTIMATOR) {
+            avgStats.currXpos = mPoseEst.getX();
+            avgStats.currYpos = mPoseEst.getY();
+            corrYaw = mPoseEst.getYawDegCW();
+        }
+        if (haveOdom) {
+            // the live pose (getPose) runs on from here
+            setPoseCorrection(mOdomSnap, avgStats.currXpos, avgStats.currYpos, corrYaw);
+            double[] swap = mLastOdomSnap;
+            mLastOdomSnap = mOdomSnap;
+            mOdomSnap = swap;
+        }
+        mPoseHistory.record(poseTime, avgStats.currXpos, avgStats.currYpos, poseGyro);
+
         //update_Pwr_Stats();
         //check_Need_To_Log_Currents();
     }
 
+    // Estimator predict over the odometry between two snapshots, as motion in
+    // the robot's frame at the first one (the raw frame is never reset)
+    private void predictFromOdometry(double[] from, double[] to) {
+        double dt = to[OdometryService.TIME] - from[OdometryService.TIME];
+        double yaw0 = -Math.toRadians(from[OdometryService.RAW_YAW]);      // CCW
+        double dx = to[OdometryService.RAW_X] - from[OdometryService.RAW_X];
+        double dy = to[OdometryService.RAW_Y] - from[OdometryService.RAW_Y];
+        double fwd = (-dx * Math.sin(yaw0)) + (dy * Math.cos(yaw0));
+        double left = (-dx * Math.cos(yaw0)) - (dy * Math.sin(yaw0));
+        double dYaw = -Math.toRadians(Rmath.constrainDeg0To180(to[OdometryService.RAW_YAW] - from[OdometryService.RAW_YAW]));
+        double gyroRateCCW = Rmath.constrainDeg0To180(from[OdometryService.GYRO] - to[OdometryService.GYRO]) / dt;
+        mPoseEst.predictBody(fwd, left, dYaw,
+                             to[OdometryService.LEFT] - from[OdometryService.LEFT],
+                             to[OdometryService.RIGHT] - from[OdometryService.RIGHT],
+                             gyroRateCCW, dt);
+    }
+
     private void update_Pwr_Stats(){
         /*
         leftStats.PDP_currentBMtr = Robot.pdp.getCurrent(LEFT_BACK_MOTOR_BRKR);     // Left Back Motor
@@ -803,14 +1009,14 @@ public class Drivetrain extends Subsystem {
 
     public double getGyroHeading() {
         //double hdg = mAHRS.getYaw();
-        double hdg = mAHRS.getYaw() + Field_Position_Startup_O;
+        double hdg = mSensors.getYaw() + Field_Position_Startup_O;
         if (hdg < 0) { hdg += 360; }
         return hdg;
     }
 
     public double getGyroYaw() 	{
         //return mAHRS.getYaw();
-        return mAHRS.getYaw() + Field_Position_Startup_O;
+        return mSensors.getYaw() + Field_Position_Startup_O;
     }
 
     public double getGyroYawRate() { 
@@ -822,18 +1028,7 @@ public class Drivetrain extends Subsystem {
     // ----------------- Calculate Correction ----------------------------------------
     double calcArcadeGyroCorrection() {
         mCurrYaw = getGyroYaw();
-        double yawerr = mTgtYaw - mCurrYaw;
-        if (yawerr > 180)  { yawerr -= 360; }
-        if (yawerr < -180) { yawerr += 360; }
-        double correctionValue = yawerr * GYROCORRCNST;
-        // -- Test for exceeding limits --
-        if (correctionValue < 0) {
-            if (correctionValue < (-GYROCORRLIMIT)) {
-                correctionValue = -GYROCORRLIMIT;
-            }
-        } else if (correctionValue > GYROCORRLIMIT) {
-            correctionValue = GYROCORRLIMIT;
-        }
+        double correctionValue = DriveStraightPid.headingCorrection(mTgtYaw, mCurrYaw, GYROCORRCNST, GYROCORRLIMIT);
         gyroCorrection = correctionValue;							// For Logging purposes
         if (Math.abs(motorPwr) < 0.2) {
         	// correct for over powering at low speeds
@@ -899,69 +1094,114 @@ public class Drivetrain extends Subsystem {
 
     // ------------------------------------------------------------------------
     // ------------------------ Smart Dashboard Methods -----------------------
+    // deadband, and a slower rate budget for things nobody watches live
+    private final DashboardPublisher.Entry
+        dEncLeftCnt = Robot.dashboard.number("Enc-Left Cnt", 0.01),
+        dEncLeftDist = Robot.dashboard.number("Enc-Left Dist", 0.01),
+        dEncRightCnt = Robot.dashboard.number("Enc-Right Cnt", 0.01),
+        dEncRightDist = Robot.dashboard.number("Enc-Right Dist", 0.01),
+        dAvgDist = Robot.dashboard.number("Drivetrain Average Distance", 0.01),
+        dAvgSpeed = Robot.dashboard.number("Drivetrain Average Speed", 0.05),
+        dPosX = Robot.dashboard.number("Rbt X Pos", 0.01),
+        dPosY = Robot.dashboard.number("Rbt Y Pos", 0.01),
+        dPosStdDev = Robot.dashboard.number("Rbt Pos StdDev", 0.05, 0.5),
+        dYawStdDev = Robot.dashboard.number("Rbt Yaw StdDev", 0.05, 0.5),
+        dOdomMaxPeriod = Robot.dashboard.number("Odom Max Period ms", 0.1, 1.0),
+        dSensorReads = Robot.dashboard.number("Sensor Reads/Cycle", 0, 1.0),
+        dSensorSaved = Robot.dashboard.number("Sensor Reads Saved/Cycle", 0, 1.0),
+        dCanUtil = Robot.dashboard.number("CAN Util %", 0.5, 1.0),
+        dDashSent = Robot.dashboard.number("Dash Entries/s", 0, 1.0),
+        dDashBytes = Robot.dashboard.number("Dash Bytes/s", 0, 1.0),
+        dRbtAngle = Robot.dashboard.number("Rbt Angle", 0.05),
+        dGyroYaw = Robot.dashboard.number("Gyro-Yaw", 0.05),
+        dGyroYawRt = Robot.dashboard.number("Gyro-Yaw-Rt", 0.1),
+        dGyroHdg = Robot.dashboard.number("Gyro-Hdg", 0.05),
+        dPosnYaw = Robot.dashboard.number("Posn-Yaw", 0.05),
+        dLEncCnt = Robot.dashboard.number("L Enc Cnt", 0.001),
+        dREncCnt = Robot.dashboard.number("R Enc Cnt", 0.001),
+        dLEncVel = Robot.dashboard.number("L Enc Vel", 0.05),
+        dREncVel = Robot.dashboard.number("R Enc Vel", 0.05),
+        dGear = Robot.dashboard.string("Gear"),
+        dLeftFCurr = Robot.dashboard.number("Left_F_Mtr Curr", 0.1, 0.25),
+        dLeftBCurr = Robot.dashboard.number("Left_B_Mtr Curr", 0.1, 0.25),
+        dLeftTCurr = Robot.dashboard.number("Left_T_Mtr Curr", 0.1, 0.25),
+        dRightFCurr = Robot.dashboard.number("Right_F_Mtr Curr", 0.1, 0.25),
+        dRightBCurr = Robot.dashboard.number("Right_B_Mtr Curr", 0.1, 0.25),
+        dRightTCurr = Robot.dashboard.number("Right_T_Mtr Curr", 0.1, 0.25),
+        dAvgCurr = Robot.dashboard.number("Avg_Mtr Curr", 0.1, 0.25),
+        dRobotState = Robot.dashboard.string("Robot State"),
+        dClimbExt = Robot.dashboard.string("Climb Extended"),
+        dClimbRet = Robot.dashboard.string("Climb Retracted");
+
     void update_SmartDashboard() {
-        SmartDashboard.putNumber("Enc-Left Cnt", Rmath.mRound(leftStats.currEncoder, 2));
-        SmartDashboard.putNumber("Enc-Left Dist", Rmath.mRound(leftStats.currDist, 2));
-        SmartDashboard.putNumber("Enc-Right Cnt", Rmath.mRound(rightStats.currEncoder, 2));
-        SmartDashboard.putNumber("Enc-Right Dist", Rmath.mRound(rightStats.currDist, 2));
-        SmartDashboard.putNumber("Drivetrain Average Distance", Rmath.mRound(avgStats.currDist, 2));
-        SmartDashboard.putNumber("Drivetrain Average Speed", Rmath.mRound(avgStats.currVel, 2));
+        dEncLeftCnt.set(Rmath.mRound(leftStats.currEncoder, 2));
+        dEncLeftDist.set(Rmath.mRound(leftStats.currDist, 2));
+        dEncRightCnt.set(Rmath.mRound(rightStats.currEncoder, 2));
+        dEncRightDist.set(Rmath.mRound(rightStats.currDist, 2));
+        dAvgDist.set(Rmath.mRound(avgStats.currDist, 2));
+        dAvgSpeed.set(Rmath.mRound(avgStats.currVel, 2));
         
-        SmartDashboard.putNumber("Rbt X Pos", Rmath.mRound(avgStats.currXpos, 2));
-        SmartDashboard.putNumber("Rbt Y Pos", Rmath.mRound(avgStats.currYpos, 2));
-        SmartDashboard.putNumber("Rbt Angle", Rmath.mRound(avgStats.mCurrTrackerYaw, 2));
-        SmartDashboard.putNumber("Gyro-Yaw", Rmath.mRound(getGyroYaw(), 2));
-        SmartDashboard.putNumber("Gyro-Yaw-Rt", Rmath.mRound(getGyroYawRate(), 2));
-        SmartDashboard.putNumber("Gyro-Hdg", Rmath.mRound(getGyroHeading(), 2));
-        SmartDashboard.putNumber("Posn-Yaw", Rmath.mRound(avgStats.mCurrTrackerYaw,2)) ;
-
-        SmartDashboard.putNumber("L Enc Cnt", Rmath.mRound(getLeftEncoder(), 3));
-        SmartDashboard.putNumber("R Enc Cnt", Rmath.mRound(getRightEncoder(), 3));
-        SmartDashboard.putNumber("L Enc Vel", Rmath.mRound(leftStats.currVel, 3));
-        SmartDashboard.putNumber("R Enc Vel", Rmath.mRound(rightStats.currVel, 3));
+        dPosX.set(Rmath.mRound(avgStats.currXpos, 2));
+        dPosY.set(Rmath.mRound(avgStats.currYpos, 2));
+        dPosStdDev.set(Rmath.mRound(mPoseEst.getPositionStdDev(), 2));
+        dYawStdDev.set(Rmath.mRound(mPoseEst.getYawStdDevDeg(), 2));
+        dOdomMaxPeriod.set(Rmath.mRound(mOdometry.getMaxPeriod() * 1000, 2));
+        dSensorReads.set(SensorReadStats.getReadsPerCycle());
+        dSensorSaved.set(SensorReadStats.getSavedPerCycle());
+        dCanUtil.set(Rmath.mRound(CanFrameProfile.sampleBusUtilization(), 1));
+        dDashSent.set(Robot.dashboard.getEntriesPerSec());
+        dDashBytes.set(Robot.dashboard.getBytesPerSec());
+        dRbtAngle.set(Rmath.mRound(avgStats.mCurrTrackerYaw, 2));
+        dGyroYaw.set(Rmath.mRound(getGyroYaw(), 2));
+        dGyroYawRt.set(Rmath.mRound(getGyroYawRate(), 2));
+        dGyroHdg.set(Rmath.mRound(getGyroHeading(), 2));
+        dPosnYaw.set(Rmath.mRound(avgStats.mCurrTrackerYaw,2)) ;
+
+        dLEncCnt.set(Rmath.mRound(getLeftEncoder(), 3));
+        dREncCnt.set(Rmath.mRound(getRightEncoder(), 3));
+        dLEncVel.set(Rmath.mRound(leftStats.currVel, 3));
+        dREncVel.set(Rmath.mRound(rightStats.currVel, 3));
 
         if (trans == Gear.HI) {
-            SmartDashboard.putString("Gear", "High Gear");
+            dGear.set("High Gear");
         }
     	else {
-            SmartDashboard.putString("Gear", "Low Gear");
+            dGear.set("Low Gear");
         }
         
-        SmartDashboard.putNumber("Left_F_Mtr Curr",Rmath.mRound(leftStats.PDP_currentFMtr, 3));
-        SmartDashboard.putNumber("Left_B_Mtr Curr",Rmath.mRound(leftStats.PDP_currentBMtr, 3));
-        SmartDashboard.putNumber("Left_T_Mtr Curr",Rmath.mRound(leftStats.PDP_currentTMtr, 3));
-
-        SmartDashboard.putNumber("Right_F_Mtr Curr",Rmath.mRound(rightStats.PDP_currentFMtr, 3));
-        SmartDashboard.putNumber("Right_B_Mtr Curr",Rmath.mRound(rightStats.PDP_currentBMtr, 3));
-        SmartDashboard.putNumber("Right_T_Mtr Curr",Rmath.mRound(rightStats.PDP_currentTMtr, 3));
-
-        SmartDashboard.putNumber("Avg_Mtr Curr",Rmath.mRound(avgStats.PDP_currentAVG, 3));
-
-        if      ( Robot.robotPosState == Robot.RobotPosState.TRAVEL)
-                              SmartDashboard.putString("Robot State", "TRAVEL POS.");
-        else if ( Robot.robotPosState == Robot.RobotPosState.EJECT_MAIN)
-                              SmartDashboard.putString("Robot State", "EJECT_MAIN POS.");
-        else if ( Robot.robotPosState == Robot.RobotPosState.EJECT_ROCKET_MID)
-                              SmartDashboard.putString("Robot State", "EJECT_ROCKET_MID POS.");
-        else if ( Robot.robotPosState == Robot.RobotPosState.EJECT_ROCKET_HIGH)
-                              SmartDashboard.putString("Robot State", "EJECT_ROCKET_HIGH POS.");
-        else if ( Robot.robotPosState == Robot.RobotPosState.EJECT_HATCH_FWD)
-                              SmartDashboard.putString("Robot State", "EJECT_HATCH_FWD POS.");
-        else if ( Robot.robotPosState == Robot.RobotPosState.RETREIVE_CARGO)
-                              SmartDashboard.putString("Robot State", "RETREIVE_CARGO POS.");
-        else if ( Robot.robotPosState == Robot.RobotPosState.RETREIVE_HATCH_FLOOR)
-                              SmartDashboard.putString("Robot State", "RETREIVE_HATCH_FLOOR POS.");
-        else if ( Robot.robotPosState == Robot.RobotPosState.RETREIVE_HATCH_LS)
-                              SmartDashboard.putString("Robot State", "RETREIVE_HATCH_LS POS.");
+        dLeftFCurr.set(Rmath.mRound(leftStats.PDP_currentFMtr, 3));
+        dLeftBCurr.set(Rmath.mRound(leftStats.PDP_currentBMtr, 3));
+        dLeftTCurr.set(Rmath.mRound(leftStats.PDP_currentTMtr, 3));
+
+        dRightFCurr.set(Rmath.mRound(rightStats.PDP_currentFMtr, 3));
+        dRightBCurr.set(Rmath.mRound(rightStats.PDP_currentBMtr, 3));
+        dRightTCurr.set(Rmath.mRound(rightStats.PDP_currentTMtr, 3));
+
+        dAvgCurr.set(Rmath.mRound(avgStats.PDP_currentAVG, 3));
+
+        switch (Robot.robotPosState) {
+            case TRAVEL:
+            case EJECT_MAIN:
+            case EJECT_ROCKET_MID:
+            case EJECT_ROCKET_HIGH:
+            case EJECT_HATCH_FWD:
+            case RETREIVE_CARGO:
+            case RETREIVE_HATCH_FLOOR:
+            case RETREIVE_HATCH_LS:
+                dRobotState.set(Robot.robotPosState + " POS.");
+                break;
+            default:
+                break;
+        }
 
         if (isClimbExtended())
-            SmartDashboard.putString("Climb Extended", "PRESSED");
+            dClimbExt.set("PRESSED");
         else
-            SmartDashboard.putString("Climb Extended", "NOT PRESSED");
+            dClimbExt.set("NOT PRESSED");
         if (isClimbRetracted())
-            SmartDashboard.putString("Climb Retracted", "PRESSED");
+            dClimbRet.set("PRESSED");
         else
-            SmartDashboard.putString("Climb Retracted", "NOT PRESSED");
+            dClimbRet.set("NOT PRESSED");
     }
     
     private void clearPIDdata() {
@@ -974,90 +1214,86 @@ public class Drivetrain extends Subsystem {
 
     public void clearPositionData(boolean flag){
         //posnTracker.init(flag);
-        posnTracker.init(Field_Position_Startup_X,
-                         Field_Position_Startup_Y,
-                         Field_Position_Startup_O);
+        resetPose(Field_Position_Startup_X,
+                  Field_Position_Startup_Y,
+                  Field_Position_Startup_O);
+        mPoseHistory.clear();
     }
     
     public void setLoggingOn()	{ m_LogFlag = true; }
     public void setLoggingOff() { m_LogFlag = false; }
 
     // ----------- Log Drivetrain data --------------------
+    // Fills the telemetry record in place, the CSV text is built off-robot
+    // by LogDecoder (see DriveTelemetry.toCsv)
     public void logDrivetrain() {
 
     	// ----------- Check to see if we should just exit and not log ----------------
         if (m_LogFlag == false) { return; }						                // Do not log travel data
         if ((rightStats.currVel == 0) && (leftStats.currVel == 0)) { return; }	// No motion so don't log
-        // ---------- Build Print String -----------------
-        line = "";
-        // ---------- Show Zone Description ------------
-        if ((m_Zone >=  0) && (m_Zone <= 11)) {
-        	line += zoneDesc[(int) m_Zone] ;
-        } else {
-        	line += zoneDesc[12] ;		// Other
-        }
 
-        // ------------ Show Current/Remain Dist and Yaw ------------
-        line += ", Dist C/R=," + Rmath.mRound(avgStats.currDist,2) + "," + Rmath.mRound(getTgtDistRemain(),2) ;
-        line += ", Yaw C/R=," +  Rmath.mRound(mCurrYaw,2) + "," + Rmath.mRound(getTgtYawRemain(),2) ;
-        line += " ,Gyro Rt=," +  Rmath.mRound(getGyroYawRate(),2);        
-
-        // ---------- Show Robot Position data as calculated from left/right encoder distances
-        line += " ,Pos XYAO=,"
-        + Rmath.mRound(avgStats.currXpos,2) + ","
-        + Rmath.mRound(avgStats.currYpos,2) +  ","
-        + Rmath.mRound(avgStats.mCurrTrackerYaw,2) + ","
-        + Rmath.mRound(getOrientDegCCW(),2) ;
-        
-        // ------------ Show current motor pwr ------------
+        // only called from the robot loop (the PIDs step from periodic), so no lock
+        mTelemetry.zone = m_Zone;
+
+        // ------------ Current/Remain Dist and Yaw ------------
+        mTelemetry.currDist = avgStats.currDist;
+        mTelemetry.tgtDistRemain = getTgtDistRemain();
+        mTelemetry.currYaw = mCurrYaw;
+        mTelemetry.tgtYawRemain = getTgtYawRemain();
+        mTelemetry.gyroRate = getGyroYawRate();
+
+        // ---------- Robot Position data as calculated from left/right encoder distances
+        mTelemetry.posX = avgStats.currXpos;
+        mTelemetry.posY = avgStats.currYpos;
+        mTelemetry.trackerYaw = avgStats.mCurrTrackerYaw;
+        mTelemetry.orientCCW = getOrientDegCCW();
+
+        // ------------ Current motor pwr ------------
         if ((m_Zone == 0) || (m_Zone == 1) || (m_Zone == 4) || (m_Zone == 7) ||
                             (m_Zone == 9) || (m_Zone == 11))  {
-        	line += ",Pwr L/R=," + motorLeftPwr  + "," + motorRightPwr ; 
-    	} else {
-        	line += ",Pwr/Dir=," + motorPwr + "," + motorAngle ; 
-        }
-
-        // ------------ Show motor current draw and voltage ------------
-        line += ",LeftTFB=," + Rmath.mRound(leftStats.PDP_currentTMtr, 3) +
-                         "," + Rmath.mRound(leftStats.PDP_currentFMtr, 3) +
-                         "," + Rmath.mRound(leftStats.PDP_currentBMtr, 3);
-        line += ",RightTFB=," + Rmath.mRound(rightStats.PDP_currentTMtr, 3) +
-                        "," + Rmath.mRound(rightStats.PDP_currentFMtr, 3) +
-                        "," + Rmath.mRound(rightStats.PDP_currentBMtr, 3);
-        line += ",Avg Cur&Volt=," + Rmath.mRound(avgStats.PDP_currentAVG, 3) +
-                        "," + Rmath.mRound(avgStats.voltage, 3);
-
-        // ---------- Show Distance Left/Right for robot ----------
-        line += " ,Dist LR=," + Rmath.mRound(leftStats.currDist,3) + ","
-                                + Rmath.mRound(rightStats.currDist,3);
-                                
-        // ------------ Gear Status ------------
-        if (trans == Gear.LO) {
-            line += " ,Gear=,LO,";
+            mTelemetry.pwrA = motorLeftPwr;
+            mTelemetry.pwrB = motorRightPwr;
         } else {
-            line += " ,Gear=,HI,";
+            mTelemetry.pwrA = motorPwr;
+            mTelemetry.pwrB = motorAngle;
         }
-        
-        // ---------- Show Speed and Acceleration data for robot ----------
-        line += " ,Speed ALR=," + Rmath.mRound(avgStats.currVel,2) + ","
-        						+ Rmath.mRound(leftStats.currVel,2) + ","
-                                + Rmath.mRound(rightStats.currVel,2);
-        line += " ,Running VEL=," + Rmath.mRound(avgStats.runningAvgVelocity,2);                     
-        line += " ,Accel=," + Rmath.mRound(avgStats.currAccel,2) ;
-
-        // ------------ Show PID Data ------------
-        if (( m_Zone == 3) || ( m_Zone== 4)) {
-        	line += ",PID IROS=," + mPID_I + "," + mPID_R + "," + mPID_O + "," + mPID_S ;
-        } else if (m_Zone == 8) {
-        	line += ",PID RL=," + mPID_R + "," + mPID_O ;
-        } else if (m_Zone == 11) {
+
+        // ------------ Motor current draw and voltage ------------
+        mTelemetry.leftTCurr = leftStats.PDP_currentTMtr;
+        mTelemetry.leftFCurr = leftStats.PDP_currentFMtr;
+        mTelemetry.leftBCurr = leftStats.PDP_currentBMtr;
+        mTelemetry.rightTCurr = rightStats.PDP_currentTMtr;
+        mTelemetry.rightFCurr = rightStats.PDP_currentFMtr;
+        mTelemetry.rightBCurr = rightStats.PDP_currentBMtr;
+        mTelemetry.avgCurr = avgStats.PDP_currentAVG;
+        mTelemetry.voltage = avgStats.voltage;
+
+        // ---------- Distance Left/Right, Gear, Speed and Acceleration ----------
+        mTelemetry.leftDist = leftStats.currDist;
+        mTelemetry.rightDist = rightStats.currDist;
+        mTelemetry.lowGear = (trans == Gear.LO);
+        mTelemetry.avgVel = avgStats.currVel;
+        mTelemetry.leftVel = leftStats.currVel;
+        mTelemetry.rightVel = rightStats.currVel;
+        mTelemetry.runningVel = avgStats.runningAvgVelocity;
+        mTelemetry.accel = avgStats.currAccel;
+
+        // ------------ PID Data ------------
+        if (m_Zone == 11) {
             // cndDualPidToCoordCmd
-            line += ",Dist to Tgt=," + mTgtDist + ",DistCtl=," + mTgtDistRemain + 
-                    ",BearingToTgt=," + mTgtYaw + ",BearingCtl," + mTgtYawRemain ;    
+            mTelemetry.pid0 = mTgtDist;
+            mTelemetry.pid1 = mTgtDistRemain;
+            mTelemetry.pid2 = mTgtYaw;
+            mTelemetry.pid3 = mTgtYawRemain;
+        } else {
+            mTelemetry.pid0 = mPID_I;
+            mTelemetry.pid1 = mPID_R;
+            mTelemetry.pid2 = mPID_O;
+            mTelemetry.pid3 = mPID_S;
         }
-        
-        // ---- send line to Logger ---------
-        Robot.logger.appendLog(line);
+
+        // ---- send record to Logger ---------
+        Robot.logger.logTelemetry(mTelemetry);
     }
 
         /*****************************
@@ -1074,8 +1310,9 @@ public class Drivetrain extends Subsystem {
 	// actual values, so why risk introducing a bug if you don't 
 	// need to, because inches can easily be converted to feet
 	// on the fly, which is what you see here
-	public double getXinFt()                { return getPositionX()/12.0 ; }
-	public double getYinFt()                { return getPositionY()/12.0 ; }
+	// (latest odometry pose, use getPoseFt() for x, y and orientation together)
+	public double getXinFt()                { getPose(mFtPose) ; return mFtPose[0]/12.0 ; }
+	public double getYinFt()                { getPose(mFtPose) ; return mFtPose[1]/12.0 ; }
     public void   setInitialOrientationDegCCW(double orient) { mInitialOrientationDegCCW = orient ; }
 	public double getVelocityInFtPerSec()   {	return getAverageSpeed()/12.0 ;	}
 	public double getRotationVelocityInDegreesCWperSec() { return getGyroYawRate() ; }
@@ -1085,8 +1322,10 @@ public class Drivetrain extends Subsystem {
 		// TODO: I haven't tested this but am convinced
 		// by the trial runs that it is better
 		// (but may mean some feedback parameter returning
-		return (mInitialOrientationDegCCW - getTrackerYaw()) ;
+		getPose(mFtPose) ;
+		return (mInitialOrientationDegCCW - mFtPose[2]) ;
 	}
+	private final double[] mFtPose = new double[4] ;
 
 
     public void logPIDStraightPrefs() {
@@ -1143,11 +1382,120 @@ public class Drivetrain extends Subsystem {
         System.out.println(line);
         Robot.logger.appendLog(line);
         logPIDStraightPrefs();
-        mSuperPid = new DistancePid(PIDTgtDist, KP_STRAIGHT, 0, KD_STRAIGHT, KF_STRAIGHT);
         resetEncodersAndStats();										// reset the encoder counts
+        if (mLeftMM.isUsable() && mRightMM.isUsable() && startMotionMagicStraight(PIDTgtDist)) {
+            return;
+        }
+        mSuperPid = new DriveStraightPid(mPidIO, PIDTgtDist, KP_STRAIGHT, 0, KD_STRAIGHT, KF_STRAIGHT, KMOVERT_STRAIGHT);
+        mSuperPid.setTracePath(nextPidTracePath("fwd"));
         mDrivePIDStatus = DrivePIDStatus.RUNNING;
         mSuperPid.start();										// start the PID IO (and the PID)
     } 
+
+    // ********************************************************************************
+    //                      TALON MOTION MAGIC METHODS
+    // ********************************************************************************
+    private void initMotionMagic() {
+        mLeftMM = new TalonMotionMagic("DriveL", leftTMtr, 1 / k_EncConvConst, kSlotIdx);
+        mRightMM = new TalonMotionMagic("DriveR", rightTMtr, 1 / k_EncConvConst, kSlotIdx);
+        mLeftMM.setGains(MM_KP, 0, 0, MM_KF, 0);
+        mRightMM.setGains(MM_KP, 0, 0, MM_KF, 0);
+        mLeftMM.setMotion(MM_CRUISE, MM_ACCEL);
+        mRightMM.setMotion(MM_CRUISE, MM_ACCEL);
+        mLeftMM.loadPrefs("Drive", 60);
+        mRightMM.loadPrefs("Drive", 60);
+        mLeftMM.configure();
+        mRightMM.configure();
+        if (mLeftMM.isEnabled() || mRightMM.isEnabled()) {
+            line = "Drive Motion Magic enabled: right Talons inverted, right sensor phase " + !RIGHT_SENSOR_PHASE +
+                    " during moves. Bench check one move wheels up, look for the phase check line";
+            System.out.println(line);
+            Robot.logger.appendLog(line);
+        }
+    }
+
+    // The encoders must have just been reset, distance is from here.
+    // Returns false if either Talon refused, nothing has moved then.
+    private boolean startMotionMagicStraight(double distance) {
+        // the top Talons have the encoders, the other two each side follow.
+        // DifferentialDrive inverts the right side itself, the Talon has to here.
+        // Inverting also flips the sensor, so flip its phase back: the right
+        // encoder keeps counting up going forward, and now in phase with the
+        // (inverted) output the Talon closes the loop on
+        leftFMtr.follow(leftTMtr);
+        leftRMtr.follow(leftTMtr);
+        rightFMtr.follow(rightTMtr);
+        rightRMtr.follow(rightTMtr);
+        rightTMtr.setInverted(true);
+        rightFMtr.setInverted(true);
+        rightRMtr.setInverted(true);
+        rightTMtr.setSensorPhase(!RIGHT_SENSOR_PHASE);
+        mMMTgtDist = distance;
+        mMMPhaseChecked = false;
+        if (!mLeftMM.setTarget(distance, 0) || !mRightMM.setTarget(distance, 0)) {
+            endMotionMagic();
+            return false;
+        }
+        line = "***** PID driveStraight on Talon Motion Magic  Distance =" + distance + " ******";
+        System.out.println(line);
+        Robot.logger.appendLog(line);
+        mMMActive = true;
+        mDrivePIDStatus = DrivePIDStatus.RUNNING;
+        return true;
+    }
+
+    // heading correction goes in as arbitrary feedforward, the Talons do the rest
+    private void stepMotionMagicStraight() {
+        motorAngle = calcArcadeGyroCorrection();
+        mLeftMM.setTarget(mMMTgtDist, motorAngle);
+        mRightMM.setTarget(mMMTgtDist, -motorAngle);
+        PIDTgtDistRemain = mMMTgtDist - getAverageDist();
+        PIDTgtYawRemain = PIDTgtYaw - getGyroYaw();
+        putZoneData(3, PIDTgtDist, PIDTgtDistRemain, PIDTgtYaw, PIDTgtYawRemain);
+        mLogCoastFlag = true;
+        logDrivetrain();
+
+        // until both sides are moving enough to tell, check every cycle that
+        // the sensors follow the outputs; a runaway stops the move
+        int leftPhase = 1, rightPhase = 1;
+        if (!mMMPhaseChecked) {
+            leftPhase = mLeftMM.checkPhase();
+            rightPhase = mRightMM.checkPhase();
+            if ((leftPhase > 0) && (rightPhase > 0)) {
+                mMMPhaseChecked = true;
+                Robot.logger.appendLog("Motion Magic phase check OK," + mLeftMM.getPhaseReport() + "," + mRightMM.getPhaseReport());
+            }
+        }
+
+        if ((leftPhase < 0) || (rightPhase < 0)) {
+            line = "Motion Magic phase check FAILED, stopping," + mLeftMM.getPhaseReport() + "," + mRightMM.getPhaseReport();
+            System.out.println(line);
+            Robot.logger.appendLog(line);
+            endMotionMagic();
+            mDrivePIDStatus = DrivePIDStatus.STOPPED;
+            mDriveMode = DriveMode.DONE;
+        } else if (!mLeftMM.isActive() || !mRightMM.isActive()) {
+            // someone else drove the motors, the move is off
+            endMotionMagic();
+            mDrivePIDStatus = DrivePIDStatus.STOPPED;
+            mDriveMode = DriveMode.DONE;
+        } else if ((Math.abs(PIDTgtDistRemain) <= ABS_TOL_IN) && (Math.abs(getAverageSpeed()) < MM_STOP_SPEED)) {
+            Robot.logger.appendLog("Motion Magic driveStraight at target");
+            endMotionMagic();
+            mDrivePIDStatus = DrivePIDStatus.STOPPED;
+            mDriveMode = DriveMode.DONE;
+        }
+    }
+
+    // back to DifferentialDrive, which sets every motor (ending follow mode)
+    private void endMotionMagic() {
+        mMMActive = false;
+        rightTMtr.setInverted(false);
+        rightFMtr.setInverted(false);
+        rightRMtr.setInverted(false);
+        rightTMtr.setSensorPhase(RIGHT_SENSOR_PHASE);
+        stopMtrs();
+    }
     
     // Drive Point turn using a PID for a given angle of rotation
     public void pidRotateTo(double angleDeg) {
@@ -1166,12 +1514,61 @@ public class Drivetrain extends Subsystem {
         Robot.logger.appendLog(line);
         logPIDRotatePrefs();
         System.out.println("PID D=" + KD_ROT);
-        mSuperPid = new RotationPid(PIDTgtYaw, KP_ROT, 0, KD_ROT, KF_ROT);	// create PID controller
+        mSuperPid = new DriveRotatePid(mPidIO, PIDTgtYaw, KP_ROT, 0, KD_ROT, KF_ROT,	// create PID controller
+                                       ROT_MAX_PWR, ROT_BBANG_UPPER_THRESH, ROT_BBANG_LOWER_THRESH);
+        mSuperPid.setTracePath(nextPidTracePath("rot"));
         //m_TgtAngleRemain = degrees;
         mDrivePIDStatus = DrivePIDStatus.RUNNING;
         mSuperPid.start();
     }
 
+    // Relay autotune the drive straight loop, oscillating about tuner's
+    // setpoint (inches from here) while holding the current heading
+    public void autotuneStraightPid(RelayAutotuner tuner) {
+    	stopPID();
+    	motorMode = 6;
+        mDriveMode = DriveMode.AUTO_STRAIGHT;
+        getPIDPrefs();
+        getGyroPrefs();
+        PIDTgtYaw = getGyroYaw();
+        PIDTgtDist = tuner.getSetpoint();
+      	line = "***** Entering PID Autotune Straight  Distance =" + PIDTgtDist + "  PIDTgtYaw=" + PIDTgtYaw +" ******";
+        System.out.println(line);
+        Robot.logger.appendLog(line);
+        mSuperPid = new DriveStraightPid(mPidIO, PIDTgtDist, KP_STRAIGHT, 0, KD_STRAIGHT, KF_STRAIGHT, KMOVERT_STRAIGHT);
+        mSuperPid.setAutotuner(tuner);
+        mSuperPid.setTracePath(nextPidTracePath("tune_fwd"));
+        resetEncodersAndStats();
+        mDrivePIDStatus = DrivePIDStatus.RUNNING;
+        mSuperPid.start();
+    }
+
+    // Relay autotune the point turn loop about tuner's setpoint (gyro yaw)
+    public void autotuneRotatePid(RelayAutotuner tuner) {
+    	stopPID();
+        motorMode = 7;
+        mDriveMode = DriveMode.AUTO_ROTATE;
+        getPIDPrefs();
+        PIDTgtYaw = tuner.getSetpoint();
+        PIDTgtDist = 0;
+      	line = "***** Entering PID Autotune Rotate - PIDTgtYaw=" + PIDTgtYaw +" ******";
+        System.out.println(line);
+        Robot.logger.appendLog(line);
+        mSuperPid = new DriveRotatePid(mPidIO, PIDTgtYaw, KP_ROT, 0, KD_ROT, KF_ROT,
+                                       ROT_MAX_PWR, ROT_BBANG_UPPER_THRESH, ROT_BBANG_LOWER_THRESH);
+        mSuperPid.setAutotuner(tuner);
+        mSuperPid.setTracePath(nextPidTracePath("tune_rot"));
+        mDrivePIDStatus = DrivePIDStatus.RUNNING;
+        mSuperPid.start();
+    }
+
+    // Where the next PID trace goes when its PID stops (see PidTrace)
+    private String nextPidTracePath(String kind) {
+        String path = String.format("/home/lvuser/pid_%s_%02d.bin", kind, mPidTraceNum);
+        mPidTraceNum = (mPidTraceNum + 1) % PID_TRACE_FILES;
+        return path;
+    }
+
     // a Command can call this to force a stop (e.g., from a watchdog timer)    
     public void stopPID() {
         // stop the drive motors and shutdown automation
@@ -1181,6 +1578,9 @@ public class Drivetrain extends Subsystem {
         if (mSuperPid != null) {
         	mSuperPid.stop();			
         }
+        if (mMMActive) {
+            endMotionMagic();
+        }
         mDriveMode = DriveMode.TELE;
         mDrivePIDStatus = DrivePIDStatus.STOPPED;
         stopMtrs();						// The pid never sends a stop .. so motor continues running
@@ -1200,151 +1600,84 @@ public class Drivetrain extends Subsystem {
 
     
     // --------------------------------------------------------------------------------
-    //                       Inner DISTANCE PID CLASS
+    //            What DriveStraightPid / DriveRotatePid read and drive
     // --------------------------------------------------------------------------------
-
-    private class DistancePid extends SuperPid { 
-        //int mLogCounter = 0; 
-        // constructor
-        public DistancePid(double distance, double Kp, double Ki, double Kd, double Kf) {
-            super(distance, Kp, Ki, Kd, Kf);
-            mOptions.setKeepRunningCriteria(true, distance * .01 );
-            mOptions.setRamping(true, KMOVERT_STRAIGHT);							// use ramping
-            //mOptions.setOutputRange(KMAXOUT_STRAIGHT, -KMAXOUT_STRAIGHT); 	// Limit output (speed)
-            if (distance > 96) {
-            	mOptions.setOutputRange(0.8, -0.8); 	// Limit output (speed)
-            } else if ( distance >= 20) {
-            	mOptions.setOutputRange(0.75, -0.75); 	// Limit output (speed)
-            } else {
-            	mOptions.setOutputRange(0.7, -0.7); 	// Limit output (speed)
-            }
-            
-            //mOptions.setBangBang(true, KBBANG_UPPER_STRAIGHT, KBBANG_LOWER_STRAIGHT);
-            mOptions.setBangBang(false, 0, 0);
-        }
-
-        @Override
-        public void applyPidOutput(double output) {
-        	motorPwr = limitPwr(output);
-        	motorAngle = calcArcadeGyroCorrection();
-            // if (mLogCounter == 0) {  System.out.println("*** gyroCorrection=" + motorAngle;  }
-            // mLogCounter = (mLogCounter + 1) % 5;
-        	PIDTgtYawRemain = PIDTgtYaw - getGyroYaw();
-            differentialDrive.arcadeDrive(motorPwr, motorAngle);
-            putZoneData(3, PIDTgtDist, PIDTgtDistRemain, PIDTgtYaw, PIDTgtYawRemain);	// PIDremain calc in getPidInput
-            mLogCoastFlag = true;
-            logDrivetrain();
-            
-        }
-
+    private class PidIO implements DrivePidIO {
         @Override
-        public double getPidInput() {
-            PIDTgtDistRemain = PIDTgtDist - getAverageDist();					 // these are in inches
+        public double getAverageDist() {
+            PIDTgtDistRemain = PIDTgtDist - Drivetrain.this.getAverageDist();		 // these are in inches
             // consider testing for termination condition here such as velocity is almost zero 
             // such as maybe we hit something. or we just don't have enough correction pwr to continue
-            return getAverageDist();
+            return Drivetrain.this.getAverageDist();
         }
 
         @Override
-        public void updatePidStatus(SuperPid.PidStatus status, double input, double rawOutput, double pidOut,  double setpoint ) {
-            //Robot.logger.appendLog(" AN update of Fwd PIDStatus has been received PidStatus=" + status );
-            if (status == PidStatus.RUNNING) {
-                mDrivePIDStatus = DrivePIDStatus.RUNNING;
-                mPID_I = input ;
-                mPID_R = rawOutput ;
-                mPID_O = pidOut ;
-                mPID_S = setpoint ;
-                return;
-            } else if (status == PidStatus.STOPPED) {
-            	Robot.logger.appendLog(" AN update of Fwd PIDStatus has been received PidStatus=" + status );
-                mDriveMode = DriveMode.DONE;
-                mDrivePIDStatus = DrivePIDStatus.STOPPED;
-                clearPIDdata();
-                stopMtrs();						// The pid never sends a stop .. so motor continues running
-                return;
-            } else if (status == PidStatus.ATEND) {
-            	Robot.logger.appendLog(" AN update of Fwd PIDStatus has been received PidStatus=" + status );
-                mDrivePIDStatus = DrivePIDStatus.ATEND;
-                mDriveMode = DriveMode.DONE;            	
-            	// consider testing for termination condition here such as
-                return;
-            }
+        public double getGyroYaw() {
+        	mCurrYaw = Drivetrain.this.getGyroYaw();			// Update for logging
+        	PIDTgtYawRemain = PIDTgtYaw - mCurrYaw;
+            return mCurrYaw;
         }
-    }
 
-    // ********************************************************************************
-    //                      PID ROTATION METHODS AND CLASS 
-    // ********************************************************************************
- 
-    // --------------------------------------------------------------------------------
-    //                       Inner Rotation PID CLASS
-    // --------------------------------------------------------------------------------
-    private class RotationPid extends SuperPid {
-        //private double mTargetDeg;
-        public RotationPid(double degrees, double Kp, double Ki, double Kd, double Kf) {
-            super(validateDeg(degrees), Kp, Ki, Kd, Kf);
-            mOptions.setKeepRunningCriteria(false, 1);
-            mOptions.setBangBang(true, ROT_BBANG_UPPER_THRESH, ROT_BBANG_LOWER_THRESH);
-            mOptions.setInputWrap(true, -180, +180);
-            mOptions.setRamping(false, 4);
-            mOptions.setOutputRange(ROT_MAX_PWR, -ROT_MAX_PWR); 	// Limit output (speed)
+        @Override
+        public double getHeadingCorrection() {
+            return calcArcadeGyroCorrection();
         }
 
+        // the straight PID
         @Override
-        public void applyPidOutput(double output) {
-            motorLeftPwr = output;
-            motorRightPwr = -output;
-            differentialDrive.tankDrive(motorLeftPwr, motorRightPwr);
-            putZoneData(4, 0 , 0, mTgtYaw, PIDTgtYawRemain);
+        public void arcadeDrive(double pwr, double rotation) {
+        	motorPwr = limitPwr(pwr);
+        	motorAngle = rotation;
+            // if (mLogCounter == 0) {  System.out.println("*** gyroCorrection=" + motorAngle;  }
+            // mLogCounter = (mLogCounter + 1) % 5;
+        	PIDTgtYawRemain = PIDTgtYaw - Drivetrain.this.getGyroYaw();
+            differentialDrive.arcadeDrive(motorPwr, motorAngle);
+            putZoneData(3, PIDTgtDist, PIDTgtDistRemain, PIDTgtYaw, PIDTgtYawRemain);	// PIDremain calc in getAverageDist
             mLogCoastFlag = true;
             logDrivetrain();
         }
 
+        // the point turn PID
         @Override
-        public double getPidInput() {
-        	mCurrYaw = getGyroYaw();			// Update for logging
-        	PIDTgtYawRemain = PIDTgtYaw - mCurrYaw;
-            return mCurrYaw;
+        public void tankDrive(double left, double right) {
+            motorLeftPwr = left;
+            motorRightPwr = right;
+            differentialDrive.tankDrive(motorLeftPwr, motorRightPwr);
+            putZoneData(4, 0 , 0, mTgtYaw, PIDTgtYawRemain);
+            mLogCoastFlag = true;
+            logDrivetrain();
         }
 
         @Override
-        public void updatePidStatus(SuperPid.PidStatus status, double input, double rawOutput, double pidOut, double setpoint ) {
-            if (status == PidStatus.RUNNING) {
-            	mDrivePIDStatus = DrivePIDStatus.RUNNING ;
+        public void updatePidStatus(SuperPid pid, SuperPid.PidStatus status, double input, double rawOutput, double pidOut, double setpoint) {
+            String kind = (pid instanceof DriveRotatePid) ? "ROT" : "Fwd";
+            if (status == SuperPid.PidStatus.RUNNING) {
+                mDrivePIDStatus = DrivePIDStatus.RUNNING;
                 mPID_I = input ;
                 mPID_R = rawOutput ;
                 mPID_O = pidOut ;
                 mPID_S = setpoint ;
-            } else if (status == PidStatus.STOPPED) {
-                Robot.logger.appendLog(" AN update of ROT PIDStatus has been received PidStatus=" + status );
+            } else if (status == SuperPid.PidStatus.STOPPED) {
+                Robot.logger.appendLog(" AN update of " + kind + " PIDStatus has been received PidStatus=" + status );
                 // The PID is done (Stopped) because of end of travel (we reached Setpoint)
-                mDrivePIDStatus = DrivePIDStatus.STOPPED;
                 mDriveMode = DriveMode.DONE;
+                mDrivePIDStatus = DrivePIDStatus.STOPPED;
                 clearPIDdata();
                 stopMtrs();						// The pid never sends a stop .. so motor continues running
-            } else if (status == PidStatus.ATEND) {
+            } else if (status == SuperPid.PidStatus.ATEND) {
             	// The PID is at the end but no stopping has been set
                 // consider testing for termination condition here such as
                 // 1. Timer - when distance is within tolerance start timer and after 0.25 seconds end run
                 // 2. Look at velocity and when in tolerance zone if velocity is less than ~5 inches per sec. end run
-                // stop based on rate
-                Robot.logger.appendLog(" AN update of ROT PIDStatus has been received PidStatus=" + status );
-            	mDrivePIDStatus = DrivePIDStatus.ATEND ;
-            }  
+                Robot.logger.appendLog(" AN update of " + kind + " PIDStatus has been received PidStatus=" + status );
+                mDrivePIDStatus = DrivePIDStatus.ATEND;
+                if (!(pid instanceof DriveRotatePid)) {
+                    mDriveMode = DriveMode.DONE;
+                }
+            }
         }
     }
 
-    // ------- Limit degrees -------
-    private double validateDeg(double deg) {
-        if (deg > 180) {
-            deg = 180;
-        }
-        if (deg < -180) {
-            deg = -180;
-        }
-        return deg;
-    }  
-
     
     // *****************************************************************************
     // Inner CLASS to store data for leftStats, rightStats, average motor statistics
@@ -0,0 +1,38 @@
+package robot.subsystems;
+
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
+
+import edu.wpi.first.wpilibj.DigitalInput;
+import robot.utils.SensorReadStats;
+
+/**
+ * The elevator's encoder and limit switches, read once at the top of
+ * ElevSubSys.periodic() and used for the rest of the cycle (see
+ * DriveSensors).
+ */
+public final class ElevSensors {
+    public static final int NUM_READS = 5;
+
+    private int mEncoder;
+    private boolean mUpper1Sw, mUpper2Sw, mLower1Sw, mLower2Sw;
+
+    void read(WPI_TalonSRX mtr, DigitalInput upper1, DigitalInput upper2, DigitalInput lower1, DigitalInput lower2) {
+        mEncoder = mtr.getSelectedSensorPosition();
+        mUpper1Sw = upper1.get();
+        mUpper2Sw = upper2.get();
+        mLower1Sw = lower1.get();
+        mLower2Sw = lower2.get();
+        SensorReadStats.fetched(NUM_READS);
+    }
+
+    // The encoder was just zeroed, same as DriveSensors.encodersReset()
+    void encoderReset() {
+        mEncoder = 0;
+    }
+
+    public int getEncoder()             { SensorReadStats.served(); return mEncoder; }
+    public boolean getUpper1Sw()        { SensorReadStats.served(); return mUpper1Sw; }
+    public boolean getUpper2Sw()        { SensorReadStats.served(); return mUpper2Sw; }
+    public boolean getLower1Sw()        { SensorReadStats.served(); return mLower1Sw; }
+    public boolean getLower2Sw()        { SensorReadStats.served(); return mLower2Sw; }
+}
@@ -101,6 +101,24 @@ public class ElevSubSys extends Subsystem {
     public static final double KLimitElevBotPos= 2;
     public static final double BrakeOn = 0;
 	public static final double BrakeOff = 1;
+
+    // --------- Motion Profile Elements ----------------
+    // profile limits (inches, sec) and feedforward on top of the hold power
+    public static double KProfMaxVel = 40.0;			// in/sec
+    public static double KProfMaxAccel = 120.0;			// in/sec^2
+    public static double KProfMaxJerk = 1200.0;			// in/sec^3, 0 = trapezoid
+    public static double KProfVelFF = 0.0145;			// pwr per in/sec (0.8 pwr over hold ~ 55 in/sec)
+    public static double KProfAccelFF = 0.002;			// pwr per in/sec^2
+    private static final double PROFILE_MATCH_TOL = 1.0;	// inches from a preset to use its cached profile
+    private MotionProfileCache mProfileCache;
+    private double mProfPos, mProfVel, mProfFF;			// last profile setpoint, for the dashboard
+
+    // --------- Talon Motion Magic (Preferences elev_80..87) ----------------
+    // when enabled and configured ElevToPosCmd hands the move to the Talon,
+    // otherwise it follows the roboRIO motion profile above
+    private TalonMotionMagic mMotionMagic;
+    private static final double MM_KP = 0.05;			// 0.1 pwr (102) per inch (2084 counts)
+    private static final double MM_KF = 0.089;			// 1023 / counts per 100ms at full pwr (~55 in/sec)
  
     // --------- PID Control Elements ----------------
     
@@ -155,6 +173,14 @@ public class ElevSubSys extends Subsystem {
 	private Gear trans = Gear.HI;
 
 	private String line;
+
+	// encoder and limit switches read once per cycle (see ElevSensors)
+	private ElevSensors mSensors = new ElevSensors();
+	private ElevSensors mSpareSensors = new ElevSensors();
+
+	// PID (so far only used for relay autotune), stepped from periodic()
+	private SuperPid mElevPid = null;
+	private double mLastTime = 0;
 	private static double  displayCtr = 1;      // used to refresh display on every 5 th. cycle ie) 100ms 10x/sec.
     
     // ------------------------------------------------------------------------
@@ -202,7 +228,14 @@ public class ElevSubSys extends Subsystem {
 
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CONSTRUCTORS
 
+		CanFrameProfile.apply(elevMtr, CanFrameProfile.Role.LEADER_SENSOR);
+		readSensors();
 		getElevPrefs();
+		mMotionMagic = new TalonMotionMagic("Elev", elevMtr, k_EncConvConst, 0);
+		mMotionMagic.setGains(MM_KP, 0, 0, MM_KF, 0);
+		mMotionMagic.setMotion(KProfMaxVel, KProfMaxAccel);
+		mMotionMagic.loadPrefs("elev", 80);
+		mMotionMagic.configure();
 		trans = Gear.LO;			// Set default startup to low gear
 		initEncoder();
 
@@ -223,6 +256,8 @@ public class ElevSubSys extends Subsystem {
 
     @Override
     public void periodic() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
+		readSensors();							// everything this cycle uses these values
 		if (trans == Gear.HI) {
             elevValve.set(true);
         } else {
@@ -230,9 +265,19 @@ public class ElevSubSys extends Subsystem {
 		}
 
 		if (isLowerLmtSw_Pressed() == true) resetEncoder();			// Set encoder to zero when elev is at bottom
+		checkMotionMagicLimits();
+
+		double time = Robot.sysTimer.get();
+		double deltaTime = time - mLastTime;
+		mLastTime = time;
+		if (mElevPid != null) {
+			mElevPid.step(deltaTime);
+		}
 		
         if ( displayCtr % 5 == 0) update_SmartDashboard();      			// Update dsiplay every 100 ms
         displayCtr++;
+
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.ELEV, t0);
     }
 
     // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CMDPIDGETTERS
@@ -344,6 +389,116 @@ public class ElevSubSys extends Subsystem {
 		if( dir == ElevDir.LOWERING) elevState = ElevState.LOWERING;
 		if( dir == ElevDir.RAISING)  elevState = ElevState.RAISING;
     }
+
+	// ------------------------------------------------------------------------
+	// --------------------------- Motion Profile Methods ---------------------
+	// Cached if from is near a preset and to is one, otherwise planned now
+	public MotionProfile getProfile(double from, double to) {
+		return mProfileCache.get(from, to);
+	}
+
+	// Drive toward one profile sample: hold power plus velocity/accel
+	// feedforward, with P on the position error to take up the slack
+	public void elevFollowProfile(double pos, double vel, double acc) {
+		double hold = isLowerLmtSw_Pressed() ? 0 : KHoldSpeed;
+		double ff = hold + (KProfVelFF * vel) + (KProfAccelFF * acc);
+		double pwr = ff + (KP * (pos - getElevPosition()));
+		if (pwr > 1)		{ pwr = 1; }
+		else if (pwr < -1)	{ pwr = -1; }
+		mProfPos = pos;
+		mProfVel = vel;
+		mProfFF = ff;
+
+		// direction is where the profile is going, not the sign of the power
+		// (lowering slowly is still a positive power against gravity)
+		if (vel > 0)					{ elevMoveMtr(pwr, ElevDir.RAISING); }
+		else if (vel < 0)				{ elevMoveMtr(pwr, ElevDir.LOWERING); }
+		else if (pwr >= hold)			{ elevMoveMtr(pwr, ElevDir.RAISING); }
+		else							{ elevMoveMtr(pwr, ElevDir.LOWERING); }
+	}
+
+	public MotionProfileCache getProfileCache()	{ return mProfileCache; }
+
+	// ------------------------------------------------------------------------
+	// ----------------------- Talon Motion Magic Methods ---------------------
+	public boolean isMotionMagicReady()		{ return mMotionMagic.isUsable(); }
+	public boolean isMotionMagicActive()	{ return mMotionMagic.isActive(); }
+	public double getMotionMagicTime(double from, double to)	{ return mMotionMagic.getMoveTime(to - from); }
+
+	// Hand the move to the Talon, returns false if it can't take it
+	public boolean elevMotionMagicTo(double pos) {
+		double hold = isLowerLmtSw_Pressed() ? 0 : KHoldSpeed;
+		if (!mMotionMagic.setTarget(pos, hold)) {
+			return false;
+		}
+		mProfPos = pos;
+		mProfVel = 0;
+		mProfFF = hold;
+		elevState = (pos >= getElevPosition()) ? ElevState.RAISING : ElevState.LOWERING;
+		return true;
+	}
+
+	// elevMoveMtr's limit switch checks don't see Talon moves, so do them here
+	private void checkMotionMagicLimits() {
+		if (!mMotionMagic.isActive()) {
+			return;
+		}
+		boolean raising = mMotionMagic.getTarget() >= getElevPosition();
+		if (raising && isUpperLmtSw_Pressed()) {
+			elevHoldMtr();
+		} else if (!raising && isLowerLmtSw_Pressed()) {
+			elevStopMtr();
+		}
+	}
+
+	// ------------------------------------------------------------------------
+	// ------------------------------ PID Methods -----------------------------
+	// Relay autotune the elevator about tuner's setpoint (inches)
+	public void autotuneElevPid(RelayAutotuner tuner) {
+		stopElevPid();
+		line = "***** Entering Elev PID Autotune  Position=" + tuner.getSetpoint() + " ******";
+		System.out.println(line);
+		Robot.logger.appendLog(line);
+		mElevPid = new ElevPid(tuner.getSetpoint());
+		mElevPid.setAutotuner(tuner);
+		mElevPid.start();
+	}
+
+	public void stopElevPid() {
+		if (mElevPid != null) {
+			mElevPid.stop();
+			mElevPid = null;
+		}
+	}
+
+	public elevPIDStatus getElevPIDStatus()	{ return melevPIDStatus; }
+
+	private class ElevPid extends SuperPid {
+		public ElevPid(double tgtPos) {
+			super(tgtPos, KP, KI, KD, KF);
+			mOptions.setOutputRange(KMAXOUT, -KMAXOUT);
+		}
+
+		@Override
+		public void applyPidOutput(double output) {
+			// elevMoveMtr still applies the limit switch and end of travel checks
+			if (output >= 0)	{ elevMoveMtr(output, ElevDir.RAISING); }
+			else				{ elevMoveMtr(output, ElevDir.LOWERING); }
+		}
+
+		@Override
+		public double getPidInput() {
+			mCurrElevPos = getElevPosition();
+			return mCurrElevPos;
+		}
+
+		@Override
+		public void updatePidStatus(SuperPid.PidStatus status, double input, double rawOutput, double pidOut, double setpoint) {
+			if (status == PidStatus.RUNNING)		{ melevPIDStatus = elevPIDStatus.RUNNING; }
+			else if (status == PidStatus.ATEND)		{ melevPIDStatus = elevPIDStatus.ATEND; }
+			else									{ melevPIDStatus = elevPIDStatus.STOPPED; }
+		}
+	}
     
 	
     // ------------------------------------------------------------------------
@@ -372,9 +527,19 @@ public class ElevSubSys extends Subsystem {
 
     public void resetEncoder() {				// Set Encoders to zero
 		elevMtr.getSensorCollection().setQuadraturePosition(0, 10);
+		mSensors.encoderReset();					// rest of this cycle reads 0 too
     }
 
-	public int 		getElevEncoder()	 			{ return elevMtr.getSelectedSensorPosition(); }
+	private void readSensors() {
+		ElevSensors next = mSpareSensors;
+		next.read(elevMtr, elevUpper1LmtSw, elevUpper2LmtSw, elevLwr1LmtSw, elevLwr2LmtSw);
+		mSpareSensors = mSensors;
+		mSensors = next;
+	}
+
+	public ElevSensors getSensors()					{ return mSensors; }
+
+	public int 		getElevEncoder()	 			{ return mSensors.getEncoder(); }
 	public double 	getElevPosition()		        { return (getElevEncoder() / k_EncConvConst); }
     //public int getElevEncoderVel() 				{ return elevMtr.getSelectedSensorVelocity(0); }    
 
@@ -406,22 +571,22 @@ public class ElevSubSys extends Subsystem {
 
 	// -------------------------------------------------------------------	
 	public boolean isUpperLmtSw1_Pressed() {
-		if (elevUpper1LmtSw.get() == KLIMIT_UPPER_SW1_PRESSED) return true;
+		if (mSensors.getUpper1Sw() == KLIMIT_UPPER_SW1_PRESSED) return true;
 		else										 		   return false;
 	}
 	
 	public boolean isUpperLmtSw2_Pressed() {
-		if (elevUpper2LmtSw.get() == KLIMIT_UPPER_SW2_PRESSED) return true;
+		if (mSensors.getUpper2Sw() == KLIMIT_UPPER_SW2_PRESSED) return true;
  		else										 		   return false;
 	}
 	
 	public boolean isLowerLmtSw1_Pressed() {
-		if (elevLwr1LmtSw.get() == KLIMIT_LWR_SW1_PRESSED)		return true;
+		if (mSensors.getLower1Sw() == KLIMIT_LWR_SW1_PRESSED)		return true;
  		else										 		  	return false;
 	}
 	
 	public boolean isLowerLmtSw2_Pressed() {
-		if (elevLwr2LmtSw.get() == KLIMIT_LWR_SW2_PRESSED)		return true;
+		if (mSensors.getLower2Sw() == KLIMIT_LWR_SW2_PRESSED)		return true;
  		else										 		  	return false;
 	}
 	// -------------------------------------------------------------------
@@ -455,36 +620,71 @@ public class ElevSubSys extends Subsystem {
     	KRaiseSpeed  = KRaiseSpeedDefault ;
     	KLowerSpeed = KLowerSpeedDefault ;
     	KHoldSpeed =  KHoldSpeedDefault ;    	
+
+    	KP = Robot.prefs.getDouble				("elev_60_PID_P", KP) ;
+    	KI = Robot.prefs.getDouble				("elev_61_PID_I", KI) ;
+    	KD = Robot.prefs.getDouble				("elev_62_PID_D", KD) ;
+
+    	KProfMaxVel = Robot.prefs.getDouble		("elev_70_Prof_MaxVel", KProfMaxVel) ;
+    	KProfMaxAccel = Robot.prefs.getDouble	("elev_71_Prof_MaxAccel", KProfMaxAccel) ;
+    	KProfMaxJerk = Robot.prefs.getDouble	("elev_72_Prof_MaxJerk", KProfMaxJerk) ;
+    	KProfVelFF = Robot.prefs.getDouble		("elev_73_Prof_Vel_FF", KProfVelFF) ;
+    	KProfAccelFF = Robot.prefs.getDouble	("elev_74_Prof_Accel_FF", KProfAccelFF) ;
+
+    	// preset profiles are planned with elev_70..72, replan them if those changed
+    	if ((mProfileCache == null) || !mProfileCache.isFor(KProfMaxVel, KProfMaxAccel, KProfMaxJerk)) {
+    		mProfileCache = new MotionProfileCache(ElevToPosCmd.ELEV_PRESETS, KProfMaxVel, KProfMaxAccel,
+    												KProfMaxJerk, PROFILE_MATCH_TOL);
+    	}
     }
 
 
 	// ------------------------- SmartDash board Methods ------------------------------------------
+	// only sent when they change
+	private final DashboardPublisher.Entry
+		dElevLowerLmtSw = Robot.dashboard.string("elev_LowerLmtSw"),
+		dElevUpperLmtSw = Robot.dashboard.string("elev_UpperLmtSw"),
+		dElevLowerLmtSw1 = Robot.dashboard.string("elev_LowerLmtSw1"),
+		dElevLowerLmtSw2 = Robot.dashboard.string("elev_LowerLmtSw2"),
+		dElevUpperLmtSw1 = Robot.dashboard.string("elev_UpperLmtSw1"),
+		dElevUpperLmtSw2 = Robot.dashboard.string("elev_UpperLmtSw2"),
+		dElevPosition = Robot.dashboard.number("elev_Position", 0.01),
+		dElevProfPos = Robot.dashboard.number("elev_Prof_Pos", 0.01),
+		dElevProfVel = Robot.dashboard.number("elev_Prof_Vel", 0.05),
+		dElevProfFF = Robot.dashboard.number("elev_Prof_FF", 0.001),
+		dElevEncoder = Robot.dashboard.number("elev_Encoder", 1),
+		dElevCurrPwr = Robot.dashboard.number("elev_CurrPwr", 0.01),
+		dElevGear = Robot.dashboard.string("Elev_Gear");
+
 	public void update_SmartDashboard() {
-     	if( isLowerLmtSw_Pressed())		SmartDashboard.putString("elev_LowerLmtSw", "Pressed") ;
-		else			     			SmartDashboard.putString("elev_LowerLmtSw", "NOT Pressed") ;
+     	if( isLowerLmtSw_Pressed())		dElevLowerLmtSw.set("Pressed") ;
+		else			     			dElevLowerLmtSw.set("NOT Pressed") ;
 		
-     	if( isUpperLmtSw_Pressed())		SmartDashboard.putString("elev_UpperLmtSw", "Pressed") ;
-     	else			     			SmartDashboard.putString("elev_UpperLmtSw", "NOT Pressed") ;
+     	if( isUpperLmtSw_Pressed())		dElevUpperLmtSw.set("Pressed") ;
+     	else			     			dElevUpperLmtSw.set("NOT Pressed") ;
 	 
-		if( isLowerLmtSw1_Pressed())	SmartDashboard.putString("elev_LowerLmtSw1", "Pressed") ;
-     	else			     			SmartDashboard.putString("elev_LowerLmtSw1", "NOT Pressed") ;
+		if( isLowerLmtSw1_Pressed())	dElevLowerLmtSw1.set("Pressed") ;
+     	else			     			dElevLowerLmtSw1.set("NOT Pressed") ;
 
-		if( isLowerLmtSw2_Pressed())	SmartDashboard.putString("elev_LowerLmtSw2", "Pressed") ;
-     	else			     			SmartDashboard.putString("elev_LowerLmtSw2", "NOT Pressed") ;
+		if( isLowerLmtSw2_Pressed())	dElevLowerLmtSw2.set("Pressed") ;
+     	else			     			dElevLowerLmtSw2.set("NOT Pressed") ;
 
-     	if( isUpperLmtSw1_Pressed())	SmartDashboard.putString("elev_UpperLmtSw1", "Pressed") ;
-     	else			     			SmartDashboard.putString("elev_UpperLmtSw1", "NOT Pressed") ;
+     	if( isUpperLmtSw1_Pressed())	dElevUpperLmtSw1.set("Pressed") ;
+     	else			     			dElevUpperLmtSw1.set("NOT Pressed") ;
 
-     	if( isUpperLmtSw2_Pressed())	SmartDashboard.putString("elev_UpperLmtSw2", "Pressed") ;
-		else			     			SmartDashboard.putString("elev_UpperLmtSw2", "NOT Pressed") ;
+     	if( isUpperLmtSw2_Pressed())	dElevUpperLmtSw2.set("Pressed") ;
+		else			     			dElevUpperLmtSw2.set("NOT Pressed") ;
 		 
-		SmartDashboard.putNumber("elev_Position", 	Rmath.mRound(getElevPosition(),2)) ;
-		SmartDashboard.putNumber("elev_Encoder",	Rmath.mRound(getElevEncoder(), 3)) ;
+		dElevPosition.set(Rmath.mRound(getElevPosition(),2)) ;
+		dElevProfPos.set(Rmath.mRound(mProfPos,2)) ;
+		dElevProfVel.set(Rmath.mRound(mProfVel,2)) ;
+		dElevProfFF.set(Rmath.mRound(mProfFF,3)) ;
+		dElevEncoder.set(Rmath.mRound(getElevEncoder(), 3)) ;
 		      	
-		SmartDashboard.putNumber("elev_CurrPwr", 	mCurrElevPwr) ;
+		dElevCurrPwr.set(mCurrElevPwr) ;
 		 
-		if (trans == Gear.HI) 			SmartDashboard.putString("Elev_Gear", "High");
-		else 							SmartDashboard.putString("Elev_Gear", "Low");
+		if (trans == Gear.HI) 			dElevGear.set("High");
+		else 							dElevGear.set("Low");
 	}
 	
 	public void logData() {
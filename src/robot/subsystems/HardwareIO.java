@@ -0,0 +1,37 @@
+package robot.subsystems;
+
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
+import com.kauailabs.navx.frc.AHRS;
+
+import edu.wpi.first.wpilibj.DigitalInput;
+import robot.utils.GyroIO;
+import robot.utils.MotorIO;
+import robot.utils.SwitchIO;
+
+/**
+ * The real devices behind MotorIO, GyroIO and SwitchIO.
+ */
+final class HardwareIO {
+    private HardwareIO() {}
+
+    static MotorIO talon(final WPI_TalonSRX talon) {
+        return new MotorIO() {
+            public void set(double pwr)                     { talon.set(pwr); }
+            public int getSelectedSensorPosition(int idx)   { return talon.getSelectedSensorPosition(idx); }
+            public int getSelectedSensorVelocity(int idx)   { return talon.getSelectedSensorVelocity(idx); }
+        };
+    }
+
+    static GyroIO navx(final AHRS ahrs) {
+        return new GyroIO() {
+            public float getYaw()       { return ahrs.getYaw(); }
+            public void zeroYaw()       { ahrs.zeroYaw(); }
+        };
+    }
+
+    static SwitchIO input(final DigitalInput input) {
+        return new SwitchIO() {
+            public boolean get()        { return input.get(); }
+        };
+    }
+}
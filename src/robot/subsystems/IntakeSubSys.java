@@ -26,6 +26,10 @@ import edu.wpi.first.wpilibj.DoubleSolenoid;
 import edu.wpi.first.wpilibj.Solenoid;
 
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=IMPORTS
+import robot.Robot;
+import robot.utils.CanFrameProfile;
+import robot.utils.DashboardPublisher;
+import robot.utils.LoopProfiler;
 
 
 /**
@@ -121,6 +125,7 @@ public class IntakeSubSys extends Subsystem {
 
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CONSTRUCTORS
         intakeRollerMtr.setSafetyEnabled(false);
+        CanFrameProfile.apply(intakeRollerMtr, CanFrameProfile.Role.OPEN_LOOP);
     }
 
     @Override
@@ -136,6 +141,7 @@ public class IntakeSubSys extends Subsystem {
 
     @Override
     public void periodic() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
 
         if      (liftValveOnRaised())      { intakeLiftValve.set(DoubleSolenoid.Value.kForward);  }
         else                               { intakeLiftValve.set(DoubleSolenoid.Value.kReverse);  }
@@ -146,6 +152,8 @@ public class IntakeSubSys extends Subsystem {
     
         if ( displayCtr % 5 == 0) update_SmartDashboard();      // Update dsiplay every 100 ms
         displayCtr++;
+
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.INTAKE, t0);
     }
 
     // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CMDPIDGETTERS
@@ -243,40 +251,54 @@ public class IntakeSubSys extends Subsystem {
         return false;
     }
         
+    // only sent when they change
+    private final DashboardPublisher.Entry
+        dIntakeHatchSensor = Robot.dashboard.string("Intake_HatchSensor"),
+        dIntakeCargoHalfway1Sensor = Robot.dashboard.string("Intake_CargoHalfway1Sensor"),
+        dIntakeCargoHalfway2Sensor = Robot.dashboard.string("Intake_CargoHalfway2Sensor"),
+        dIntakeLiftLoweredSensor = Robot.dashboard.string("Intake_LiftLoweredSensor"),
+        dIntakeLiftMidSensor = Robot.dashboard.string("Intake_LiftMidSensor"),
+        dIntakeRaisedSensor = Robot.dashboard.string("Intake_RaisedSensor"),
+        dIntakeLiftValveState = Robot.dashboard.string("Intake_LiftValveState"),
+        dIntakeRollerValveState = Robot.dashboard.string("Intake_RollerValveState"),
+        dIntakeRollerState = Robot.dashboard.string("Intake_RollerState"),
+        dIntakeRollerRaisedSw = Robot.dashboard.string("Intake_RollerRaisedSw"),
+        dIntakeRollerLoweredSw = Robot.dashboard.string("Intake_RollerLoweredSw");
+
     private void update_SmartDashboard() {
-        if (isHatchDetected() == true)          SmartDashboard.putString("Intake_HatchSensor", "Pressed"); 
-        else                                    SmartDashboard.putString("Intake_HatchSensor", "Not Pressed");
+        if (isHatchDetected() == true)          dIntakeHatchSensor.set("Pressed"); 
+        else                                    dIntakeHatchSensor.set("Not Pressed");
 
-        if (isCargoHalfway1Detected() == true)  SmartDashboard.putString("Intake_CargoHalfway1Sensor", "Pressed");
-        else                                    SmartDashboard.putString("Intake_CargoHalfway1Sensor", "Not Pressed");
+        if (isCargoHalfway1Detected() == true)  dIntakeCargoHalfway1Sensor.set("Pressed");
+        else                                    dIntakeCargoHalfway1Sensor.set("Not Pressed");
 
-        if (isCargoHalfway2Detected() == true)  SmartDashboard.putString("Intake_CargoHalfway2Sensor", "Pressed");
-        else                                    SmartDashboard.putString("Intake_CargoHalfway2Sensor", "Not Pressed");
+        if (isCargoHalfway2Detected() == true)  dIntakeCargoHalfway2Sensor.set("Pressed");
+        else                                    dIntakeCargoHalfway2Sensor.set("Not Pressed");
         
-        if (isLiftLoweredPos() == true)         SmartDashboard.putString("Intake_LiftLoweredSensor", "Pressed"); 
-        else                                    SmartDashboard.putString("Intake_LiftLoweredSensor", "Not Pressed");
+        if (isLiftLoweredPos() == true)         dIntakeLiftLoweredSensor.set("Pressed"); 
+        else                                    dIntakeLiftLoweredSensor.set("Not Pressed");
 
-        if (isLiftMidPos() == true)             SmartDashboard.putString("Intake_LiftMidSensor", "Pressed"); 
-        else                                    SmartDashboard.putString("Intake_LiftMidSensor", "Not Pressed");
+        if (isLiftMidPos() == true)             dIntakeLiftMidSensor.set("Pressed"); 
+        else                                    dIntakeLiftMidSensor.set("Not Pressed");
 
-        if (isLiftRaisedPos() == true)          SmartDashboard.putString("Intake_RaisedSensor", "Pressed"); 
-        else                                    SmartDashboard.putString("Intake_RaisedSensor", "Not Pressed");
+        if (isLiftRaisedPos() == true)          dIntakeRaisedSensor.set("Pressed"); 
+        else                                    dIntakeRaisedSensor.set("Not Pressed");
 
 
-        if (liftValve == IntakeValve.RAISED)    SmartDashboard.putString("Intake_LiftValveState", "Raised");
-        if (liftValve == IntakeValve.LOWERED)   SmartDashboard.putString("Intake_LiftValveState", "Lowered");
+        if (liftValve == IntakeValve.RAISED)    dIntakeLiftValveState.set("Raised");
+        if (liftValve == IntakeValve.LOWERED)   dIntakeLiftValveState.set("Lowered");
 
-        if (rollerValve == IntakeValve.RAISED)  SmartDashboard.putString("Intake_RollerValveState", "Raised");
-        if (rollerValve == IntakeValve.LOWERED) SmartDashboard.putString("Intake_RollerValveState", "Lowered");
+        if (rollerValve == IntakeValve.RAISED)  dIntakeRollerValveState.set("Raised");
+        if (rollerValve == IntakeValve.LOWERED) dIntakeRollerValveState.set("Lowered");
         
-        if (rollerState == RollerState.STOPPED)  SmartDashboard.putString("Intake_RollerState", "STOPPED");
-        if (rollerState == RollerState.EJECT)    SmartDashboard.putString("Intake_RollerState", "EJECTING");
-        if (rollerState == RollerState.RETRACT)  SmartDashboard.putString("Intake_RollerState", "RETRACTING");
+        if (rollerState == RollerState.STOPPED)  dIntakeRollerState.set("STOPPED");
+        if (rollerState == RollerState.EJECT)    dIntakeRollerState.set("EJECTING");
+        if (rollerState == RollerState.RETRACT)  dIntakeRollerState.set("RETRACTING");
 
-        if ( isRollerValveAtTop() == true )      SmartDashboard.putString("Intake_RollerRaisedSw", "Tripped");
-        else                                     SmartDashboard.putString("Intake_RollerRaisedSw", "NOT Tripped");
+        if ( isRollerValveAtTop() == true )      dIntakeRollerRaisedSw.set("Tripped");
+        else                                     dIntakeRollerRaisedSw.set("NOT Tripped");
 
-        if ( isRollerValveAtBottom() == true )   SmartDashboard.putString("Intake_RollerLoweredSw", "Tripped");
-        else                                     SmartDashboard.putString("Intake_RollerLoweredSw", "NOT Tripped");
+        if ( isRollerValveAtBottom() == true )   dIntakeRollerLoweredSw.set("Tripped");
+        else                                     dIntakeRollerLoweredSw.set("NOT Tripped");
     }
 }
@@ -16,12 +16,19 @@ import robot.Robot;
 //import robot.commands.*;
 import edu.wpi.first.wpilibj.command.Subsystem;
 import java.io.File;
+import java.io.FileOutputStream;
 //import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.Joystick;
+import robot.utils.DriveTelemetry;
+import robot.utils.LogDecoder;
+import robot.utils.LogRingBuffer;
+import robot.utils.LoopProfiler;
+import robot.utils.MappedLogFile;
 
 // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=IMPORTS
 
@@ -42,20 +49,32 @@ public class Logger extends Subsystem {
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=DECLARATIONS
     String fileName;
 	String base = "/home/lvuser/log"; 
-	String msg;  
-	java.io.PrintStream outFile;
+	String ext = ".bin";
 	String current, last, logDateTime;
 	File currentFile, lastFile, logDateTimeFile;
 	
 	boolean bool = false;
 	
-	String line;
-	Vector<String> lines = new Vector<>();
 	public Timer logTimer = new Timer();
 	public int logFlag = 0;
 
 	double time, lastTime, leftLastDist, rightLastDist, avgLastDist, LogFlag;
 
+	// ------------- Binary log buffer and background writer -------------
+	private static final int RING_RECORDS = 4096;			// 2 MB of preallocated records
+	private static final long WRITER_PERIOD_MS = 100;		// drain to disk 10x/sec.
+	private static final long OPEN_RETRY_MS = 1000;			// try again this often if the file wouldn't open
+	private LogRingBuffer ring = new LogRingBuffer(RING_RECORDS);
+	private FileOutputStream outFile;
+	private LogWriterThread writer;
+
+	// ------------- Crash-safe mapped log file and rotation -------------
+	private static final boolean USE_MAPPED_FILE = true;		// false = stream records from the writer thread
+	private static final int MAPPED_FILE_BYTES = 8 * 1024 * 1024;	// pre-sized length of each mapped log file
+	private static final long MAX_LOG_BYTES = 64 * 1024 * 1024;	// total bytes of logs kept on the RIO
+	private static final int MAX_LOG_FILES = 99;					// logNN naming limit
+	private volatile MappedLogFile mappedFile;
+
     public Logger() {
         // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CONSTRUCTORS
 
@@ -82,12 +101,18 @@ public class Logger extends Subsystem {
 
     @Override
     public void periodic() {
-		//  15" sandstorm auto 135" teleop total 150 seconds
-        if ((logFlag != 0) && (logTimer.get() > 152)) {
-			// we have finished the match it is now time to 
-            // flush contents to file after 150 seconds if there are entries in the buffer
-            printLog();							
-        }	
+		long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
+		// Entries are drained to disk continuously, so there is no longer
+		// an end of match flush to do here. A mapped file is written every
+		// cycle (a memory copy) and the writer thread syncs it to flash.
+		// Once it is full the writer thread starts the next one, records
+		// wait in the ring until then.
+		MappedLogFile mapped = mappedFile;
+		if (mapped != null) {
+			mapped.write(ring);
+		}
+
+		if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.LOGGER, t0);
     }
 
     // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CMDPIDGETTERS
@@ -101,35 +126,8 @@ public class Logger extends Subsystem {
     // ------------------------- Subsystem Methods ----------------------------
     public void createFile(){
     	System.out.println("Logger Creating file");
-    	// Remove log file 30 to make room
-    	last = new String(base + "15.csv"); 
-    	lastFile = new File(last);
-	    System.out.println("attempting log15.csv delete");
-   		bool = lastFile.delete();
-   		if (bool)
-   		    System.out.println("log15.csv delete SUCCESS");
-   		else
-   		    System.out.println("NO log15.csv to delete!");
-   		
-    	// Rename remaining files 9-1 to 10-2 (incrementing the file count)
-	    System.out.println("\nRenaming files 1-9\n");
-    	for (int i = 14; i > 0; i--){
-    		if (i < 10) {
-    			current = new String(base + "0" + i + ".csv");
-    		} else {
-    			current = new String(base + i + ".csv");
-    		}
-    		//System.out.println("i =" + i + " current=" + current + "   rename to " + last);
-    		currentFile = new File(current);
-   			bool = currentFile.renameTo(lastFile);	// Rename files 9-1
-   	   		if (bool)
-   	    		System.out.println("Renamed current file = " + current + "  to " + last);   	   			
-   	   		    //System.out.println(current + " rename SUCCESS");
-   	   		else
-   	   		    System.out.println("NO " + current + " to rename!");
-    		last = new String(current);
-    		lastFile = new File(last); 
-    	}
+    	rotateFiles();
+    	last = logName(1);
 	
     	// Open Log file for Output
 
@@ -139,30 +137,98 @@ public class Logger extends Subsystem {
 		// logDateTime= "2018-03-07 10-29-59"
 		logDateTimeFile = new File(logDateTime);
     	
+		openLogFile();
+		startTimer();
+    	writer = new LogWriterThread();
+    	writer.start();
+    	appendLog("****** LOG FILE ( " + last + " )    Created at " + logDateTime + " *******");
+    }
+
+    private void openLogFile(){
     	try{  
-    		// Create a PrintStream attached to a file named last log1.csv.
-    		outFile = new java.io.PrintStream(last);
+    		if (USE_MAPPED_FILE) {
+    			// Pre-sized mapped file, records are copied in every cycle
+    			mappedFile = new MappedLogFile(last, MAPPED_FILE_BYTES);
+    		} else {
+    			// Open log01.bin and write the file header the decoder checks for
+    			outFile = new FileOutputStream(last);
+    			ByteBuffer header = ByteBuffer.allocate(LogDecoder.FILE_HEADER_SIZE);
+    			header.putInt(LogDecoder.FILE_MAGIC);
+    			header.putInt(LogDecoder.FILE_VERSION);
+    			outFile.write(header.array());
+    		}
     		System.out.println("success in opening new log file..." + last);
-			startTimer();
     	}
     	catch(Exception e){
     		System.out.println("Error in opening new log file..." + last);         	
     		System.out.println(e);
+    		if (outFile != null) {
+    			try { outFile.close(); } catch (Exception ce) { }
+    		}
+    		outFile = null;
+    		mappedFile = null;
     	}
-    	appendLog("****** LOG FILE ( " + last + " )    Created at " + logDateTime + " *******");
     }
 
+    // Make room for a new log01 by renaming logNN to logNN+1. Oldest files are
+    // deleted until the logs left on disk plus the new file fit in MAX_LOG_BYTES.
+    private void rotateFiles(){
+    	int count = 0;
+    	long total = 0;
+    	while ((count < MAX_LOG_FILES) && new File(logName(count + 1)).exists()) {
+    		MappedLogFile.trim(new File(logName(count + 1)));		// full size if the robot went down with it open
+    		total += new File(logName(count + 1)).length();
+    		count++;
+    	}
+    	System.out.println("Found " + count + " log files using " + total + " bytes");
+
+    	// Remove oldest files to make room
+    	while ((count > 0) && (((total + MAPPED_FILE_BYTES) > MAX_LOG_BYTES) || (count >= MAX_LOG_FILES))) {
+    		currentFile = new File(logName(count));
+    		total -= currentFile.length();
+    		bool = currentFile.delete();
+   	   		if (bool)
+   	   		    System.out.println(logName(count) + " delete SUCCESS");
+   	   		else
+   	   		    System.out.println("Could not delete " + logName(count));
+    		count--;
+    	}
+
+    	// Rename remaining files count..1 to count+1..2 (incrementing the file count)
+    	for (int i = count; i > 0; i--){
+    		current = logName(i);
+    		currentFile = new File(current);
+    		bool = currentFile.renameTo(new File(logName(i + 1)));
+   	   		if (bool)
+   	    		System.out.println("Renamed current file = " + current + "  to " + logName(i + 1));
+   	   		else
+   	   		    System.out.println("NO " + current + " to rename!");
+    	}
+    }
+
+    private String logName(int i){
+    	return base + String.format("%02d", i) + ext;
+    }
+
+    // Writer thread only, the renames and deletes are too slow for the robot loop
+    private void createNextMappedFile(){
+    	rotateFiles();
+    	last = logName(1);
+    	openLogFile();
+    	appendLog("****** LOG FILE ( " + last + " )    Continued from previous file *******");
+    }
+
+    // Entries are written continuously, this just forces an
+    // immediate drain (e.g. from LoggerWriteCmd). The writer is unparked,
+    // not interrupted: an interrupt left pending would close the channel
+    // of the next file it maps (ClosedByInterruptException).
     public void printLog(){
     	System.out.println("Logger printlog function called"); 
-
-    	for (String element : lines) {
-    		//System.out.println(element);         	
-    		outFile.println(element);	
+    	if (mappedFile != null) {
+    		mappedFile.write(ring);
     	}
-    	outFile.flush();    	// Flush all buffered data to the file.
-    	lines.clear();
+    	writer.drainNow();
     	logFlag = 0;			// Show that there is nothing in buffer
-    	//outFile.close();		// Close the file (by closing the PrintStream).
     }
 
     public void startTimer(){
@@ -176,49 +242,147 @@ public class Logger extends Subsystem {
     }
 
     public void appendLog(String s){
-    	logFlag = 1;						// we have log entry in buffer
     	time = Robot.sysTimer.get();
-    	lines.add(String.valueOf(time)+", " + s);
+    	synchronized (ring) {
+    		logFlag = 1;						// we have log entry in buffer
+    		if (ring.begin(time, LogDecoder.CH_TEXT)) {
+    			ring.putText(s);
+    			ring.commit();
+    		}
+    	}
     }
 
     public void appendLog(String s, double d){
-    	logFlag = 1;						// we have log entry in buffer
     	time = Robot.sysTimer.get();
-    	lines.add(String.valueOf(time)+", " + s + ", " + String.valueOf(d));
+    	synchronized (ring) {
+    		logFlag = 1;						// we have log entry in buffer
+    		if (ring.begin(time, LogDecoder.CH_VALUE)) {
+    			ring.putDouble(d);
+    			ring.putText(s);
+    			ring.commit();
+    		}
+    	}
     }
 
     public void appendLog(String type, String sys, String s ){
-    	logFlag = 1;						// we have log entry in buffer
     	time = Robot.sysTimer.get();
-    	lines.add(String.valueOf(time)+", " + type + ", " + sys + ", " + s);
+    	synchronized (ring) {
+    		logFlag = 1;						// we have log entry in buffer
+    		if (ring.begin(time, LogDecoder.CH_TEXT)) {
+    			ring.putText(type);
+    			ring.putText(", ");
+    			ring.putText(sys);
+    			ring.putText(", ");
+    			ring.putText(s);
+    			ring.commit();
+    		}
+    	}
     }
 
 
     public void logJoyAxis(Joystick joy){
-    	logFlag = 1;						// we have log entry in buffer
-    	line = String.valueOf(time) + ", Debug, Joystick";
-    	//line += ", Xaxis=," + String.valueOf(Robot.drivetrain.JoyXaxis);
-    	//line += ", Yaxis=," + String.valueOf(Robot.drivetrain.JoyYaxis);
-    	//line += ", Twist=," + String.valueOf(Robot.drivetrain.JoyTwist);
-    	//line += ", Throttle=," + String.valueOf(Robot.drivetrain.JoyThrottle);
-    	//line += ", RevBtn=," + String.valueOf(Robot.drivetrain.JoyReverse);
-    	lines.add(line);
+    	synchronized (ring) {
+    		logFlag = 1;						// we have log entry in buffer
+    		if (ring.begin(time, LogDecoder.CH_TEXT)) {
+    			ring.putText("Debug, Joystick");
+    			ring.commit();
+    		}
+    	}
     }
 
 	public void appendLogPosition(String s ){
-    	logFlag = 1;						// we have log entry in buffer
 		time = Robot.sysTimer.get();
 		double x =			 Robot.drivetrain.getPositionX();
 		double y =  		 Robot.drivetrain.getPositionY();
 		double posTracker = Robot.drivetrain.getTrackerYaw();
 		double gyroYaw = 	 Robot.drivetrain.getGyroYaw();
-		msg = String.format(" X=,%g, Y=,%g,GyroYaw=,%g, TrackerYaw=,%g" , x , y, gyroYaw , posTracker);
-    	lines.add(String.valueOf(time) + "," + s + "," + msg);
+		synchronized (ring) {
+			logFlag = 1;						// we have log entry in buffer
+			if (ring.begin(time, LogDecoder.CH_POSITION)) {
+				ring.putDouble(x);
+				ring.putDouble(y);
+				ring.putDouble(gyroYaw);
+				ring.putDouble(posTracker);
+				ring.putText(s);
+				ring.commit();
+			}
+		}
+	}
+	
+	// Structured drivetrain record, formatted off-robot by LogDecoder
+	public void logTelemetry(DriveTelemetry t){
+		time = Robot.sysTimer.get();
+		synchronized (ring) {
+			logFlag = 1;						// we have log entry in buffer
+			if (ring.begin(time, LogDecoder.CH_DRIVETRAIN)) {
+				t.writeTo(ring);
+				ring.commit();
+			}
+		}
 	}
 	
     //public void setLogFlag(double flag)	{  	LogFlag = flag; }
     //public double getLogFlag()			{ 	return LogFlag; }
-    public void clearLog()				{  	lines.clear();  }
+    public void clearLog()				{  	ring.clear();  }
 
-}
+    public long getDroppedCount()		{	return ring.getDropped(); }
 
+    // ------------------------------------------------------------------------
+    // ---------------- Background thread that drains the ring ----------------
+    private class LogWriterThread extends Thread {
+    	// only streaming copies through here, a mapped file drains straight in
+    	private final byte[] batch = USE_MAPPED_FILE ? null : new byte[RING_RECORDS * LogRingBuffer.RECORD_SIZE];
+    	private long lastOpenTry = System.currentTimeMillis();
+
+    	LogWriterThread() {
+    		super("LogWriter");
+    		setDaemon(true);
+    		setPriority(Thread.MIN_PRIORITY);
+    	}
+
+    	@Override
+    	public void run() {
+    		while (true) {
+    			drain();
+    			LockSupport.parkNanos(WRITER_PERIOD_MS * 1000000L);		// unparked early by drainNow()
+    		}
+    	}
+
+    	void drainNow() {
+    		LockSupport.unpark(this);
+    	}
+
+    	private void drain() {
+    		if ((mappedFile == null) && (outFile == null)) {
+    			// no file open: records wait in the ring (dropped only once
+    			// it fills) while we keep trying
+    			long now = System.currentTimeMillis();
+    			if ((now - lastOpenTry) < OPEN_RETRY_MS) { return; }
+    			lastOpenTry = now;
+    			openLogFile();
+    			if ((mappedFile == null) && (outFile == null)) { return; }
+    			appendLog("****** LOG FILE ( " + last + " )    Opened on retry *******");
+    		}
+    		MappedLogFile mapped = mappedFile;
+    		if (mapped != null) {
+    			if (mapped.isFull()) {
+    				// Start the next file, log01 becomes log02
+    				mapped.close();
+    				createNextMappedFile();
+    				return;
+    			}
+    			// records were copied in by periodic(), just sync them
+    			mapped.force();
+    			return;
+    		}
+    		int n = ring.drain(batch);
+    		if (n == 0) { return; }
+    		try {
+    			outFile.write(batch, 0, n);
+    		} catch (Exception e) {
+    			System.out.println("Error writing log file..." + last);
+    			System.out.println(e);
+    		}
+    	}
+    }
+}
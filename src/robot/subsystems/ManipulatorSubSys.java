@@ -26,6 +26,10 @@ import edu.wpi.first.wpilibj.Solenoid;
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=IMPORTS
 
 //import robot.utils.*;
+import robot.Robot;
+import robot.utils.CanFrameProfile;
+import robot.utils.DashboardPublisher;
+import robot.utils.LoopProfiler;
 /**
  *
  */
@@ -111,6 +115,7 @@ public class ManipulatorSubSys extends Subsystem {
 
     // END AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CONSTRUCTORS
 
+        CanFrameProfile.apply(cargoMtr, CanFrameProfile.Role.OPEN_LOOP);
     }
 
     @Override
@@ -126,6 +131,7 @@ public class ManipulatorSubSys extends Subsystem {
 
     @Override
     public void periodic() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
         // Put code here to be run every loop
         if (grabberValve == GrabberPos.OPEN) {    hatchGrabberValve.set(true); }
         else                                 {    hatchGrabberValve.set(false); }
@@ -141,6 +147,8 @@ public class ManipulatorSubSys extends Subsystem {
 
         if ( displayCtr % 5 == 0) update_SmartDashboard();      // Update display every 100 ms
         displayCtr++;
+
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.MANIPULATOR, t0);
     }
 
    // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CMDPIDGETTERS
@@ -214,37 +222,47 @@ public class ManipulatorSubSys extends Subsystem {
     
 
     
+    // only sent when they change
+    private final DashboardPublisher.Entry
+        dManiPositionSwitch = Robot.dashboard.string("Mani_PositionSwitch"),
+        dManiCargoSwitch = Robot.dashboard.string("Mani_CargoSwitch"),
+        dManiHatchGrabberClosedSwitch = Robot.dashboard.string("Mani_HatchGrabberClosedSwitch"),
+        dGrabberValve = Robot.dashboard.string("Grabber Valve"),
+        dManipulatorPosValve = Robot.dashboard.string("Manipulator Pos-Valve"),
+        dManiRollerState = Robot.dashboard.string("Mani_RollerState"),
+        dGrabberState = Robot.dashboard.string("Grabber State");
+
     private void update_SmartDashboard() {
         //if (isFlipMtrFwdLimitSwitchHit() == true)   SmartDashboard.putString("Mani_FlipFwdLmtSW", "Pressed");
         //else                                        SmartDashboard.putString("Mani_FlipFwdLmtSW", "NOT Pressed");
         //if (isFlipMtrRearLimitSwitchHit() == true)  SmartDashboard.putString("Mani_FlipRearLmtSW", "Pressed");
         //else                                        SmartDashboard.putString("Mani_FlipRearLmtSW", "NOT Pressed");
  
-        if (isSelector_In_Hatch_Position() == true) SmartDashboard.putString("Mani_PositionSwitch", "Hatch Position");
-        else                                        SmartDashboard.putString("Mani_PositionSwitch", "Cargo Position");
+        if (isSelector_In_Hatch_Position() == true) dManiPositionSwitch.set("Hatch Position");
+        else                                        dManiPositionSwitch.set("Cargo Position");
 
-        if (isCargoDetected() == true)              SmartDashboard.putString("Mani_CargoSwitch", "Pressed");
-        else                                        SmartDashboard.putString("Mani_CargoSwitch", "NOT Pressed");
+        if (isCargoDetected() == true)              dManiCargoSwitch.set("Pressed");
+        else                                        dManiCargoSwitch.set("NOT Pressed");
         
         //if (isHatchDetected() == true)              SmartDashboard.putString("Mani_HatchDetected", "Detected");
         //else                                        SmartDashboard.putString("Mani_HatchDetected", "NOT Detected");
 
-        if (isGrabberClosed() == true)              SmartDashboard.putString("Mani_HatchGrabberClosedSwitch", "Pressed");
-        else                                        SmartDashboard.putString("Mani_HatchGrabberClosedSwitch", "NOT Pressed");
+        if (isGrabberClosed() == true)              dManiHatchGrabberClosedSwitch.set("Pressed");
+        else                                        dManiHatchGrabberClosedSwitch.set("NOT Pressed");
 
-        if (isGrabberClosed() == true)                        SmartDashboard.putString("Grabber Valve", "Closed");
-        else                                                SmartDashboard.putString("Grabber Valve", "Open");
+        if (isGrabberClosed() == true)                        dGrabberValve.set("Closed");
+        else                                                dGrabberValve.set("Open");
 
-        if (getManipulatorPos() == ManipulatorPos.HATCH)    SmartDashboard.putString("Manipulator Pos-Valve", "Hatch");
-        else                                                SmartDashboard.putString("Manipulator Pos-Valve", "Cargo");
+        if (getManipulatorPos() == ManipulatorPos.HATCH)    dManipulatorPosValve.set("Hatch");
+        else                                                dManipulatorPosValve.set("Cargo");
 
-        if      (cargoMtrState == CargoMtrState.STOPPED)    SmartDashboard.putString("Mani_RollerState", "STOPPED");
-        else if (cargoMtrState == CargoMtrState.HOLDING)    SmartDashboard.putString("Mani_RollerState", "HOLDING");
-        else if (cargoMtrState == CargoMtrState.RETRACTING) SmartDashboard.putString("Mani_RollerState", "RETRACTING");
-        else if (cargoMtrState == CargoMtrState.EJECTING)   SmartDashboard.putString("Mani_RollerState", "EJECTING");
+        if      (cargoMtrState == CargoMtrState.STOPPED)    dManiRollerState.set("STOPPED");
+        else if (cargoMtrState == CargoMtrState.HOLDING)    dManiRollerState.set("HOLDING");
+        else if (cargoMtrState == CargoMtrState.RETRACTING) dManiRollerState.set("RETRACTING");
+        else if (cargoMtrState == CargoMtrState.EJECTING)   dManiRollerState.set("EJECTING");
         
-        if (grabberValve == GrabberPos.OPEN)                SmartDashboard.putString("Grabber State", "Open");
-        else                                                SmartDashboard.putString("Grabber State", "Closed");
+        if (grabberValve == GrabberPos.OPEN)                dGrabberState.set("Open");
+        else                                                dGrabberState.set("Closed");
 
      
     }
@@ -16,10 +16,19 @@ package robot.subsystems;
 //import edu.wpi.first.wpilibj.livewindow.LiveWindow;
 import edu.wpi.first.wpilibj.command.Subsystem;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import robot.Robot;
+import robot.utils.DashboardPublisher;
+import robot.utils.LoopProfiler;
+import robot.utils.VisionPacketParser;
+import robot.utils.VisionRecord;
+import robot.utils.VisionRecordQueue;
 
 // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=IMPORTS
 
@@ -58,18 +67,32 @@ public class UDPServerSubSys extends Subsystem {
         // setDefaultCommand(new MySpecialCommand());
     }
 
+    // runs every cycle, the message text only goes out when a new one comes in
+    private final DashboardPublisher.Entry
+        dUDPServerStatus = Robot.dashboard.string("UDP Server Status"),
+        dUDPServerLastRcvdMsg = Robot.dashboard.string("UDP Server Last Rcvd Msg"),
+        dUDPRcvdCnt = Robot.dashboard.number("UDP Rcvd Cnt", 0, 0.25),
+        dUDPDroppedCnt = Robot.dashboard.number("UDP Dropped Cnt", 0, 0.25),
+        dUDPMalformedCnt = Robot.dashboard.number("UDP Malformed Cnt", 0, 0.25);
+
     @Override
     public void periodic() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
         // Put code here to be run every loop
 
         if (isRunning()){
-            SmartDashboard.putString("UDP Server Status", "Is Running");
-            SmartDashboard.putString("UDP Server Last Rcvd Msg", getLastMessage(false));
+            dUDPServerStatus.set("Is Running");
+            dUDPServerLastRcvdMsg.set(getLastMessage(false));
+            dUDPRcvdCnt.set(getReceivedCount());
+            dUDPDroppedCnt.set(getDroppedCount());
+            dUDPMalformedCnt.set(getMalformedCount());
         } else {
-            SmartDashboard.putString("UDP Server Status", "Is NOT Running");
-            SmartDashboard.putString("UDP Server Last Rcvd Msg", "");
+            dUDPServerStatus.set("Is NOT Running");
+            dUDPServerLastRcvdMsg.set("");
         }
 
+
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.UDP_SERVER, t0);
     }
 
     // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CMDPIDGETTERS
@@ -112,86 +135,151 @@ public class UDPServerSubSys extends Subsystem {
          temp = "(Not Running)" ;
       return temp ;
     }
+
+    // Copy the oldest parsed vision packet into rec, returns false if there
+    // are none waiting. Only the robot loop may call this (single consumer).
+    public boolean pollVisionRecord(VisionRecord rec) {
+        UdpServer server = mServer;
+        if (server == null) {
+            return false;
+        }
+        return server.getQueue().poll(rec);
+    }
+
+    // ----------------- Receiver counters -----------------
+    public long getReceivedCount()  { return (mServer != null) ? mServer.getReceived() : 0; }
+    public long getDroppedCount()   { return (mServer != null) ? mServer.getQueue().getDropped() : 0; }
+    public long getMalformedCount() { return (mServer != null) ? mServer.getMalformed() : 0; }
 }
 
 // Server class is only visible to this file
 // another thread can shut down this server by calling server.interrupt()
+//
+// Uses a non-blocking DatagramChannel and a Selector so every datagram waiting
+// on the socket is read in one wakeup (no more keeping only the last message).
+// Each packet is read into a reused direct buffer, parsed in place (no Strings)
+// into a VisionRecord slot of the lock-free queue, and the robot loop drains
+// the queue.
 class UdpServer extends Thread 
 { 
-    private DatagramSocket mSocket;
-    // buffer for receiving socket data
-    private byte[] mBuf = new byte[256] ;
-    // string version of what was received
-    private String mDgram = "(No Msg)" ;
- 
+    private static final int QUEUE_SIZE = 64;           // ~1 sec of vision frames
+    private static final int MAX_PACKET = 256;          // longer packets are truncated
+    private static final byte[] STOP_MSG = "*** STOP ***".getBytes();
+
+    private DatagramChannel mChannel;
+    private Selector mSelector;
+    // buffers for receiving socket data, reused for every packet
+    private ByteBuffer mBuf = ByteBuffer.allocateDirect(MAX_PACKET);
+    // raw copy of the last message, only turned into a String when asked for
+    private byte[] mLast = new byte[MAX_PACKET];
+    private int mLastLen = -1;                          // -1 = nothing received yet
+
+    private VisionRecordQueue mQueue = new VisionRecordQueue(QUEUE_SIZE);
+    private VisionPacketParser mParser = new VisionPacketParser();
+    private volatile long mReceived = 0;
+    private volatile long mMalformed = 0;
 	
 	 // PHS NOTE: port>=1024 to avoid 
     // java.net.BindException: Permission denied
     public UdpServer(int port) throws IOException {
-        // open a datagram socket on the indicated port
-        // we accept connections from any client on that port
-        mSocket = new DatagramSocket(port);
-        // allow receive to block for only this amount of msec
-        // this allws the trhead to periodically check for interrupted()
-        // timeout will fire SocketTimeoutException below, but the socket will remain valid
-        mSocket.setSoTimeout(1000);
+        // open a datagram channel on the indicated port
+        // we accept datagrams from any client on that port
+        mChannel = DatagramChannel.open();
+        mChannel.configureBlocking(false);
+        mChannel.socket().bind(new InetSocketAddress(port));
+        mSelector = Selector.open();
+        mChannel.register(mSelector, SelectionKey.OP_READ);
     }
     
-    // another thread can read the datagram by calling this
-    // synchronization is not necessary because this thread only fills mBuf with DatagramSocket.receive()
-    // which is atomic (or so we're told), as is the assignment to mDgram below
+    // another thread can read the last raw datagram by calling this
     public String getDgramString(boolean clearIt) {
       String temp ;
-      if (clearIt) {
-          // we need to do the read and the clear atomically, so don't 
-          // let the server thread change it while we're doing that
-          synchronized(this) {
-              temp = mDgram ;
-              mDgram = "" ;
-          }
+      // we need to do the read and the clear atomically, so don't 
+      // let the server thread change it while we're doing that
+      synchronized(this) {
+          if (mLastLen < 0)
+              temp = "(No Msg)" ;
+          else
+              temp = new String(mLast, 0, mLastLen) ;
+          if (clearIt) 
+              mLastLen = 0 ;
       }
-      // but don't do a lock if we don't need to
-      else 
-          temp = mDgram ;                
       return temp ;
     } 
+
+    // the robot loop is the only consumer of this queue
+    public VisionRecordQueue getQueue()     { return mQueue; }
+    public long getReceived()               { return mReceived; }
+    public long getMalformed()              { return mMalformed; }
  
     // we extended thread, so all communication occurs in this run method    
     public void run() {
         while (!isInterrupted()) {
-            // create a packet for up to our buffer length
-            // if the message is longer than this, it will be truncated
-            // if shorter, the packet length will shrink (thus we create a new one each time)
-            DatagramPacket packet = new DatagramPacket(mBuf, mBuf.length);
-            
             try {
-                // Receive the packet. This will block or timeout and should be atomic.
-                mSocket.receive(packet);
-
-                // do not change this while an outside thread is doing
-                // an atomic read-and-clear
-                synchronized(this) {
-                    mDgram = new String(packet.getData(), 0, packet.getLength());
+                // wait for up to 1 sec for data, this allows the
+                // thread to periodically check for interrupted()
+                if (mSelector.select(1000) == 0) {
+                    continue;
                 }
-                
-                // System.out.println("RCVD: " + mDgram) ;
-                // we allow a client to shut us down as well
-                if (mDgram.equals("*** STOP ***")) {
-                    interrupt();   // yes, we can interrupt ourself, which will exit this loop
-                    System.out.println("Udp server quitting") ;
+                mSelector.selectedKeys().clear();
+
+                // read every datagram that is waiting
+                while (mChannel.receive(mBuf) != null) {
+                    mBuf.flip();
+                    handlePacket(mBuf.remaining());
+                    mBuf.clear();
                 }
             } 
-            catch (SocketTimeoutException to) {
-                // for a timeout, just make a note and try again
-                // having a timeout allows the thread to be interrupted
-                // System.out.println("Udp server receive timed out") ;
-            }
             catch (IOException e) {
                 // for any other exception, maybe we should quit?
                 e.printStackTrace() ;
             }
         }
-        mSocket.close();
-    }  
-}
+        try {
+            mSelector.close();
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace() ;
+        }
+    }
+
+    private void handlePacket(int len) {
+        mReceived++;
+
+        // keep a raw copy of the message, the buffer position is put back
+        // at the start of the packet for the parser.
+        // do not change this while an outside thread is doing
+        // an atomic read-and-clear
+        synchronized(this) {
+            mBuf.get(mLast, 0, len);
+            mBuf.position(0);
+            mLastLen = len;
+        }
+
+        // we allow a client to shut us down as well
+        if (isStopMsg(len)) {
+            interrupt();   // yes, we can interrupt ourself, which will exit this loop
+            System.out.println("Udp server quitting") ;
+            return;
+        }
 
+        VisionRecord rec = mQueue.claim();
+        if (rec == null) {
+            return;             // queue full, counted as dropped by the queue
+        }
+        if (mParser.parse(mBuf, len, rec)) {
+            rec.rxTime = Timer.getFPGATimestamp();
+            mQueue.publish();
+        } else {
+            mMalformed++;
+        }
+    }
+
+    private boolean isStopMsg(int len) {
+        if (len != STOP_MSG.length) { return false; }
+        for (int i = 0; i < len; i++) {
+            if (mBuf.get(i) != STOP_MSG[i]) { return false; }
+        }
+        return true;
+    }
+}
@@ -16,8 +16,11 @@ import robot.utils.Rmath;
 import edu.wpi.first.wpilibj.command.Subsystem;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import robot.Robot;
+import robot.utils.DashboardPublisher;
+import robot.utils.LoopProfiler;
 import robot.utils.MyUdpClient;
 import robot.utils.Position;
+import robot.utils.VisionRecord;
 import robot.utils.Map;
 
 // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=IMPORTS
@@ -55,6 +58,18 @@ public class VisionSubSys extends Subsystem {
     private static int leftMostX, rightMostX;
     private static double tgtSkew;
 
+    // reused for every packet drained from the UDP receiver queue
+    private VisionRecord visRec = new VisionRecord();
+    private VisionRecord lastTgtRec = new VisionRecord();
+
+    // ---- Latency compensation ----
+    private static final double VISION_DEFAULT_LATENCY = 0.1;     // sec, used when there is no TIMESTAMP
+    private static final double VISION_CLOCK_DRIFT_GAIN = 0.001;  // per packet
+    private double visClockOffset = 0;                  // FPGA time - vision TIMESTAMP
+    private boolean visClockValid = false;
+    private double[] capturePose = new double[3];       // x, y, gyro yaw when the picture was taken
+    private Position tgtPos = new Position();           // map target we're looking at
+
     private static enum HUD_POS_UPDATE_FLAG {POST,NOPOST};
     private static HUD_POS_UPDATE_FLAG hud_Pos_Update_Flag = HUD_POS_UPDATE_FLAG.NOPOST;
 
@@ -84,6 +99,7 @@ public class VisionSubSys extends Subsystem {
 
     @Override
     public void periodic() {
+        long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
         //if ( hud_Pos_Update_Flag == HUD_POS_UPDATE_FLAG.POST){
         //        send_PosData_To_HUD();      // Send position data to HUD
         //    }
@@ -101,6 +117,8 @@ public class VisionSubSys extends Subsystem {
         }
 
         //if (hud_Vision_Update_Flag == HUD_VISION_UPDATE_FLAG.VALID_TGT) send_VisionData_To_HUD(); 
+
+        if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.VISION, t0);
     }
 
     // BEGIN AUTOGENERATED CODE, SOURCE=ROBOTBUILDER ID=CMDPIDGETTERS
@@ -128,17 +146,24 @@ public class VisionSubSys extends Subsystem {
     }
 
     public void send_VisionData_To_HUD(){
-        // Get current robot position data from drivetrain
+        // Get the robot position from when the camera took the picture,
+        // the vision data only lines up with that, not with where we are now
         double dist;
         Position currPos = new Position();
-        currPos.x = Robot.drivetrain.getPositionX();
-        currPos.y = Robot.drivetrain.getPositionY();
-        currPos.orientCW = Robot.drivetrain.getGyroYaw();
+        if (!Robot.drivetrain.getPoseAt(getCaptureTime(lastTgtRec), capturePose)) {
+            // picture is older than our pose history, best we can do is now
+            capturePose[0] = Robot.drivetrain.getPositionX();
+            capturePose[1] = Robot.drivetrain.getPositionY();
+            capturePose[2] = Robot.drivetrain.getGyroYaw();
+        }
+        currPos.x = capturePose[0];
+        currPos.y = capturePose[1];
+        currPos.orientCW = capturePose[2];
 
         // ------------- Lookup Possible field based target ----------------------
         // Determine which target were looking at ie) Rocket cargo or Hatch
         // This is to select which distance values to use 
-        Position tgtPos = Map.getTargetPosBasedOnRobotPosition(currPos);
+        Map.getTargetPosBasedOnRobotPosition(currPos, tgtPos);
         
         if (tgtPos.name.equals("Rocket Left Center") ||
             tgtPos.name.equals("Rocket Right Center")) {
@@ -158,11 +183,26 @@ public class VisionSubSys extends Subsystem {
         msg = String.format("Target, %s,%g,%g,%g" , tgtPos.name, tgtPos.x/12.0 , tgtPos.y/12.0, tgtPos.orientCW);
         client.sendMessage(msg);
 
-        // this currently is using Vision Hdg & Distance and current gyro Yaw
-        Position newCurrPos = calcCurrPosFromVisionHdgDist( currPos, visPos, tgtHdg, dist);
+        // this is using Vision Hdg & Distance and the gyro Yaw at capture time
+        Position capturePos = calcCurrPosFromVisionHdgDist( currPos, visPos, tgtHdg, dist);
+
+        // replay the motion since the picture was taken forward to now
+        Position newCurrPos = new Position();
+        newCurrPos.x = capturePos.x + (Robot.drivetrain.getPositionX() - currPos.x);
+        newCurrPos.y = capturePos.y + (Robot.drivetrain.getPositionY() - currPos.y);
+        newCurrPos.orientCW = Robot.drivetrain.getGyroYaw();
+        newCurrPos.name = "";
         msg = String.format("Position, %g,%g,%g" , newCurrPos.x/12.0 , newCurrPos.y/12.0, newCurrPos.orientCW);
         client.sendMessage(msg);
-        Robot.drivetrain.setFieldPosition( newCurrPos );        // Reset drivetrain current field position based on vision
+        if (Drivetrain.USE_POSE_ESTIMATOR) {
+            // blend the fix in by how much we trust it vs the odometry
+            Robot.drivetrain.getPoseEstimator().updateRangeBearing(dist, tgtHdg, tgtPos.x, tgtPos.y,
+                                        Robot.drivetrain.getPositionX() - currPos.x,
+                                        Robot.drivetrain.getPositionY() - currPos.y,
+                                        Rmath.constrainDeg0To180(Robot.drivetrain.getGyroYaw() - capturePose[2]));
+        } else {
+            Robot.drivetrain.setFieldPosition( newCurrPos );    // Reset drivetrain current field position based on vision
+        }
         //client.close();
 
         updateSmartDashboard(msg);
@@ -212,61 +252,38 @@ public class VisionSubSys extends Subsystem {
     }
 
 
+    // Drain every vision packet the UDP receiver has queued since the last
+    // cycle. The newest packet decides whether we have a target this cycle.
     public void check_For_Vision_Data(){
-        String msg = Robot.uDPServerSubSys.getLastMessage(true);
         valid_Vision_Tgt = 0;               // default to 0 no valid vision tgt seen!
         hud_Vision_Update_Flag = HUD_VISION_UPDATE_FLAG.NO_VALID_TGT;       // init in case badd message
 
-        if (msg.equals("")) {
-            return;
-        }
-
-        if (( msg.equals("No Msg")) ||
-            ( msg.equals("(Not Running)"))) {
-                return;
-        }
-
-        String[] fields = msg.split(" ");
-        if (fields.length < 3)  {
-            // No vision message received to send to HUD so get out
-            return;
-        }
-
-        if (fields[0].equals("back")) {
+        boolean gotTgt = false;
+        while (Robot.uDPServerSubSys.pollVisionRecord(visRec)) {
+            updateVisionClock(visRec);
+            if ((visRec.camera == VisionRecord.CAMERA_FRONT) && (visRec.success == 1)) {
+                gotTgt = true;
+                lastTgtRec.copyFrom(visRec);
+            } else {
                 // No valid vision target in view
-                hud_Vision_Update_Flag = HUD_VISION_UPDATE_FLAG.NO_VALID_TGT;
-                return;
-        }
-
-        if (fields[0].equals("front") && fields[1].equals("0")) {
-            // No valid vision target in view
-            hud_Vision_Update_Flag = HUD_VISION_UPDATE_FLAG.NO_VALID_TGT;
-            return;
-        }
-
-        if (fields.length < 8){
-            // we dont have thr right number of fields comming in
-            hud_Vision_Update_Flag = HUD_VISION_UPDATE_FLAG.NO_VALID_TGT;
-            return;
+                gotTgt = false;
+            }
         }
-
-        if (!fields[1].equals("1")){
+        if (!gotTgt) {
             return;
         }
 
         valid_Vision_Tgt = 1;        
         // we must have a valid target
+        camera = "front";
 
-        //Robot.logger.appendLog("Vision Data 0 (Raw UDP Packet)" + msg);        // log raw received data packet
-        camera = fields[0];
-
-        ctrX = Integer.parseInt(fields[2]);
-        topY = Integer.parseInt(fields[3]);
-        tgtHdg = Double.parseDouble(fields[4]);
+        ctrX = lastTgtRec.ctrX;
+        topY = lastTgtRec.topY;
+        tgtHdg = lastTgtRec.heading;
 
-        dist_Gap  = Double.parseDouble(fields[5]);
-        dist_Top_Rocket_Cargo  = Double.parseDouble(fields[6]);
-        dist_Top_Hatch = Double.parseDouble(fields[7]);
+        dist_Gap  = lastTgtRec.distH;
+        dist_Top_Rocket_Cargo  = lastTgtRec.distV;
+        dist_Top_Hatch = lastTgtRec.distVRc;
 
         update_SmartDashboard();
 
@@ -276,6 +293,31 @@ public class VisionSubSys extends Subsystem {
         
     }
 
+    // ------------------------------------------------------------------------
+    // ------------------- Vision latency / clock methods ---------------------
+    // The vision TIMESTAMP is the coprocessor's Unix time. The smallest
+    // (arrival time - TIMESTAMP) seen is the offset to our FPGA clock plus the
+    // shortest network delay. It is allowed to creep up slowly in case the
+    // two clocks drift apart.
+    private void updateVisionClock(VisionRecord rec) {
+        if (rec.timestamp == 0) { return; }
+        double offset = rec.rxTime - rec.timestamp;
+        if ((visClockValid == false) || (offset < visClockOffset)) {
+            visClockOffset = offset;
+            visClockValid = true;
+        } else {
+            visClockOffset += (offset - visClockOffset) * VISION_CLOCK_DRIFT_GAIN;
+        }
+    }
+
+    // FPGA time the picture in this record was taken
+    private double getCaptureTime(VisionRecord rec) {
+        if ((rec.timestamp == 0) || (visClockValid == false)) {
+            return rec.rxTime - VISION_DEFAULT_LATENCY;
+        }
+        return rec.timestamp + visClockOffset;
+    }
+
     public void set_HUD_Pos_Update_On(){
         hud_Pos_Update_Flag = HUD_POS_UPDATE_FLAG.POST;
     }
@@ -327,12 +369,20 @@ public class VisionSubSys extends Subsystem {
 
       // ------------------------------------------------------------------------
     // ------------------------ Smart Dashboard Methods -----------------------
+    // called on every vision record, deadbands hold back the jitter
+    private final DashboardPublisher.Entry
+        dVisionCtrX = Robot.dashboard.number("Vision-CtrX", 1),
+        dVisionTopY = Robot.dashboard.number("Vision-TopY", 1),
+        dVisionBearing = Robot.dashboard.number("Vision-Bearing", 0.05),
+        dVisionHatchDist = Robot.dashboard.number("Vision-Hatch Dist", 0.05),
+        dVisionCargoDist = Robot.dashboard.number("Vision-Cargo Dist", 0.05);
+
     void update_SmartDashboard() {
-        SmartDashboard.putNumber("Vision-CtrX", ctrX);
-        SmartDashboard.putNumber("Vision-TopY", topY);
-        SmartDashboard.putNumber("Vision-Bearing", Rmath.mRound(tgtHdg, 2));
-        SmartDashboard.putNumber("Vision-Hatch Dist", Rmath.mRound(dist_Top_Hatch, 2));
-        SmartDashboard.putNumber("Vision-Cargo Dist", Rmath.mRound(dist_Top_Rocket_Cargo, 2));
+        dVisionCtrX.set(ctrX);
+        dVisionTopY.set(topY);
+        dVisionBearing.set(Rmath.mRound(tgtHdg, 2));
+        dVisionHatchDist.set(Rmath.mRound(dist_Top_Hatch, 2));
+        dVisionCargoDist.set(Rmath.mRound(dist_Top_Rocket_Cargo, 2));
     }
 }
 
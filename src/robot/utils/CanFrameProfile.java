@@ -0,0 +1,149 @@
+package robot.utils;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motorcontrol.StatusFrame;
+import com.ctre.phoenix.motorcontrol.StatusFrameEnhanced;
+import com.ctre.phoenix.motorcontrol.can.BaseMotorController;
+import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+
+import edu.wpi.first.wpilibj.RobotController;
+import robot.Robot;
+
+/**
+ * Status frame periods per motor role, to cut the CAN traffic the Talons
+ * and Victors send back that nobody reads.
+ *
+ *   LEADER_SENSOR  has the encoder we close loops / run odometry on, keeps
+ *                  General + Feedback0 fast, the rest slow
+ *   FOLLOWER       only needs to report it is alive (General 100 ms)
+ *   OPEN_LOOP      rollers etc., General 20 ms for the motor safety / faults
+ *
+ * 255 ms is the slowest the controllers allow. Anything a role slows down
+ * goes stale, e.g. a follower's getOutputCurrent() (Feedback0), so a motor
+ * whose current is read every loop passes feedbackMs to apply() to keep it
+ * at that rate. Motion Magic speeds its own frames back up when it is
+ * configured.
+ *
+ * Preference CAN_01_Frame_Profiles = false leaves the factory periods, so a
+ * run with it off gives the measured "before" for getReport(). The report
+ * also has the estimate from the frame periods, before and after.
+ */
+public class CanFrameProfile {
+    public enum Role {
+        //               General  Fdbk0  AinTemp  Fdbk1  PIDF0  PIDF1   MM   Quad  PulseW
+        LEADER_SENSOR   (10,      10,    160,     255,   160,   255,    160, 255,  255),
+        FOLLOWER        (100,     255,   255,     255,   255,   255,    255, 255,  255),
+        OPEN_LOOP       (20,      255,   255,     255,   255,   255,    255, 255,  255);
+
+        final int[] periods;
+        Role(int... periods) { this.periods = periods; }
+    }
+
+    public static final int TIMEOUT_MS = 10;
+    public static final String PREF_KEY = "CAN_01_Frame_Profiles";
+
+    // frames in the same order as the Role tables, the last two Talon only
+    private static final StatusFrame[] FRAMES = {
+        StatusFrame.Status_1_General, StatusFrame.Status_2_Feedback0, StatusFrame.Status_4_AinTempVbat,
+        StatusFrame.Status_12_Feedback1, StatusFrame.Status_13_Base_PIDF0, StatusFrame.Status_14_Turn_PIDF1,
+        StatusFrame.Status_10_MotionMagic};
+    private static final StatusFrameEnhanced[] TALON_FRAMES = {
+        StatusFrameEnhanced.Status_3_Quadrature, StatusFrameEnhanced.Status_8_PulseWidth};
+    private static final int[] FACTORY_PERIODS = {10, 20, 160, 160, 160, 160, 160, 160, 160};
+
+    // ~128 bits per extended frame with stuffing, on a 1 Mbit/s bus
+    private static final double BITS_PER_FRAME = 128;
+    private static final double BUS_BITS_PER_SEC = 1000000;
+
+    private static double sFactoryFps = 0, sProfileFps = 0;
+    private static int sApplied = 0, sErrors = 0;
+    private static int sUtilSamples = 0;
+    private static double sUtilSum = 0, sUtilMax = 0;
+
+    public static boolean isEnabled() {
+        return Robot.prefs.getBoolean(PREF_KEY, true);
+    }
+
+    public static boolean apply(BaseMotorController mtr, Role role) {
+        return apply(mtr, role, role.periods[1]);
+    }
+
+    // feedbackMs overrides the role's Feedback0 period (e.g. faster for odometry)
+    public static boolean apply(BaseMotorController mtr, Role role, int feedbackMs) {
+        int[] periods = role.periods.clone();
+        periods[1] = feedbackMs;
+        boolean isTalon = mtr instanceof TalonSRX;
+        int n = isTalon ? FACTORY_PERIODS.length : FRAMES.length;
+
+        for (int i = 0; i < n; i++) {
+            sFactoryFps += 1000.0 / FACTORY_PERIODS[i];
+        }
+        if (!isEnabled()) {
+            for (int i = 0; i < n; i++) {
+                sProfileFps += 1000.0 / FACTORY_PERIODS[i];
+            }
+            return false;
+        }
+
+        ErrorCode err = ErrorCode.OK;
+        for (int i = 0; i < FRAMES.length; i++) {
+            err = worst(err, mtr.setStatusFramePeriod(FRAMES[i], periods[i], TIMEOUT_MS));
+        }
+        if (isTalon) {
+            TalonSRX talon = (TalonSRX) mtr;
+            for (int i = 0; i < TALON_FRAMES.length; i++) {
+                err = worst(err, talon.setStatusFramePeriod(TALON_FRAMES[i], periods[FRAMES.length + i], TIMEOUT_MS));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            sProfileFps += 1000.0 / periods[i];
+        }
+        sApplied++;
+        if (err != ErrorCode.OK) {
+            sErrors++;
+            String line = "CAN frame profile " + role + " on device " + mtr.getDeviceID() + " failed " + err;
+            Robot.logger.appendLog(line);
+            System.out.println(line);
+            return false;
+        }
+        return true;
+    }
+
+    private static ErrorCode worst(ErrorCode a, ErrorCode b) {
+        return (a != ErrorCode.OK) ? a : b;
+    }
+
+    // ------------------------------------------------------------------------
+    // Measured bus utilization, sample it from a periodic
+    public static double sampleBusUtilization() {
+        double util = RobotController.getCANStatus().percentBusUtilization * 100;
+        sUtilSamples++;
+        sUtilSum += util;
+        sUtilMax = Math.max(sUtilMax, util);
+        return util;
+    }
+
+    public static double getAvgBusUtilization() {
+        return (sUtilSamples == 0) ? 0 : sUtilSum / sUtilSamples;
+    }
+
+    public static double getMaxBusUtilization()     { return sUtilMax; }
+
+    // status frame traffic of the profiled controllers, as % of the bus
+    public static double getEstFactoryUtilization() { return toPercent(sFactoryFps); }
+    public static double getEstProfileUtilization() { return toPercent(sProfileFps); }
+
+    private static double toPercent(double fps) {
+        return (100 * fps * BITS_PER_FRAME) / BUS_BITS_PER_SEC;
+    }
+
+    public static String getReport() {
+        return "CAN Frames " + (isEnabled() ? "PROFILED" : "FACTORY") + ",Applied=," + sApplied +
+                ",Errors=," + sErrors +
+                ",Est Status fps=," + Rmath.mRound(sFactoryFps, 0) + ",->," + Rmath.mRound(sProfileFps, 0) +
+                ",Est Util %=," + Rmath.mRound(getEstFactoryUtilization(), 1) + ",->," +
+                Rmath.mRound(getEstProfileUtilization(), 1) +
+                ",Measured Util % Avg=," + Rmath.mRound(getAvgBusUtilization(), 1) +
+                ",Max=," + Rmath.mRound(sUtilMax, 1) + ",Samples=," + sUtilSamples;
+    }
+}
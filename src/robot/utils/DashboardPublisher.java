@@ -0,0 +1,190 @@
+package robot.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * SmartDashboard publishing through entry handles looked up once, that only
+ * sends a value when it has changed.
+ *
+ * Each key gets an Entry (keep it in a field) with
+ *   deadband   numbers closer than this to the last sent value are held back
+ *   minPeriod  sec, the key is sent at most this often (its rate budget)
+ * A value held back by the deadband is still sent once it has sat unsent
+ * for REFRESH_PERIOD, so the dashboard ends up showing where it settled.
+ * A held back value stays pending: the next set() after minPeriod sends
+ * the latest one, and so does flush() (once a loop) if no set() comes.
+ * Pick minPeriod a bit under the caller's own period, or loop jitter holds
+ * back every other call.
+ *
+ * The publisher counts what went out (entries, and bytes from the size of
+ * an NT entry update) and what was held back, per second.
+ */
+public class DashboardPublisher {
+    public static final double DEFAULT_MIN_PERIOD = 0.08;      // sec, under the subsystems' 100 ms updates
+    public static final double REFRESH_PERIOD = 1.0;           // sec
+    private static final int UPDATE_OVERHEAD_BYTES = 6;        // msg type, id, seq num, value type
+
+    private final NetworkTable mTable;
+
+    // per second stats, the last full second and the one being counted
+    private double mWindowStart = -1;
+    private int mSent = 0, mHeld = 0, mBytes = 0;
+    private int mSentPerSec = 0, mHeldPerSec = 0, mBytesPerSec = 0;
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    public DashboardPublisher() {
+        this("SmartDashboard");
+    }
+
+    public DashboardPublisher(String table) {
+        mTable = NetworkTableInstance.getDefault().getTable(table);
+    }
+
+    public Entry number(String key, double deadband, double minPeriod) {
+        return new Entry(key, deadband, minPeriod);
+    }
+
+    public Entry number(String key, double deadband) {
+        return new Entry(key, deadband, DEFAULT_MIN_PERIOD);
+    }
+
+    // strings and booleans only go out when they change
+    public Entry string(String key)                     { return new Entry(key, 0, DEFAULT_MIN_PERIOD); }
+    public Entry string(String key, double minPeriod)   { return new Entry(key, 0, minPeriod); }
+    public Entry bool(String key)                       { return new Entry(key, 0, DEFAULT_MIN_PERIOD); }
+
+    // Sends every held back value whose minPeriod is up, call once a loop
+    public void flush() {
+        double now = Timer.getFPGATimestamp();
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry e = mEntries.get(i);
+            if (e.mPending && e.isDue(now)) {
+                e.send(now);
+            }
+        }
+    }
+
+    public class Entry {
+        private final NetworkTableEntry mEntry;
+        private final double mDeadband, mMinPeriod;
+        private final int mKeyBytes;
+        private double mLastTime = -Double.MAX_VALUE;
+        private double mLastNum = Double.NaN;           // last sent
+        private String mLastStr = null;
+        private boolean mLastBool = false;
+        private boolean mSentOnce = false;
+        private char mType = 'n';                       // latest value and whether it differs from the last sent
+        private double mNum;
+        private String mStr;
+        private boolean mBool;
+        private boolean mPending = false;
+
+        private Entry(String key, double deadband, double minPeriod) {
+            mEntry = mTable.getEntry(key);
+            mDeadband = Math.abs(deadband);
+            mMinPeriod = minPeriod;
+            mKeyBytes = key.length();
+            mEntries.add(this);
+        }
+
+        public void set(double value) {
+            mType = 'n';
+            mNum = value;
+            mPending = !mSentOnce || (value != mLastNum);
+            publish();
+        }
+
+        public void set(String value) {
+            mType = 's';
+            mStr = value;
+            mPending = !mSentOnce || !value.equals(mLastStr);
+            publish();
+        }
+
+        public void set(boolean value) {
+            mType = 'b';
+            mBool = value;
+            mPending = !mSentOnce || (value != mLastBool);
+            publish();
+        }
+
+        private void publish() {
+            double now = Timer.getFPGATimestamp();
+            if (!mPending || (mSentOnce && !isDue(now))) {
+                count(now, false, 0);
+                return;
+            }
+            send(now);
+        }
+
+        // a pending value can go out now
+        private boolean isDue(double now) {
+            double age = now - mLastTime;
+            if (age < mMinPeriod) {
+                return false;
+            }
+            return (mType != 'n') || (Math.abs(mNum - mLastNum) > mDeadband) || (age >= REFRESH_PERIOD);
+        }
+
+        // the key name only goes out with the first update (an entry
+        // assignment), later ones refer to it by id
+        private void send(double now) {
+            int valueBytes;
+            if (mType == 'n') {
+                mEntry.setDouble(mNum);
+                mLastNum = mNum;
+                valueBytes = 8;
+            } else if (mType == 's') {
+                mEntry.setString(mStr);
+                mLastStr = mStr;
+                valueBytes = 1 + mStr.length();
+            } else {
+                mEntry.setBoolean(mBool);
+                mLastBool = mBool;
+                valueBytes = 1;
+            }
+            int bytes = UPDATE_OVERHEAD_BYTES + valueBytes + (mSentOnce ? 0 : 1 + mKeyBytes);
+            mLastTime = now;
+            mSentOnce = true;
+            mPending = false;
+            count(now, true, bytes);
+        }
+    }
+
+    private void count(double now, boolean sent, int bytes) {
+        if (mWindowStart < 0) {
+            mWindowStart = now;
+        } else if ((now - mWindowStart) >= 1.0) {
+            double secs = now - mWindowStart;
+            mSentPerSec = (int) Math.round(mSent / secs);
+            mHeldPerSec = (int) Math.round(mHeld / secs);
+            mBytesPerSec = (int) Math.round(mBytes / secs);
+            mSent = 0;
+            mHeld = 0;
+            mBytes = 0;
+            mWindowStart = now;
+        }
+        if (sent) {
+            mSent++;
+            mBytes += bytes;
+        } else {
+            mHeld++;
+        }
+    }
+
+    public int getEntriesPerSec()   { return mSentPerSec; }
+    public int getHeldPerSec()      { return mHeldPerSec; }
+    public int getBytesPerSec()     { return mBytesPerSec; }
+    public int getNumEntries()      { return mEntries.size(); }
+
+    public String getReport() {
+        return "Dashboard,Keys=," + mEntries.size() + ",Sent/s=," + mSentPerSec + ",Held/s=," + mHeldPerSec +
+                ",Bytes/s=," + mBytesPerSec;
+    }
+}
@@ -0,0 +1,264 @@
+package robot.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Gain sweeps for the drive controllers in DriveSimHarness, over a grid or
+ * random samples, spread across every core with a fork-join pool.
+ *
+ * Each combination runs in both gears on its own harness (a harness is one
+ * robot, nothing is shared between threads) with the same sensor noise
+ * seed, so every combination sees the same robot. Its cost is the worse
+ * gear's cost(), lower is better.
+ *
+ * Until DriveSimPlant is fitted to carpet logs this only ranks gains on the
+ * model, it is not tuning output. A combination that ranks first with a
+ * gain on the edge of its Range is flagged: the range is wrong, not the gain.
+ *
+ * It sweeps the straight / rotate SuperPids and DriveArcCmd's follower.
+ * ParkFdbkController, LineFollowController, BearingPid and DistancePid
+ * still read Robot.drivetrain and SmartDashboard themselves; they belong
+ * here once they take their inputs through an interface like DrivePidIO.
+ *
+ *   java robot.utils.DriveParamSweep
+ */
+public class DriveParamSweep {
+    // cost = time to target (timeout if never) + these weights
+    public static final double W_FINAL_ERR = 0.5;      // per in / deg left at the end
+    public static final double W_PATH_ERR = 0.1;       // per in off the path / deg of overshoot
+    private static final int LEAF_SIZE = 8;            // combinations a fork-join task runs itself
+    private static final double EDGE_FRAC = 0.02;      // of a Range's span, counts as its edge
+
+    // One controller run for a set of gains, in the order of the Ranges
+    public interface Scenario {
+        DriveSimHarness.Result run(DriveSimHarness sim, double[] gains);
+    }
+
+    public static class Range {
+        public final String name;
+        public final double min, max;
+        public final int steps;
+
+        public Range(String name, double min, double max, int steps) {
+            this.name = name;
+            this.min = min;
+            this.max = max;
+            this.steps = Math.max(1, steps);
+        }
+
+        double at(int i)            { return (steps == 1) ? min : min + (((max - min) * i) / (steps - 1)); }
+        double at(Random rnd)       { return min + ((max - min) * rnd.nextDouble()); }
+
+        // within EDGE_FRAC of either end (a single value isn't swept, never an edge)
+        boolean isEdge(double v) {
+            double tol = (max - min) * EDGE_FRAC;
+            return (max > min) && ((v <= (min + tol)) || (v >= (max - tol)));
+        }
+    }
+
+    public static class Trial {
+        public final double[] gains;
+        public final DriveSimHarness.Result[] results = new DriveSimHarness.Result[DriveSimPlant.Gear.values().length];
+        public double cost;
+
+        Trial(double[] gains) { this.gains = gains; }
+    }
+
+    private final Scenario mScenario;
+    private final Range[] mRanges;
+    private final long mSeed;
+    private double mTimeout = DriveSimHarness.DEFAULT_TIMEOUT;
+    private double mWallSec = 0;
+    private int mThreads = 0;
+
+    public DriveParamSweep(Scenario scenario, long seed, Range... ranges) {
+        mScenario = scenario;
+        mRanges = ranges;
+        mSeed = seed;
+    }
+
+    public void setTimeout(double sec)  { mTimeout = sec; }
+    public double getWallSec()          { return mWallSec; }
+
+    // ------------------------------------------------------------------------
+    // every combination of every Range's steps
+    public List<double[]> grid() {
+        List<double[]> out = new ArrayList<>();
+        int[] idx = new int[mRanges.length];
+        while (true) {
+            double[] g = new double[mRanges.length];
+            for (int i = 0; i < g.length; i++) {
+                g[i] = mRanges[i].at(idx[i]);
+            }
+            out.add(g);
+            int i = 0;
+            while ((i < idx.length) && (++idx[i] == mRanges[i].steps)) {
+                idx[i] = 0;
+                i++;
+            }
+            if (i == idx.length) {
+                return out;
+            }
+        }
+    }
+
+    // n uniform random combinations inside the Ranges
+    public List<double[]> random(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<double[]> out = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            double[] g = new double[mRanges.length];
+            for (int i = 0; i < g.length; i++) {
+                g[i] = mRanges[i].at(rnd);
+            }
+            out.add(g);
+        }
+        return out;
+    }
+
+    // ------------------------------------------------------------------------
+    // Runs them all on the common pool, returned best first
+    public Trial[] run(List<double[]> combos) {
+        return run(combos, ForkJoinPool.commonPool());
+    }
+
+    public Trial[] run(List<double[]> combos, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        Trial[] trials = new Trial[combos.size()];
+        for (int i = 0; i < trials.length; i++) {
+            trials[i] = new Trial(combos.get(i));
+        }
+        pool.invoke(new SweepTask(trials, 0, trials.length));
+        Arrays.sort(trials, (a, b) -> Double.compare(a.cost, b.cost));
+        mWallSec = (System.nanoTime() - start) / 1e9;
+        mThreads = pool.getParallelism();
+        return trials;
+    }
+
+    // splits its slice of trials in half until it is LEAF_SIZE or less;
+    // each trial is only written by the task that owns its slice
+    private class SweepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Trial[] mTrials;
+        private final int mFrom, mTo;
+
+        SweepTask(Trial[] trials, int from, int to) {
+            mTrials = trials;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ((mTo - mFrom) <= LEAF_SIZE) {
+                for (int i = mFrom; i < mTo; i++) {
+                    evaluate(mTrials[i]);
+                }
+                return;
+            }
+            int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new SweepTask(mTrials, mFrom, mid), new SweepTask(mTrials, mid, mTo));
+        }
+    }
+
+    private void evaluate(Trial t) {
+        t.cost = 0;
+        for (DriveSimPlant.Gear gear : DriveSimPlant.Gear.values()) {
+            DriveSimHarness sim = new DriveSimHarness(gear, mSeed);
+            sim.setTimeout(mTimeout);
+            DriveSimHarness.Result r = mScenario.run(sim, t.gains);
+            t.results[gear.ordinal()] = r;
+            t.cost = Math.max(t.cost, cost(r, mTimeout));
+        }
+    }
+
+    public static double cost(DriveSimHarness.Result r, double timeout) {
+        double t = r.reached ? r.timeToTarget : timeout;
+        return t + (W_FINAL_ERR * Math.abs(r.finalError)) + (W_PATH_ERR * r.maxPathError);
+    }
+
+    // ------------------------------------------------------------------------
+    public String format(Trial t) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("cost=,").append(Rmath.mRound(t.cost, 3));
+        for (int i = 0; i < mRanges.length; i++) {
+            sb.append(",").append(mRanges[i].name).append("=,").append(Rmath.mRound(t.gains[i], 4));
+            if (mRanges[i].isEdge(t.gains[i])) {
+                sb.append(",EDGE");
+            }
+        }
+        for (DriveSimHarness.Result r : t.results) {
+            if (r != null) {
+                sb.append("\n    ").append(r);
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getReport(Trial[] best, int top, Trial baseline) {
+        StringBuilder sb = new StringBuilder();
+        double simSec = 0;
+        for (Trial t : best) {
+            for (DriveSimHarness.Result r : t.results) {
+                simSec += (r != null) ? r.simTime : 0;
+            }
+        }
+        sb.append(best.length).append(" combinations, ").append(Rmath.mRound(simSec, 0)).append(" sim sec in ")
+          .append(Rmath.mRound(mWallSec, 2)).append(" s on ").append(mThreads)
+          .append(" threads, ranked on the sim plant (not tuning output)\n");
+        if ((best.length > 0) && hasEdge(best[0])) {
+            sb.append("  #1 has a gain on the EDGE of its range, widen the range before reading anything into it\n");
+        }
+        if (baseline != null) {
+            sb.append("  current ").append(format(baseline)).append("\n");
+        }
+        for (int i = 0; i < Math.min(top, best.length); i++) {
+            sb.append("  #").append(i + 1).append(" ").append(format(best[i])).append("\n");
+        }
+        return sb.toString();
+    }
+
+    public boolean hasEdge(Trial t) {
+        for (int i = 0; i < mRanges.length; i++) {
+            if (mRanges[i].isEdge(t.gains[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    // Sweeps the straight and point turn PIDs and the arc follower around
+    // Drivetrain's / DriveArcCmd's current gains
+    public static void main(String[] args) {
+        final double tolIn = 1.0, tolDeg = 1.0;
+        System.out.println("DriveSimPlant is not fitted to carpet data: these rank gains on the model only, " +
+                            "don't copy them to the robot");
+
+        DriveParamSweep straight = new DriveParamSweep(
+                (sim, g) -> sim.driveStraight(96, g[0], 0, g[1], 0.015, 0.2, tolIn), 1,
+                new Range("KP", 0.02, 0.2, 19), new Range("KD", 0.0, 0.8, 17));
+        sweep("Drive Straight 96 in", straight, straight.grid(), new double[] {0.076, 0.36});
+
+        DriveParamSweep rotate = new DriveParamSweep(
+                (sim, g) -> sim.rotate(90, g[0], 0, g[1], 0.75, g[2], 0.1, tolDeg), 1,
+                new Range("KP", 0.01, 0.1, 10), new Range("KD", 0.0, 0.4, 9), new Range("BB_UPPER", 0.2, 0.6, 5));
+        sweep("Rotate 90 deg", rotate, rotate.grid(), new double[] {0.048, 0.14, 0.5});
+
+        DriveParamSweep arc = new DriveParamSweep(
+                (sim, g) -> sim.driveArc(48, 48, 0, 90, g[0], g[1], 48, 48), 1,
+                new Range("BasePwr", 0.3, 0.8, 1), new Range("KP", 0.0, 0.3, 1));
+        sweep("Arc R48 90 deg", arc, arc.random(500, 2), new double[] {0.5, 0.1});
+    }
+
+    private static void sweep(String name, DriveParamSweep s, List<double[]> combos, double[] current) {
+        Trial base = s.run(Arrays.asList(new double[][] {current}))[0];
+        Trial[] best = s.run(combos);
+        System.out.println(name + ": " + s.getReport(best, 5, base));
+    }
+}
@@ -0,0 +1,335 @@
+package robot.utils;
+
+import edu.wpi.first.wpilibj.SpeedController;
+import edu.wpi.first.wpilibj.drive.DifferentialDrive;
+import robot.subsystems.DrivePidIO;
+import robot.subsystems.DriveRotatePid;
+import robot.subsystems.DriveSensors;
+import robot.subsystems.DriveStraightPid;
+import robot.subsystems.Drivetrain;
+
+/**
+ * Runs the robot's drive code against DriveSimPlant, headless and as fast
+ * as the CPU goes, to compare gains or controller changes before carpet
+ * time.
+ *
+ * Nothing on the control path is copied: DriveSensors reads the plant
+ * through MotorIO / GyroIO / SwitchIO, the straight and point turn moves
+ * are Drivetrain's own DriveStraightPid / DriveRotatePid (SuperPid, its
+ * ramp, bang-bang, output limits and stop rules) through a DrivePidIO, and
+ * power goes out through a WPILib DifferentialDrive set up by
+ * Drivetrain.configureDrive(). The arc is SimpleArcFollower on a
+ * PositionTracker, as DriveArcCmd has it. Each move ends the way its
+ * command ends it (the PID stops, or the robot got going and stopped),
+ * then the motors go to 0 and the robot comes to rest before the error is
+ * measured. Path errors are against the plant's true pose.
+ *
+ * The plant decides what the numbers mean: see DriveSimPlant for how far
+ * it is from carpet. The commands themselves (CmdParkToXY,
+ * CmdDualPidToCoord, CmdLineFollow, the Auto*CmdGrp groups) need
+ * Robot.drivetrain, whose Talons and NavX have no desktop backend, so they
+ * don't run here.
+ *
+ * DifferentialDrive and Timer need the WPILib desktop HAL on the library
+ * path, as for unit tests. A harness is one robot, so one per thread.
+ *   java robot.utils.DriveSimHarness
+ */
+public class DriveSimHarness {
+    public static final double CONTROL_DT = 0.02;
+    public static final double DEFAULT_TIMEOUT = 8;
+    private static final double SETTLED_SPEED = 2;              // in/s, deg/s for turns
+    private static final double REST_TIMEOUT = 2;               // sec to come to rest after a move
+    // DriveFwdPidCmd's start / stop detection
+    private static final double FWD_START_SPEED = 4.0;          // in/s
+    private static final double FWD_STOP_SPEED = 2.0;
+    private static final int FWD_START_CYCLES = 4;
+    private static final int FWD_STOP_CYCLES = 3;
+    // DrivePointTurnPidCmd's
+    private static final double TURN_START_ANGLE = 1;           // deg
+    private static final double TURN_STOP_RATE = 1.6;           // deg/s
+    private static final int TURN_STOP_CYCLES = 2;
+
+    private final DriveSimPlant mPlant;
+    private final DriveSensors mSensors;
+    private final DifferentialDrive mDrive;
+    private final SimPidIO mIO = new SimPidIO();
+    private final PositionTracker mTracker = new PositionTracker(null, DriveSimPlant.WHEELBASE_IN);
+    private double mTimeout = DEFAULT_TIMEOUT;
+    private double mStartLeft, mStartRight;                     // encoder counts at start()
+
+    public DriveSimHarness(DriveSimPlant.Gear gear, long seed) {
+        mPlant = new DriveSimPlant(seed);
+        mPlant.setGear(gear);
+        SwitchIO open = () -> false;
+        mSensors = new DriveSensors(mPlant.getLeftMotor(), mPlant.getRightMotor(), mPlant.getGyro(), open, open);
+        mDrive = new DifferentialDrive(new SimController(mPlant.getLeftMotor()),
+                                       new SimController(mPlant.getRightMotor()));
+        Drivetrain.configureDrive(mDrive);
+    }
+
+    public void setTimeout(double sec)      { mTimeout = sec; }
+    public DriveSimPlant getPlant()         { return mPlant; }
+
+    // ------------------------------------------------------------------------
+    public static class Result {
+        public final String name;
+        public boolean reached = false;             // at rest within tolerance
+        public double timeToTarget = Double.NaN;    // sec, when the move ended, if reached
+        public double finalError = 0;               // in or deg, at rest
+        public double maxPathError = 0;             // in off the path, or deg of overshoot for turns
+        public double rmsPathError = 0;
+        public double simTime = 0;
+
+        Result(String name) { this.name = name; }
+
+        @Override
+        public String toString() {
+            return name + ",reached=," + reached + ",t=," + (reached ? String.valueOf(Rmath.mRound(timeToTarget, 3)) : "-") +
+                    ",final err=," + Rmath.mRound(finalError, 3) + ",max path err=," + Rmath.mRound(maxPathError, 3) +
+                    ",rms path err=," + Rmath.mRound(rmsPathError, 3) + ",sim t=," + Rmath.mRound(simTime, 2);
+        }
+    }
+
+    // ************************************************************************
+    // Drivetrain.driveStraightPid through DriveFwdPidCmd, holding the start
+    // heading with gyroCorr / gyroCorrLimit (Drivetrain's GYROCORRCNST and
+    // GYROCORRLIMIT)
+    // ************************************************************************
+    public Result driveStraight(double dist, double kp, double ki, double kd,
+                                double gyroCorr, double gyroCorrLimit, double tol) {
+        Result r = new Result("Straight " + dist + " " + mPlant.getGear());
+        start();
+        mIO.mTgtYaw = mSensors.getYaw();
+        mIO.mGyroCorr = gyroCorr;
+        mIO.mGyroCorrLimit = gyroCorrLimit;
+        DriveStraightPid pid = new DriveStraightPid(mIO, dist, kp, ki, kd, 0, Drivetrain.KMOVERT_STRAIGHT);
+        pid.start();
+
+        int state = 0, startCnt = 0, stopCnt = 0, n = 0;
+        double t = 0, sumSq = 0;
+        while ((t < mTimeout) && (state < 2) && (mIO.mStatus != SuperPid.PidStatus.STOPPED)) {
+            pid.step(CONTROL_DT);
+            mPlant.step(CONTROL_DT);
+            t += CONTROL_DT;
+            mSensors.read();
+
+            double speed = avgSpeed();
+            if (state == 0) {
+                startCnt = (Math.abs(speed) > FWD_START_SPEED) ? startCnt + 1 : 0;
+                if (startCnt > (FWD_START_CYCLES - 1)) { state = 1; }
+            } else {
+                stopCnt = (Math.abs(speed) < FWD_STOP_SPEED) ? stopCnt + 1 : 0;
+                if (stopCnt >= FWD_STOP_CYCLES) { state = 2; }
+            }
+            double off = Math.abs(mPlant.getX());               // started at 0,0 facing +y
+            r.maxPathError = Math.max(r.maxPathError, off);
+            sumSq += off * off;
+            n++;
+        }
+        pid.stop();
+        double end = t;
+        r.simTime = end + rest();
+        r.finalError = dist - avgDist();
+        r.reached = Math.abs(r.finalError) <= tol;
+        r.timeToTarget = r.reached ? end : Double.NaN;
+        r.rmsPathError = Math.sqrt(sumSq / Math.max(1, n));
+        return r;
+    }
+
+    // with Drivetrain's gains
+    public Result driveStraight(double dist) {
+        return driveStraight(dist, Drivetrain.KP_STRAIGHT, 0, Drivetrain.KD_STRAIGHT,
+                             Drivetrain.GYROCORRCNST, Drivetrain.GYROCORRLIMIT, Drivetrain.ABS_TOL_IN);
+    }
+
+    // ************************************************************************
+    // Drivetrain.pidRotateTo through DrivePointTurnPidCmd
+    // ************************************************************************
+    public Result rotate(double deg, double kp, double ki, double kd,
+                         double maxOut, double bbUpper, double bbLower, double tol) {
+        Result r = new Result("Rotate " + deg + " " + mPlant.getGear());
+        start();
+        DriveRotatePid pid = new DriveRotatePid(mIO, deg, kp, ki, kd, 0, maxOut, bbUpper, bbLower);
+        pid.start();
+
+        int state = 0, stopCnt = 0;
+        double t = 0;
+        double startYaw = mSensors.getYaw(), lastYaw = startYaw;
+        while ((t < mTimeout) && (state < 2) && (mIO.mStatus != SuperPid.PidStatus.STOPPED)) {
+            pid.step(CONTROL_DT);
+            mPlant.step(CONTROL_DT);
+            t += CONTROL_DT;
+            mSensors.read();
+
+            double yaw = mSensors.getYaw();
+            if (state == 0) {
+                if (Math.abs(startYaw - yaw) > TURN_START_ANGLE) { state = 1; }
+            } else {
+                double rate = (lastYaw - yaw) / CONTROL_DT;
+                stopCnt = (Math.abs(rate) < TURN_STOP_RATE) ? stopCnt + 1 : 0;
+                if (stopCnt >= TURN_STOP_CYCLES) { state = 2; }
+            }
+            lastYaw = yaw;
+            double past = -Math.signum(deg) * Math.IEEEremainder(deg - mPlant.getYawDeg(), 360);   // > 0 once it has gone by
+            r.maxPathError = Math.max(r.maxPathError, past);
+        }
+        pid.stop();
+        double end = t;
+        r.simTime = end + rest();
+        r.finalError = Math.IEEEremainder(deg - mPlant.getYawDeg(), 360);
+        r.reached = Math.abs(r.finalError) <= tol;
+        r.timeToTarget = r.reached ? end : Double.NaN;
+        return r;
+    }
+
+    // with Drivetrain's gains
+    public Result rotate(double deg) {
+        return rotate(deg, Drivetrain.KP_ROT, 0, Drivetrain.KD_ROT, Drivetrain.ROT_MAX_PWR,
+                      Drivetrain.ROT_BBANG_UPPER_THRESH, Drivetrain.ROT_BBANG_LOWER_THRESH, Drivetrain.ABS_TOL_DEG);
+    }
+
+    // ************************************************************************
+    // DriveArcCmd: SimpleArcFollower on the encoder position and gyro yaw,
+    // done once x or y gets to the end point. Its tankDrive goes out in the
+    // PIDs' sense, + forward (Drivetrain.tankDrive() negates it for the
+    // commands, which nothing here can check against the carpet)
+    // ************************************************************************
+    public Result driveArc(double radius, double ctrX, double ctrY, double endYaw,
+                           double basePwr, double kp, double endX, double endY) {
+        Result r = new Result("Arc R" + radius + " " + endYaw + " " + mPlant.getGear());
+        start();
+        SimpleArcFollower arc = new SimpleArcFollower(radius, ctrX, ctrY, endYaw, basePwr, kp);
+        double[] pose = new double[3];
+        boolean right = endYaw > 0;
+        double t = 0, sumSq = 0;
+        int n = 0;
+        while (t < mTimeout) {
+            mTracker.updatePositions(leftDist(), rightDist());
+            mTracker.getPose(pose);
+            if (((right) && ((pose[0] >= endX) || (pose[1] >= endY))) ||
+                ((!right) && ((pose[0] <= endX) || (pose[1] >= endY)))) {
+                r.reached = true;
+                r.timeToTarget = t;
+                break;
+            }
+            SimpleArcFollower.FollowArcOutput out = arc.getUpdate(pose[0], pose[1], mSensors.getYaw());
+            mDrive.tankDrive(out.leftPwr, out.rightPwr);
+            mPlant.step(CONTROL_DT);
+            t += CONTROL_DT;
+            mSensors.read();
+
+            double off = Math.abs(Math.hypot(mPlant.getX() - ctrX, mPlant.getY() - ctrY) - radius);
+            r.maxPathError = Math.max(r.maxPathError, off);
+            sumSq += off * off;
+            n++;
+        }
+        r.simTime = t + rest();
+        r.finalError = Math.hypot(endX - mPlant.getX(), endY - mPlant.getY());
+        r.rmsPathError = Math.sqrt(sumSq / Math.max(1, n));
+        return r;
+    }
+
+    // ------------------------------------------------------------------------
+    // every run starts stopped at 0,0 facing +y with zeroed sensors
+    private void start() {
+        mDrive.stopMotor();
+        mPlant.setPose(0, 0, 0);
+        mPlant.getGyro().zeroYaw();
+        mSensors.read();
+        mStartLeft = mSensors.getLeftPos();
+        mStartRight = mSensors.getRightPos();
+        mTracker.init(0, 0, 0);
+        mIO.mStatus = SuperPid.PidStatus.STOPPED;
+    }
+
+    // motors to 0 (Drivetrain.stopPID) and wait for the robot to stop,
+    // returns how long that took
+    private double rest() {
+        mDrive.tankDrive(0, 0);
+        double t = 0;
+        do {
+            mPlant.step(CONTROL_DT);
+            t += CONTROL_DT;
+        } while ((t < REST_TIMEOUT) &&
+                 ((Math.abs(mPlant.getSpeed()) > SETTLED_SPEED) || (Math.abs(mPlant.getTurnRate()) > SETTLED_SPEED)));
+        mSensors.read();
+        return t;
+    }
+
+    // inches since start(), from this cycle's sensors
+    private double leftDist()   { return (mSensors.getLeftPos() - mStartLeft) * DriveSimPlant.ENC_IN_PER_COUNT; }
+    private double rightDist()  { return (mSensors.getRightPos() - mStartRight) * DriveSimPlant.ENC_IN_PER_COUNT; }
+    private double avgDist()    { return (leftDist() + rightDist()) / 2; }
+
+    // in/s, as Drivetrain.getAverageSpeed() from the Talons' velocities
+    private double avgSpeed() {
+        return ((mSensors.getLeftVel() + mSensors.getRightVel()) / 2.0) * DriveSimPlant.ENC_IN_PER_COUNT * 10;
+    }
+
+    // What the drive PIDs see here: this cycle's sensors, and the
+    // DifferentialDrive on the plant
+    private class SimPidIO implements DrivePidIO {
+        double mTgtYaw, mGyroCorr, mGyroCorrLimit;
+        SuperPid.PidStatus mStatus = SuperPid.PidStatus.STOPPED;
+
+        public double getAverageDist()      { return avgDist(); }
+        public double getGyroYaw()          { return mSensors.getYaw(); }
+
+        public double getHeadingCorrection() {
+            return DriveStraightPid.headingCorrection(mTgtYaw, mSensors.getYaw(), mGyroCorr, mGyroCorrLimit);
+        }
+
+        public void arcadeDrive(double pwr, double rotation)    { mDrive.arcadeDrive(pwr, rotation); }
+        public void tankDrive(double left, double right)        { mDrive.tankDrive(left, right); }
+
+        public void updatePidStatus(SuperPid pid, SuperPid.PidStatus status,
+                                    double input, double rawOutput, double pidOut, double setpoint) {
+            mStatus = status;
+            if (status == SuperPid.PidStatus.STOPPED) {
+                mDrive.tankDrive(0, 0);                         // as Drivetrain's stopMtrs()
+            }
+        }
+    }
+
+    // DifferentialDrive drives SpeedControllers, the plant's motors are MotorIO
+    private static class SimController implements SpeedController {
+        private final MotorIO mMotor;
+        private double mSpeed = 0;
+        private boolean mInverted = false;
+
+        SimController(MotorIO motor)                            { mMotor = motor; }
+
+        @Override public void set(double speed)                 { mSpeed = speed; mMotor.set(mInverted ? -speed : speed); }
+        @Override public double get()                           { return mSpeed; }
+        @Override public void setInverted(boolean isInverted)   { mInverted = isInverted; }
+        @Override public boolean getInverted()                  { return mInverted; }
+        @Override public void disable()                         { set(0); }
+        @Override public void stopMotor()                       { set(0); }
+        @Override public void pidWrite(double output)           { set(output); }
+    }
+
+    // ------------------------------------------------------------------------
+    // The drive moves with Drivetrain's default gains, in both gears
+    public static void main(String[] args) {
+        long wallStart = System.nanoTime();
+        double simTime = 0;
+        System.out.println("DriveSimPlant is not fitted to carpet data, see its notes");
+        for (DriveSimPlant.Gear gear : DriveSimPlant.Gear.values()) {
+            DriveSimHarness sim = new DriveSimHarness(gear, 1);
+            Result[] results = {
+                sim.driveStraight(48),
+                sim.driveStraight(144),
+                sim.rotate(90),
+                sim.rotate(-45),
+                sim.driveArc(48, 48, 0, 90, 0.5, 0.1, 48, 48),
+            };
+            for (Result r : results) {
+                System.out.println(r);
+                simTime += r.simTime;
+            }
+        }
+        double wall = (System.nanoTime() - wallStart) / 1e9;
+        System.out.println("Simulated " + Rmath.mRound(simTime, 1) + " s in " + Rmath.mRound(wall, 3) +
+                " s, " + Rmath.mRound(simTime / wall, 0) + "x real time");
+    }
+}
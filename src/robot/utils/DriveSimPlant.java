@@ -0,0 +1,226 @@
+package robot.utils;
+
+import java.util.Random;
+
+/**
+ * Physics stand-in for the drivetrain, for running drive controllers off
+ * the robot (see DriveSimHarness).
+ *
+ * Each side is MOTORS_PER_SIDE CIMs through the HI or LO gear to a wheel.
+ * The motor curve (stall torque, free speed, resistance) turns the Talon's
+ * power into wheel force, the battery sags with the current drawn, and the
+ * Talons' open loop ramp and current limit (as Drivetrain configures
+ * them) limit how fast the power changes and how hard it pushes. The forces
+ * push the robot's mass forward and its moment of inertia around, against
+ * rolling friction and the scrub of turning in place.
+ *
+ * Sensors are seen the way the robot sees them: encoders quantized to
+ * k_EncConvConst and the Talon's 100 ms velocity units, a NavX with noise
+ * and drift, through MotorIO / GyroIO with AHRS / WPI_TalonSRX names.
+ *
+ * Not fitted to carpet yet. The motor, gearing, wheel, ramp, current limit
+ * and encoder numbers come from the datasheet and Drivetrain; mass, MOI,
+ * rolling friction and scrub are estimates no logged move has been
+ * matched against. HI gear is the most sensitive to them (a few inches of
+ * coast or degrees of overshoot the real robot may not have), so read
+ * results as one change against another, not as what the robot will do.
+ * To fit from the drivetrain log: ROLL_FRICTION_N from straight coast-downs
+ * after power goes to 0, MASS_KG from the speed rise of a fixed power
+ * step, SCRUB_TORQUE_NM and MOI_KG_M2 the same from point turns.
+ *
+ * Field frame as PositionTracker: x right, y forward, yaw degrees CW.
+ * Step it with the time since the last step, it integrates in PHYSICS_DT
+ * slices.
+ */
+public class DriveSimPlant {
+    public enum Gear {HI, LO};
+
+    public static final double PHYSICS_DT = 0.001;                 // sec
+
+    // CIM
+    private static final double STALL_TORQUE = 2.42;               // N m
+    private static final double STALL_CURRENT = 133;               // A
+    private static final double FREE_SPEED = 5310 * 2 * Math.PI / 60;  // rad/s
+    private static final double FREE_CURRENT = 2.7;                // A
+    private static final double NOMINAL_VOLTS = 12;
+    private static final double R_MOTOR = NOMINAL_VOLTS / STALL_CURRENT;
+    private static final double KT = STALL_TORQUE / STALL_CURRENT;
+    private static final double KV = FREE_SPEED / (NOMINAL_VOLTS - (FREE_CURRENT * R_MOTOR));
+
+    // Robot, defaults close to the 2019 robot
+    public static final int MOTORS_PER_SIDE = 3;
+    public static final double GEAR_RATIO_HI = 6.0;                // motor turns per wheel turn
+    public static final double GEAR_RATIO_LO = 15.0;
+    public static final double GEAR_EFFICIENCY = 0.85;
+    public static final double WHEEL_DIA_IN = 6.0;
+    public static final double WHEELBASE_IN = 25.25;               // as Drivetrain
+    public static final double MASS_KG = 63;                       // with battery and bumpers
+    public static final double MOI_KG_M2 = 5.5;
+    public static final double ROLL_FRICTION_N = 20;               // per side
+    public static final double SCRUB_TORQUE_NM = 25;               // turning in place
+    public static final double BATTERY_VOLTS = 12.6;
+    public static final double BATTERY_OHMS = 0.018;
+    public static final double RAMP_SEC = 0.15;                    // Talon open loop ramp, 0 to full
+    public static final double CURRENT_LIMIT_A = 40;               // per Talon, Drivetrain DRIVE_MTR_MAX_CONT_CURRENT
+
+    public static final double ENC_IN_PER_COUNT = 0.00049838;      // Drivetrain k_EncConvConst
+    public static final double GYRO_NOISE_DEG = 0.03;
+    public static final double GYRO_DRIFT_DEG_PER_SEC = 0.008;
+
+    private static final double IN_TO_M = 0.0254;
+
+    private final double mWheelRadius = (WHEEL_DIA_IN / 2) * IN_TO_M;
+    private final double mHalfTrack = (WHEELBASE_IN / 2) * IN_TO_M;
+    private final Random mRandom;
+
+    private Gear mGear = Gear.LO;
+    private double mLeftCmd = 0, mRightCmd = 0;                    // what the Talons were told
+    private double mLeftOut = 0, mRightOut = 0;                    // after the ramp
+    private double mV = 0, mW = 0;                                 // m/s forward, rad/s CW
+    private double mX = 0, mY = 0, mYaw = 0;                       // m, m, rad CW
+    private double mLeftDist = 0, mRightDist = 0;                  // m
+    private double mCurrent = 0;                                   // A, all motors
+    private double mVolts = BATTERY_VOLTS;
+    private double mTime = 0;
+    private double mGyroDrift = 0, mGyroZero = 0;
+
+    private final SimMotor mLeft = new SimMotor(true);
+    private final SimMotor mRight = new SimMotor(false);
+    private final SimGyro mGyro = new SimGyro();
+
+    // seed the sensor noise so a run can be repeated exactly
+    public DriveSimPlant(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    public DriveSimPlant() {
+        this(0);
+    }
+
+    public void setGear(Gear gear)          { mGear = gear; }
+    public Gear getGear()                   { return mGear; }
+
+    // pose in inches / degrees CW, stopped
+    public void setPose(double xIn, double yIn, double yawDeg) {
+        mX = xIn * IN_TO_M;
+        mY = yIn * IN_TO_M;
+        mYaw = Math.toRadians(yawDeg);
+        mV = 0;
+        mW = 0;
+    }
+
+    // ************************************************************************
+    public void step(double dt) {
+        int n = Math.max(1, (int) Math.round(dt / PHYSICS_DT));
+        double h = dt / n;
+        for (int i = 0; i < n; i++) {
+            substep(h);
+        }
+    }
+
+    private void substep(double h) {
+        double maxStep = (RAMP_SEC > 0) ? h / RAMP_SEC : 2;
+        mLeftOut += Math.max(-maxStep, Math.min(maxStep, mLeftCmd - mLeftOut));
+        mRightOut += Math.max(-maxStep, Math.min(maxStep, mRightCmd - mRightOut));
+
+        double gear = (mGear == Gear.HI) ? GEAR_RATIO_HI : GEAR_RATIO_LO;
+        double vLeft = mV + (mW * mHalfTrack);
+        double vRight = mV - (mW * mHalfTrack);
+
+        // battery voltage from last slice's current draw
+        mVolts = BATTERY_VOLTS - (BATTERY_OHMS * mCurrent);
+        double iLeft = limitCurrent(motorCurrent(mLeftOut * mVolts, (vLeft / mWheelRadius) * gear));
+        double iRight = limitCurrent(motorCurrent(mRightOut * mVolts, (vRight / mWheelRadius) * gear));
+        mCurrent = MOTORS_PER_SIDE * (Math.abs(iLeft) + Math.abs(iRight));
+
+        double k = (MOTORS_PER_SIDE * KT * gear * GEAR_EFFICIENCY) / mWheelRadius;
+        double fLeft = k * iLeft;
+        double fRight = k * iRight;
+
+        mV = accelerate(mV, fLeft + fRight, 2 * ROLL_FRICTION_N, MASS_KG, h);
+        mW = accelerate(mW, (fLeft - fRight) * mHalfTrack, SCRUB_TORQUE_NM, MOI_KG_M2, h);
+
+        double heading = mYaw + (mW * h / 2);
+        mX += mV * Math.sin(heading) * h;
+        mY += mV * Math.cos(heading) * h;
+        mYaw += mW * h;
+        mLeftDist += (mV + (mW * mHalfTrack)) * h;
+        mRightDist += (mV - (mW * mHalfTrack)) * h;
+        mGyroDrift += GYRO_DRIFT_DEG_PER_SEC * h;
+        mTime += h;
+    }
+
+    // current in one motor at volts and shaft speed (rad/s)
+    private static double motorCurrent(double volts, double speed) {
+        return (volts - (speed / KV)) / R_MOTOR;
+    }
+
+    private static double limitCurrent(double amps) {
+        return Math.max(-CURRENT_LIMIT_A, Math.min(CURRENT_LIMIT_A, amps));
+    }
+
+    // Velocity after h with friction of up to limit against the motion. It
+    // can stop the robot but not push it backwards, and a stopped robot
+    // stays put until applied beats it.
+    private static double accelerate(double vel, double applied, double limit, double inertia, double h) {
+        if ((vel == 0) && (Math.abs(applied) <= limit)) {
+            return 0;
+        }
+        double dir = (vel != 0) ? Math.signum(vel) : Math.signum(applied);
+        double next = vel + (((applied - (dir * limit)) / inertia) * h);
+        if ((vel != 0) && (Math.signum(next) != dir) && (Math.abs(applied) <= limit)) {
+            return 0;
+        }
+        return next;
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------ Devices ---------------------------------
+    public MotorIO getLeftMotor()   { return mLeft; }
+    public MotorIO getRightMotor()  { return mRight; }
+    public GyroIO getGyro()         { return mGyro; }
+
+    // DifferentialDrive runs the right side inverted, so a Talon on the right
+    // drives forward on negative power. Both encoders count up going forward.
+    private class SimMotor implements MotorIO {
+        private final boolean mIsLeft;
+
+        SimMotor(boolean isLeft) { mIsLeft = isLeft; }
+
+        public void set(double pwr) {
+            pwr = Math.max(-1, Math.min(1, pwr));
+            if (mIsLeft)    { mLeftCmd = pwr; }
+            else            { mRightCmd = -pwr; }
+        }
+
+        public int getSelectedSensorPosition(int pidIdx) {
+            double m = mIsLeft ? mLeftDist : mRightDist;
+            return (int) Math.round((m / IN_TO_M) / ENC_IN_PER_COUNT);
+        }
+
+        public int getSelectedSensorVelocity(int pidIdx) {
+            double v = mIsLeft ? (mV + (mW * mHalfTrack)) : (mV - (mW * mHalfTrack));
+            return (int) Math.round(((v / IN_TO_M) / ENC_IN_PER_COUNT) / 10);
+        }
+    }
+
+    private class SimGyro implements GyroIO {
+        public float getYaw() {
+            double deg = Math.toDegrees(mYaw) + mGyroDrift - mGyroZero + (mRandom.nextGaussian() * GYRO_NOISE_DEG);
+            return (float) Math.IEEEremainder(deg, 360);
+        }
+
+        public void zeroYaw()       { mGyroZero = Math.toDegrees(mYaw) + mGyroDrift; }
+    }
+
+    // ------------------------------------------------------------------------
+    // True state, inches / degrees CW
+    public double getX()                { return mX / IN_TO_M; }
+    public double getY()                { return mY / IN_TO_M; }
+    public double getYawDeg()           { return Math.toDegrees(mYaw); }
+    public double getSpeed()            { return mV / IN_TO_M; }
+    public double getTurnRate()         { return Math.toDegrees(mW); }
+    public double getBatteryVolts()     { return mVolts; }
+    public double getCurrent()          { return mCurrent; }
+    public double getTime()             { return mTime; }
+}
@@ -0,0 +1,149 @@
+package robot.utils;
+
+/**
+ * Fixed-schema drivetrain telemetry record.
+ *
+ * Drivetrain fills one of these in place every cycle and hands it to the
+ * Logger, which copies the fields into the binary log as doubles - no
+ * strings are built on the robot. LogDecoder calls toCsv() off-robot to
+ * turn a record back into the line Drivetrain.logDrivetrain() used to log.
+ *
+ * The pid0..pid3 slots hold PID input, raw output, output and setpoint,
+ * except in zone 11 (DualPidToCoord) where they hold dist to tgt, dist ctl,
+ * bearing to tgt and bearing ctl.
+ * The pwrA/pwrB slots hold left/right power for the tank style zones
+ * (0, 1, 4, 7, 9, 11) and power/direction for the rest.
+ */
+public class DriveTelemetry {
+    public static final int FIELD_COUNT = 32;
+
+    public static final String[] ZONE_DESC = {"Coasting", "FwdCmd", "PtTurn", "PID Fwd", "PID Rot", "Joystick", "Fwd2Cmd",
+                                "ArcTurn", "Velocity", "Braking", "ArcFollower", "DualPidToCoord", "Other"};
+
+    public double zone;
+    public double currDist, tgtDistRemain;
+    public double currYaw, tgtYawRemain;
+    public double gyroRate;
+    public double posX, posY, trackerYaw, orientCCW;
+    public double pwrA, pwrB;
+    public double leftTCurr, leftFCurr, leftBCurr;
+    public double rightTCurr, rightFCurr, rightBCurr;
+    public double avgCurr, voltage;
+    public double leftDist, rightDist;
+    public boolean lowGear;
+    public double avgVel, leftVel, rightVel;
+    public double runningVel;
+    public double accel;
+    public double pid0, pid1, pid2, pid3;
+
+    // Copy the fields into a record that has already been begun
+    // (caller holds the ring's monitor)
+    public void writeTo(LogRingBuffer ring) {
+        ring.putDouble(zone);
+        ring.putDouble(currDist);
+        ring.putDouble(tgtDistRemain);
+        ring.putDouble(currYaw);
+        ring.putDouble(tgtYawRemain);
+        ring.putDouble(gyroRate);
+        ring.putDouble(posX);
+        ring.putDouble(posY);
+        ring.putDouble(trackerYaw);
+        ring.putDouble(orientCCW);
+        ring.putDouble(pwrA);
+        ring.putDouble(pwrB);
+        ring.putDouble(leftTCurr);
+        ring.putDouble(leftFCurr);
+        ring.putDouble(leftBCurr);
+        ring.putDouble(rightTCurr);
+        ring.putDouble(rightFCurr);
+        ring.putDouble(rightBCurr);
+        ring.putDouble(avgCurr);
+        ring.putDouble(voltage);
+        ring.putDouble(leftDist);
+        ring.putDouble(rightDist);
+        ring.putDouble(lowGear ? 1 : 0);
+        ring.putDouble(avgVel);
+        ring.putDouble(leftVel);
+        ring.putDouble(rightVel);
+        ring.putDouble(runningVel);
+        ring.putDouble(accel);
+        ring.putDouble(pid0);
+        ring.putDouble(pid1);
+        ring.putDouble(pid2);
+        ring.putDouble(pid3);
+    }
+
+    // ------------------------------------------------------------------------
+    // -------- Off-robot formatting (same layout as the old CSV line) --------
+    public static String toCsv(double[] v) {
+        if (v.length < FIELD_COUNT) { return "Drivetrain record too short"; }
+        int zone = (int) v[0];
+        String line = "";
+        // ---------- Show Zone Description ------------
+        if ((v[0] >= 0) && (v[0] <= 11)) {
+            line += ZONE_DESC[zone];
+        } else {
+            line += ZONE_DESC[12];      // Other
+        }
+
+        // ------------ Show Current/Remain Dist and Yaw ------------
+        line += ", Dist C/R=," + Rmath.mRound(v[1],2) + "," + Rmath.mRound(v[2],2) ;
+        line += ", Yaw C/R=," +  Rmath.mRound(v[3],2) + "," + Rmath.mRound(v[4],2) ;
+        line += " ,Gyro Rt=," +  Rmath.mRound(v[5],2);
+
+        // ---------- Show Robot Position data as calculated from left/right encoder distances
+        line += " ,Pos XYAO=,"
+        + Rmath.mRound(v[6],2) + ","
+        + Rmath.mRound(v[7],2) +  ","
+        + Rmath.mRound(v[8],2) + ","
+        + Rmath.mRound(v[9],2) ;
+
+        // ------------ Show current motor pwr ------------
+        if ((v[0] == 0) || (v[0] == 1) || (v[0] == 4) || (v[0] == 7) ||
+                            (v[0] == 9) || (v[0] == 11))  {
+            line += ",Pwr L/R=," + v[10] + "," + v[11] ;
+        } else {
+            line += ",Pwr/Dir=," + v[10] + "," + v[11] ;
+        }
+
+        // ------------ Show motor current draw and voltage ------------
+        line += ",LeftTFB=," + Rmath.mRound(v[12], 3) +
+                         "," + Rmath.mRound(v[13], 3) +
+                         "," + Rmath.mRound(v[14], 3);
+        line += ",RightTFB=," + Rmath.mRound(v[15], 3) +
+                        "," + Rmath.mRound(v[16], 3) +
+                        "," + Rmath.mRound(v[17], 3);
+        line += ",Avg Cur&Volt=," + Rmath.mRound(v[18], 3) +
+                        "," + Rmath.mRound(v[19], 3);
+
+        // ---------- Show Distance Left/Right for robot ----------
+        line += " ,Dist LR=," + Rmath.mRound(v[20],3) + ","
+                                + Rmath.mRound(v[21],3);
+
+        // ------------ Gear Status ------------
+        if (v[22] != 0) {
+            line += " ,Gear=,LO,";
+        } else {
+            line += " ,Gear=,HI,";
+        }
+
+        // ---------- Show Speed and Acceleration data for robot ----------
+        line += " ,Speed ALR=," + Rmath.mRound(v[23],2) + ","
+                                + Rmath.mRound(v[24],2) + ","
+                                + Rmath.mRound(v[25],2);
+        line += " ,Running VEL=," + Rmath.mRound(v[26],2);
+        line += " ,Accel=," + Rmath.mRound(v[27],2) ;
+
+        // ------------ Show PID Data ------------
+        if ((zone == 3) || (zone == 4)) {
+            line += ",PID IROS=," + v[28] + "," + v[29] + "," + v[30] + "," + v[31] ;
+        } else if (zone == 8) {
+            line += ",PID RL=," + v[29] + "," + v[30] ;
+        } else if (zone == 11) {
+            // cndDualPidToCoordCmd
+            line += ",Dist to Tgt=," + v[28] + ",DistCtl=," + v[29] +
+                    ",BearingToTgt=," + v[30] + ",BearingCtl," + v[31] ;
+        }
+        return line;
+    }
+}
@@ -0,0 +1,311 @@
+package robot.utils;
+
+/**
+ * Immutable 2-d tree over a set of field points (inches, Map coordinates).
+ *
+ * Built once from flat arrays when the map is loaded. Queries walk the tree
+ * recursively and never allocate: results come back as element ids (the
+ * index into the arrays the tree was built from) and k-nearest results are
+ * written into caller supplied arrays.
+ *
+ * Headings follow the rest of the robot code: degrees CW, 0 = facing +y.
+ * faceO[i] is the orientation the robot has when squared up to element i,
+ * so an element only counts as visible when we are roughly facing it.
+ *
+ * Mirrored queries reflect the robot pose across the field center line
+ * (x = 0) before searching, and return the mirror twin of what was found -
+ * the same element a left side routine would pick, as seen from the right.
+ */
+public class FieldIndex {
+    private final int mCount;
+    private final double[] mX, mY, mFaceO;      // by element id
+    private final int[] mTree;                  // element ids in 2-d tree order
+    private final int[] mMirror;                // element id of each element's mirror twin
+
+    public FieldIndex(double[] x, double[] y, double[] faceO) {
+        mCount = x.length;
+        mX = x.clone();
+        mY = y.clone();
+        mFaceO = faceO.clone();
+        mTree = new int[mCount];
+        for (int i = 0; i < mCount; i++) { mTree[i] = i; }
+        build(0, mCount, 0);
+
+        mMirror = new int[mCount];
+        for (int i = 0; i < mCount; i++) {
+            mMirror[i] = nearest(-mX[i], mY[i], false);
+        }
+    }
+
+    public int size()               { return mCount; }
+    public double getX(int id)      { return mX[id]; }
+    public double getY(int id)      { return mY[id]; }
+    public double getFaceO(int id)  { return mFaceO[id]; }
+    public int getMirror(int id)    { return mMirror[id]; }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------- Queries --------------------------------
+    // Nearest element, -1 if the index is empty
+    public int nearest(double x, double y, boolean mirrored) {
+        if (mCount == 0) { return -1; }
+        double qx = mirrored ? -x : x;
+        int best = searchNearest(0, mCount, 0, qx, y, 0, 0, 0, -1);
+        return mirrored ? mMirror[best] : best;
+    }
+
+    // Nearest element the camera can see: within halfFovDeg of the robot
+    // heading, no further than maxRange and facing us. -1 if none.
+    public int nearestVisible(double x, double y, double orientCW,
+                              double halfFovDeg, double maxRange, boolean mirrored) {
+        if (mCount == 0) { return -1; }
+        double qx = mirrored ? -x : x;
+        double qo = mirrored ? -orientCW : orientCW;
+        int best = searchNearest(0, mCount, 0, qx, y, qo, halfFovDeg, maxRange * maxRange, -1);
+        if ((best < 0) || !mirrored) { return best; }
+        return mMirror[best];
+    }
+
+    // The k nearest elements, closest first, into ids[]. d2 is scratch of at
+    // least the same length (squared distances on return). Returns the count.
+    public int kNearest(double x, double y, int[] ids, double[] d2, boolean mirrored) {
+        int k = Math.min(ids.length, d2.length);
+        double qx = mirrored ? -x : x;
+        int n = searchKNearest(0, mCount, 0, qx, y, ids, d2, k, 0);
+        if (mirrored) {
+            for (int i = 0; i < n; i++) { ids[i] = mMirror[ids[i]]; }
+        }
+        return n;
+    }
+
+    // ------------------------------------------------------------------------
+    // --------------------------- Tree Internals -----------------------------
+    // Node for [lo,hi) is the median at (lo+hi)/2, split on x at even depth
+    // and y at odd depth.
+    private void build(int lo, int hi, int depth) {
+        if ((hi - lo) <= 1) { return; }
+        // insertion sort on the split axis - the field has a couple dozen elements
+        for (int i = lo + 1; i < hi; i++) {
+            int id = mTree[i];
+            double v = coord(id, depth);
+            int j = i - 1;
+            while ((j >= lo) && (coord(mTree[j], depth) > v)) {
+                mTree[j + 1] = mTree[j];
+                j--;
+            }
+            mTree[j + 1] = id;
+        }
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    private double coord(int id, int depth) {
+        return ((depth & 1) == 0) ? mX[id] : mY[id];
+    }
+
+    // maxD2 == 0 means no visibility test
+    private int searchNearest(int lo, int hi, int depth, double qx, double qy,
+                              double qo, double halfFov, double maxD2, int best) {
+        if (lo >= hi) { return best; }
+        int mid = (lo + hi) >>> 1;
+        int id = mTree[mid];
+        double dx = mX[id] - qx;
+        double dy = mY[id] - qy;
+        double d2 = (dx * dx) + (dy * dy);
+        if (((best < 0) || (d2 < dist2(best, qx, qy))) &&
+                        ((maxD2 == 0) || visible(id, dx, dy, d2, qo, halfFov, maxD2))) {
+            best = id;
+        }
+
+        double diff = ((depth & 1) == 0) ? -dx : -dy;      // query minus split
+        int nearLo = (diff < 0) ? lo : mid + 1;
+        int nearHi = (diff < 0) ? mid : hi;
+        int farLo = (diff < 0) ? mid + 1 : lo;
+        int farHi = (diff < 0) ? hi : mid;
+
+        best = searchNearest(nearLo, nearHi, depth + 1, qx, qy, qo, halfFov, maxD2, best);
+        if (((best < 0) && ((maxD2 == 0) || ((diff * diff) <= maxD2))) ||
+                        ((best >= 0) && ((diff * diff) < dist2(best, qx, qy)))) {
+            best = searchNearest(farLo, farHi, depth + 1, qx, qy, qo, halfFov, maxD2, best);
+        }
+        return best;
+    }
+
+    private int searchKNearest(int lo, int hi, int depth, double qx, double qy,
+                               int[] ids, double[] d2s, int k, int n) {
+        if ((lo >= hi) || (k == 0)) { return n; }
+        int mid = (lo + hi) >>> 1;
+        int id = mTree[mid];
+        double dx = mX[id] - qx;
+        double dy = mY[id] - qy;
+        double d2 = (dx * dx) + (dy * dy);
+        if ((n < k) || (d2 < d2s[n - 1])) {
+            // insert into the sorted result, dropping the furthest if full
+            int i = (n < k) ? n++ : n - 1;
+            while ((i > 0) && (d2s[i - 1] > d2)) {
+                ids[i] = ids[i - 1];
+                d2s[i] = d2s[i - 1];
+                i--;
+            }
+            ids[i] = id;
+            d2s[i] = d2;
+        }
+
+        double diff = ((depth & 1) == 0) ? -dx : -dy;
+        int nearLo = (diff < 0) ? lo : mid + 1;
+        int nearHi = (diff < 0) ? mid : hi;
+        int farLo = (diff < 0) ? mid + 1 : lo;
+        int farHi = (diff < 0) ? hi : mid;
+
+        n = searchKNearest(nearLo, nearHi, depth + 1, qx, qy, ids, d2s, k, n);
+        if ((n < k) || ((diff * diff) < d2s[n - 1])) {
+            n = searchKNearest(farLo, farHi, depth + 1, qx, qy, ids, d2s, k, n);
+        }
+        return n;
+    }
+
+    private double dist2(int id, double qx, double qy) {
+        double dx = mX[id] - qx;
+        double dy = mY[id] - qy;
+        return (dx * dx) + (dy * dy);
+    }
+
+    private boolean visible(int id, double dx, double dy, double d2,
+                            double orientCW, double halfFov, double maxD2) {
+        if (d2 > maxD2) { return false; }
+        // bearing to the element, CW from +y, relative to where we point
+        double bearing = Math.toDegrees(Math.atan2(dx, dy));
+        if (Math.abs(Rmath.constrainDeg0To180(bearing - orientCW)) > halfFov) { return false; }
+        // must be looking at the front of it, not the back
+        return Math.abs(Rmath.constrainDeg0To180(orientCW - mFaceO[id])) < 90;
+    }
+
+    // ------------------------------------------------------------------------
+    // Checks nearest-visible, k-nearest and their mirrored forms against a
+    // linear scan over random robot poses, on mirror symmetric random fields
+    // (the real one is a couple dozen elements), then times both.
+    //   java robot.utils.FieldIndex
+    public static void main(String[] args) {
+        final double halfFov = 30, maxRange = 180;
+        final int poses = 200000, k = 4;
+        for (int size : new int[] {24, 96, 1024}) {
+            java.util.Random rnd = new java.util.Random(size);
+            double[] x = new double[size], y = new double[size], o = new double[size];
+            for (int i = 0; i < size; i += 2) {
+                x[i] = -(1 + (160 * rnd.nextDouble()));
+                y[i] = 648 * rnd.nextDouble();
+                o[i] = 360 * (rnd.nextDouble() - 0.5);
+                x[i + 1] = -x[i];                        // mirror twin
+                y[i + 1] = y[i];
+                o[i + 1] = -o[i];
+            }
+            FieldIndex idx = new FieldIndex(x, y, o);
+
+            double[] qx = new double[poses], qy = new double[poses], qo = new double[poses];
+            boolean[] qm = new boolean[poses];
+            for (int i = 0; i < poses; i++) {
+                qx[i] = 324 * (rnd.nextDouble() - 0.5);
+                qy[i] = 648 * rnd.nextDouble();
+                qo[i] = 360 * (rnd.nextDouble() - 0.5);
+                qm[i] = rnd.nextBoolean();
+            }
+
+            // mirror twins and results
+            int bad = 0, seen = 0;
+            for (int i = 0; i < size; i++) {
+                if (idx.getMirror(i) != linearMirror(idx, i)) { bad++; }
+            }
+            int[] ids = new int[k], linIds = new int[k];
+            double[] d2 = new double[k], linD2 = new double[k];
+            for (int i = 0; i < poses; i++) {
+                int a = idx.nearestVisible(qx[i], qy[i], qo[i], halfFov, maxRange, qm[i]);
+                int b = linearVisible(idx, qx[i], qy[i], qo[i], halfFov, maxRange, qm[i]);
+                if (a != b) { bad++; }
+                if (a >= 0) { seen++; }
+                if (idx.nearest(qx[i], qy[i], qm[i]) != linearNearest(idx, qx[i], qy[i], qm[i])) { bad++; }
+                int n = idx.kNearest(qx[i], qy[i], ids, d2, qm[i]);
+                int m = linearKNearest(idx, qx[i], qy[i], linIds, linD2, k, qm[i]);
+                if (n != m) { bad++; continue; }
+                for (int j = 0; j < n; j++) {
+                    if (ids[j] != linIds[j]) { bad++; break; }
+                }
+            }
+
+            // timing, the last pass is the warmed up one
+            double treeVisNs = 0, linVisNs = 0, treeKNs = 0, linKNs = 0;
+            long sink = 0;
+            for (int pass = 0; pass < 3; pass++) {
+                long t0 = System.nanoTime();
+                for (int i = 0; i < poses; i++) { sink += idx.nearestVisible(qx[i], qy[i], qo[i], halfFov, maxRange, qm[i]); }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < poses; i++) { sink += linearVisible(idx, qx[i], qy[i], qo[i], halfFov, maxRange, qm[i]); }
+                long t2 = System.nanoTime();
+                for (int i = 0; i < poses; i++) { sink += idx.kNearest(qx[i], qy[i], ids, d2, qm[i]); }
+                long t3 = System.nanoTime();
+                for (int i = 0; i < poses; i++) { sink += linearKNearest(idx, qx[i], qy[i], linIds, linD2, k, qm[i]); }
+                long t4 = System.nanoTime();
+                treeVisNs = (double) (t1 - t0) / poses;
+                linVisNs = (double) (t2 - t1) / poses;
+                treeKNs = (double) (t3 - t2) / poses;
+                linKNs = (double) (t4 - t3) / poses;
+            }
+            System.out.println("elements=," + size + ",poses=," + poses + ",visible=," + seen + ",mismatches=," + bad +
+                    ",visible ns tree=," + Rmath.mRound(treeVisNs, 1) + ",linear=," + Rmath.mRound(linVisNs, 1) +
+                    "," + k + "-nearest ns tree=," + Rmath.mRound(treeKNs, 1) + ",linear=," + Rmath.mRound(linKNs, 1) +
+                    ",(" + (sink & 1) + ")");
+        }
+    }
+
+    private static int linearNearest(FieldIndex idx, double x, double y, boolean mirrored) {
+        double qx = mirrored ? -x : x;
+        int best = -1;
+        for (int i = 0; i < idx.mCount; i++) {
+            if ((best < 0) || (idx.dist2(i, qx, y) < idx.dist2(best, qx, y))) { best = i; }
+        }
+        return ((best < 0) || !mirrored) ? best : linearMirror(idx, best);
+    }
+
+    private static int linearMirror(FieldIndex idx, int id) {
+        return linearNearest(idx, -idx.mX[id], idx.mY[id], false);
+    }
+
+    private static int linearVisible(FieldIndex idx, double x, double y, double orientCW,
+                                     double halfFov, double maxRange, boolean mirrored) {
+        double qx = mirrored ? -x : x;
+        double qo = mirrored ? -orientCW : orientCW;
+        int best = -1;
+        for (int i = 0; i < idx.mCount; i++) {
+            double dx = idx.mX[i] - qx;
+            double dy = idx.mY[i] - y;
+            double d2 = (dx * dx) + (dy * dy);
+            if (((best < 0) || (d2 < idx.dist2(best, qx, y))) &&
+                            idx.visible(i, dx, dy, d2, qo, halfFov, maxRange * maxRange)) {
+                best = i;
+            }
+        }
+        return ((best < 0) || !mirrored) ? best : linearMirror(idx, best);
+    }
+
+    private static int linearKNearest(FieldIndex idx, double x, double y, int[] ids, double[] d2s,
+                                      int k, boolean mirrored) {
+        double qx = mirrored ? -x : x;
+        int n = 0;
+        for (int i = 0; i < idx.mCount; i++) {
+            double d2 = idx.dist2(i, qx, y);
+            if ((n < k) || (d2 < d2s[n - 1])) {
+                int j = (n < k) ? n++ : n - 1;
+                while ((j > 0) && (d2s[j - 1] > d2)) {
+                    ids[j] = ids[j - 1];
+                    d2s[j] = d2s[j - 1];
+                    j--;
+                }
+                ids[j] = i;
+                d2s[j] = d2;
+            }
+        }
+        if (mirrored) {
+            for (int i = 0; i < n; i++) { ids[i] = linearMirror(idx, ids[i]); }
+        }
+        return n;
+    }
+}
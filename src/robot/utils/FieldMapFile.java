@@ -0,0 +1,281 @@
+package robot.utils;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary field calibration file, read by Map at startup so field
+ * coordinates can change between events without a redeploy.
+ *
+ * File layout (big endian):
+ *   int    magic     (FILE_MAGIC)
+ *   short  version   (FILE_VERSION)
+ *   short  record count
+ *   int    calibration revision (bump it every time the field is re-measured)
+ *   record[count], RECORD_SIZE bytes each:
+ *     byte   kind  (Map.KIND_CARGOSHIP, KIND_ROCKET, KIND_LOADING_ST, KIND_START)
+ *     byte   side  (0 = Left, 1 = Right)
+ *     byte   slot  (index within the kind, see Map)
+ *     byte   name length
+ *     double vision x, vision y, target x, target y, target orientation (CW deg)
+ *     byte   name[NAME_SIZE] (latin-1, zero padded)
+ *   int    CRC32 of everything before it
+ *
+ * The file is memory mapped and copied into flat primitive arrays; nothing
+ * is applied to the map until validate() passes.
+ *
+ * Off-robot tool:
+ *   java robot.utils.FieldMapFile defaults field.bin       write the built-in map
+ *   java robot.utils.FieldMapFile dump field.bin           print as csv
+ *   java robot.utils.FieldMapFile fromcsv in.csv field.bin [rev]
+ *   java robot.utils.FieldMapFile bench field.bin [n]      time n loads
+ */
+public class FieldMapFile {
+    public static final int FILE_MAGIC = 0x464D4150;        // "FMAP"
+    public static final int FILE_VERSION = 1;
+    public static final int HEADER_SIZE = 12;
+    public static final int NAME_SIZE = 48;
+    public static final int RECORD_SIZE = 4 + (5 * 8) + NAME_SIZE;
+    public static final int MAX_RECORDS = 64;
+
+    // sanity limits, inches from the center of our driver station wall
+    public static final double FIELD_HALF_WIDTH = 165.0;
+    public static final double FIELD_LENGTH = 650.0;
+
+    public int count = 0;
+    public int revision = 0;
+    public final int[] kind = new int[MAX_RECORDS];
+    public final int[] side = new int[MAX_RECORDS];
+    public final int[] slot = new int[MAX_RECORDS];
+    public final String[] name = new String[MAX_RECORDS];
+    public final double[] visX = new double[MAX_RECORDS];
+    public final double[] visY = new double[MAX_RECORDS];
+    public final double[] tgtX = new double[MAX_RECORDS];
+    public final double[] tgtY = new double[MAX_RECORDS];
+    public final double[] tgtO = new double[MAX_RECORDS];
+
+    private double mLoadTimeMs = 0;
+
+    // ------------------------------------------------------------------------
+    // ------------------------------- Reading --------------------------------
+    // Map the file and copy it into the arrays. Returns null on success or a
+    // description of what is wrong with the file.
+    public String load(String path) {
+        long start = System.nanoTime();
+        count = 0;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            if ((size < (HEADER_SIZE + 4)) || (size > (HEADER_SIZE + (MAX_RECORDS * RECORD_SIZE) + 4))) {
+                return "bad file size " + size;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            String err = parse(buf, (int) size);
+            mLoadTimeMs = (System.nanoTime() - start) / 1.0e6;
+            return err;
+        } catch (IOException e) {
+            return e.toString();
+        }
+    }
+
+    private String parse(ByteBuffer buf, int size) {
+        if (buf.getInt(0) != FILE_MAGIC)        { return "not a field map file"; }
+        if (buf.getShort(4) != FILE_VERSION)    { return "unsupported version " + buf.getShort(4); }
+        int n = buf.getShort(6);
+        if ((n < 0) || (n > MAX_RECORDS))       { return "bad record count " + n; }
+        int crcPos = HEADER_SIZE + (n * RECORD_SIZE);
+        if (size != (crcPos + 4))               { return "size does not match record count"; }
+
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < crcPos; i++) {
+            crc.update(buf.get(i));
+        }
+        if ((int) crc.getValue() != buf.getInt(crcPos)) { return "checksum mismatch"; }
+
+        revision = buf.getInt(8);
+        byte[] nameBytes = new byte[NAME_SIZE];
+        for (int i = 0; i < n; i++) {
+            int pos = HEADER_SIZE + (i * RECORD_SIZE);
+            kind[i] = buf.get(pos);
+            side[i] = buf.get(pos + 1);
+            slot[i] = buf.get(pos + 2);
+            int len = Math.min(buf.get(pos + 3) & 0xFF, NAME_SIZE);
+            visX[i] = buf.getDouble(pos + 4);
+            visY[i] = buf.getDouble(pos + 12);
+            tgtX[i] = buf.getDouble(pos + 20);
+            tgtY[i] = buf.getDouble(pos + 28);
+            tgtO[i] = buf.getDouble(pos + 36);
+            for (int j = 0; j < len; j++) {
+                nameBytes[j] = buf.get(pos + 44 + j);
+            }
+            name[i] = new String(nameBytes, 0, len, StandardCharsets.ISO_8859_1);
+        }
+        count = n;
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------ Validation ------------------------------
+    // Returns null if every record can be applied to the Map, else the first problem
+    public String validate() {
+        for (int i = 0; i < count; i++) {
+            int maxSlot;
+            switch (kind[i]) {
+                case Map.KIND_CARGOSHIP:    maxSlot = 3; break;
+                case Map.KIND_ROCKET:       maxSlot = 2; break;
+                case Map.KIND_LOADING_ST:   maxSlot = 0; break;
+                case Map.KIND_START:        maxSlot = Map.NUM_START_POS - 1; break;
+                default:                    return "record " + i + ": bad kind " + kind[i];
+            }
+            if ((side[i] < 0) || (side[i] > 1))         { return "record " + i + ": bad side " + side[i]; }
+            if ((slot[i] < 0) || (slot[i] > maxSlot))   { return "record " + i + ": bad slot " + slot[i]; }
+            if (!onField(visX[i], visY[i]) || !onField(tgtX[i], tgtY[i])) {
+                return "record " + i + " (" + name[i] + "): position off the field";
+            }
+            if (!(Math.abs(tgtO[i]) <= 360))            { return "record " + i + ": bad orientation " + tgtO[i]; }
+            for (int j = 0; j < i; j++) {
+                if ((kind[j] == kind[i]) && (slot[j] == slot[i]) &&
+                        ((side[j] == side[i]) || (kind[i] == Map.KIND_START))) {
+                    return "record " + i + ": duplicates record " + j;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean onField(double x, double y) {
+        // written so NaN fails too
+        return (Math.abs(x) <= FIELD_HALF_WIDTH) && (y >= 0) && (y <= FIELD_LENGTH);
+    }
+
+    public double getLoadTimeMs()   { return mLoadTimeMs; }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------- Writing --------------------------------
+    public void add(int k, int sd, int sl, String nm, double vx, double vy,
+                    double tx, double ty, double to) {
+        if (count >= MAX_RECORDS) { return; }
+        kind[count] = k;
+        side[count] = sd;
+        slot[count] = sl;
+        name[count] = nm;
+        visX[count] = vx;
+        visY[count] = vy;
+        tgtX[count] = tx;
+        tgtY[count] = ty;
+        tgtO[count] = to;
+        count++;
+    }
+
+    public void write(String path) throws IOException {
+        int crcPos = HEADER_SIZE + (count * RECORD_SIZE);
+        ByteBuffer buf = ByteBuffer.allocate(crcPos + 4);
+        buf.putInt(0, FILE_MAGIC);
+        buf.putShort(4, (short) FILE_VERSION);
+        buf.putShort(6, (short) count);
+        buf.putInt(8, revision);
+        for (int i = 0; i < count; i++) {
+            int pos = HEADER_SIZE + (i * RECORD_SIZE);
+            String nm = (name[i] == null) ? "" : name[i];
+            int len = Math.min(nm.length(), NAME_SIZE);
+            buf.put(pos, (byte) kind[i]);
+            buf.put(pos + 1, (byte) side[i]);
+            buf.put(pos + 2, (byte) slot[i]);
+            buf.put(pos + 3, (byte) len);
+            buf.putDouble(pos + 4, visX[i]);
+            buf.putDouble(pos + 12, visY[i]);
+            buf.putDouble(pos + 20, tgtX[i]);
+            buf.putDouble(pos + 28, tgtY[i]);
+            buf.putDouble(pos + 36, tgtO[i]);
+            for (int j = 0; j < len; j++) {
+                char c = nm.charAt(j);
+                buf.put(pos + 44 + j, (byte) ((c < 256) ? c : '?'));
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, crcPos);
+        buf.putInt(crcPos, (int) crc.getValue());
+        try (FileOutputStream out = new FileOutputStream(path)) {
+            out.write(buf.array());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // --------------------------- Off-robot tool -----------------------------
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: FieldMapFile defaults|dump|fromcsv|bench <file> ...");
+            return;
+        }
+        FieldMapFile f = new FieldMapFile();
+        String err;
+        switch (args[0]) {
+            case "defaults":
+                new Map(false).getFieldMap(f);
+                f.write(args[1]);
+                System.out.println("Wrote " + f.count + " records to " + args[1]);
+                break;
+            case "dump":
+                err = f.load(args[1]);
+                if (err == null) { err = f.validate(); }
+                System.out.println("# revision " + f.revision + ((err == null) ? "" : ", INVALID: " + err));
+                System.out.println("# kind,side,slot,name,visX,visY,tgtX,tgtY,tgtO");
+                for (int i = 0; i < f.count; i++) {
+                    System.out.println(f.kind[i] + "," + f.side[i] + "," + f.slot[i] + "," + f.name[i] + "," +
+                                    f.visX[i] + "," + f.visY[i] + "," + f.tgtX[i] + "," + f.tgtY[i] + "," + f.tgtO[i]);
+                }
+                break;
+            case "fromcsv":
+                if (args.length < 3) {
+                    System.out.println("usage: FieldMapFile fromcsv in.csv out.bin [revision]");
+                    return;
+                }
+                try (BufferedReader in = new BufferedReader(new FileReader(args[1]))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        line = line.trim();
+                        if (line.isEmpty() || line.startsWith("#")) { continue; }
+                        String[] v = line.split(",");
+                        f.add(Integer.parseInt(v[0].trim()), Integer.parseInt(v[1].trim()),
+                              Integer.parseInt(v[2].trim()), v[3].trim(),
+                              Double.parseDouble(v[4]), Double.parseDouble(v[5]),
+                              Double.parseDouble(v[6]), Double.parseDouble(v[7]),
+                              Double.parseDouble(v[8]));
+                    }
+                }
+                if (args.length > 3) { f.revision = Integer.parseInt(args[3]); }
+                err = f.validate();
+                if (err != null) {
+                    System.out.println("Not written: " + err);
+                    return;
+                }
+                f.write(args[2]);
+                System.out.println("Wrote " + f.count + " records to " + args[2]);
+                break;
+            case "bench":
+                int n = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+                double total = 0, worst = 0;
+                for (int i = 0; i < n; i++) {
+                    err = f.load(args[1]);
+                    if (err != null) {
+                        System.out.println("Load failed: " + err);
+                        return;
+                    }
+                    total += f.getLoadTimeMs();
+                    worst = Math.max(worst, f.getLoadTimeMs());
+                }
+                System.out.println(n + " loads, avg " + (total / n) + " ms, worst " + worst + " ms");
+                break;
+            default:
+                System.out.println("unknown command " + args[0]);
+        }
+    }
+}
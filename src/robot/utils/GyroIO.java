@@ -0,0 +1,10 @@
+package robot.utils;
+
+/**
+ * The part of the NavX the drive code uses, names as on AHRS. Yaw is
+ * degrees clockwise, -180..180.
+ */
+public interface GyroIO {
+    float getYaw();
+    void zeroYaw();
+}
@@ -28,6 +28,9 @@ public final class LineFollowController
     // when hit a red area, put on brakes
     // brakes intensity is relative to velocity
     private double  BRAKE_PER_VEL_IN_FTPS = 0.1 ; 
+    // lateral error from the distance field (continuous) instead of
+    // which sensors are on (quantized to the sensor spacing)
+    private boolean USE_DIST_FIELD = true ;
     
     // sensor params
     private final int    N_SENSORS = 5 ;   
@@ -44,13 +47,15 @@ public final class LineFollowController
     private double mLastSensorVal = (double)(N_SENSORS-1) / 2.0 ;
     private double mLastError = 0.0 ;
     private double mSumError = 0.0 ;
+    private final boolean[] mPixOn = new boolean[N_SENSORS] ;
     
-    // simulated region
-    private BufferedImage mImage = null ;
+    // simulated region, line and stop pixels binarized once (see PathBitmap)
+    private PathBitmap mPath = null ;
+    private PathDistanceField mField = null ;   // null -> sensors only
+    private double mLineHalfWidthFt ;
     private double mImagePixW = 0 ;
     private double mImagePixH = 0 ; 
     private double mPixPerIn  ;                   // scale factor
-    private final int PIX_THRESH = 0x808080 ;   // threshold for white/black 
    
     // baseline acceleration and desired ending orientation
     private double  mBaseAccel ;
@@ -70,9 +75,17 @@ public final class LineFollowController
         return instance ;
     }    
     
+    public void init(double baseAccel, BufferedImage img, double pix_per_in, double linewinches,
+                     double endTheta, double x, double y, double orientDegCCW) {
+        PathBitmap path = (img != null) ? new PathBitmap(img) : null ;
+        init(baseAccel, path, (path != null) ? new PathDistanceField(path, fieldCellPix(pix_per_in, linewinches)) : null,
+             pix_per_in, linewinches, endTheta, x, y, orientDegCCW) ;
+    }
+
     public void init(
             double baseAccel,     // base drive power
-            BufferedImage img,    // image of path
+            PathBitmap path,      // image of path, binarized
+            PathDistanceField field, // distance from the line, null if not used
             double pix_per_in,    // image scale in pix/in
             double linewinches,   // width of the line in inches
             double endTheta,      // final desired angle (Double.Nan if don't care)
@@ -83,13 +96,16 @@ public final class LineFollowController
         KP = SmartDashboard.getNumber("LINEFOLLOW_KP", KP) ;
         KD = SmartDashboard.getNumber("LINEFOLLOW_KD", KD) ;
         BRAKE_PER_VEL_IN_FTPS = SmartDashboard.getNumber("BRAKE_PER_VEL_IN_FTPS", BRAKE_PER_VEL_IN_FTPS) ; 
+        USE_DIST_FIELD = SmartDashboard.getBoolean("LINEFOLLOW_DIST_FIELD", USE_DIST_FIELD) ;
         
         mBaseAccel = baseAccel ;
         
-        mImage = img ;
-        if (img != null) {
-            mImagePixW = (int)img.getWidth() ;
-            mImagePixH = (int)img.getHeight() ;        	
+        mPath = path ;
+        mField = USE_DIST_FIELD ? field : null ;
+        mLineHalfWidthFt = linewinches / 12.0 / 2.0 ;
+        if (path != null) {
+            mImagePixW = path.getWidth() ;
+            mImagePixH = path.getHeight() ;
         }
         
         this.mPixPerIn = pix_per_in ;
@@ -154,25 +170,19 @@ public final class LineFollowController
         upDateSensorLocs(x, y, absThetaDegCCW) ;
         
         // convert sensor locs to pixel locs and get pixel value
-        boolean[] pixOn = new boolean[N_SENSORS] ;
+        boolean[] pixOn = mPixOn ;
         for (int i=0 ; i<N_SENSORS ; i++) {
             int pixX = (int) (mSensX[i]*mPixPerIn*12.0 + mImagePixW/2) ;
             int pixY = (int) (mImagePixH-1 - mSensY[i]*mPixPerIn*12.0) ;
             pixX = Math.min((int)mImagePixW-1, Math.max(pixX, 0)) ;
             pixY = Math.min((int)mImagePixH-1, Math.max(pixY, 0)) ;
-            int pixVal = mImage.getRGB(pixX, pixY) ;
-            //System.out.printf("sensor %d at (%d,%d) = %x\n", i, pixX, pixY, pixVal);
             // detect stop color   
-            if (isStopColor(pixVal)) {
+            if (mPath.isStop(pixX, pixY)) {
             	Robot.logger.appendLog("LineFollow Braking");
                 mState = LineFollowState.BRAKE ;
                 break ;
             }
-            // convert pixval to on/off for convenience
-            pixVal = pixVal & 0x00ffffff ;
-            pixOn[i] = false ;
-            if (pixVal < PIX_THRESH)
-                pixOn[i] = true ;                
+            pixOn[i] = mPath.isLine(pixX, pixY) ;
         }
         //System.out.println(Arrays.toString(pixOn));    
         
@@ -182,9 +192,14 @@ public final class LineFollowController
             rightAccel = -velFtPerSec*BRAKE_PER_VEL_IN_FTPS ;
         }
         else {
-            double pos = getPositionVal(pixOn) ;
-            //System.out.println("pos = " + pos);
-            double error = pos-SENSOR_POS_MIDINDEX ;
+            double error ;
+            if (mField != null) {
+                error = getFieldError(absThetaDegCCW) ;
+            } else {
+                double pos = getPositionVal(pixOn) ;
+                //System.out.println("pos = " + pos);
+                error = pos-SENSOR_POS_MIDINDEX ;
+            }
 
             // update acceleration controls based on position error
             double deriv = (error-mLastError)/dT ;
@@ -223,6 +238,31 @@ public final class LineFollowController
         } 
     }
     
+    // Cells of about a quarter line width, so the line is still 4 cells wide
+    public static int fieldCellPix(double pix_per_in, double linewinches) {
+        return Math.max(1, (int) (linewinches * pix_per_in / 4.0)) ;
+    }
+
+    // Same units as the sensor error (sensor spacings, + when the line is
+    // toward the last sensor) but continuous: how far the middle of the
+    // array is from the middle of the line, along the array. The gradient
+    // points away from the line, so the line's middle is back along it by
+    // the distance to the edge plus half the line. Saturates where the
+    // sensors would lose the line.
+    private double getFieldError(double absThetaDegCCW) {
+        double cx = (mSensX[0] + mSensX[N_SENSORS-1]) / 2.0 ;
+        double cy = (mSensY[0] + mSensY[N_SENSORS-1]) / 2.0 ;
+        double px = cx*mPixPerIn*12.0 + mImagePixW/2 ;
+        double py = mImagePixH-1 - cy*mPixPerIn*12.0 ;
+        double distFt = mField.getDist(px, py) / mPixPerIn / 12.0 ;
+        double gx = mField.getGradX(px, py) ;
+        double gy = -mField.getGradY(px, py) ;         // image y is down
+        double theta = absThetaDegCCW*Math.PI/180.0 ;
+        double along = gx*Math.sin(theta) - gy*Math.cos(theta) ;
+        double error = -(distFt + mLineHalfWidthFt) * along / mSensorSpacingFt ;
+        return Math.max(-SENSOR_POS_MIDINDEX, Math.min(SENSOR_POS_MIDINDEX, error)) ;
+    }
+
     private double getPositionVal(boolean[] pixOn) {
         boolean seeLine = false ;
         double sum = 0 ;
@@ -246,19 +286,6 @@ public final class LineFollowController
         return mLastSensorVal ;
     } 
     
-    private boolean isStopColor(int pixVal) {
-        boolean result = false ;
-        
-        // mask off the alpha and then the red
-        int red = (pixVal & 0xff0000) >> 16 ;
-        int green = (pixVal & 0x00ff00) >> 12 ;
-        int blue = (pixVal & 0x0000ff) ;  
-        // System.out.println("r="+red+" g="+green+" b="+blue);
-        if (red>0x80 && green<0x80 && blue<0x80)
-            result = true ;
-        return result ;
-    }    
-    
     public LineFollowState getControllerState() {
         return mState ;
     }
@@ -0,0 +1,106 @@
+package robot.utils;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Turns a binary log written by the Logger (see LogRingBuffer for the record
+ * layout) back into the same CSV lines the old text logger produced, so the
+ * existing analysis scripts keep working.
+ *
+ * Runs off-robot:
+ *   java robot.utils.LogDecoder log01.bin [log01.csv]
+ * With no output file the CSV goes to stdout.
+ */
+public class LogDecoder {
+    // File header
+    public static final int FILE_MAGIC = 0x34353133;        // "4513"
+    public static final int FILE_VERSION = 1;              // streamed, header is magic + version
+    public static final int FILE_VERSION_MAPPED = 2;       // MappedLogFile, header adds a commit marker
+    public static final int FILE_HEADER_SIZE = 8;
+
+    // Channel ids - they tell us how to format each record
+    public static final int CH_TEXT = 0;            // "time, text"
+    public static final int CH_VALUE = 1;           // "time, text, value"
+    public static final int CH_POSITION = 2;        // "time,text, X=,x, Y=,y,GyroYaw=,g, TrackerYaw=,t"
+    public static final int CH_DRIVETRAIN = 3;      // DriveTelemetry record
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: LogDecoder <log.bin> [out.csv]");
+            return;
+        }
+        PrintStream out = System.out;
+        if (args.length > 1) {
+            out = new PrintStream(args[1]);
+        }
+        int n = decode(Files.readAllBytes(Paths.get(args[0])), out);
+        out.flush();
+        if (out != System.out) {
+            out.close();
+            System.out.println("Decoded " + n + " records to " + args[1]);
+        }
+    }
+
+    // Decode every complete record in data, returns the number of records
+    public static int decode(byte[] data, PrintStream out) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if ((data.length < FILE_HEADER_SIZE) || (buf.getInt(0) != FILE_MAGIC)) {
+            System.out.println("Not a robot log file");
+            return 0;
+        }
+        int count = 0;
+        int pos = FILE_HEADER_SIZE;
+        int end = data.length;
+        if (buf.getInt(4) == FILE_VERSION_MAPPED) {
+            // only trust what was committed, the rest of the file is
+            // preallocated space or a torn batch from a reboot mid-write
+            pos = MappedLogFile.HEADER_SIZE;
+            end = (int) Math.min(buf.getLong(8), data.length);
+        }
+        while ((pos + LogRingBuffer.HEADER_SIZE) <= end) {
+            double time = buf.getDouble(pos);
+            int channel = buf.getShort(pos + 8);
+            int nDoubles = buf.get(pos + 10);
+            int textLen = buf.getShort(pos + 12);
+            int len = LogRingBuffer.HEADER_SIZE + (nDoubles * 8) + textLen;
+            if ((nDoubles < 0) || (textLen < 0) || ((pos + len) > end)) {
+                break;          // torn record at the end of the file
+            }
+            double[] values = new double[nDoubles];
+            for (int i = 0; i < nDoubles; i++) {
+                values[i] = buf.getDouble(pos + LogRingBuffer.HEADER_SIZE + (i * 8));
+            }
+            int textStart = pos + LogRingBuffer.HEADER_SIZE + (nDoubles * 8);
+            String text = new String(data, textStart, textLen, StandardCharsets.ISO_8859_1);
+            out.println(formatRecord(time, channel, values, text));
+            count++;
+            pos += len;
+        }
+        return count;
+    }
+
+    public static String formatRecord(double time, int channel, double[] values, String text) {
+        switch (channel) {
+            case CH_TEXT:
+                return String.valueOf(time) + ", " + text;
+            case CH_VALUE:
+                return String.valueOf(time) + ", " + text + ", " + String.valueOf(values[0]);
+            case CH_POSITION:
+                return String.valueOf(time) + "," + text + "," +
+                        String.format(" X=,%g, Y=,%g,GyroYaw=,%g, TrackerYaw=,%g",
+                                        values[0], values[1], values[2], values[3]);
+            case CH_DRIVETRAIN:
+                return String.valueOf(time) + ", " + DriveTelemetry.toCsv(values);
+            default:
+                String line = String.valueOf(time) + ", " + text;
+                for (double v : values) {
+                    line += "," + v;
+                }
+                return line;
+        }
+    }
+}
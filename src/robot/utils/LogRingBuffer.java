@@ -0,0 +1,148 @@
+package robot.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Preallocated, fixed-size ring of binary log records.
+ *
+ * Every record lives in its own fixed-size slot so nothing is allocated
+ * while logging. A record is laid out as:
+ *
+ *   double  timestamp (seconds, Robot.sysTimer)
+ *   short   channel id (tells the decoder how to format the record)
+ *   byte    number of doubles in the payload
+ *   byte    reserved
+ *   short   text length in bytes
+ *   short   reserved
+ *   double  values[nDoubles]
+ *   byte    text[textLen]          (latin-1, one byte per char)
+ *
+ * Only the used part of each slot is written out by drain(), so the file
+ * stays compact. Writers build a record with begin() / putDouble() /
+ * putText() / commit() while holding this object's monitor; the background
+ * writer calls drain() which takes the same monitor.
+ *
+ * When the ring is full new records are dropped (and counted) rather than
+ * blocking the robot loop.
+ */
+public class LogRingBuffer {
+    public static final int RECORD_SIZE = 512;
+    public static final int HEADER_SIZE = 16;
+    public static final int MAX_DOUBLES = 32;
+    public static final int MAX_TEXT = RECORD_SIZE - HEADER_SIZE;
+
+    private final ByteBuffer mBuf;
+    private final int mCapacity;
+
+    private long mHead = 0;         // next slot to be written
+    private long mTail = 0;         // next slot to be drained
+    private long mDropped = 0;      // records lost because the ring was full
+    private long mTruncated = 0;    // records whose text did not fit
+
+    // record currently being built
+    private int mSlot = -1;
+    private int mDoubles, mTextLen;
+
+    public LogRingBuffer(int capacity) {
+        mCapacity = capacity;
+        mBuf = ByteBuffer.allocate(capacity * RECORD_SIZE);
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------- Producer Methods -----------------------------
+    // Start a new record. Returns false (and counts a drop) if the ring is full.
+    public boolean begin(double time, int channel) {
+        if ((mHead - mTail) >= mCapacity) {
+            mDropped++;
+            mSlot = -1;
+            return false;
+        }
+        mSlot = (int) (mHead % mCapacity) * RECORD_SIZE;
+        mDoubles = 0;
+        mTextLen = 0;
+        mBuf.putDouble(mSlot, time);
+        mBuf.putShort(mSlot + 8, (short) channel);
+        return true;
+    }
+
+    // Doubles must all be added before any text
+    public void putDouble(double d) {
+        if ((mSlot < 0) || (mDoubles >= MAX_DOUBLES) || (mTextLen > 0)) { return; }
+        mBuf.putDouble(mSlot + HEADER_SIZE + (mDoubles * 8), d);
+        mDoubles++;
+    }
+
+    public void putText(String s) {
+        if ((mSlot < 0) || (s == null)) { return; }
+        int start = mSlot + HEADER_SIZE + (mDoubles * 8);
+        int room = MAX_TEXT - (mDoubles * 8) - mTextLen;
+        int len = s.length();
+        if (len > room) {
+            len = room;
+            mTruncated++;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            mBuf.put(start + mTextLen + i, (byte) ((c < 256) ? c : '?'));
+        }
+        mTextLen += len;
+    }
+
+    public void commit() {
+        if (mSlot < 0) { return; }
+        mBuf.put(mSlot + 10, (byte) mDoubles);
+        mBuf.put(mSlot + 11, (byte) 0);
+        mBuf.putShort(mSlot + 12, (short) mTextLen);
+        mBuf.putShort(mSlot + 14, (short) 0);
+        mSlot = -1;
+        mHead++;
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------- Consumer Methods -----------------------------
+    // Copy the used bytes of pending records into dest, oldest first.
+    // Returns the number of bytes copied.
+    public synchronized int drain(byte[] dest) {
+        byte[] src = mBuf.array();
+        int n = 0;
+        while (mTail < mHead) {
+            int slot = (int) (mTail % mCapacity) * RECORD_SIZE;
+            int len = recordLength(slot);
+            if ((n + len) > dest.length) { break; }
+            System.arraycopy(src, slot, dest, n, len);
+            n += len;
+            mTail++;
+        }
+        return n;
+    }
+
+    // Same as above but into a ByteBuffer (e.g. a memory-mapped file),
+    // starting at its current position. Stops at the first record that
+    // does not fit in dest.remaining().
+    public synchronized int drain(ByteBuffer dest) {
+        byte[] src = mBuf.array();
+        int n = 0;
+        while (mTail < mHead) {
+            int slot = (int) (mTail % mCapacity) * RECORD_SIZE;
+            int len = recordLength(slot);
+            if (len > dest.remaining()) { break; }
+            dest.put(src, slot, len);
+            n += len;
+            mTail++;
+        }
+        return n;
+    }
+
+    public synchronized void clear() {
+        mTail = mHead;
+    }
+
+    public synchronized int pending()        { return (int) (mHead - mTail); }
+    public synchronized long getDropped()    { return mDropped; }
+    public synchronized long getTruncated()  { return mTruncated; }
+    public int getCapacity()                 { return mCapacity; }
+
+    private int recordLength(int slot) {
+        return HEADER_SIZE + (mBuf.get(slot + 10) * 8) + mBuf.getShort(slot + 12);
+    }
+}
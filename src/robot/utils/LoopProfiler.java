@@ -0,0 +1,225 @@
+package robot.utils;
+
+/**
+ * Where the 20 ms loop goes: System.nanoTime() around each subsystem
+ * periodic() and the default commands' execute(), per component log-linear
+ * (HDR style) histograms, and which component to blame when a loop runs
+ * over.
+ *
+ * Every call site is wrapped in if (LoopProfiler.ENABLED), so with ENABLED
+ * false javac drops the timing code and the profiler costs nothing.
+ *
+ *   long t0 = LoopProfiler.ENABLED ? System.nanoTime() : 0;
+ *   ...
+ *   if (LoopProfiler.ENABLED) LoopProfiler.record(LoopProfiler.DRIVETRAIN, t0);
+ *
+ * startLoop() / endLoop() go around Scheduler.run(). Scheduler time nobody
+ * recorded (the scheduler itself, buttons and every other command) is
+ * charged to SCHED_CMDS. The loop itself is timed from one startLoop() to
+ * the next (runScheduler is the first thing every mode's periodic does),
+ * so LOOP is TimedRobot's real period, and whatever the rest of the period
+ * went on is charged to UNACCOUNTED: TimedRobot's own work (dashboard and
+ * LiveWindow updates), the rest of the mode periodic, mode inits, GC, and
+ * the idle wait for the next tick. A loop is an overrun when its period is
+ * more than OVERRUN_SLACK_MS over the budget, and the biggest part of it,
+ * UNACCOUNTED included, is blamed. Only called from the main robot thread.
+ */
+public class LoopProfiler {
+    public static final boolean ENABLED = true;
+
+    public static final int DRIVETRAIN = 0;
+    public static final int ELEV = 1;
+    public static final int INTAKE = 2;
+    public static final int MANIPULATOR = 3;
+    public static final int VISION = 4;
+    public static final int UDP_SERVER = 5;
+    public static final int LOGGER = 6;
+    public static final int DRIVE_JOY_CMD = 7;
+    public static final int ELEV_JOY_CMD = 8;
+    public static final int SCHED_CMDS = 9;
+    public static final int UNACCOUNTED = 10;               // the period outside Scheduler.run()
+    public static final int LOOP = 11;                      // startLoop() to the next startLoop()
+    public static final int NUM = 12;
+    private static final String[] NAMES = {"Drivetrain", "Elev", "Intake", "Manipulator", "Vision",
+                                           "UDPServer", "Logger", "DriveJoyCmd", "ElevJoyCmd",
+                                           "Sched+Cmds", "Unaccounted", "Loop"};
+
+    public static final double LOOP_BUDGET_MS = 20;
+    public static final double OVERRUN_SLACK_MS = 1.0;      // TimedRobot's tick jitter
+
+    // Histogram buckets in microseconds: 0..15 one each, then every power of
+    // two split in SUB linear sub buckets, so a bucket is within 1/8 of its value
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAGS = 21;                     // up to ~8 sec
+    private static final int BUCKETS = MAGS * SUB;
+
+    private static final int[][] sHist = new int[NUM][BUCKETS];
+    private static final long[] sCount = new long[NUM];
+    private static final long[] sMaxNs = new long[NUM];
+    private static final long[] sTotalNs = new long[NUM];
+    private static final long[] sCycleNs = new long[NUM];   // this loop
+    private static final int[] sBlame = new int[NUM];       // overruns it was the biggest part of
+
+    private static long sLoopStart = 0;
+    private static int sOverruns = 0, sLoops = 0;
+    private static double sWorstMs = 0;
+    private static String sWorst = "";
+
+    public static void record(int id, long startNs) {
+        sCycleNs[id] += System.nanoTime() - startNs;
+    }
+
+    // start of this loop, and the end of the one before
+    public static void startLoop() {
+        long now = System.nanoTime();
+        if (sLoopStart != 0) {
+            finishLoop(now - sLoopStart);
+        }
+        sLoopStart = now;
+    }
+
+    // after Scheduler.run()
+    public static void endLoop() {
+        long schedNs = System.nanoTime() - sLoopStart;
+        long counted = 0;
+        for (int i = 0; i < SCHED_CMDS; i++) {
+            counted += sCycleNs[i];
+        }
+        sCycleNs[SCHED_CMDS] = Math.max(0, schedNs - counted);
+    }
+
+    private static void finishLoop(long loopNs) {
+        long counted = 0;
+        for (int i = 0; i <= SCHED_CMDS; i++) {
+            counted += sCycleNs[i];
+        }
+        sCycleNs[UNACCOUNTED] = Math.max(0, loopNs - counted);
+        sCycleNs[LOOP] = loopNs;
+        sLoops++;
+
+        int worst = 0;
+        for (int i = 0; i < LOOP; i++) {
+            if (sCycleNs[i] > sCycleNs[worst]) { worst = i; }
+        }
+        double loopMs = loopNs / 1e6;
+        if (loopMs > (LOOP_BUDGET_MS + OVERRUN_SLACK_MS)) {
+            sOverruns++;
+            sBlame[worst]++;
+            if (loopMs > sWorstMs) {
+                sWorstMs = loopMs;
+                sWorst = breakdown();
+            }
+        }
+
+        for (int i = 0; i < NUM; i++) {
+            long ns = sCycleNs[i];
+            if ((ns > 0) || (i == SCHED_CMDS) || (i == UNACCOUNTED)) {
+                sHist[i][bucket(ns / 1000)]++;
+                sCount[i]++;
+                sTotalNs[i] += ns;
+                if (ns > sMaxNs[i]) { sMaxNs[i] = ns; }
+            }
+            sCycleNs[i] = 0;
+        }
+    }
+
+    // this loop's times per component, in ms
+    private static String breakdown() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LOOP; i++) {
+            if (sCycleNs[i] > 0) {
+                sb.append(NAMES[i]).append("=").append(Rmath.mRound(sCycleNs[i] / 1e6, 2)).append(" ");
+            }
+        }
+        return sb.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    // us -> bucket, and bucket -> the largest us it holds
+    private static int bucket(long us) {
+        if (us < (2 * SUB)) {
+            return (int) Math.max(0, us);
+        }
+        int mag = 63 - Long.numberOfLeadingZeros(us) - SUB_BITS;     // us >> mag is SUB..2*SUB-1
+        if ((mag + 1) >= MAGS) {
+            return BUCKETS - 1;
+        }
+        return ((mag + 1) * SUB) + (int) ((us >> mag) - SUB);
+    }
+
+    private static long bucketTop(int b) {
+        if (b < (2 * SUB)) {
+            return b;
+        }
+        int mag = (b / SUB) - 1;
+        return ((long) ((b % SUB) + SUB + 1) << mag) - 1;
+    }
+
+    // percentile (0..100) of a component's times in ms
+    public static double getPercentileMs(int id, double pct) {
+        if (sCount[id] == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil((pct / 100) * sCount[id]);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += sHist[id][b];
+            if (seen >= Math.max(1, target)) {
+                return Math.min(bucketTop(b), sMaxNs[id] / 1000) / 1000.0;
+            }
+        }
+        return sMaxNs[id] / 1e6;
+    }
+
+    public static double getMeanMs(int id)      { return (sCount[id] == 0) ? 0 : (sTotalNs[id] / 1e6) / sCount[id]; }
+    public static double getMaxMs(int id)       { return sMaxNs[id] / 1e6; }
+    public static int getOverruns()             { return sOverruns; }
+    public static int getLoops()                { return sLoops; }
+    public static double getMaxPeriodMs()       { return sMaxNs[LOOP] / 1e6; }
+    public static String getWorstOverrun()      { return sWorst; }
+
+    // the component blamed for the most overruns
+    public static String getTopOffender() {
+        int top = 0;
+        for (int i = 1; i < LOOP; i++) {
+            if (sBlame[i] > sBlame[top]) { top = i; }
+        }
+        return (sBlame[top] == 0) ? "none" : NAMES[top] + " (" + sBlame[top] + ")";
+    }
+
+    // One line per component, then the overrun attribution
+    public static String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Loop Profile,Loops=,").append(sLoops).append(",Overruns=,").append(sOverruns)
+          .append(",Max Period ms=,").append(Rmath.mRound(getMaxPeriodMs(), 2)).append("\n");
+        for (int i = 0; i < NUM; i++) {
+            if (sCount[i] == 0) { continue; }
+            sb.append("  ").append(NAMES[i])
+              .append(",n=,").append(sCount[i])
+              .append(",mean=,").append(Rmath.mRound(getMeanMs(i), 3))
+              .append(",p50=,").append(Rmath.mRound(getPercentileMs(i, 50), 3))
+              .append(",p99=,").append(Rmath.mRound(getPercentileMs(i, 99), 3))
+              .append(",max=,").append(Rmath.mRound(getMaxMs(i), 3))
+              .append(",blamed=,").append(sBlame[i]).append("\n");
+        }
+        sb.append("  Worst overrun ").append(Rmath.mRound(sWorstMs, 2)).append(" ms: ").append(sWorst);
+        return sb.toString();
+    }
+
+    public static void reset() {
+        for (int i = 0; i < NUM; i++) {
+            java.util.Arrays.fill(sHist[i], 0);
+            sCount[i] = 0;
+            sMaxNs[i] = 0;
+            sTotalNs[i] = 0;
+            sCycleNs[i] = 0;
+            sBlame[i] = 0;
+        }
+        sLoopStart = 0;
+        sOverruns = 0;
+        sLoops = 0;
+        sWorstMs = 0;
+        sWorst = "";
+    }
+}
@@ -1,5 +1,7 @@
 package robot.utils;
 
+import java.io.File;
+
 import robot.utils.Position;
 //import java.lang.Math;
 //import robot.utils.Rmath;
@@ -36,6 +38,47 @@ public class Map {
     public static double loadingSt_Tgt_X[]        = new double[2];     // [Left,Right]
     public static double loadingSt_Tgt_Y[]        = new double[2];     // [Left,Right]
     private static double loadingSt_Tgt_O[]        = new double[2];     // [Left,Right]
+
+    // -------------------- Flat Target Table --------------------
+    // Every distinct target above, by element id, plus spatial indexes over
+    // the vision points (what the camera sees) and the robot target points
+    // (where we drive to score/load).
+    public static final int KIND_CARGOSHIP = 0;
+    public static final int KIND_ROCKET = 1;
+    public static final int KIND_LOADING_ST = 2;
+    public static final int KIND_START = 3;
+    public static final int NUM_TARGETS = 16;
+    private static String tgt_Name[]     = new String[NUM_TARGETS];
+    private static int    tgt_Kind[]     = new int[NUM_TARGETS];
+    private static double tgt_Vision_X[] = new double[NUM_TARGETS];
+    private static double tgt_Vision_Y[] = new double[NUM_TARGETS];
+    private static double tgt_X[]        = new double[NUM_TARGETS];
+    private static double tgt_Y[]        = new double[NUM_TARGETS];
+    private static double tgt_O[]        = new double[NUM_TARGETS];
+    private static FieldIndex visionIndex;
+    private static FieldIndex scoringIndex;
+
+    // -------------------- Starting Position Table --------------------
+    public static final int START_LEFT_FACING_FWD = 0;
+    public static final int START_LEFT_FACING_LEFT = 1;
+    public static final int START_CTR_FACING_FWD = 2;
+    public static final int START_RIGHT_FACING_FWD = 3;
+    public static final int START_RIGHT_FACING_RIGHT = 4;
+    public static final int START_LEVEL2_LEFT_FWD = 5;
+    public static final int START_LEVEL2_RIGHT_FWD = 6;
+    public static final int NUM_START_POS = 7;
+    private static String startPos_Name[] = new String[NUM_START_POS];
+    private static double startPos_X[]    = new double[NUM_START_POS];
+    private static double startPos_Y[]    = new double[NUM_START_POS];
+    private static double startPos_O[]    = new double[NUM_START_POS];
+
+    // Field calibration file, overrides the built-in positions below when present
+    public static final String FIELD_MAP_PATH = "/home/lvuser/fieldmap.bin";
+    private static int fieldMapRevision = -1;          // -1 = built-in positions
+
+    // what the camera can see
+    public static final double CAMERA_HALF_FOV = 30.0;     // degrees
+    public static final double CAMERA_MAX_RANGE = 180.0;   // inches
     
     // --- Map Data Elements ---
 
@@ -210,10 +253,25 @@ public class Map {
     public final static double Rocket_Left_Far_Tgt_O = -119.0;
 
 	public Map(){
+        this(true);
+    }
+
+    // loadFile - false to only use the built-in positions
+    public Map(boolean loadFile){
         // Constructor with initial values
         init_Position_Tables();
+        if (loadFile) {
+            load_Field_Map(FIELD_MAP_PATH);
+        }
+        init_Target_Index();
     }
 
+    public static String getStartName(int id)   { return startPos_Name[id]; }
+    public static double getStartX(int id)      { return startPos_X[id]; }
+    public static double getStartY(int id)      { return startPos_Y[id]; }
+    public static double getStartO(int id)      { return startPos_O[id]; }
+    public static int getFieldMapRevision()     { return fieldMapRevision; }
+
 
     // Figure out target location and orientation based on bot loc and orient 
     public static Position getRobotPosBasedOnVision( double heading, double distance, double gyroYaw) {
@@ -226,6 +284,49 @@ public class Map {
 
     // Figure out target location and orientation based on bot loc and orient 
     public static Position getTargetPosBasedOnRobotPosition(Position botPosn) {
+        Position targPosn = new Position() ;
+        getTargetPosBasedOnRobotPosition(botPosn, targPosn);
+        return targPosn ;
+    }
+
+    // Same as above but fills in targPosn instead of allocating.
+    // Picks the nearest target the camera can see, falls back to the
+    // field zone tables when nothing is in view.
+    public static void getTargetPosBasedOnRobotPosition(Position botPosn, Position targPosn) {
+        int id = findVisibleTarget(botPosn.x, botPosn.y, botPosn.orientCW, false);
+        if (id >= 0) {
+            targPosn.x = tgt_X[id];
+            targPosn.y = tgt_Y[id];
+            targPosn.orientCW = tgt_O[id];
+            targPosn.name = tgt_Name[id];
+            return;
+        }
+        getTargetPosFromZone(botPosn, targPosn);
+    }
+
+    // Element id of the nearest target the camera can see, -1 if none.
+    // mirrored - search as if the robot were on the other side of the field
+    public static int findVisibleTarget(double x, double y, double orientCW, boolean mirrored) {
+        if (visionIndex == null) { return -1; }
+        return visionIndex.nearestVisible(x, y, orientCW, CAMERA_HALF_FOV, CAMERA_MAX_RANGE, mirrored);
+    }
+
+    // The k nearest scoring/loading locations (robot target points), closest
+    // first. ids and scratch must be at least k long. Returns the count found.
+    public static int findNearestTargets(double x, double y, int[] ids, double[] scratch, boolean mirrored) {
+        if (scoringIndex == null) { return 0; }
+        return scoringIndex.kNearest(x, y, ids, scratch, mirrored);
+    }
+
+    public static String getTgtName(int id)     { return tgt_Name[id]; }
+    public static int    getTgtKind(int id)     { return tgt_Kind[id]; }
+    public static double getTgtX(int id)        { return tgt_X[id]; }
+    public static double getTgtY(int id)        { return tgt_Y[id]; }
+    public static double getTgtO(int id)        { return tgt_O[id]; }
+    public static double getVisionX(int id)     { return tgt_Vision_X[id]; }
+    public static double getVisionY(int id)     { return tgt_Vision_Y[id]; }
+
+    private static void getTargetPosFromZone(Position botPosn, Position targPosn) {
         // Get the target posn and orient from the bot posn and orient
         int index ;
         double targX, targY, targOrient ;
@@ -261,13 +362,11 @@ public class Map {
         // targX -= botPosn.x ;
         // targY -= botPosn.y ;
         
-        Position targPosn = new Position() ;
         targPosn.x = targX ;
         targPosn.y = targY ;
         targPosn.orientCW = targOrient ;
         targPosn.name = targName ;
         //System.out.println("Target is " + TARGET_NAME[nameIndex]);
-        return targPosn ;
     }
 
     
@@ -297,7 +396,150 @@ public class Map {
         init_Rocket_Position_Table();
         init_CargoShip_Position_Table();
         init_LoadingSt_Position_Table();
+        init_StartPos_Table();
+    }
+
+    // ------------------------- Field Map File -----------------------------
+    private void load_Field_Map(String path){
+        if (!new File(path).exists()) {
+            System.out.println("No field map file, using built-in positions");
+            return;
+        }
+        FieldMapFile f = new FieldMapFile();
+        String err = f.load(path);
+        if (err == null) {
+            err = f.validate();
+        }
+        if (err != null) {
+            System.out.println("Field map " + path + " rejected: " + err + " - using built-in positions");
+            return;
+        }
+        for (int i = 0; i < f.count; i++) {
+            int s = f.side[i];
+            int n = f.slot[i];
+            switch (f.kind[i]) {
+                case KIND_CARGOSHIP:
+                    cargoShip_Name[s][n]     = f.name[i];
+                    cargoShip_Vision_X[s][n] = f.visX[i];
+                    cargoShip_Vision_Y[s][n] = f.visY[i];
+                    cargoShip_Tgt_X[s][n]    = f.tgtX[i];
+                    cargoShip_Tgt_Y[s][n]    = f.tgtY[i];
+                    cargoShip_Tgt_O[s][n]    = f.tgtO[i];
+                    break;
+                case KIND_ROCKET:
+                    // slot 3 repeats Far for the zone lookup
+                    for (int j = n; j <= ((n == 2) ? 3 : n); j++) {
+                        rocket_Name[s][j]     = f.name[i];
+                        rocket_Vision_X[s][j] = f.visX[i];
+                        rocket_Vision_Y[s][j] = f.visY[i];
+                        rocket_Tgt_X[s][j]    = f.tgtX[i];
+                        rocket_Tgt_Y[s][j]    = f.tgtY[i];
+                        rocket_Tgt_O[s][j]    = f.tgtO[i];
+                    }
+                    break;
+                case KIND_LOADING_ST:
+                    loadingSt_Name[s]     = f.name[i];
+                    loadingSt_Vision_X[s] = f.visX[i];
+                    loadingSt_Vision_Y[s] = f.visY[i];
+                    loadingSt_Tgt_X[s]    = f.tgtX[i];
+                    loadingSt_Tgt_Y[s]    = f.tgtY[i];
+                    loadingSt_Tgt_O[s]    = f.tgtO[i];
+                    break;
+                case KIND_START:
+                    startPos_Name[n] = f.name[i];
+                    startPos_X[n]    = f.tgtX[i];
+                    startPos_Y[n]    = f.tgtY[i];
+                    startPos_O[n]    = f.tgtO[i];
+                    break;
+            }
+        }
+        fieldMapRevision = f.revision;
+        System.out.println("Field map rev " + f.revision + " loaded, " + f.count + " records in " +
+                            Rmath.mRound(f.getLoadTimeMs(), 3) + " ms");
+    }
+
+    // Copy the current positions into f, e.g. to write out the built-in map
+    public void getFieldMap(FieldMapFile f){
+        f.count = 0;
+        f.revision = (fieldMapRevision < 0) ? 0 : fieldMapRevision;
+        for (int s = 0; s < 2; s++) {
+            for (int i = 0; i < 4; i++) {
+                f.add(KIND_CARGOSHIP, s, i, cargoShip_Name[s][i], cargoShip_Vision_X[s][i], cargoShip_Vision_Y[s][i],
+                      cargoShip_Tgt_X[s][i], cargoShip_Tgt_Y[s][i], cargoShip_Tgt_O[s][i]);
+            }
+            for (int i = 0; i < 3; i++) {
+                f.add(KIND_ROCKET, s, i, rocket_Name[s][i], rocket_Vision_X[s][i], rocket_Vision_Y[s][i],
+                      rocket_Tgt_X[s][i], rocket_Tgt_Y[s][i], rocket_Tgt_O[s][i]);
+            }
+            f.add(KIND_LOADING_ST, s, 0, loadingSt_Name[s], loadingSt_Vision_X[s], loadingSt_Vision_Y[s],
+                  loadingSt_Tgt_X[s], loadingSt_Tgt_Y[s], loadingSt_Tgt_O[s]);
+        }
+        for (int i = 0; i < NUM_START_POS; i++) {
+            f.add(KIND_START, 0, i, startPos_Name[i], startPos_X[i], startPos_Y[i],
+                  startPos_X[i], startPos_Y[i], startPos_O[i]);
+        }
+    }
+
+    private void init_StartPos_Table(){
+        // -------------------- Starting Positions --------------------
+        set_StartPos(START_LEFT_FACING_FWD,    StartingPos_Left_FacingFwd_Name,
+                     StartingPos_Left_FacingFwd_X, StartingPos_Left_FacingFwd_Y, StartingPos_Left_FacingFwd_O);
+        set_StartPos(START_LEFT_FACING_LEFT,   StartingPos_Left_FacingLeft_Name,
+                     StartingPos_Left_FacingLeft_X, StartingPos_Left_FacingLeft_Y, StartingPos_Left_FacingLeft_O);
+        set_StartPos(START_CTR_FACING_FWD,     StartingPos_Ctr_FacingFwd_Name,
+                     StartingPos_Ctr_FacingFwd_X, StartingPos_Ctr_FacingFwd_Y, StartingPos_Ctr_FacingFwd_O);
+        set_StartPos(START_RIGHT_FACING_FWD,   StartingPos_Right_FacingFwd_Name,
+                     StartingPos_Right_FacingFwd_X, StartingPos_Right_FacingFwd_Y, StartingPos_Right_FacingFwd_O);
+        set_StartPos(START_RIGHT_FACING_RIGHT, StartingPos_Right_FacingRight_Name,
+                     StartingPos_Right_FacingRight_X, StartingPos_Right_FacingRight_Y, StartingPos_Right_FacingRight_O);
+        set_StartPos(START_LEVEL2_LEFT_FWD,    StartingPos_Level2_Left_Fwd_FacingLeft_Name,
+                     StartingPos_Level2_Left_Fwd_FacingLeft_X, StartingPos_Level2_Left_Fwd_FacingLeft_Y,
+                     StartingPos_Level2_Left_Fwd_FacingLeft_O);
+        set_StartPos(START_LEVEL2_RIGHT_FWD,   StartingPos_Level2_Right_Fwd_FacingLeft_Name,
+                     StartingPos_Level2_Right_Fwd_FacingLeft_X, StartingPos_Level2_Right_Fwd_FacingLeft_Y,
+                     StartingPos_Level2_Right_Fwd_FacingLeft_O);
+    }
+
+    private void set_StartPos(int id, String name, double x, double y, double o){
+        startPos_Name[id] = name;
+        startPos_X[id]    = x;
+        startPos_Y[id]    = y;
+        startPos_O[id]    = o;
+    }
+
+    private void init_Target_Index(){
+        // -------------------- Flat Target Table --------------------
+        // Rocket [.][3] repeats Far, so it is left out
+        int n = 0;
+        for (int s = 0; s < 2; s++) {
+            for (int i = 0; i < 4; i++) {
+                n = add_Target(n, KIND_CARGOSHIP, cargoShip_Name[s][i],
+                               cargoShip_Vision_X[s][i], cargoShip_Vision_Y[s][i],
+                               cargoShip_Tgt_X[s][i], cargoShip_Tgt_Y[s][i], cargoShip_Tgt_O[s][i]);
+            }
+            for (int i = 0; i < 3; i++) {
+                n = add_Target(n, KIND_ROCKET, rocket_Name[s][i],
+                               rocket_Vision_X[s][i], rocket_Vision_Y[s][i],
+                               rocket_Tgt_X[s][i], rocket_Tgt_Y[s][i], rocket_Tgt_O[s][i]);
+            }
+            n = add_Target(n, KIND_LOADING_ST, loadingSt_Name[s],
+                           loadingSt_Vision_X[s], loadingSt_Vision_Y[s],
+                           loadingSt_Tgt_X[s], loadingSt_Tgt_Y[s], loadingSt_Tgt_O[s]);
+        }
+        visionIndex = new FieldIndex(tgt_Vision_X, tgt_Vision_Y, tgt_O);
+        scoringIndex = new FieldIndex(tgt_X, tgt_Y, tgt_O);
+    }
 
+    private int add_Target(int n, int kind, String name, double visX, double visY,
+                           double tgtX, double tgtY, double tgtO){
+        tgt_Name[n]     = name;
+        tgt_Kind[n]     = kind;
+        tgt_Vision_X[n] = visX;
+        tgt_Vision_Y[n] = visY;
+        tgt_X[n]        = tgtX;
+        tgt_Y[n]        = tgtY;
+        tgt_O[n]        = tgtO;
+        return n + 1;
     }
 
     private void init_LoadingSt_Position_Table(){
@@ -0,0 +1,116 @@
+package robot.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A pre-sized, memory-mapped binary log file.
+ *
+ * Records are copied straight from the LogRingBuffer into the mapping each
+ * cycle, so they are in the OS page cache as soon as they are written. The
+ * file header holds a commit marker - the byte length of complete records.
+ * force() (on the writer thread) syncs the records to flash first and only
+ * then moves the marker and syncs the header, so the marker never points
+ * past data that is not on flash. After a brownout or reboot LogDecoder
+ * reads up to the commit marker, so a torn file is recovered up to its
+ * last synced batch.
+ *
+ * close() cuts the file back to the committed length; a file left full
+ * size by a reboot is cut down by trim() the next time the logger starts.
+ *
+ * Header layout:
+ *   int   magic     (LogDecoder.FILE_MAGIC)
+ *   int   version   (LogDecoder.FILE_VERSION_MAPPED)
+ *   long  committed length in bytes, including this header
+ */
+public class MappedLogFile {
+    public static final int HEADER_SIZE = 16;
+    private static final int COMMIT_OFFSET = 8;
+
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mMap;
+    private volatile boolean mFull = false;
+    private volatile long mWritten = HEADER_SIZE;          // end of the records copied in so far
+
+    public MappedLogFile(String path, int size) throws IOException {
+        mFile = new RandomAccessFile(path, "rw");
+        try {
+            mFile.setLength(size);
+            mChannel = mFile.getChannel();
+            mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            mFile.close();                                  // the owner may retry, don't leak the handle
+            throw e;
+        }
+        mMap.putInt(0, LogDecoder.FILE_MAGIC);
+        mMap.putInt(4, LogDecoder.FILE_VERSION_MAPPED);
+        mMap.putLong(COMMIT_OFFSET, HEADER_SIZE);
+        mMap.position(HEADER_SIZE);
+    }
+
+    // Copy every pending record that fits from the ring into the file, the
+    // next force() commits them. Returns the number of bytes written.
+    public int write(LogRingBuffer ring) {
+        if (mFull) { return 0; }
+        int n = ring.drain(mMap);
+        if (n > 0) {
+            mWritten = mMap.position();
+        }
+        if (ring.pending() > 0) {
+            // the next record did not fit - time for a new file
+            mFull = true;
+        }
+        return n;
+    }
+
+    // Push the records to flash, then the commit marker that covers them.
+    // These are syscalls so they belong on the low priority writer thread,
+    // not in the robot loop.
+    public void force() {
+        long end = mWritten;
+        if (end == mMap.getLong(COMMIT_OFFSET)) { return; }
+        mMap.force();
+        mMap.putLong(COMMIT_OFFSET, end);
+        mMap.force();
+    }
+
+    public boolean isFull()         { return mFull; }
+    public long getCommitted()      { return mMap.getLong(COMMIT_OFFSET); }
+
+    // Commits what was written and drops the unused preallocated space.
+    // The mapping must not be touched after this.
+    public void close() {
+        mFull = true;
+        try {
+            force();
+            mFile.setLength(getCommitted());        // not interruptible, unlike the channel
+            mChannel.close();
+            mFile.close();
+        } catch (IOException e) {
+            System.out.println("Error closing mapped log file");
+            System.out.println(e);
+        }
+    }
+
+    // Cut a mapped log that was never closed (reboot, brownout, crash) down
+    // to its committed length. Other files are left alone.
+    public static void trim(File file) {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            if ((f.length() < HEADER_SIZE) || (f.readInt() != LogDecoder.FILE_MAGIC) ||
+                (f.readInt() != LogDecoder.FILE_VERSION_MAPPED)) {
+                return;
+            }
+            long committed = f.readLong();
+            if ((committed >= HEADER_SIZE) && (committed < f.length())) {
+                f.setLength(committed);
+            }
+        } catch (IOException e) {
+            System.out.println("Error trimming log file " + file);
+            System.out.println(e);
+        }
+    }
+}
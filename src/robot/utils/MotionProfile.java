@@ -0,0 +1,156 @@
+package robot.utils;
+
+/**
+ * One dimensional move from start to end, sampled every dt into flat
+ * position / velocity / acceleration arrays so following it costs an
+ * array lookup per loop.
+ *
+ * The base profile is a trapezoid (or triangle on short moves) limited by
+ * maxVel and maxAccel. With maxJerk > 0 it is run through a moving average
+ * Tj = maxAccel / maxJerk long, which turns the acceleration steps into
+ * ramps of slope maxJerk (an S-curve) at the cost of Tj more time. The
+ * average keeps the end position exact.
+ *
+ * If the cruise would be shorter than Tj, one window would span the +accel
+ * and -accel phases and ramp between them at 2 * maxJerk. Those moves are
+ * planned either with a lower cruise speed that lasts Tj, or at maxAccel / 2
+ * (the +accel to -accel step then ramps at maxJerk), whichever is quicker.
+ */
+public class MotionProfile {
+    public static final double DEFAULT_DT = 0.02;
+
+    private final double mStart, mEnd, mDt;
+    private final double[] mPos, mVel, mAcc;
+
+    // maxJerk <= 0 gives a plain trapezoid
+    public MotionProfile(double start, double end, double maxVel, double maxAccel, double maxJerk, double dt) {
+        mStart = start;
+        mEnd = end;
+        mDt = dt;
+
+        double dist = Math.abs(end - start);
+        double dir = (end >= start) ? 1 : -1;
+
+        int window = 1;
+        if (maxJerk > 0) {
+            window = Math.max(1, (int) Math.round((maxAccel / maxJerk) / dt));
+            double tj = (window + 1) * dt;                  // the window, and a sample for where the phases land
+            if (((dist / maxVel) - (maxVel / maxAccel)) < tj) {
+                // cruise speed that leaves exactly tj of cruise at maxAccel
+                double vTj = (Math.sqrt((maxAccel * maxAccel * tj * tj) + (4 * maxAccel * dist)) - (maxAccel * tj)) / 2;
+                if (moveTime(dist, maxVel, maxAccel / 2) < ((2 * vTj / maxAccel) + tj)) {
+                    maxAccel /= 2;
+                } else {
+                    maxVel = vTj;
+                }
+            }
+        }
+
+        double vPeak, tAccel, tCruise;
+        if (dist >= ((maxVel * maxVel) / maxAccel)) {
+            vPeak = maxVel;
+            tAccel = maxVel / maxAccel;
+            tCruise = (dist - (maxVel * tAccel)) / maxVel;
+        } else {
+            vPeak = Math.sqrt(dist * maxAccel);         // never reaches maxVel
+            tAccel = vPeak / maxAccel;
+            tCruise = 0;
+        }
+        double total = (2 * tAccel) + tCruise;
+
+        int n = (int) Math.ceil(total / dt) + window;
+        mPos = new double[n];
+        mVel = new double[n];
+        mAcc = new double[n];
+
+        // trapezoid samples, then the moving average in place (back to
+        // front so each sample only reads unfiltered ones before it)
+        double[] raw = new double[3];
+        for (int k = 0; k < n; k++) {
+            trapezoid(k * dt, dist, maxAccel, vPeak, tAccel, tCruise, total, raw);
+            mPos[k] = raw[0];
+            mVel[k] = raw[1];
+            mAcc[k] = raw[2];
+        }
+        if (window > 1) {
+            for (int k = n - 1; k >= 0; k--) {
+                double p = 0, v = 0, a = 0;
+                for (int j = 0; j < window; j++) {
+                    int i = k - j;
+                    if (i < 0) { break; }                   // before the start: 0
+                    p += mPos[i];
+                    v += mVel[i];
+                    a += mAcc[i];
+                }
+                mPos[k] = p / window;
+                mVel[k] = v / window;
+                mAcc[k] = a / window;
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            mPos[k] = start + (dir * mPos[k]);
+            mVel[k] *= dir;
+            mAcc[k] *= dir;
+        }
+        mPos[n - 1] = end;
+        mVel[n - 1] = 0;
+        mAcc[n - 1] = 0;
+    }
+
+    public MotionProfile(double start, double end, double maxVel, double maxAccel, double maxJerk) {
+        this(start, end, maxVel, maxAccel, maxJerk, DEFAULT_DT);
+    }
+
+    // trapezoid (or triangle) length, without the jerk window
+    private static double moveTime(double dist, double vel, double accel) {
+        if (dist >= ((vel * vel) / accel)) {
+            return (vel / accel) + (dist / vel);
+        }
+        return 2 * Math.sqrt(dist / accel);
+    }
+
+    // distance, velocity, acceleration t seconds into a move of dist
+    private static void trapezoid(double t, double dist, double accel, double vPeak,
+                                  double tAccel, double tCruise, double total, double[] out) {
+        if (t <= 0) {
+            out[0] = 0; out[1] = 0; out[2] = 0;
+        } else if (t < tAccel) {
+            out[0] = 0.5 * accel * t * t;
+            out[1] = accel * t;
+            out[2] = accel;
+        } else if (t < (tAccel + tCruise)) {
+            out[0] = (0.5 * accel * tAccel * tAccel) + (vPeak * (t - tAccel));
+            out[1] = vPeak;
+            out[2] = 0;
+        } else if (t < total) {
+            double r = total - t;
+            out[0] = dist - (0.5 * accel * r * r);
+            out[1] = accel * r;
+            out[2] = -accel;
+        } else {
+            out[0] = dist; out[1] = 0; out[2] = 0;
+        }
+    }
+
+    public int size()               { return mPos.length; }
+    public double getDt()           { return mDt; }
+    public double getDuration()     { return (mPos.length - 1) * mDt; }
+    public double getStart()        { return mStart; }
+    public double getEnd()          { return mEnd; }
+
+    // sample index t seconds into the move (the last one once it is over)
+    public int indexAt(double t) {
+        int i = (int) (t / mDt);
+        if (i < 0)              { return 0; }
+        if (i >= mPos.length)   { return mPos.length - 1; }
+        return i;
+    }
+
+    public double getPos(int i)     { return mPos[clamp(i)]; }
+    public double getVel(int i)     { return mVel[clamp(i)]; }
+    public double getAcc(int i)     { return mAcc[clamp(i)]; }
+
+    private int clamp(int i) {
+        return (i < 0) ? 0 : ((i >= mPos.length) ? (mPos.length - 1) : i);
+    }
+}
@@ -0,0 +1,76 @@
+package robot.utils;
+
+import java.util.Arrays;
+
+/**
+ * Every preset to preset MotionProfile, planned up front so a button press
+ * only has to look one up.
+ *
+ * A move counts as starting at a preset if the mechanism is within
+ * matchTol of it (the follower's position feedback takes up the
+ * difference). Anything else, e.g. after moving by joystick, is planned on
+ * the spot.
+ */
+public class MotionProfileCache {
+    private final double[] mPresets;
+    private final MotionProfile[][] mTable;
+    private final double mMaxVel, mMaxAccel, mMaxJerk, mMatchTol;
+    private int mHits = 0, mMisses = 0;
+
+    public MotionProfileCache(double[] presets, double maxVel, double maxAccel, double maxJerk, double matchTol) {
+        mMaxVel = maxVel;
+        mMaxAccel = maxAccel;
+        mMaxJerk = maxJerk;
+        mMatchTol = matchTol;
+
+        // sorted, duplicates dropped
+        double[] p = presets.clone();
+        Arrays.sort(p);
+        int n = 0;
+        for (int i = 0; i < p.length; i++) {
+            if ((n == 0) || (p[i] != p[n - 1])) { p[n++] = p[i]; }
+        }
+        mPresets = Arrays.copyOf(p, n);
+
+        mTable = new MotionProfile[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                mTable[i][j] = new MotionProfile(mPresets[i], mPresets[j], maxVel, maxAccel, maxJerk);
+            }
+        }
+    }
+
+    public MotionProfile get(double from, double to) {
+        int j = Arrays.binarySearch(mPresets, to);
+        int i = nearestPreset(from);
+        if ((j >= 0) && (i >= 0)) {
+            mHits++;
+            return mTable[i][j];
+        }
+        mMisses++;
+        return new MotionProfile(from, to, mMaxVel, mMaxAccel, mMaxJerk);
+    }
+
+    // index of the preset within mMatchTol of pos, or -1
+    private int nearestPreset(double pos) {
+        int best = -1;
+        double bestErr = mMatchTol;
+        for (int i = 0; i < mPresets.length; i++) {
+            double err = Math.abs(mPresets[i] - pos);
+            if (err <= bestErr) {
+                best = i;
+                bestErr = err;
+            }
+        }
+        return best;
+    }
+
+    // planned with these limits?
+    public boolean isFor(double maxVel, double maxAccel, double maxJerk) {
+        return (maxVel == mMaxVel) && (maxAccel == mMaxAccel) && (maxJerk == mMaxJerk);
+    }
+
+    public int getNumPresets()      { return mPresets.length; }
+    public int getHits()            { return mHits; }
+    public int getMisses()          { return mMisses; }
+}
@@ -0,0 +1,12 @@
+package robot.utils;
+
+/**
+ * The part of a Talon SRX the drive code reads and drives: open loop power
+ * out, encoder counts in. Names match WPI_TalonSRX so the robot side is a
+ * one line wrapper (HardwareIO), DriveSimPlant provides the simulated one.
+ */
+public interface MotorIO {
+    void set(double pwr);
+    int getSelectedSensorPosition(int pidIdx);             // counts
+    int getSelectedSensorVelocity(int pidIdx);             // counts per 100 ms
+}
@@ -0,0 +1,218 @@
+package robot.utils;
+
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Timer;
+import robot.subsystems.Drivetrain;
+
+/**
+ * High rate odometry, run by a Notifier instead of the 20 ms robot loop so
+ * fast turns are integrated in short arcs. Drivetrain.calcStats() takes its
+ * pose from here each cycle instead of integrating it at 50 Hz.
+ *
+ * Every PERIOD it reads the left/right encoder distances and NavX yaw from
+ * the drivetrain, moves a PositionTracker by the wheel travel (exact arcs),
+ * and publishes it through a seqlock: the writer bumps mSeq to odd, writes
+ * the snapshot, bumps it back to even. Readers retry until they see the
+ * same even sequence before and after copying, so they get a consistent
+ * pose without taking a lock or blocking this thread.
+ *
+ * A snapshot (getSnapshot) is
+ *   [X..YAW]           field pose, x, y (in), yaw (deg CW, from the wheels)
+ *   [TIME]             FPGA time the encoders and gyro were read
+ *   [GYRO]             NavX yaw read with them (deg CW, field)
+ *   [RAW_X..RAW_YAW]   the same pose in the service's own frame, which
+ *                      reset() never moves, so the motion between two
+ *                      snapshots is always real motion
+ *   [LEFT], [RIGHT]    wheel travel since start (in), also never reset
+ * reset() sets the field pose by moving the raw frame onto it; encoder
+ * resets (encodersReset()) only rebaseline the wheel distances.
+ *
+ * The time between runs goes into a jitter histogram (JITTER_BUCKET_US wide
+ * buckets, the last one catching everything longer).
+ */
+public class OdometryService {
+    public static final double PERIOD = 0.005;             // 200 Hz
+    public static final int JITTER_BUCKET_US = 250;
+    public static final int JITTER_BUCKETS = 40;           // up to 10 ms, last is overflow
+    private static final int MAX_READ_TRIES = 8;
+    private static final double MAX_STEP_IN = 12;          // more than this per run is a glitch, not motion
+    private static final double REZERO_TOL_IN = 2;         // encoders read this close to 0 once a reset lands
+    private static final double REZERO_TIMEOUT = 0.1;      // sec, give up waiting for it
+
+    public static final int X = 0, Y = 1, YAW = 2, TIME = 3, GYRO = 4;
+    public static final int RAW_X = 5, RAW_Y = 6, RAW_YAW = 7, LEFT = 8, RIGHT = 9;
+    public static final int SIZE = 10;
+
+    private final Drivetrain mDrive;
+    private final Notifier mNotifier;
+
+    // ---- published snapshot (seqlock) ----
+    // (volatile, so the reads of a copy stay between the two reads of mSeq)
+    private volatile int mSeq = 0;
+    private volatile double mX, mY, mYaw, mTime, mGyro;
+    private volatile double mRawX, mRawY, mRawYaw, mLeftPub, mRightPub;
+
+    // ---- requests from the robot thread ----
+    private volatile boolean mResetPending = false;
+    private volatile double mResetX, mResetY, mResetYaw;
+    private volatile boolean mRezeroPending = false;
+    private volatile double mRezeroTime = 0;
+
+    // ---- notifier thread state ----
+    private final PositionTracker mTracker;                // raw frame, fed the accumulated wheel travel
+    private final double[] mRawPose = new double[3];
+    private double mLeft, mRight;                          // accumulated wheel travel
+    private double mLastLeftRead, mLastRightRead;
+    private boolean mHaveRead = false;
+    private double mOffX = 0, mOffY = 0, mOffYaw = 0;      // raw frame -> field (yaw deg CW)
+    private double mLastRunTime = 0;
+    private final long[] mJitter = new long[JITTER_BUCKETS];
+    private volatile double mMaxPeriod = 0;
+    private volatile long mRuns = 0;
+    private volatile long mGlitches = 0;
+
+    public OdometryService(Drivetrain drive, double wheelBase) {
+        mDrive = drive;
+        mTracker = new PositionTracker(null, wheelBase);
+        mTracker.init(0, 0, 0);
+        mNotifier = new Notifier(this::run);
+    }
+
+    public void start()     { mNotifier.startPeriodic(PERIOD); }
+    public void stop()      { mNotifier.stop(); }
+
+    // Set the field pose (yaw degrees CW), applied at the start of the next run
+    public void reset(double x, double y, double yawDegCW) {
+        mResetX = x;
+        mResetY = y;
+        mResetYaw = yawDegCW;
+        mResetPending = true;
+    }
+
+    // The encoders were just zeroed: don't take the jump back to 0 as motion.
+    // Until the reads come back near 0 (the Talons' next frames) each run
+    // only rebaselines.
+    public void encodersReset() {
+        mRezeroTime = Timer.getFPGATimestamp();
+        mRezeroPending = true;
+    }
+
+    // ------------------------------------------------------------------------
+    // --------------------------- Notifier Thread ----------------------------
+    private void run() {
+        double now = Timer.getFPGATimestamp();
+        double left = mDrive.getLeftEncoderDistNow();
+        double right = mDrive.getRightEncoderDistNow();
+        double gyro = mDrive.getGyroYawNow();
+
+        // wheel travel since the last run
+        if (mRezeroPending) {
+            boolean landed = (Math.abs(left) < REZERO_TOL_IN) && (Math.abs(right) < REZERO_TOL_IN);
+            if (landed || ((now - mRezeroTime) > REZERO_TIMEOUT)) {
+                mRezeroPending = false;
+            }
+            mHaveRead = false;
+        }
+        if (mHaveRead) {
+            double dL = left - mLastLeftRead;
+            double dR = right - mLastRightRead;
+            if ((Math.abs(dL) > MAX_STEP_IN) || (Math.abs(dR) > MAX_STEP_IN)) {
+                mGlitches++;
+            } else {
+                mLeft += dL;
+                mRight += dR;
+            }
+        }
+        mLastLeftRead = left;
+        mLastRightRead = right;
+        mHaveRead = true;
+
+        mTracker.updatePositions(mLeft, mRight);
+        mTracker.getPose(mRawPose);
+
+        // field = raw rotated by mOffYaw (CW) and moved by mOffX/Y; a reset
+        // picks the offset that puts the current raw pose on the request
+        if (mResetPending) {
+            mResetPending = false;
+            mOffYaw = Rmath.constrainDeg0To180(mResetYaw - mRawPose[2]);
+            double c = Math.cos(Math.toRadians(mOffYaw)), s = Math.sin(Math.toRadians(mOffYaw));
+            mOffX = mResetX - ((mRawPose[0] * c) + (mRawPose[1] * s));
+            mOffY = mResetY - ((-mRawPose[0] * s) + (mRawPose[1] * c));
+        }
+        double c = Math.cos(Math.toRadians(mOffYaw)), s = Math.sin(Math.toRadians(mOffYaw));
+
+        // publish
+        mSeq++;
+        mX = mOffX + (mRawPose[0] * c) + (mRawPose[1] * s);
+        mY = mOffY - (mRawPose[0] * s) + (mRawPose[1] * c);
+        mYaw = Rmath.constrainDeg0To180(mRawPose[2] + mOffYaw);
+        mTime = now;
+        mGyro = gyro;
+        mRawX = mRawPose[0];
+        mRawY = mRawPose[1];
+        mRawYaw = mRawPose[2];
+        mLeftPub = mLeft;
+        mRightPub = mRight;
+        mSeq++;
+
+        // jitter
+        if (mLastRunTime > 0) {
+            double period = now - mLastRunTime;
+            int bucket = (int) ((period * 1.0e6) / JITTER_BUCKET_US);
+            if (bucket >= JITTER_BUCKETS) { bucket = JITTER_BUCKETS - 1; }
+            mJitter[bucket]++;
+            if (period > mMaxPeriod) { mMaxPeriod = period; }
+        }
+        mLastRunTime = now;
+        mRuns++;
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------- Readers --------------------------------
+    // Copy the latest snapshot into snap (SIZE long, see the indexes above).
+    // Returns false if nothing is published yet or the writer kept getting
+    // in the way (snap untouched).
+    public boolean getSnapshot(double[] snap) {
+        for (int i = 0; i < MAX_READ_TRIES; i++) {
+            int s1 = mSeq;
+            if ((s1 == 0) || ((s1 & 1) != 0)) { continue; }
+            double x = mX, y = mY, yaw = mYaw, t = mTime, gyro = mGyro;
+            double rx = mRawX, ry = mRawY, ryaw = mRawYaw, l = mLeftPub, r = mRightPub;
+            if (s1 == mSeq) {
+                snap[X] = x;
+                snap[Y] = y;
+                snap[YAW] = yaw;
+                snap[TIME] = t;
+                snap[GYRO] = gyro;
+                snap[RAW_X] = rx;
+                snap[RAW_Y] = ry;
+                snap[RAW_YAW] = ryaw;
+                snap[LEFT] = l;
+                snap[RIGHT] = r;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getRunCount()           { return mRuns; }
+    public long getGlitchCount()        { return mGlitches; }
+    public double getMaxPeriod()        { return mMaxPeriod; }
+
+    // Copy the jitter histogram counts into dest (JITTER_BUCKETS long)
+    public void getJitterHistogram(long[] dest) {
+        System.arraycopy(mJitter, 0, dest, 0, Math.min(dest.length, JITTER_BUCKETS));
+    }
+
+    // Histogram as text for the log, only non-empty buckets
+    public String getJitterReport() {
+        String line = "Odometry period histogram (us),runs=," + mRuns +
+                        ",max ms=," + Rmath.mRound(mMaxPeriod * 1000, 3) + ",glitches=," + mGlitches;
+        for (int i = 0; i < JITTER_BUCKETS; i++) {
+            long n = mJitter[i];
+            if (n == 0) { continue; }
+            line += "," + (i * JITTER_BUCKET_US) + ((i == (JITTER_BUCKETS - 1)) ? "+" : "") + "=," + n;
+        }
+        return line;
+    }
+}
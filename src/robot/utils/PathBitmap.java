@@ -0,0 +1,130 @@
+package robot.utils;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A line follow path image reduced to two packed bitsets: pixels that are
+ * line (darker than PIX_THRESH) and pixels that are the stop color.
+ *
+ * Built once when the path is loaded (CmdLineFollow.initialize) so the
+ * controller's per-sensor lookup each cycle is a bit test instead of a
+ * BufferedImage.getRGB() through the image's ColorModel. Bits are row
+ * major, pixel (x, y) is bit y * width + x, same pixel coordinates as the
+ * image. Immutable once built.
+ *
+ * java robot.utils.PathBitmap times the per-cycle sensor reads both ways.
+ */
+public class PathBitmap {
+    public static final int PIX_THRESH = 0x808080;     // threshold for white/black
+
+    private final int mWidth, mHeight;
+    private final long[] mLine;
+    private final long[] mStop;
+
+    public PathBitmap(BufferedImage img) {
+        mWidth = img.getWidth();
+        mHeight = img.getHeight();
+        int words = (int) ((((long) mWidth * mHeight) + 63) >>> 6);
+        mLine = new long[words];
+        mStop = new long[words];
+
+        // one row of getRGB at a time so a large path doesn't need a full int[] copy
+        int[] row = new int[mWidth];
+        for (int y = 0; y < mHeight; y++) {
+            img.getRGB(0, y, mWidth, 1, row, 0, mWidth);
+            long bit = (long) y * mWidth;
+            for (int x = 0; x < mWidth; x++, bit++) {
+                int pixVal = row[x];
+                if (isStopColor(pixVal)) {
+                    mStop[(int) (bit >>> 6)] |= 1L << bit;
+                }
+                if ((pixVal & 0x00ffffff) < PIX_THRESH) {
+                    mLine[(int) (bit >>> 6)] |= 1L << bit;
+                }
+            }
+        }
+    }
+
+    public int getWidth()                   { return mWidth; }
+    public int getHeight()                  { return mHeight; }
+    public long getSizeBytes()              { return 8L * (mLine.length + mStop.length); }
+
+    // x, y must be inside the image (the controller clamps them)
+    public boolean isLine(int x, int y)     { return test(mLine, x, y); }
+    public boolean isStop(int x, int y)     { return test(mStop, x, y); }
+
+    private boolean test(long[] bits, int x, int y) {
+        long bit = ((long) y * mWidth) + x;
+        return (bits[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    // Red, as LineFollowController always tested it. Green is shifted by 12,
+    // not 8, so it is never over 0x80 and only red and blue decide.
+    public static boolean isStopColor(int pixVal) {
+        int red = (pixVal & 0xff0000) >> 16;
+        int green = (pixVal & 0x00ff00) >> 12;
+        int blue = (pixVal & 0x0000ff);
+        return (red > 0x80) && (green < 0x80) && (blue < 0x80);
+    }
+
+    // ------------------------------------------------------------------------
+    // Per-cycle cost of the controller's 5 sensor reads, from the image and
+    // from the bitmap, on a synthetic 20 x 30 ft path at 4 pix/in
+    public static void main(String[] args) {
+        int w = 960, h = 1440;
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int rgb = 0xffffff;
+                if (Math.abs(x - ((w / 2) + (200 * Math.sin(y / 200.0)))) < 8) { rgb = 0x000000; }
+                if (y < 40) { rgb = 0xff0000; }
+                img.setRGB(x, y, rgb);
+            }
+        }
+        long t0 = System.nanoTime();
+        PathBitmap bmp = new PathBitmap(img);
+        double buildMs = (System.nanoTime() - t0) / 1e6;
+        int mismatches = 0;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int pixVal = img.getRGB(x, y);
+                if ((bmp.isStop(x, y) != isStopColor(pixVal)) ||
+                    (bmp.isLine(x, y) != ((pixVal & 0x00ffffff) < PIX_THRESH))) { mismatches++; }
+            }
+        }
+
+        int cycles = 2000000, sensors = 5;
+        int[] xs = new int[cycles], ys = new int[cycles];
+        java.util.Random rnd = new java.util.Random(1);
+        for (int i = 0; i < cycles; i++) {
+            xs[i] = rnd.nextInt(w - sensors * 4);
+            ys[i] = rnd.nextInt(h);
+        }
+        for (int pass = 0; pass < 3; pass++) {           // the last pass is the warmed up one
+            int hits = 0;
+            long a = System.nanoTime();
+            for (int i = 0; i < cycles; i++) {
+                for (int s = 0; s < sensors; s++) {
+                    int pixVal = img.getRGB(xs[i] + (s * 4), ys[i]);
+                    if (isStopColor(pixVal)) { hits += 2; }
+                    if ((pixVal & 0x00ffffff) < PIX_THRESH) { hits++; }
+                }
+            }
+            long b = System.nanoTime();
+            for (int i = 0; i < cycles; i++) {
+                for (int s = 0; s < sensors; s++) {
+                    if (bmp.isStop(xs[i] + (s * 4), ys[i])) { hits -= 2; }
+                    if (bmp.isLine(xs[i] + (s * 4), ys[i])) { hits--; }
+                }
+            }
+            long c = System.nanoTime();
+            if (pass == 2) {
+                System.out.println("PathBitmap " + w + "x" + h + " built in " + Rmath.mRound(buildMs, 1) + " ms, " +
+                        (bmp.getSizeBytes() / 1024) + " KB");
+                System.out.println("  getRGB ns/cycle=," + Rmath.mRound((double) (b - a) / cycles, 1) +
+                        ",bitmap ns/cycle=," + Rmath.mRound((double) (c - b) / cycles, 1) +
+                        ",mismatches=," + mismatches + ",net hits=," + hits);
+            }
+        }
+    }
+}
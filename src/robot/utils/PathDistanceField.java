@@ -0,0 +1,148 @@
+package robot.utils;
+
+/**
+ * Signed distance from the line follow path's line, with its gradient,
+ * precomputed from a PathBitmap when the path is loaded.
+ *
+ * Distance is in pixels of the path image to the nearest line edge:
+ * positive outside the line, negative inside. The gradient is the unit
+ * vector pointing away from the line (image x right, image y down), so the
+ * path tangent is the gradient turned 90 degrees. Lookups interpolate
+ * bilinearly between cells, so they are sub-pixel and O(1).
+ *
+ * The field is kept at one cell per cellPix x cellPix pixels to keep it
+ * small (3 floats per cell), pick cellPix so the line is still several
+ * cells wide. Exact Euclidean distance transform (Felzenszwalb &
+ * Huttenlocher), run once for the outside and once for the inside.
+ */
+public class PathDistanceField {
+    private static final float INF = 1e20f;
+
+    private final int mCellPix;
+    private final int mCols, mRows;
+    private final float[] mDist;                // pixels, by row * mCols + col
+    private final float[] mGradX, mGradY;
+
+    public PathDistanceField(PathBitmap path, int cellPix) {
+        mCellPix = Math.max(1, cellPix);
+        mCols = (path.getWidth() + mCellPix - 1) / mCellPix;
+        mRows = (path.getHeight() + mCellPix - 1) / mCellPix;
+        int n = mCols * mRows;
+
+        // a cell is line if the pixel at its center is
+        boolean[] line = new boolean[n];
+        for (int r = 0; r < mRows; r++) {
+            int py = Math.min(path.getHeight() - 1, (r * mCellPix) + (mCellPix / 2));
+            for (int c = 0; c < mCols; c++) {
+                int px = Math.min(path.getWidth() - 1, (c * mCellPix) + (mCellPix / 2));
+                line[(r * mCols) + c] = path.isLine(px, py);
+            }
+        }
+
+        float[] out = new float[n];             // squared cells to the nearest line cell
+        float[] in = new float[n];              // squared cells to the nearest non-line cell
+        for (int i = 0; i < n; i++) {
+            out[i] = line[i] ? 0 : INF;
+            in[i] = line[i] ? INF : 0;
+        }
+        transform(out);
+        transform(in);
+
+        // the edge is half a cell from the center of the cell next to it
+        mDist = new float[n];
+        for (int i = 0; i < n; i++) {
+            double d = line[i] ? -(Math.sqrt(in[i]) - 0.5) : (Math.sqrt(out[i]) - 0.5);
+            mDist[i] = (float) (d * mCellPix);
+        }
+
+        mGradX = new float[n];
+        mGradY = new float[n];
+        for (int r = 0; r < mRows; r++) {
+            for (int c = 0; c < mCols; c++) {
+                double gx = cell(c + 1, r) - cell(c - 1, r);
+                double gy = cell(c, r + 1) - cell(c, r - 1);
+                double len = Math.hypot(gx, gy);
+                if (len > 0) {
+                    mGradX[(r * mCols) + c] = (float) (gx / len);
+                    mGradY[(r * mCols) + c] = (float) (gy / len);
+                }
+            }
+        }
+    }
+
+    public int getCellPix()     { return mCellPix; }
+    public int getSizeBytes()   { return 12 * mCols * mRows; }
+
+    // ------------------------------------------------------------------------
+    // Queries in image pixels (fractions allowed), clamped to the image
+    public double getDist(double px, double py)     { return sample(mDist, px, py); }
+    public double getGradX(double px, double py)    { return sample(mGradX, px, py); }
+    public double getGradY(double px, double py)    { return sample(mGradY, px, py); }
+
+    private double sample(float[] f, double px, double py) {
+        double cx = Math.max(0, Math.min(mCols - 1, (px / mCellPix) - 0.5));
+        double cy = Math.max(0, Math.min(mRows - 1, (py / mCellPix) - 0.5));
+        int c0 = Math.min(mCols - 2, (int) cx), r0 = Math.min(mRows - 2, (int) cy);
+        if ((c0 < 0) || (r0 < 0)) {
+            return f[((int) cy * mCols) + (int) cx];        // a 1 cell wide field
+        }
+        double fx = cx - c0, fy = cy - r0;
+        int i = (r0 * mCols) + c0;
+        double top = f[i] + ((f[i + 1] - f[i]) * fx);
+        double bot = f[i + mCols] + ((f[i + mCols + 1] - f[i + mCols]) * fx);
+        return top + ((bot - top) * fy);
+    }
+
+    private double cell(int c, int r) {
+        c = Math.max(0, Math.min(mCols - 1, c));
+        r = Math.max(0, Math.min(mRows - 1, r));
+        return mDist[(r * mCols) + c];
+    }
+
+    // ------------------------------------------------------------------------
+    // 2-d squared distance transform in place, columns then rows
+    private void transform(float[] grid) {
+        int len = Math.max(mCols, mRows);
+        float[] f = new float[len], d = new float[len], z = new float[len + 1];
+        int[] v = new int[len];
+        for (int c = 0; c < mCols; c++) {
+            for (int r = 0; r < mRows; r++) { f[r] = grid[(r * mCols) + c]; }
+            transform1d(f, mRows, d, v, z);
+            for (int r = 0; r < mRows; r++) { grid[(r * mCols) + c] = d[r]; }
+        }
+        for (int r = 0; r < mRows; r++) {
+            System.arraycopy(grid, r * mCols, f, 0, mCols);
+            transform1d(f, mCols, d, v, z);
+            System.arraycopy(d, 0, grid, r * mCols, mCols);
+        }
+    }
+
+    // lower envelope of the parabolas rooted at each f[q]
+    private static void transform1d(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+        for (int q = 1; q < n; q++) {
+            double s = intersect(f, v[k], q);
+            while (s <= z[k]) {
+                k--;
+                s = intersect(f, v[k], q);
+            }
+            k++;
+            v[k] = q;
+            z[k] = (float) s;
+            z[k + 1] = INF;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) { k++; }
+            int p = v[k];
+            d[q] = ((q - p) * (q - p)) + f[p];
+        }
+    }
+
+    private static double intersect(float[] f, int p, int q) {
+        return (((double) f[q] + ((double) q * q)) - ((double) f[p] + ((double) p * p))) / (2.0 * (q - p));
+    }
+}
@@ -0,0 +1,229 @@
+package robot.utils;
+
+/**
+ * Single threaded PID calculation, stepped by the caller with an explicit dt.
+ *
+ * Same math as the wpilibj PIDController SuperPid used to wrap, for its
+ * displacement input (continuous input wrap, setpoint clamped to the input
+ * range, integral clamped to the output range, feed forward on the setpoint
+ * change per second, output clamp), but it runs wherever it is called from
+ * instead of on its own thread, so the same input sequence always gives the
+ * same outputs - on the robot or off.
+ *
+ * PIDController applied I and D per update at its 50 ms default period and
+ * our gains were tuned that way, so I and D are scaled by dt / NOMINAL_PERIOD
+ * to keep the existing gains meaning the same thing at any step rate.
+ *
+ * java robot.utils.PidEngine replays input sequences through this and
+ * through PIDController's calculate() and compares the outputs.
+ */
+public class PidEngine {
+    public static final double NOMINAL_PERIOD = 0.05;
+
+    private double mKp, mKi, mKd, mKf;
+    private double mOutputMin = -1.0, mOutputMax = 1.0;
+    private boolean mContinuous = false;
+    private double mInputMin = 0, mInputMax = 0;
+
+    private double mSetpoint = 0;
+    private double mPrevSetpoint = 0;
+    private double mPrevError = 0;
+    private double mTotalError = 0;
+
+    // last step's terms, for tracing
+    private double mError, mPTerm, mITerm, mDTerm, mFTerm, mOutput;
+
+    public PidEngine(double Kp, double Ki, double Kd, double Kf) {
+        setGains(Kp, Ki, Kd, Kf);
+    }
+
+    public void setGains(double Kp, double Ki, double Kd, double Kf) {
+        mKp = Kp;
+        mKi = Ki;
+        mKd = Kd;
+        mKf = Kf;
+    }
+
+    public void setOutputRange(double min, double max) {
+        mOutputMin = min;
+        mOutputMax = max;
+    }
+
+    public void setInputRange(double min, double max, boolean continuous) {
+        mInputMin = min;
+        mInputMax = max;
+        mContinuous = continuous;
+        setSetpoint(mSetpoint);
+    }
+
+    public void setSetpoint(double setpoint) {
+        if (mInputMax > mInputMin) {
+            setpoint = Math.max(mInputMin, Math.min(mInputMax, setpoint));
+        }
+        mSetpoint = setpoint;
+    }
+
+    public double getSetpoint()                 { return mSetpoint; }
+
+    public void reset() {
+        mPrevSetpoint = 0;
+        mPrevError = 0;
+        mTotalError = 0;
+        mError = mPTerm = mITerm = mDTerm = mFTerm = mOutput = 0;
+    }
+
+    // One update: returns the (clamped) output for this input
+    public double calculate(double input, double dt) {
+        double scale = (dt > 0) ? (dt / NOMINAL_PERIOD) : 1.0;
+
+        double error = mSetpoint - input;
+        double range = mInputMax - mInputMin;
+        if (mContinuous && (range > 0)) {
+            error %= range;
+            if (Math.abs(error) > (range / 2)) {
+                error += (error > 0) ? -range : range;
+            }
+        }
+
+        if (mKi != 0) {
+            // keep the integral from winding past what the output can use
+            double total = mTotalError + (error * scale);
+            mTotalError = Math.max(mOutputMin / mKi, Math.min(mOutputMax / mKi, total));
+        }
+
+        mError = error;
+        mPTerm = mKp * error;
+        mITerm = mKi * mTotalError;
+        mDTerm = mKd * (error - mPrevError) / scale;
+        mFTerm = (dt > 0) ? (mKf * (mSetpoint - mPrevSetpoint) / dt) : 0;
+        mPrevSetpoint = mSetpoint;
+        mPrevError = error;
+
+        double out = mPTerm + mITerm + mDTerm + mFTerm;
+        if (out > mOutputMax)       { out = mOutputMax; }
+        else if (out < mOutputMin)  { out = mOutputMin; }
+        mOutput = out;
+        return out;
+    }
+
+    public double getError()    { return mError; }
+    public double getPTerm()    { return mPTerm; }
+    public double getITerm()    { return mITerm; }
+    public double getDTerm()    { return mDTerm; }
+    public double getFTerm()    { return mFTerm; }
+    public double getOutput()   { return mOutput; }
+
+    // ------------------------------------------------------------------------
+    // Replays input / setpoint sequences, recorded from a simple plant run,
+    // through the engine at the nominal period and through WpiPid (wpilibj
+    // PIDBase.calculate() for a displacement source, called every period),
+    // and prints the largest output difference of each
+    public static void main(String[] args) {
+        compare("Drive Straight 96 in", 0.076, 0, 0.36, 0, -1, 1, false, 0, 0,
+                record(0.076, 0, 0.36, 0, -1, 1, false, 0, 0, new double[] {96}, 1.5, 150, 0, 1));
+        compare("Rotate across the wrap", 0.048, 0, 0.14, 0, -1, 1, true, -180, 180,
+                record(0.048, 0, 0.14, 0, -1, 1, true, -180, 180, new double[] {-170, 200, 10}, 0, 400, 150, 2));
+        compare("PIDF, saturating I", 0.05, 0.02, 0.1, 0.01, -0.6, 0.6, false, 0, 0,
+                record(0.05, 0.02, 0.1, 0.01, -0.6, 0.6, false, 0, 0, new double[] {200, 0, -50}, 4, 120, 0, 3));
+    }
+
+    // [k][0] input, [k][1] setpoint, closed loop on a lagged rate plant with
+    // sensor noise; setpoints ramp by rampStep per period (0 = step), each
+    // held for 8 s
+    private static double[][] record(double Kp, double Ki, double Kd, double Kf, double outMin, double outMax,
+                                     boolean wrap, double inMin, double inMax, double[] targets, double rampStep,
+                                     double maxRate, double start, long seed) {
+        java.util.Random rnd = new java.util.Random(seed);
+        WpiPid pid = new WpiPid(Kp, Ki, Kd, Kf, outMin, outMax, wrap, inMin, inMax);
+        int perTarget = (int) (8 / NOMINAL_PERIOD);
+        double[][] seq = new double[targets.length * perTarget][2];
+        double pos = start, rate = 0, sp = start;
+        for (int k = 0; k < seq.length; k++) {
+            double target = targets[k / perTarget];
+            sp = (rampStep <= 0) ? target : ((sp < target) ? Math.min(target, sp + rampStep)
+                                                           : Math.max(target, sp - rampStep));
+            double input = pos + (0.2 * rnd.nextGaussian());
+            if (wrap) {
+                input = Math.IEEEremainder(input, inMax - inMin);
+            }
+            seq[k][0] = input;
+            seq[k][1] = sp;
+            pid.setSetpoint(sp);
+            double out = pid.calculate(input);
+            rate += ((out * maxRate) - rate) * 0.4;
+            pos += rate * NOMINAL_PERIOD;
+        }
+        return seq;
+    }
+
+    private static void compare(String name, double Kp, double Ki, double Kd, double Kf, double outMin,
+                                double outMax, boolean wrap, double inMin, double inMax, double[][] seq) {
+        WpiPid ref = new WpiPid(Kp, Ki, Kd, Kf, outMin, outMax, wrap, inMin, inMax);
+        PidEngine eng = new PidEngine(Kp, Ki, Kd, Kf);
+        eng.setOutputRange(outMin, outMax);
+        if (wrap) {
+            eng.setInputRange(inMin, inMax, true);
+        }
+        double maxDiff = 0, maxOut = 0;
+        int saturated = 0;
+        for (double[] s : seq) {
+            ref.setSetpoint(s[1]);
+            eng.setSetpoint(s[1]);
+            double a = ref.calculate(s[0]);
+            double b = eng.calculate(s[0], NOMINAL_PERIOD);
+            maxDiff = Math.max(maxDiff, Math.abs(a - b));
+            maxOut = Math.max(maxOut, Math.abs(a));
+            if ((a <= outMin) || (a >= outMax)) { saturated++; }
+        }
+        System.out.println(name + ": steps=," + seq.length + ",saturated=," + saturated + ",max |out|=," +
+                Rmath.mRound(maxOut, 3) + ",max out diff=," + maxDiff);
+    }
+
+    // wpilibj PIDBase (2019) for a kDisplacement source, one calculate()
+    // per period; the setpoint timer always reads the period
+    private static class WpiPid {
+        private final double mP, mI, mD, mF, mOutMin, mOutMax, mInMin, mInMax;
+        private final boolean mCont;
+        private double mSetpoint, mPrevSetpoint, mPrevError, mTotalError;
+
+        WpiPid(double p, double i, double d, double f, double outMin, double outMax,
+               boolean cont, double inMin, double inMax) {
+            mP = p;
+            mI = i;
+            mD = d;
+            mF = f;
+            mOutMin = outMin;
+            mOutMax = outMax;
+            mCont = cont;
+            mInMin = cont ? inMin : 0;
+            mInMax = cont ? inMax : 0;
+        }
+
+        void setSetpoint(double sp) {
+            mSetpoint = (mInMax > mInMin) ? clamp(sp, mInMin, mInMax) : sp;
+        }
+
+        double calculate(double input) {
+            double feedForward = mF * (mSetpoint - mPrevSetpoint) / NOMINAL_PERIOD;
+            mPrevSetpoint = mSetpoint;
+            double error = mSetpoint - input;
+            double range = mInMax - mInMin;
+            if (mCont && (range > 0)) {
+                error %= range;
+                if (Math.abs(error) > (range / 2)) {
+                    error = (error > 0) ? (error - range) : (error + range);
+                }
+            }
+            if (mI != 0) {
+                mTotalError = clamp(mTotalError + error, mOutMin / mI, mOutMax / mI);
+            }
+            double result = (mP * error) + (mI * mTotalError) + (mD * (error - mPrevError)) + feedForward;
+            mPrevError = error;
+            return clamp(result, mOutMin, mOutMax);
+        }
+
+        private static double clamp(double v, double lo, double hi) {
+            return Math.max(lo, Math.min(v, hi));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package robot.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Fixed capacity trace of every SuperPid step, kept in preallocated
+ * primitive arrays. When full the oldest steps are overwritten.
+ *
+ * After a run the trace is written out as a compact binary file:
+ *   int    magic   (FILE_MAGIC)
+ *   int    version (FILE_VERSION)
+ *   int    record count
+ *   record[count]: 8 doubles (time, setpoint, input, P, I, D, output,
+ *                  raw output) + int status (SuperPid.PidStatus ordinal)
+ *
+ * Off-robot CSV converter:
+ *   java robot.utils.PidTrace pid_fwd_00.bin [out.csv]
+ */
+public class PidTrace {
+    public static final int FILE_MAGIC = 0x50494454;       // "PIDT"
+    public static final int FILE_VERSION = 1;
+    public static final int HEADER_SIZE = 12;
+    public static final int RECORD_SIZE = (8 * 8) + 4;
+
+    private final int mCapacity;
+    private final double[] mTime, mSetpoint, mInput, mP, mI, mD, mOutput, mRaw;
+    private final byte[] mStatus;
+    private long mCount = 0;            // steps recorded, including overwritten ones
+
+    public PidTrace(int capacity) {
+        mCapacity = capacity;
+        mTime = new double[capacity];
+        mSetpoint = new double[capacity];
+        mInput = new double[capacity];
+        mP = new double[capacity];
+        mI = new double[capacity];
+        mD = new double[capacity];
+        mOutput = new double[capacity];
+        mRaw = new double[capacity];
+        mStatus = new byte[capacity];
+    }
+
+    public void record(double time, double setpoint, double input, double p, double i, double d,
+                       double output, double raw, int status) {
+        int n = (int) (mCount % mCapacity);
+        mTime[n] = time;
+        mSetpoint[n] = setpoint;
+        mInput[n] = input;
+        mP[n] = p;
+        mI[n] = i;
+        mD[n] = d;
+        mOutput[n] = output;
+        mRaw[n] = raw;
+        mStatus[n] = (byte) status;
+        mCount++;
+    }
+
+    public void clear()         { mCount = 0; }
+    public int size()           { return (int) Math.min(mCount, mCapacity); }
+    public long getCount()      { return mCount; }
+    public int getCapacity()    { return mCapacity; }
+
+    // Write the retained steps, oldest first
+    public void write(String path) throws IOException {
+        write(toBytes(), path);
+    }
+
+    public static void write(byte[] data, String path) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path)) {
+            out.write(data);
+        }
+    }
+
+    // The file contents, a copy that later steps or clear() don't touch
+    public byte[] toBytes() {
+        int n = size();
+        int first = (int) ((mCount - n) % mCapacity);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + (n * RECORD_SIZE));
+        buf.putInt(FILE_MAGIC);
+        buf.putInt(FILE_VERSION);
+        buf.putInt(n);
+        for (int k = 0; k < n; k++) {
+            int j = (first + k) % mCapacity;
+            buf.putDouble(mTime[j]);
+            buf.putDouble(mSetpoint[j]);
+            buf.putDouble(mInput[j]);
+            buf.putDouble(mP[j]);
+            buf.putDouble(mI[j]);
+            buf.putDouble(mD[j]);
+            buf.putDouble(mOutput[j]);
+            buf.putDouble(mRaw[j]);
+            buf.putInt(mStatus[j]);
+        }
+        return buf.array();
+    }
+
+    // ------------------------------------------------------------------------
+    // --------------------------- Off-robot tool -----------------------------
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: PidTrace <trace.bin> [out.csv]");
+            return;
+        }
+        PrintStream out = System.out;
+        if (args.length > 1) {
+            out = new PrintStream(args[1]);
+        }
+        int n = toCsv(Files.readAllBytes(Paths.get(args[0])), out);
+        out.flush();
+        if (out != System.out) {
+            out.close();
+            System.out.println("Converted " + n + " steps to " + args[1]);
+        }
+    }
+
+    public static int toCsv(byte[] data, PrintStream out) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if ((data.length < HEADER_SIZE) || (buf.getInt(0) != FILE_MAGIC)) {
+            System.out.println("Not a PID trace file");
+            return 0;
+        }
+        int n = Math.min(buf.getInt(8), (data.length - HEADER_SIZE) / RECORD_SIZE);
+        SuperPid.PidStatus[] names = SuperPid.PidStatus.values();
+        out.println("Time,Setpoint,Input,P,I,D,Output,RawOutput,Status");
+        buf.position(HEADER_SIZE);
+        for (int k = 0; k < n; k++) {
+            String line = "";
+            for (int i = 0; i < 8; i++) {
+                line += buf.getDouble() + ",";
+            }
+            int status = buf.getInt();
+            line += ((status >= 0) && (status < names.length)) ? names[status].toString() : String.valueOf(status);
+            out.println(line);
+        }
+        return n;
+    }
+}
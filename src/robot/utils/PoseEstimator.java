@@ -0,0 +1,261 @@
+package robot.utils;
+
+/**
+ * Extended Kalman filter for the robot pose on the field.
+ *
+ * State is x, y (inches) and yaw (radians, CCW positive, 0 = facing +y),
+ * the same conventions PositionTracker uses internally. It fuses:
+ *   - predict:  left/right encoder distance deltas (differential drive model),
+ *               with the process noise inflated when the NavX yaw rate does
+ *               not agree with the encoders (wheel slip / bumps)
+ *   - update:   NavX yaw
+ *   - update:   vision range/bearing to a known field target
+ * Each correction is weighted by the current covariance instead of
+ * overwriting the pose.
+ *
+ * Everything works on preallocated primitive fields so it can run inside
+ * the 20 ms loop without creating garbage. The covariance is exposed
+ * (getPositionStdDev(), getYawStdDevDeg()) so auto commands can wait for a
+ * good fix before committing to a move.
+ */
+public class PoseEstimator {
+    // ---- Noise parameters (tune on carpet) ----
+    static public double ENC_NOISE_PER_IN = 0.02;         // encoder variance (in^2) per inch travelled
+    static public double SLIP_NOISE_XY = 0.05;            // in^2 per cycle of unexplained motion
+    static public double SLIP_NOISE_YAW_PER_DEG = 0.0002; // rad^2 per deg/sec of gyro/encoder rate mismatch
+    static public double GYRO_YAW_STD_DEG = 1.0;          // NavX yaw measurement std dev
+    static public double VISION_RANGE_STD_FRAC = 0.05;    // vision range std dev, fraction of range
+    static public double VISION_BEARING_STD_DEG = 2.0;    // vision bearing std dev
+    static public double VISION_GATE = 9.21;              // chi-square 2 dof 99%, reject worse fixes
+    static public double INIT_XY_STD = 2.0;               // inches
+    static public double INIT_YAW_STD_DEG = 2.0;
+
+    private final double mWheelBase;
+
+    // state
+    private double mX, mY, mYaw;
+    // field yaw minus gyro yaw (radians) - the NavX is not zeroed to the field
+    private double mGyroOffset;
+    // covariance (symmetric 3x3)
+    private double p00, p01, p02, p11, p12, p22;
+
+    private int mVisionAccepted = 0;
+    private int mVisionRejected = 0;
+
+    public PoseEstimator(double wheelBase) {
+        mWheelBase = wheelBase;
+        reset(0, 0, 0, 0);
+    }
+
+    // Reset to a known pose, yaw is degrees CW like the gyro and PositionTracker.
+    // gyroYawDegCW is what the NavX reads at this pose, so later gyro updates
+    // can be compared in field coordinates.
+    public void reset(double x, double y, double yawDegCW, double gyroYawDegCW) {
+        mX = x;
+        mY = y;
+        mYaw = -Math.toRadians(yawDegCW);
+        mGyroOffset = wrap(mYaw + Math.toRadians(gyroYawDegCW));
+        double xyVar = INIT_XY_STD * INIT_XY_STD;
+        double yawVar = Math.toRadians(INIT_YAW_STD_DEG);
+        yawVar *= yawVar;
+        p00 = xyVar; p01 = 0;     p02 = 0;
+                     p11 = xyVar; p12 = 0;
+                                  p22 = yawVar;
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------ Predict ---------------------------------
+    // dLeft/dRight are the encoder distance changes since the last call
+    // (inches), gyroRateCCW is the NavX yaw rate (deg/sec, CCW positive).
+    public void predict(double dLeft, double dRight, double gyroRateCCW, double dt) {
+        double dC = (dLeft + dRight) / 2;
+        double dYaw = (dRight - dLeft) / mWheelBase;
+        predictBody(dC * Math.cos(dYaw / 2), dC * Math.sin(dYaw / 2), dYaw, dLeft, dRight, gyroRateCCW, dt);
+    }
+
+    // Same, with the motion already integrated (OdometryService's arcs):
+    // fwd / left are inches along / 90 deg CCW from the heading at the
+    // start, dYaw radians CCW, dLeft/dRight the wheel travel it took
+    public void predictBody(double fwd, double left, double dYaw, double dLeft, double dRight,
+                            double gyroRateCCW, double dt) {
+        double dC = (dLeft + dRight) / 2;
+        double mid = mYaw + (dYaw / 2);
+        double s = Math.sin(mid);
+        double c = Math.cos(mid);
+        double s0 = Math.sin(mYaw);
+        double c0 = Math.cos(mYaw);
+        double dx = (-fwd * s0) - (left * c0);
+        double dy = (fwd * c0) - (left * s0);
+
+        mX += dx;
+        mY += dy;
+        mYaw = wrap(mYaw + dYaw);
+
+        // F = d(state')/d(state) = [1 0 a; 0 1 b; 0 0 1]
+        double a = -dy;
+        double b = dx;
+
+        // P = F P F'
+        double n00 = p00 + (2 * a * p02) + (a * a * p22);
+        double n01 = p01 + (a * p12) + (b * p02) + (a * b * p22);
+        double n02 = p02 + (a * p22);
+        double n11 = p11 + (2 * b * p12) + (b * b * p22);
+        double n12 = p12 + (b * p22);
+        p00 = n00; p01 = n01; p02 = n02; p11 = n11; p12 = n12;
+
+        // Q = W diag(varL, varR) W' with W = d(state')/d(dLeft, dRight)
+        double varL = ENC_NOISE_PER_IN * Math.abs(dLeft);
+        double varR = ENC_NOISE_PER_IN * Math.abs(dRight);
+        double k = dC / (2 * mWheelBase);
+        double wxL = (-0.5 * s) + (k * c);
+        double wxR = (-0.5 * s) - (k * c);
+        double wyL = (0.5 * c) + (k * s);
+        double wyR = (0.5 * c) - (k * s);
+        double wtL = -1 / mWheelBase;
+        double wtR = 1 / mWheelBase;
+        p00 += (wxL * wxL * varL) + (wxR * wxR * varR);
+        p01 += (wxL * wyL * varL) + (wxR * wyR * varR);
+        p02 += (wxL * wtL * varL) + (wxR * wtR * varR);
+        p11 += (wyL * wyL * varL) + (wyR * wyR * varR);
+        p12 += (wyL * wtL * varL) + (wyR * wtR * varR);
+        p22 += (wtL * wtL * varL) + (wtR * wtR * varR);
+
+        // the encoders and gyro disagree on the turn rate - wheels are
+        // slipping or we got hit, so trust the encoders less
+        if (dt > 0) {
+            double mismatch = Math.abs(Math.toDegrees(dYaw / dt) - gyroRateCCW);
+            p22 += SLIP_NOISE_YAW_PER_DEG * mismatch;
+            if (mismatch > 30) {
+                p00 += SLIP_NOISE_XY * mismatch;
+                p11 += SLIP_NOISE_XY * mismatch;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // ----------------------------- Gyro Update ------------------------------
+    // yaw from the NavX, degrees CW (Drivetrain.getGyroYaw())
+    public void updateGyroYaw(double gyroYawDegCW) {
+        double r = Math.toRadians(GYRO_YAW_STD_DEG);
+        r *= r;
+        double innov = wrap(-Math.toRadians(gyroYawDegCW) + mGyroOffset - mYaw);
+        double sInv = 1 / (p22 + r);
+        double k0 = p02 * sInv;
+        double k1 = p12 * sInv;
+        double k2 = p22 * sInv;
+
+        mX += k0 * innov;
+        mY += k1 * innov;
+        mYaw = wrap(mYaw + (k2 * innov));
+
+        // P = (I - K H) P, H = [0 0 1]
+        double q02 = p02, q12 = p12, q22 = p22;
+        p00 -= k0 * q02;
+        p01 -= k0 * q12;
+        p02 -= k0 * q22;
+        p11 -= k1 * q12;
+        p12 -= k1 * q22;
+        p22 -= k2 * q22;
+    }
+
+    // ------------------------------------------------------------------------
+    // ---------------------------- Vision Update -----------------------------
+    // range (inches) and bearing (degrees, + is to the right, as sent by the
+    // camera) to a target at a known field position. motionX/Y and
+    // motionYawDegCW are how far the robot has moved and turned since the
+    // picture was taken (from the pose history and gyro), so the measurement
+    // is compared with where we were and which way we faced at capture time.
+    // Returns false if the fix was rejected as an outlier.
+    public boolean updateRangeBearing(double range, double bearingDegCW,
+                                      double tgtX, double tgtY,
+                                      double motionX, double motionY, double motionYawDegCW) {
+        double dx = tgtX - (mX - motionX);
+        double dy = tgtY - (mY - motionY);
+        double r2 = (dx * dx) + (dy * dy);
+        if (r2 < 1) { return false; }
+        double r = Math.sqrt(r2);
+
+        // predicted measurement: range, and bearing CCW from our forward
+        // direction at capture time (mYaw less the CCW turn since then)
+        double captureYaw = mYaw + Math.toRadians(motionYawDegCW);
+        double predBearing = wrap(Math.atan2(dy, dx) - captureYaw - (Math.PI / 2));
+        double innovR = range - r;
+        double innovB = wrap(-Math.toRadians(bearingDegCW) - predBearing);
+
+        // H = [ -dx/r  -dy/r  0 ; dy/r2  -dx/r2  -1 ]
+        double h00 = -dx / r,  h01 = -dy / r;
+        double h10 = dy / r2,  h11 = -dx / r2,  h12 = -1;
+
+        // PH' (3x2)
+        double a00 = (p00 * h00) + (p01 * h01);
+        double a10 = (p01 * h00) + (p11 * h01);
+        double a20 = (p02 * h00) + (p12 * h01);
+        double a01 = (p00 * h10) + (p01 * h11) + (p02 * h12);
+        double a11 = (p01 * h10) + (p11 * h11) + (p12 * h12);
+        double a21 = (p02 * h10) + (p12 * h11) + (p22 * h12);
+
+        // S = H P H' + R (2x2)
+        double rStd = VISION_RANGE_STD_FRAC * range;
+        double bStd = Math.toRadians(VISION_BEARING_STD_DEG);
+        double s00 = (h00 * a00) + (h01 * a10) + (rStd * rStd);
+        double s01 = (h00 * a01) + (h01 * a11);
+        double s11 = (h10 * a01) + (h11 * a11) + (h12 * a21) + (bStd * bStd);
+        double det = (s00 * s11) - (s01 * s01);
+        if (det <= 0) { return false; }
+        double i00 = s11 / det;
+        double i01 = -s01 / det;
+        double i11 = s00 / det;
+
+        // gate on the Mahalanobis distance
+        double d2 = (innovR * ((i00 * innovR) + (i01 * innovB))) +
+                    (innovB * ((i01 * innovR) + (i11 * innovB)));
+        if (d2 > VISION_GATE) {
+            mVisionRejected++;
+            return false;
+        }
+
+        // K = P H' S^-1 (3x2)
+        double k00 = (a00 * i00) + (a01 * i01), k01 = (a00 * i01) + (a01 * i11);
+        double k10 = (a10 * i00) + (a11 * i01), k11 = (a10 * i01) + (a11 * i11);
+        double k20 = (a20 * i00) + (a21 * i01), k21 = (a20 * i01) + (a21 * i11);
+
+        mX += (k00 * innovR) + (k01 * innovB);
+        mY += (k10 * innovR) + (k11 * innovB);
+        mYaw = wrap(mYaw + (k20 * innovR) + (k21 * innovB));
+
+        // P = P - K (P H')'
+        p00 -= (k00 * a00) + (k01 * a01);
+        p01 -= (k00 * a10) + (k01 * a11);
+        p02 -= (k00 * a20) + (k01 * a21);
+        p11 -= (k10 * a10) + (k11 * a11);
+        p12 -= (k10 * a20) + (k11 * a21);
+        p22 -= (k20 * a20) + (k21 * a21);
+
+        mVisionAccepted++;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------- Getters --------------------------------
+    public double getX()                { return mX; }
+    public double getY()                { return mY; }
+    public double getYawDegCW()         { return -Math.toDegrees(mYaw); }
+
+    public double getCovXX()            { return p00; }
+    public double getCovXY()            { return p01; }
+    public double getCovYY()            { return p11; }
+    public double getCovYawYaw()        { return p22; }
+
+    // 1 sigma position uncertainty (inches) and yaw uncertainty (degrees)
+    public double getPositionStdDev()   { return Math.sqrt(p00 + p11); }
+    public double getYawStdDevDeg()     { return Math.toDegrees(Math.sqrt(p22)); }
+
+    public int getVisionAccepted()      { return mVisionAccepted; }
+    public int getVisionRejected()      { return mVisionRejected; }
+
+    private static double wrap(double rad) {
+        while (rad > Math.PI)   { rad -= 2 * Math.PI; }
+        while (rad < -Math.PI)  { rad += 2 * Math.PI; }
+        return rad;
+    }
+}
@@ -0,0 +1,88 @@
+package robot.utils;
+
+/**
+ * Fixed-size ring of timestamped robot poses, stored in primitive arrays.
+ *
+ * Drivetrain records a pose every time it updates its stats. Vision (or
+ * anything else with latency) can then ask where the robot was at the time
+ * a measurement was taken; poses between two samples are linearly
+ * interpolated (yaw is interpolated the short way around).
+ *
+ * Times are FPGA seconds (Timer.getFPGATimestamp()), x and y are inches
+ * and yaw is degrees CW, the same units as Drivetrain.getPositionX/Y() and
+ * getGyroYaw().
+ */
+public class PoseHistory {
+    private final double[] mTime, mX, mY, mYaw;
+    private final int mCapacity;
+    private int mNext = 0;          // slot the next record goes in
+    private int mCount = 0;
+
+    public PoseHistory(int capacity) {
+        mCapacity = capacity;
+        mTime = new double[capacity];
+        mX = new double[capacity];
+        mY = new double[capacity];
+        mYaw = new double[capacity];
+    }
+
+    // Times must be increasing, an older time than the last record is ignored
+    public void record(double time, double x, double y, double yawDegCW) {
+        if ((mCount > 0) && (time <= mTime[index(mCount - 1)])) { return; }
+        mTime[mNext] = time;
+        mX[mNext] = x;
+        mY[mNext] = y;
+        mYaw[mNext] = yawDegCW;
+        mNext = (mNext + 1) % mCapacity;
+        if (mCount < mCapacity) mCount++;
+    }
+
+    // Call when the pose is reset, poses from before the reset no longer line up
+    public void clear() {
+        mCount = 0;
+        mNext = 0;
+    }
+
+    public int size()                { return mCount; }
+    public double getOldestTime()    { return (mCount > 0) ? mTime[index(0)] : 0; }
+    public double getNewestTime()    { return (mCount > 0) ? mTime[index(mCount - 1)] : 0; }
+
+    // Fill pose[0..2] with x, y, yaw at the given time. A time newer than the
+    // last record returns the last pose. Returns false if there is no history
+    // or the time is older than the oldest record.
+    public boolean getPoseAt(double time, double[] pose) {
+        if (mCount == 0) { return false; }
+        if (time < mTime[index(0)]) { return false; }
+        int newest = index(mCount - 1);
+        if (time >= mTime[newest]) {
+            pose[0] = mX[newest];
+            pose[1] = mY[newest];
+            pose[2] = mYaw[newest];
+            return true;
+        }
+
+        // binary search for the last record at or before time
+        int lo = 0;
+        int hi = mCount - 1;
+        while ((hi - lo) > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (mTime[index(mid)] <= time) lo = mid;
+            else hi = mid;
+        }
+        int a = index(lo);
+        int b = index(hi);
+        double span = mTime[b] - mTime[a];
+        double f = (span > 0) ? (time - mTime[a]) / span : 0;
+
+        pose[0] = mX[a] + ((mX[b] - mX[a]) * f);
+        pose[1] = mY[a] + ((mY[b] - mY[a]) * f);
+        double dYaw = Rmath.constrainDeg0To180(mYaw[b] - mYaw[a]);
+        pose[2] = Rmath.constrainDeg0To180(mYaw[a] + (dYaw * f));
+        return true;
+    }
+
+    // i = 0 is the oldest record
+    private int index(int i) {
+        return (mNext - mCount + i + mCapacity) % mCapacity;
+    }
+}
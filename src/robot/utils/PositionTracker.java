@@ -14,11 +14,15 @@ import robot.subsystems.Drivetrain;
  *    x, y, yaw (in radians, with pos being a CCW orientation).
  * 6) If radians and CCW are inconvenient, call getPosition(), which will 
  *    return the current position with positive yaw in degrees CW.
+ *    getPose(double[]) does the same into caller storage without allocating.
  * Note that the returned positions are relative to the position when init() 
  * was last called.
  */
 
 /**
+ * java robot.utils.PositionTracker checks the update against closed form
+ * arcs over a long random path.
+ *
  * @author paul
  */
  public class PositionTracker 
@@ -57,7 +61,10 @@ import robot.subsystems.Drivetrain;
     
     // This is the current position, in the same units, since the position
     // tracker was initialized.
-    Posn       mPosn ; 
+    final Posn mPosn ; 
+
+    // Below this arc angle (radians) sin(h)/h comes from its series
+    static final double SMALL_ANGLE = 0.02 ;
     
     // The current position can be made relative to a starting position
     double     mStartX ;
@@ -82,7 +89,7 @@ import robot.subsystems.Drivetrain;
     // Subsequent positions are relative to the point at which this is called.
     public void init() {
         // zero the current position
-        mPosn = new Posn() ; 
+        mPosn.x = 0 ; mPosn.y = 0 ; mPosn.yaw = 0 ;
         // zero the delta distances
         mLastLeftDist = 0 ;
         mLastRightDist = 0 ;
@@ -92,7 +99,8 @@ import robot.subsystems.Drivetrain;
     // Subsequent positions are relative to the point at which this is called.
     public void init(double x, double y, double yawDegCW) {
         // zero the current position
-        mPosn = new Posn(x, y, yawDegCW) ; 
+        mPosn.x = x ; mPosn.y = y ;
+        mPosn.yaw = -yawDegCW*Math.PI/180.0 ;
         // zero the delta distances
         mLastLeftDist = 0 ;
         mLastRightDist = 0 ;
@@ -104,9 +112,12 @@ import robot.subsystems.Drivetrain;
         // same time as this position tracker (which might be an argument for 
         // managing the encoders from here, or providing a call back so that
         // their distances can be reset from here.
-        double left = mDriveTrain.getLeftEncoderDist() ;
-        double right = mDriveTrain.getRightEncoderDist() ;
-        
+        return updatePositions(mDriveTrain.getLeftEncoderDist(),
+                               mDriveTrain.getRightEncoderDist()) ;
+    }
+
+    // Same, with the encoder distances already read by the caller
+    public Posn updatePositions(double left, double right) {
         // calculate change in position since the last call
         double leftDeltaDist = left - mLastLeftDist ;
         double rightDeltaDist = right - mLastRightDist ;
@@ -116,46 +127,28 @@ import robot.subsystems.Drivetrain;
         mLastRightDist = right ;
 
         // no restriction on wheel traveling the same direction
-        // sum and difference between the two wheels
-        double rightMinusLeft = rightDeltaDist - leftDeltaDist;
-        double rightPlusLeft = rightDeltaDist + leftDeltaDist;
-
-        // Note that, for forward travel,
-        // a left turn will result in a positive angle and a positive radius
-        // a right turn will result in a negative angle and a negative radius
-        double angle = rightMinusLeft / mWheelBase ;
-
-        if (angle != 0) {
-            // movement in local coordinate system of the robot
-            double radius = (rightPlusLeft) / (2*angle) ;
-            double arcseg = Math.sqrt(2*radius*radius*(1-Math.cos(angle))) ;
-            double angleprime ; 
-            if (radius == 0) 
-                angleprime = 0 ;
-            else 
-                angleprime = Math.acos(arcseg/2/radius) ;
-                
-            double rely = (radius * Math.sin(angle)) ;
-            double relx = (arcseg * Math.cos(angleprime)) ;
-            
-            // convert those to global coordinate system via rotation
-            mPosn.yaw += angle ;
-            normalizeYaw() ;
-            double cos = Math.cos(mPosn.yaw) ;
-            double sin = Math.sin(mPosn.yaw) ;
-            double x = cos*relx - sin*rely ;
-            double y = sin*relx + cos*rely ;
-            
-            // now accumulate
-            mPosn.x += x ;
-            mPosn.y += y ;
-        }
-        else {  
-            // went straight: use either wheel or the average
-            mPosn.y += rightPlusLeft/2.0 ;
-            mPosn.x += 0 ;
-            mPosn.yaw += 0 ;
+        // Note that, for forward travel, a left turn is a positive angle
+        double angle = (rightDeltaDist - leftDeltaDist) / mWheelBase ;
+        double dist = (rightDeltaDist + leftDeltaDist) / 2.0 ;
+
+        // Exact arc: the chord is dist * sin(h)/h (h = half the turn) and
+        // points along the heading half way through the turn
+        double h = angle / 2.0 ;
+        double chordScale ;
+        if (Math.abs(h) < SMALL_ANGLE) {
+            double h2 = h * h ;
+            chordScale = 1.0 - (h2 / 6.0) * (1.0 - (h2 / 20.0)) ;
+        } else {
+            chordScale = Math.sin(h) / h ;
         }
+        double chord = dist * chordScale ;
+        double mid = mPosn.yaw + h ;
+
+        // forward is +y at yaw 0, yaw is CCW
+        mPosn.x -= chord * Math.sin(mid) ;
+        mPosn.y += chord * Math.cos(mid) ;
+        mPosn.yaw += angle ;
+        normalizeYaw() ;
 
         return mPosn ;
     }
@@ -165,6 +158,13 @@ import robot.subsystems.Drivetrain;
         posn.yaw = -posn.yaw*180/Math.PI ;
         return posn ;
     }
+
+    // x, y, yaw (degrees CW) into pose[0..2]
+    public void getPose(double[] pose) {
+        pose[0] = mPosn.x ;
+        pose[1] = mPosn.y ;
+        pose[2] = -mPosn.yaw*180/Math.PI ;
+    }
     
     private void normalizeYaw() {
         if (mPosn.yaw < -Math.PI)
@@ -172,4 +172,90 @@ import robot.subsystems.Drivetrain;
         else if (mPosn.yaw > Math.PI)
             mPosn.yaw -= 2*Math.PI ;
     }
+
+    // ------------------------------------------------------------------------
+    // Off-robot check: a long random path of straights and arcs, driven in
+    // closed form, with the wheel distances sampled every step (as the robot
+    // loop reads the encoders) and fed to the tracker. Errors are against
+    // the closed form pose; the step-start heading update the chord replaced
+    // runs alongside for scale. Within one arc the chord update is exact, so
+    // with the pieces ending on a sample ("aligned") the error is rounding;
+    // otherwise it comes from the steps that straddle a joint.
+    //   java robot.utils.PositionTracker
+    public static void main(String[] args) {
+        final double wheelBase = 25.25 ;
+        for (int run = 0; run < 4; run++) {
+            double step = ((run & 1) == 0) ? 1.2 : 3.0 ;        // in per 20 ms: 60 and 150 in/s
+            boolean aligned = run < 2 ;
+            java.util.Random rnd = new java.util.Random(1) ;
+            PositionTracker tracker = new PositionTracker(null, wheelBase) ;
+            tracker.init(0, 0, 0) ;
+            double[] pose = new double[3] ;
+
+            // closed form truth: x, y, yaw CCW radians, 0 = +y
+            double x = 0, y = 0, yaw = 0 ;
+            double eulerX = 0, eulerY = 0, eulerYaw = 0, lastL = 0, lastR = 0 ;
+            double left = 0, right = 0, total = 0 ;
+            double curv = 0, pieceLeft = 0 ;
+            double maxErr = 0, maxEulerErr = 0, maxYawErr = 0 ;
+            int pieces = 0, samples = 0 ;
+            while (pieces < 2000) {
+                // drive one sample step, through as many pieces as it spans
+                double togo = step ;
+                while (togo > 0) {
+                    if (pieceLeft <= 0) {
+                        // next piece: a straight, or an arc of radius 8..200 in either way
+                        curv = (rnd.nextInt(3) == 0) ? 0 : ((rnd.nextBoolean() ? 1 : -1) / (8 + (192 * rnd.nextDouble()))) ;
+                        pieceLeft = 6 + (114 * rnd.nextDouble()) ;
+                        if (aligned)
+                            pieceLeft = step * Math.ceil(pieceLeft / step) ;
+                        pieces++ ;
+                    }
+                    double s = Math.min(togo, pieceLeft) ;
+                    if (aligned && (Math.abs(togo - pieceLeft) < 1e-9))
+                        s = pieceLeft = togo ;
+                    if (curv == 0) {
+                        x -= s * Math.sin(yaw) ;
+                        y += s * Math.cos(yaw) ;
+                    } else {
+                        double yaw2 = yaw + (curv * s) ;
+                        x += (Math.cos(yaw2) - Math.cos(yaw)) / curv ;
+                        y += (Math.sin(yaw2) - Math.sin(yaw)) / curv ;
+                        yaw = yaw2 ;
+                    }
+                    left += s * (1 - (curv * wheelBase / 2)) ;
+                    right += s * (1 + (curv * wheelBase / 2)) ;
+                    togo -= s ;
+                    pieceLeft -= s ;
+                }
+                total += step ;
+                samples++ ;
+
+                tracker.updatePositions(left, right) ;
+                tracker.getPose(pose) ;
+
+                // the step-start heading update, for comparison
+                double dL = left - lastL ;
+                double dR = right - lastR ;
+                lastL = left ;
+                lastR = right ;
+                double d = (dL + dR) / 2 ;
+                eulerX -= d * Math.sin(eulerYaw) ;
+                eulerY += d * Math.cos(eulerYaw) ;
+                eulerYaw += (dR - dL) / wheelBase ;
+
+                maxErr = Math.max(maxErr, Math.hypot(pose[0] - x, pose[1] - y)) ;
+                maxEulerErr = Math.max(maxEulerErr, Math.hypot(eulerX - x, eulerY - y)) ;
+                double yawErr = Math.IEEEremainder(-Math.toDegrees(yaw) - pose[2], 360) ;
+                maxYawErr = Math.max(maxYawErr, Math.abs(yawErr)) ;
+            }
+            tracker.getPose(pose) ;
+            System.out.println((aligned ? "aligned, " : "") + "step " + step + " in, " + pieces + " pieces, " + Rmath.mRound(total, 0) + " in, " +
+                    samples + " samples") ;
+            System.out.println("  chord: final err=," + (float) Math.hypot(pose[0] - x, pose[1] - y) +
+                    ",max err=," + (float) maxErr + ",max yaw err deg=," + (float) maxYawErr) ;
+            System.out.println("  step-start heading: final err=," + Rmath.mRound(Math.hypot(eulerX - x, eulerY - y), 4) +
+                    ",max err=," + Rmath.mRound(maxEulerErr, 4)) ;
+        }
+    }
 }
@@ -0,0 +1,278 @@
+package robot.utils;
+
+/**
+ * Relay feedback (Astrom-Hagglund) autotune for one of our PID loops.
+ *
+ * Instead of the PID, a relay drives the loop: output = bias + d while the
+ * input is below the setpoint, bias - d once it is above (with a hysteresis
+ * band so sensor noise can't chatter it). Any loop with enough lag settles
+ * into a limit cycle; its period is the ultimate period Tu and, from the
+ * describing function of a relay, the ultimate gain is
+ *     Ku = 4d / (pi * sqrt(a^2 - eps^2))
+ * where a is the input's peak amplitude and eps the hysteresis.
+ *
+ * The first SETTLE_CYCLES cycles are thrown away, the next n are averaged.
+ * Gains come from the Ziegler-Nichols style rules in TuneRule and are
+ * returned in PidEngine units (I and D per NOMINAL_PERIOD update), so they
+ * can go straight into Preferences.
+ *
+ * SimulatedPlant and main() run the tuner off-robot:
+ *   java robot.utils.RelayAutotuner
+ */
+public class RelayAutotuner {
+    public enum TuneRule {
+        ZN_PID          (0.60, 0.50, 0.125),
+        SOME_OVERSHOOT  (0.33, 0.50, 0.333),
+        NO_OVERSHOOT    (0.20, 0.50, 0.333),
+        PD              (0.80, 0,    0.125);       // our drive PIDs run with I = 0
+
+        final double kp, ti, td;                   // Kp / Ku, Ti / Tu, Td / Tu
+        TuneRule(double kp, double ti, double td) { this.kp = kp; this.ti = ti; this.td = td; }
+    }
+
+    public enum TuneState {RELAY, DONE, FAILED};
+
+    public static final int SETTLE_CYCLES = 2;
+    public static final int MAX_CYCLES = 16;
+
+    private final double mSetpoint, mAmplitude, mHysteresis, mBias;
+    private final int mCycles;
+    private double mRange = 0;                     // continuous input range, 0 = none
+    private double mMaxExcursion = Double.MAX_VALUE;
+    private double mTimeout = 30;
+    private TuneRule mRule = TuneRule.ZN_PID;
+
+    private TuneState mState = TuneState.RELAY;
+    private String mFailReason = "";
+    private boolean mHigh = true;                  // relay output is bias + d
+    private double mTime = 0;
+    private double mLastRiseTime = -1;
+    private double mPeakMax, mPeakMin;
+    private int mCyclesSeen = 0;
+    private final double[] mPeriods = new double[MAX_CYCLES];
+    private final double[] mAmps = new double[MAX_CYCLES];
+    private int mCount = 0;
+    private double mTu = 0, mKu = 0, mA = 0;
+
+    // d is the relay amplitude, bias is added to both sides (e.g. hold power)
+    public RelayAutotuner(double setpoint, double d, double hysteresis, double bias, int cycles) {
+        mSetpoint = setpoint;
+        mAmplitude = Math.abs(d);
+        mHysteresis = Math.abs(hysteresis);
+        mBias = bias;
+        mCycles = Math.max(1, Math.min(cycles, MAX_CYCLES));
+        mPeakMax = -Double.MAX_VALUE;
+        mPeakMin = Double.MAX_VALUE;
+    }
+
+    // inputs wrap around (e.g. -180..180 degrees)
+    public void setInputRange(double min, double max)  { mRange = max - min; }
+    // give up if the error ever gets bigger than this
+    public void setMaxExcursion(double err)            { mMaxExcursion = Math.abs(err); }
+    public void setTimeout(double sec)                 { mTimeout = sec; }
+    public void setRule(TuneRule rule)                 { mRule = rule; }
+
+    // ************************************************************************
+    // One relay update, returns the output to apply
+    // ************************************************************************
+    public double step(double input, double dt) {
+        if (mState != TuneState.RELAY) {
+            return mBias;
+        }
+        mTime += dt;
+
+        double error = mSetpoint - input;
+        if ((mRange > 0) && (Math.abs(error) > (mRange / 2))) {
+            error += (error > 0) ? -mRange : mRange;
+        }
+        if (Math.abs(error) > mMaxExcursion) {
+            return fail("error " + Rmath.mRound(error, 2) + " past the excursion limit");
+        }
+        if (mTime > mTimeout) {
+            return fail("timed out after " + mCyclesSeen + " cycles");
+        }
+
+        // track the peaks as error (so wrapped inputs work) relative to setpoint
+        double y = -error;
+        if (y > mPeakMax) { mPeakMax = y; }
+        if (y < mPeakMin) { mPeakMin = y; }
+
+        if (mHigh && (error < -mHysteresis)) {
+            mHigh = false;                          // went over, push back down
+        } else if (!mHigh && (error > mHysteresis)) {
+            mHigh = true;                           // went under, a new cycle starts here
+            cycleDone();
+        }
+        return mBias + (mHigh ? mAmplitude : -mAmplitude);
+    }
+
+    private void cycleDone() {
+        if (mLastRiseTime >= 0) {
+            mCyclesSeen++;
+            if (mCyclesSeen > SETTLE_CYCLES) {
+                mPeriods[mCount] = mTime - mLastRiseTime;
+                mAmps[mCount] = (mPeakMax - mPeakMin) / 2;
+                mCount++;
+                if (mCount >= mCycles) {
+                    finish();
+                }
+            }
+        }
+        mLastRiseTime = mTime;
+        mPeakMax = -Double.MAX_VALUE;
+        mPeakMin = Double.MAX_VALUE;
+    }
+
+    private void finish() {
+        double tu = 0, a = 0;
+        for (int i = 0; i < mCount; i++) {
+            tu += mPeriods[i];
+            a += mAmps[i];
+        }
+        mTu = tu / mCount;
+        mA = a / mCount;
+        if (mA <= mHysteresis) {
+            fail("oscillation " + Rmath.mRound(mA, 3) + " inside the hysteresis band");
+            return;
+        }
+        mKu = (4 * mAmplitude) / (Math.PI * Math.sqrt((mA * mA) - (mHysteresis * mHysteresis)));
+        mState = TuneState.DONE;
+    }
+
+    private double fail(String why) {
+        mFailReason = why;
+        mState = TuneState.FAILED;
+        return mBias;
+    }
+
+    // ------------------------------------------------------------------------
+    // -------------------------------- Results -------------------------------
+    public TuneState getState()         { return mState; }
+    public boolean isDone()             { return mState == TuneState.DONE; }
+    public boolean isFinished()         { return mState != TuneState.RELAY; }
+    public String getFailReason()       { return mFailReason; }
+    public double getSetpoint()         { return mSetpoint; }
+    public double getUltimateGain()     { return mKu; }
+    public double getUltimatePeriod()   { return mTu; }
+    public double getAmplitude()        { return mA; }
+    public int getCyclesMeasured()      { return mCount; }
+
+    // Spread of the measured periods, max - min over the average. A big
+    // number means the loop never really settled into a limit cycle.
+    public double getPeriodSpread() {
+        if (mCount == 0) { return 0; }
+        double lo = Double.MAX_VALUE, hi = 0;
+        for (int i = 0; i < mCount; i++) {
+            lo = Math.min(lo, mPeriods[i]);
+            hi = Math.max(hi, mPeriods[i]);
+        }
+        return (hi - lo) / mTu;
+    }
+
+    // Gains in PidEngine units: I and D are per NOMINAL_PERIOD update
+    public double getKp() { return mRule.kp * mKu; }
+
+    public double getKi() {
+        if (mRule.ti == 0) { return 0; }
+        return (getKp() / (mRule.ti * mTu)) * PidEngine.NOMINAL_PERIOD;
+    }
+
+    public double getKd() {
+        return (getKp() * mRule.td * mTu) / PidEngine.NOMINAL_PERIOD;
+    }
+
+    public String getReport() {
+        if (mState != TuneState.DONE) {
+            return "Autotune " + mState + " " + mFailReason;
+        }
+        return "Autotune " + mRule + ",Ku=," + Rmath.mRound(mKu, 4) + ",Tu=," + Rmath.mRound(mTu, 3) +
+                ",a=," + Rmath.mRound(mA, 3) + ",spread=," + Rmath.mRound(getPeriodSpread(), 3) +
+                ",P=," + Rmath.mRound(getKp(), 4) + ",I=," + Rmath.mRound(getKi(), 5) +
+                ",D=," + Rmath.mRound(getKd(), 4);
+    }
+
+    // ------------------------------------------------------------------------
+    // --------------------------- Simulated plant ----------------------------
+    /**
+     * Motor + mechanism stand-in for running the tuner (and the tuned PID)
+     * off the robot: a dead time on the command, a first order lag from
+     * command to velocity, and position integrating velocity. gravity is a
+     * constant command the mechanism needs just to hold still (the elevator).
+     */
+    public static class SimulatedPlant {
+        private final double mGain, mTau, mGravity;
+        private final double[] mDelay;
+        private int mDelayIdx = 0;
+        private double mVel = 0, mPos = 0;
+
+        // gain: units/sec per unit command, tau: sec, delaySteps: updates of dead time
+        public SimulatedPlant(double gain, double tau, int delaySteps, double gravity) {
+            mGain = gain;
+            mTau = tau;
+            mGravity = gravity;
+            mDelay = new double[Math.max(1, delaySteps)];
+        }
+
+        public void setPosition(double pos)     { mPos = pos; mVel = 0; }
+        public double getPosition()             { return mPos; }
+
+        public double step(double cmd, double dt) {
+            if (cmd > 1)        { cmd = 1; }
+            else if (cmd < -1)  { cmd = -1; }
+            double u = mDelay[mDelayIdx];
+            mDelay[mDelayIdx] = cmd;
+            mDelayIdx = (mDelayIdx + 1) % mDelay.length;
+
+            // exact first order step so big dt stays stable
+            double target = mGain * (u - mGravity);
+            double k = Math.exp(-dt / mTau);
+            double v = target + ((mVel - target) * k);
+            mPos += (target * dt) + ((mVel - target) * mTau * (1 - k));
+            mVel = v;
+            return mPos;
+        }
+    }
+
+    // Tune each loop against a plant shaped like it, then run a step with
+    // the tuned gains to see how they behave
+    public static void main(String[] args) {
+        double dt = 0.02;
+        //                 name    gain   tau   delay  gravity  setpt  relay  hyst  bias  rule
+        runSim(dt, "fwd",  new SimulatedPlant(150, 0.25, 3, 0),     24, 0.35, 0.5, 0,    TuneRule.PD);
+        runSim(dt, "rot",  new SimulatedPlant(400, 0.15, 2, 0),     30, 0.40, 1.0, 0,    TuneRule.PD);
+        runSim(dt, "elev", new SimulatedPlant(60,  0.10, 2, 0.2),   30, 0.30, 0.25, 0.2, TuneRule.ZN_PID);
+    }
+
+    private static void runSim(double dt, String name, SimulatedPlant plant, double setpoint,
+                               double d, double hyst, double bias, TuneRule rule) {
+        RelayAutotuner tuner = new RelayAutotuner(setpoint, d, hyst, bias, 4);
+        tuner.setRule(rule);
+        tuner.setMaxExcursion(setpoint * 2);
+        double pos = plant.getPosition();
+        while (!tuner.isFinished()) {
+            pos = plant.step(tuner.step(pos, dt), dt);
+        }
+        System.out.println(name + ": " + tuner.getReport());
+        if (!tuner.isDone()) {
+            return;
+        }
+
+        // closed loop step from 0 with the suggested gains
+        plant.setPosition(0);
+        PidEngine pid = new PidEngine(tuner.getKp(), tuner.getKi(), tuner.getKd(), 0);
+        pid.setSetpoint(setpoint);
+        pos = 0;
+        double peak = 0, settle = -1;
+        for (int i = 0; i < (int) (10 / dt); i++) {
+            pos = plant.step(pid.calculate(pos, dt) + bias, dt);
+            peak = Math.max(peak, pos);
+            boolean inBand = Math.abs(pos - setpoint) <= (setpoint * 0.02);
+            if (inBand && (settle < 0))     { settle = i * dt; }
+            else if (!inBand)               { settle = -1; }
+        }
+        System.out.println(name + ": step to " + setpoint + " overshoot " +
+                Rmath.mRound(100 * (peak - setpoint) / setpoint, 1) + "% settled " +
+                ((settle < 0) ? "never" : Rmath.mRound(settle, 2) + " s") +
+                " final " + Rmath.mRound(pos, 3));
+    }
+}
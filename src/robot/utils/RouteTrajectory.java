@@ -0,0 +1,254 @@
+package robot.utils;
+
+/**
+ * A Route's straight and arc Segments turned into a time indexed
+ * trajectory, sampled every dt into flat arrays (pose, curvature, speed,
+ * left / right wheel velocity and acceleration) so following it costs an
+ * array lookup per loop, like MotionProfile.
+ *
+ * Speed along the path is limited by
+ *   maxVel         neither wheel goes faster than this
+ *   maxAccel       neither wheel speeds up or slows down faster than this
+ *   maxCentAccel   v^2 * curvature on the arcs
+ * and starts and ends stopped. The path is walked in PATH_DS steps: each
+ * step's speed limit, a forward pass for the acceleration limit, a
+ * backward pass for the deceleration limit, then the time of each step
+ * from its average speed (constant acceleration in between).
+ *
+ * A wheel can't follow a step in curvature without a step in its speed,
+ * so the curvature ramps linearly over CURV_BLEND of path across each
+ * straight / arc joint (x, y and heading are still the Segments'). A
+ * wheel's acceleration is then a * (1 +- k * w / 2) +- v^2 * dk/ds * w / 2,
+ * the passes keep both wheels within maxAccel, and the speed on a ramp is
+ * capped so the ramp alone takes at most half of it.
+ *
+ * Units are the Route's (inches, seconds). x, y are Segment coordinates;
+ * heading is robot yaw, degrees CW with 0 = +y, as the gyro reads (Segment
+ * angles are math angles, CCW from +x). Curvature is + turning right (CW).
+ */
+public class RouteTrajectory {
+    public static final double PATH_DS = 0.25;         // in
+    public static final double CURV_BLEND = 12;        // in of path the curvature ramps over at a joint
+
+    private final double mDt;
+    private final double mLength;
+    private final double[] mX, mY, mYaw, mCurv;
+    private final double[] mDist, mVel, mAcc;
+    private final double[] mLeftVel, mRightVel, mLeftAcc, mRightAcc;
+
+    public RouteTrajectory(Route route, double trackWidth, double maxVel, double maxAccel,
+                           double maxCentAccel, double dt) {
+        mDt = dt;
+        int nSeg = 0;
+        Segment[] segs = new Segment[route.segCnt];
+        double[] segStart = new double[route.segCnt + 1];
+        for (int i = 0; i < route.segCnt; i++) {
+            Segment s = route.getSeg(i);
+            if (((s.type == 'S') || (s.type == 'A')) && (s.len > 0)) {
+                segs[nSeg] = s;
+                segStart[nSeg + 1] = segStart[nSeg] + s.len;
+                nSeg++;
+            }
+        }
+        mLength = segStart[nSeg];
+
+        // ---- blended curvature and speed limit along the path ----
+        int n = Math.max(2, (int) Math.ceil(mLength / PATH_DS) + 1);
+        double ds = mLength / (n - 1);
+        double[] curvs = new double[n];
+        double[] dCurvs = new double[n];                // d curvature / ds
+        double[] v = new double[n];
+        double[] pose = new double[3];
+        int seg = 0;
+        for (int i = 0; i < n; i++) {
+            double s = i * ds;
+            while ((seg < (nSeg - 1)) && (s > segStart[seg + 1])) { seg++; }
+            curvs[i] = (nSeg == 0) ? 0 : blendedCurvature(segs, segStart, nSeg, seg, s);
+        }
+        for (int i = 0; i < n; i++) {
+            int lo = Math.max(0, i - 1), hi = Math.min(n - 1, i + 1);
+            dCurvs[i] = (curvs[hi] - curvs[lo]) / (ds * (hi - lo));
+            v[i] = speedLimit(curvs[i], trackWidth, maxVel, maxCentAccel);
+            if (dCurvs[i] != 0) {
+                v[i] = Math.min(v[i], Math.sqrt((maxAccel / 2) / (Math.abs(dCurvs[i]) * trackWidth / 2)));
+            }
+        }
+
+        // ---- accel / decel passes, both wheels within maxAccel ----
+        v[0] = 0;
+        v[n - 1] = 0;
+        double[] lim = new double[2];
+        for (int i = 1; i < n; i++) {
+            accelLimits(v[i - 1], curvs[i - 1], dCurvs[i - 1], trackWidth, maxAccel, lim);
+            v[i] = Math.min(v[i], Math.sqrt(Math.max(0, (v[i - 1] * v[i - 1]) + (2 * lim[1] * ds))));
+        }
+        for (int i = n - 2; i >= 0; i--) {
+            accelLimits(v[i + 1], curvs[i + 1], dCurvs[i + 1], trackWidth, maxAccel, lim);
+            v[i] = Math.min(v[i], Math.sqrt(Math.max(0, (v[i + 1] * v[i + 1]) - (2 * lim[0] * ds))));
+        }
+
+        // time at each path step
+        double[] t = new double[n];
+        for (int i = 1; i < n; i++) {
+            double avg = (v[i - 1] + v[i]) / 2;
+            t[i] = t[i - 1] + ((avg > 0) ? (ds / avg) : 0);
+        }
+
+        // ---- resample every dt ----
+        int m = (int) Math.ceil(t[n - 1] / dt) + 1;
+        mX = new double[m];
+        mY = new double[m];
+        mYaw = new double[m];
+        mCurv = new double[m];
+        mDist = new double[m];
+        mVel = new double[m];
+        mAcc = new double[m];
+        mLeftVel = new double[m];
+        mRightVel = new double[m];
+        mLeftAcc = new double[m];
+        mRightAcc = new double[m];
+
+        int i = 0;
+        seg = 0;
+        for (int k = 0; k < m; k++) {
+            double tk = Math.min(k * dt, t[n - 1]);
+            while ((i < (n - 2)) && (tk > t[i + 1])) { i++; }
+            double a = (ds > 0) ? (((v[i + 1] * v[i + 1]) - (v[i] * v[i])) / (2 * ds)) : 0;   // constant in this step
+            double tau = tk - t[i];
+            double s = Math.min(mLength, (i * ds) + (v[i] * tau) + (0.5 * a * tau * tau));
+            double vel = Math.max(0, v[i] + (a * tau));
+            if (k == (m - 1)) {
+                s = mLength;
+                vel = 0;
+                a = 0;
+            }
+            while ((seg < (nSeg - 1)) && (s > segStart[seg + 1])) { seg++; }
+            double curv = 0;
+            if (nSeg > 0) {
+                poseAt(segs[seg], s - segStart[seg], pose);
+                curv = blendedCurvature(segs, segStart, nSeg, seg, s);
+            }
+            mX[k] = pose[0];
+            mY[k] = pose[1];
+            mYaw[k] = pose[2];
+            mCurv[k] = curv;
+            mDist[k] = s;
+            mVel[k] = vel;
+            mAcc[k] = a;
+            mLeftVel[k] = vel * (1 + (curv * trackWidth / 2));
+            mRightVel[k] = vel * (1 - (curv * trackWidth / 2));
+        }
+        for (int k = 0; k < (m - 1); k++) {
+            mLeftAcc[k] = (mLeftVel[k + 1] - mLeftVel[k]) / dt;
+            mRightAcc[k] = (mRightVel[k + 1] - mRightVel[k]) / dt;
+        }
+    }
+
+    public RouteTrajectory(Route route, double trackWidth, double maxVel, double maxAccel, double maxCentAccel) {
+        this(route, trackWidth, maxVel, maxAccel, maxCentAccel, MotionProfile.DEFAULT_DT);
+    }
+
+    // fastest the robot's center can go with this curvature
+    private static double speedLimit(double curv, double trackWidth, double maxVel, double maxCentAccel) {
+        double k = Math.abs(curv);
+        double v = maxVel / (1 + (k * trackWidth / 2));                 // outside wheel at maxVel
+        if (k > 0) {
+            v = Math.min(v, Math.sqrt(maxCentAccel / k));
+        }
+        return v;
+    }
+
+    // lim[0..1] = least / most center acceleration at speed v that keeps
+    // both wheels within maxAccel
+    private static void accelLimits(double v, double curv, double dCurv, double trackWidth,
+                                    double maxAccel, double[] lim) {
+        lim[0] = -maxAccel;
+        lim[1] = maxAccel;
+        for (int side = -1; side <= 1; side += 2) {
+            double f = 1 + (side * curv * trackWidth / 2);             // wheel speed / center speed
+            double turnIn = side * v * v * dCurv * trackWidth / 2;     // wheel accel from the curvature ramp
+            if (Math.abs(f) < 1e-6) { continue; }
+            double a1 = (-maxAccel - turnIn) / f;
+            double a2 = (maxAccel - turnIn) / f;
+            lim[0] = Math.max(lim[0], Math.min(a1, a2));
+            lim[1] = Math.min(lim[1], Math.max(a1, a2));
+        }
+    }
+
+    // Segment seg's curvature at path distance s, ramped linearly from the
+    // one before / to the one after within CURV_BLEND / 2 of a joint (less
+    // on short segments, so ramps never overlap)
+    private static double blendedCurvature(Segment[] segs, double[] segStart, int nSeg, int seg, double s) {
+        double curv = curvature(segs[seg]);
+        if (seg > 0) {
+            double h = Math.min(CURV_BLEND, Math.min(segs[seg - 1].len, segs[seg].len)) / 2;
+            double into = s - segStart[seg];
+            if (into < h) {
+                double prev = curvature(segs[seg - 1]);
+                return prev + ((curv - prev) * ((into + h) / (2 * h)));
+            }
+        }
+        if (seg < (nSeg - 1)) {
+            double h = Math.min(CURV_BLEND, Math.min(segs[seg].len, segs[seg + 1].len)) / 2;
+            double left = segStart[seg + 1] - s;
+            if (left < h) {
+                double next = curvature(segs[seg + 1]);
+                return next + ((curv - next) * ((left + h) / (2 * h)));
+            }
+        }
+        return curv;
+    }
+
+    // + turning CW, Segment.dir is +1 CW
+    private static double curvature(Segment s) {
+        return ((s.type == 'A') && (s.radius > 0)) ? s.dir / s.radius : 0;
+    }
+
+    // x, y, yaw (deg CW from +y) dist into the segment
+    private static void poseAt(Segment s, double dist, double[] out) {
+        double mathDeg;
+        if (s.type == 'A') {
+            // polar angle from the center, math degrees; CW travel decreases it
+            double phi = Math.atan2(s.startPt.y - s.ctrPt.y, s.startPt.x - s.ctrPt.x) - (s.dir * (dist / s.radius));
+            out[0] = s.ctrPt.x + (s.radius * Math.cos(phi));
+            out[1] = s.ctrPt.y + (s.radius * Math.sin(phi));
+            mathDeg = Math.toDegrees(phi) - (s.dir * 90);
+        } else {
+            double f = dist / s.len;
+            out[0] = s.startPt.x + ((s.endPt.x - s.startPt.x) * f);
+            out[1] = s.startPt.y + ((s.endPt.y - s.startPt.y) * f);
+            mathDeg = Math.toDegrees(Math.atan2(s.endPt.y - s.startPt.y, s.endPt.x - s.startPt.x));
+        }
+        out[2] = Math.IEEEremainder(90 - mathDeg, 360);
+    }
+
+    // ------------------------------------------------------------------------
+    public int size()               { return mX.length; }
+    public double getDt()           { return mDt; }
+    public double getDuration()     { return (mX.length - 1) * mDt; }
+    public double getLength()       { return mLength; }
+
+    // sample index t seconds into the trajectory (the last one once it is over)
+    public int indexAt(double t) {
+        int i = (int) (t / mDt);
+        if (i < 0)              { return 0; }
+        if (i >= mX.length)     { return mX.length - 1; }
+        return i;
+    }
+
+    public double getX(int i)           { return mX[clamp(i)]; }
+    public double getY(int i)           { return mY[clamp(i)]; }
+    public double getYaw(int i)         { return mYaw[clamp(i)]; }
+    public double getCurvature(int i)   { return mCurv[clamp(i)]; }
+    public double getDist(int i)        { return mDist[clamp(i)]; }
+    public double getVel(int i)         { return mVel[clamp(i)]; }
+    public double getAcc(int i)         { return mAcc[clamp(i)]; }
+    public double getLeftVel(int i)     { return mLeftVel[clamp(i)]; }
+    public double getRightVel(int i)    { return mRightVel[clamp(i)]; }
+    public double getLeftAcc(int i)     { return mLeftAcc[clamp(i)]; }
+    public double getRightAcc(int i)    { return mRightAcc[clamp(i)]; }
+
+    private int clamp(int i) {
+        return (i < 0) ? 0 : ((i >= mX.length) ? (mX.length - 1) : i);
+    }
+}
@@ -0,0 +1,36 @@
+package robot.utils;
+
+/**
+ * Counts sensor reads (Talon, NavX, DIO) against the number of times a
+ * value was handed out from a per cycle snapshot instead, so the dashboard
+ * can show how many device calls the snapshots save each cycle.
+ *
+ * Robot thread only; the snapshots call fetched() and served(),
+ * Drivetrain.periodic() calls endCycle() at the top of every loop.
+ */
+public class SensorReadStats {
+    private static int sFetched = 0, sServed = 0;
+    private static int sLastFetched = 0, sLastServed = 0;
+    private static long sCycles = 0, sTotalSaved = 0;
+
+    public static void fetched(int reads)   { sFetched += reads; }
+    public static void served()             { sServed++; }
+
+    public static void endCycle() {
+        sLastFetched = sFetched;
+        sLastServed = sServed;
+        sTotalSaved += sServed - sFetched;
+        sCycles++;
+        sFetched = 0;
+        sServed = 0;
+    }
+
+    // last full cycle
+    public static int getReadsPerCycle()    { return sLastFetched; }
+    public static int getServedPerCycle()   { return sLastServed; }
+    public static int getSavedPerCycle()    { return sLastServed - sLastFetched; }
+
+    public static double getAvgSavedPerCycle() {
+        return (sCycles == 0) ? 0 : ((double) sTotalSaved / sCycles);
+    }
+}
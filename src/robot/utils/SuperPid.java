@@ -1,12 +1,14 @@
 package robot.utils;
 
-import edu.wpi.first.wpilibj.PIDController;
-import edu.wpi.first.wpilibj.PIDOutput;
-import edu.wpi.first.wpilibj.PIDSource;
-import edu.wpi.first.wpilibj.PIDSourceType;
+import java.io.IOException;
+
 import robot.Robot;
 
-public abstract class SuperPid implements PIDSource, PIDOutput 
+/**
+ * Base for the drivetrain PID loops. The owner calls step(dt) once per
+ * robot loop while the PID is active; nothing runs on another thread.
+ */
+public abstract class SuperPid
 {
     public enum PidStatus {RUNNING, ATEND ,STOPPED} ; 
 	
@@ -20,9 +22,24 @@ public abstract class SuperPid implements PIDSource, PIDOutput
     public PidOptions mOptions = null ;
     private double mInput, mRawOutput, mPidOut, mSetpoint ;
 
-    // the actual PID controller
-    private PIDController mPIDController = null ;
+    // the actual PID calculation
+    private PidEngine mPIDController = null ;
+    private double mStepDt = PidEngine.NOMINAL_PERIOD ;
+    private static final double MIN_STEP_DT = 0.005 ;
+    private static final double MAX_STEP_DT = 0.1 ;
     double  mKp, mKi, mKd, mKf;
+
+    // every step is traced, the owner can have it written out on stop()
+    public static final int TRACE_CAPACITY = 1024 ;    // ~20 sec at 50 Hz
+    private final PidTrace mTrace = new PidTrace(TRACE_CAPACITY) ;
+    private double mTraceTime = 0 ;
+    private PidStatus mStatus = PidStatus.STOPPED ;
+    private String mTracePath = null ;
+    private boolean mInStep = false ;       // stop() from inside step() exports after the step is traced
+    private boolean mExportPending = false ;
+
+    // while set, a relay autotune drives the loop instead of the PID
+    private RelayAutotuner mAutotuner = null ;
     
     // where's the hold value you ask?
     // it's not here yet, because I'm wondering if we can't just let the PID
@@ -57,7 +74,7 @@ public abstract class SuperPid implements PIDSource, PIDOutput
         mSetpoint = 0;
         
         // create a PID controller (or could do this in start)
-        mPIDController = new PIDController(Kp, Ki, Kd, Kf, this, this) ;
+        mPIDController = new PidEngine(Kp, Ki, Kd, Kf) ;
     }
 
     public void setOptions(PidOptions opt) {
@@ -75,9 +92,77 @@ public abstract class SuperPid implements PIDSource, PIDOutput
     abstract public void updatePidStatus(PidStatus status, double input, double rawOutput, double pidOut, double setpoint ) ;
     
     // ************************************************************************
-    // The PIDSource and PIDOutput interfaces
+    // One PID update: read the input, calculate, write the output.
+    // dt is the time since the last step in seconds.
     // ************************************************************************
-    @Override
+    public void step(double dt) {
+        if (!mIsActive) {
+            return;
+        }
+        // a stalled or restarted loop shouldn't blow up the I/D scaling
+        if (dt < MIN_STEP_DT)       { dt = MIN_STEP_DT; }
+        else if (dt > MAX_STEP_DT)  { dt = MAX_STEP_DT; }
+        mStepDt = dt;
+        double input = pidGet();
+        if (mAutotuner != null) {
+            stepAutotune(input, dt);
+            return;
+        }
+        double setpoint = mPIDController.getSetpoint();
+        double output = mPIDController.calculate(input, dt);
+        mInStep = true;
+        pidWrite(output);
+        mInStep = false;
+
+        mTraceTime += dt;
+        mTrace.record(mTraceTime, setpoint, input, mPIDController.getPTerm(), mPIDController.getITerm(),
+                      mPIDController.getDTerm(), mPidOut, output, mStatus.ordinal());
+        if (mExportPending) {
+            mExportPending = false;
+            exportTrace(mTracePath);
+        }
+    }
+
+    // Relay autotune: the output goes straight to applyPidOutput, none of
+    // the ramping, bang-bang or end tolerance handling applies
+    private void stepAutotune(double input, double dt) {
+        double output = mAutotuner.step(input, dt);
+        mRawOutput = output;
+        mPidOut = output;
+        mSetpoint = mAutotuner.getSetpoint();
+        applyPidOutput(output);
+        mStatus = PidStatus.RUNNING;
+        updatePidStatus( PidStatus.RUNNING, mInput, mRawOutput, mPidOut, mSetpoint ) ;
+
+        mTraceTime += dt;
+        mTrace.record(mTraceTime, mSetpoint, input, 0, 0, 0, output, output, mStatus.ordinal());
+    }
+
+    public void setAutotuner(RelayAutotuner tuner)  { mAutotuner = tuner; }
+    public RelayAutotuner getAutotuner()            { return mAutotuner; }
+
+    public PidEngine getEngine()    { return mPIDController; }
+    public PidTrace getTrace()      { return mTrace; }
+
+    // Write the trace to path (off the robot thread) when this PID stops
+    public void setTracePath(String path)   { mTracePath = path; }
+
+    // The trace is copied here, only the file write is on the new thread
+    public void exportTrace(String path) {
+        final byte[] data = mTrace.toBytes();
+        Thread t = new Thread(() -> {
+            try {
+                PidTrace.write(data, path);
+            } catch (IOException e) {
+                System.out.println("Error writing PID trace " + path);
+                System.out.println(e);
+            }
+        }, "PidTraceWriter");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
     public void pidWrite(double pidOutput) {
         mRawOutput = pidOutput;
 
@@ -100,6 +185,7 @@ public abstract class SuperPid implements PIDSource, PIDOutput
         // --------- Send pidOutput to wherever it needs to go ---------
         // the subclass must provide an implementation of this
         applyPidOutput(pidOutput);
+        mStatus = PidStatus.RUNNING;
         updatePidStatus(  PidStatus.RUNNING  , mInput, mRawOutput, mPidOut, mSetpoint ) ;			
         // --------- Check if we have reached the destination ---------
         
@@ -107,11 +193,14 @@ public abstract class SuperPid implements PIDSource, PIDOutput
         if (error <= mOptions.absTol) {
         	// We are in the tolereance zone for the end
         	if (!mOptions.keepRunning) {          	  
-              	  Robot.logger.appendLog("PID has detected its time to stop");
+              	  if (Robot.logger != null) {          // (none off the robot, in DriveSimHarness)
+              	      Robot.logger.appendLog("PID has detected its time to stop");
+              	  }
             	  System.out.println("PID has detected its time to stop"); 
             	  stop();
             }
         	// We are in the tolereance zone for the end but we are not to stop so just send msg back
+            if (mIsActive) { mStatus = PidStatus.ATEND; }
             updatePidStatus(  PidStatus.ATEND  , mInput, mRawOutput, mPidOut, mRateLimitTarget ) ;			// Stopped         	
         }
 
@@ -123,7 +212,6 @@ public abstract class SuperPid implements PIDSource, PIDOutput
         mSetpoint = mRateLimitTarget;
     }
 
-    @Override
     public double pidGet() {
     	mCurrentVal = getPidInput();
         mInput = mCurrentVal;
@@ -136,10 +224,10 @@ public abstract class SuperPid implements PIDSource, PIDOutput
     // ------------------------------------------------------------
     public void start() {
         // set up the PID
+        mPIDController.reset();
         mPIDController.setOutputRange(mOptions.outputMin, mOptions.outputMax);
         if (mOptions.inputwrap) {
-            mPIDController.setInputRange(mOptions.inputMin, mOptions.inputMax);
-            mPIDController.setContinuous(true);    
+            mPIDController.setInputRange(mOptions.inputMin, mOptions.inputMax, true);
         }
 
         // set the initial setpoint
@@ -152,17 +240,27 @@ public abstract class SuperPid implements PIDSource, PIDOutput
         
         // enable PID output processing
         mIsActive = true;
+        mStatus = PidStatus.RUNNING;
+        mTrace.clear();
+        mTraceTime = 0;
         updatePidStatus( PidStatus.RUNNING   , mInput, mRawOutput, mPidOut, mSetpoint) ;
         
-        // start the PID
+        // start the PID, it runs from step()
         mPIDController.setSetpoint(mRateLimitTarget);
-        mPIDController.enable();
     }
 
     public void stop() {
+        boolean wasActive = mIsActive;
         mIsActive = false;
+        mStatus = PidStatus.STOPPED;
         updatePidStatus( PidStatus.STOPPED  , mInput, mRawOutput, mPidOut, mSetpoint ) ;			// Stopped
-        mPIDController.disable();
+        if (wasActive && (mTracePath != null)) {
+            if (mInStep) {
+                mExportPending = true;
+            } else if (mTrace.size() > 0) {
+                exportTrace(mTracePath);
+            }
+        }
     }
 
     /**
@@ -171,10 +269,12 @@ public abstract class SuperPid implements PIDSource, PIDOutput
      *********************************
      */   
     // increment the set point return true if done incrementing
+    // (rampRate is per 50 ms update, scaled to the actual step)
     private boolean incrRampSetpoint() {
+        double rampStep = mOptions.rampRate * (mStepDt / PidEngine.NOMINAL_PERIOD) ;
         if (mPidTarget > 0) {
             if (mPidTarget > mRateLimitTarget) {
-                mRateLimitTarget += mOptions.rampRate ;
+                mRateLimitTarget += rampStep ;
                 // don't overshoot the eventual target though
                 if (mRateLimitTarget > mPidTarget) {
                     mRateLimitTarget = mPidTarget ;
@@ -183,7 +283,7 @@ public abstract class SuperPid implements PIDSource, PIDOutput
             }
             return true ;
         } else if (mPidTarget < mRateLimitTarget) {
-                mRateLimitTarget -= mOptions.rampRate ;
+                mRateLimitTarget -= rampStep ;
                 // don't overshoot the eventual target though
                 if (mRateLimitTarget < mPidTarget) { 
                     mRateLimitTarget = mPidTarget ;
@@ -205,18 +305,4 @@ public abstract class SuperPid implements PIDSource, PIDOutput
         }
         return cmd;
     }
-
-    // ----------------------------------------------------------
-    //      Other PIDSource Interface Methods
-    // ----------------------------------------------------------
-    @Override
-    public void setPIDSourceType(PIDSourceType pidSource) {
-        // nothing to do
-    }
-
-    @Override
-    public PIDSourceType getPIDSourceType() {
-
-        return PIDSourceType.kDisplacement;
-    }
 }
@@ -0,0 +1,8 @@
+package robot.utils;
+
+/**
+ * A limit switch or sensor on a DigitalInput, name as on DigitalInput.
+ */
+public interface SwitchIO {
+    boolean get();
+}
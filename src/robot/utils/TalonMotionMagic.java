@@ -0,0 +1,179 @@
+package robot.utils;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.DemandType;
+import com.ctre.phoenix.motorcontrol.StatusFrameEnhanced;
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
+
+import robot.Robot;
+
+/**
+ * Motion Magic position control run on a Talon SRX (1 kHz on the
+ * controller) instead of a roboRIO loop.
+ *
+ * Gains and limits come from Preferences, starting at a key number:
+ *   <prefix>_<n>_MM_P, _I, _D, _F     Talon units (1023 = full output, per sensor count)
+ *   <prefix>_<n+4>_MM_IZone           sensor counts
+ *   <prefix>_<n+5>_MM_Cruise          units/sec
+ *   <prefix>_<n+6>_MM_Accel           units/sec^2
+ *   <prefix>_<n+7>_MM_Enable          false leaves control on the roboRIO
+ *
+ * configure() uploads them to the Talon. If it is off, any upload fails,
+ * or the Talon has reset and won't take the config again, isUsable() is
+ * false and the owner falls back to its roboRIO control.
+ *
+ * Bench check before turning _MM_Enable on: with the mechanism free (drive
+ * wheels off the floor), run one move and look for the owner's phase check
+ * line in the log. checkPhase() out of phase means the sensor counts against
+ * the output, and Motion Magic would push harder the further it gets away.
+ */
+public class TalonMotionMagic {
+    public static final int PID_IDX = 0;
+    public static final int TIMEOUT_MS = 10;
+    public static final int STATUS_PERIOD_MS = 10;          // MM target and PID0 status frames
+    private static final double PHASE_CHECK_OUTPUT = 0.1;  // pwr, less than this can't tell
+    private static final int PHASE_CHECK_VEL = 20;         // counts/100ms, less than this can't tell
+
+    private final String mName;
+    private final WPI_TalonSRX mTalon;
+    private final double mCountsPerUnit;
+    private final int mSlot;
+
+    private double mKp, mKi, mKd, mKf;
+    private int mIZone = 0;
+    private double mCruise, mAccel;                        // units/sec, units/sec^2
+    private boolean mEnabled = false;
+    private boolean mConfigured = false;
+    private double mTarget = 0;                            // units
+
+    public TalonMotionMagic(String name, WPI_TalonSRX talon, double countsPerUnit, int slot) {
+        mName = name;
+        mTalon = talon;
+        mCountsPerUnit = countsPerUnit;
+        mSlot = slot;
+    }
+
+    // defaults for anything not in Preferences yet
+    public void setGains(double kP, double kI, double kD, double kF, int iZone) {
+        mKp = kP;
+        mKi = kI;
+        mKd = kD;
+        mKf = kF;
+        mIZone = iZone;
+    }
+
+    public void setMotion(double cruise, double accel) {
+        mCruise = cruise;
+        mAccel = accel;
+    }
+
+    public void loadPrefs(String prefix, int firstKey) {
+        mKp = Robot.prefs.getDouble(key(prefix, firstKey, "P"), mKp);
+        mKi = Robot.prefs.getDouble(key(prefix, firstKey + 1, "I"), mKi);
+        mKd = Robot.prefs.getDouble(key(prefix, firstKey + 2, "D"), mKd);
+        mKf = Robot.prefs.getDouble(key(prefix, firstKey + 3, "F"), mKf);
+        mIZone = Robot.prefs.getInt(key(prefix, firstKey + 4, "IZone"), mIZone);
+        mCruise = Robot.prefs.getDouble(key(prefix, firstKey + 5, "Cruise"), mCruise);
+        mAccel = Robot.prefs.getDouble(key(prefix, firstKey + 6, "Accel"), mAccel);
+        mEnabled = Robot.prefs.getBoolean(key(prefix, firstKey + 7, "Enable"), mEnabled);
+    }
+
+    private static String key(String prefix, int n, String name) {
+        return prefix + "_" + n + "_MM_" + name;
+    }
+
+    // ------------------------------------------------------------------------
+    // Upload the slot gains, cruise/accel and faster status frames. Returns
+    // false (and stays unusable) if the Talon didn't acknowledge all of it.
+    public boolean configure() {
+        mConfigured = false;
+        if (!mEnabled) {
+            return false;
+        }
+        ErrorCode err = ErrorCode.OK;
+        err = worst(err, mTalon.config_kP(mSlot, mKp, TIMEOUT_MS));
+        err = worst(err, mTalon.config_kI(mSlot, mKi, TIMEOUT_MS));
+        err = worst(err, mTalon.config_kD(mSlot, mKd, TIMEOUT_MS));
+        err = worst(err, mTalon.config_kF(mSlot, mKf, TIMEOUT_MS));
+        err = worst(err, mTalon.config_IntegralZone(mSlot, mIZone, TIMEOUT_MS));
+        err = worst(err, mTalon.configMotionCruiseVelocity(toNativeVel(mCruise), TIMEOUT_MS));
+        err = worst(err, mTalon.configMotionAcceleration(toNativeVel(mAccel), TIMEOUT_MS));
+        err = worst(err, mTalon.setStatusFramePeriod(StatusFrameEnhanced.Status_13_Base_PIDF0, STATUS_PERIOD_MS, TIMEOUT_MS));
+        err = worst(err, mTalon.setStatusFramePeriod(StatusFrameEnhanced.Status_10_MotionMagic, STATUS_PERIOD_MS, TIMEOUT_MS));
+        mTalon.selectProfileSlot(mSlot, PID_IDX);
+        mTalon.hasResetOccurred();                          // clear the sticky flag
+
+        String line = "Motion Magic " + mName + " config " + err + "  P=" + mKp + " I=" + mKi + " D=" + mKd +
+                        " F=" + mKf + " Cruise=" + mCruise + " Accel=" + mAccel;
+        Robot.logger.appendLog(line);
+        System.out.println(line);
+        mConfigured = (err == ErrorCode.OK);
+        return mConfigured;
+    }
+
+    private static ErrorCode worst(ErrorCode a, ErrorCode b) {
+        return (a != ErrorCode.OK) ? a : b;
+    }
+
+    // units/sec to sensor counts per 100 ms
+    private int toNativeVel(double unitsPerSec) {
+        return (int) Math.round((unitsPerSec * mCountsPerUnit) / 10);
+    }
+
+    public boolean isEnabled()  { return mEnabled; }
+    public boolean isUsable()   { return mEnabled && mConfigured; }
+
+    // ------------------------------------------------------------------------
+    // Start (or retarget) a move to pos units, arbFF is added to the Talon's
+    // output the whole way (e.g. elevator hold power, drive heading correction).
+    // Returns false if the Talon can't be used, the caller should fall back.
+    public boolean setTarget(double pos, double arbFF) {
+        if (mTalon.hasResetOccurred()) {
+            // a browned out Talon comes back with its flash config, not ours
+            configure();
+        }
+        if (!isUsable()) {
+            return false;
+        }
+        mTarget = pos;
+        mTalon.set(ControlMode.MotionMagic, pos * mCountsPerUnit, DemandType.ArbitraryFeedForward, arbFF);
+        return true;
+    }
+
+    // Still running Motion Magic? Any set() from other code switches it out.
+    public boolean isActive()           { return mTalon.getControlMode() == ControlMode.MotionMagic; }
+    public double getTarget()           { return mTarget; }
+    public double getPosition()         { return mTalon.getSelectedSensorPosition(PID_IDX) / mCountsPerUnit; }
+    public double getError()            { return mTarget - getPosition(); }
+
+    // Is the sensor moving the way the Talon is driving? Both are read in the
+    // Talon's own (inverted, phased) frame. 1 in phase, -1 out of phase, 0
+    // while there isn't enough output or motion to tell.
+    public int checkPhase() {
+        double out = mTalon.getMotorOutputPercent();
+        int vel = mTalon.getSelectedSensorVelocity(PID_IDX);
+        if ((Math.abs(out) < PHASE_CHECK_OUTPUT) || (Math.abs(vel) < PHASE_CHECK_VEL)) {
+            return 0;
+        }
+        return ((out > 0) == (vel > 0)) ? 1 : -1;
+    }
+
+    public String getPhaseReport() {
+        return mName + " out=," + Rmath.mRound(mTalon.getMotorOutputPercent(), 3) +
+                ",vel=," + mTalon.getSelectedSensorVelocity(PID_IDX) + ",pos=," + Rmath.mRound(getPosition(), 2);
+    }
+
+    // How long the Talon's trapezoid takes to move dist units from a stop
+    public double getMoveTime(double dist) {
+        dist = Math.abs(dist);
+        if ((mCruise <= 0) || (mAccel <= 0)) {
+            return 0;
+        }
+        double rampDist = (mCruise * mCruise) / mAccel;    // up to cruise and back down
+        if (dist < rampDist) {
+            return 2 * Math.sqrt(dist / mAccel);
+        }
+        return (2 * mCruise / mAccel) + ((dist - rampDist) / mCruise);
+    }
+}
@@ -0,0 +1,382 @@
+package robot.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Allocation-free parser for the vision UDP text format
+ * (see "Vision UDP Format.txt"):
+ *
+ *   CAMERA SUCCESS CENTER_X TOP_Y HEADING DISTANCE_H DISTANCE_V DISTANCE_V_RC TIMESTAMP
+ *
+ * Fields are separated by one or more spaces. When SUCCESS is 0 only the
+ * TIMESTAMP follows. Numbers are read straight out of the receive buffer
+ * into the VisionRecord - no split(), no substrings, no boxing.
+ *
+ * A packet is rejected (parse() returns false) if it is truncated, has an
+ * unknown camera, a bad success flag, or any field that is not a plain
+ * decimal number (optional sign, digits, optional fraction and exponent).
+ * Fields after the TIMESTAMP are ignored. The record contents are
+ * undefined after a rejected packet.
+ *
+ * java robot.utils.VisionPacketParser fuzzes it against the old split()
+ * parser and times both.
+ */
+public class VisionPacketParser {
+    private static final byte[] FRONT = { 'f', 'r', 'o', 'n', 't' };
+    private static final byte[] REAR  = { 'r', 'e', 'a', 'r' };
+    private static final byte[] BACK  = { 'b', 'a', 'c', 'k' };
+
+    private static final int MAX_DIGITS = 18;       // fits in a long
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) { POW10[i] = POW10[i - 1] * 10; }
+    }
+
+    private ByteBuffer mBuf;
+    private int mPos, mEnd;
+
+    // the token most recently found by nextToken()
+    private int mTokStart, mTokEnd;
+    // the number most recently read by parseNumber()
+    private double mNumber;
+    private boolean mIsInteger;
+
+    // Parse len bytes starting at buf's position (buf's position is not moved)
+    public boolean parse(ByteBuffer buf, int len, VisionRecord rec) {
+        mBuf = buf;
+        mPos = buf.position();
+        mEnd = mPos + len;
+        rec.clear();
+
+        // ---- CAMERA ----
+        if (!nextToken()) { return false; }
+        if (tokenEquals(FRONT)) {
+            rec.camera = VisionRecord.CAMERA_FRONT;
+        } else if (tokenEquals(REAR) || tokenEquals(BACK)) {
+            rec.camera = VisionRecord.CAMERA_REAR;
+        } else {
+            return false;
+        }
+
+        // ---- SUCCESS ----
+        if (!nextInt()) { return false; }
+        rec.success = (int) mNumber;
+        if (rec.success == 0) {
+            // No target, only the (optional) timestamp follows
+            if (nextToken()) {
+                if (!parseNumber()) { return false; }
+                rec.timestamp = mNumber;
+            }
+            return true;
+        }
+        if (rec.success != 1) { return false; }
+
+        // ---- Target data ----
+        if (!nextInt())     { return false; }
+        rec.ctrX = (int) mNumber;
+        if (!nextInt())     { return false; }
+        rec.topY = (int) mNumber;
+        if (!nextDouble())  { return false; }
+        rec.heading = mNumber;
+        if (!nextDouble())  { return false; }
+        rec.distH = mNumber;
+        if (!nextDouble())  { return false; }
+        rec.distV = mNumber;
+        if (!nextDouble())  { return false; }
+        rec.distVRc = mNumber;
+
+        // ---- TIMESTAMP (older senders leave it off) ----
+        if (nextToken()) {
+            if (!parseNumber()) { return false; }
+            rec.timestamp = mNumber;
+        }
+        // trailing fields (leftmost/rightmost x, skew) are ignored
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // ------------------------------ Tokenizer -------------------------------
+    private boolean nextToken() {
+        while ((mPos < mEnd) && isSpace(mBuf.get(mPos))) { mPos++; }
+        if (mPos >= mEnd) { return false; }
+        mTokStart = mPos;
+        while ((mPos < mEnd) && !isSpace(mBuf.get(mPos))) { mPos++; }
+        mTokEnd = mPos;
+        return true;
+    }
+
+    private boolean nextInt() {
+        return nextToken() && parseNumber() && mIsInteger &&
+               (mNumber >= Integer.MIN_VALUE) && (mNumber <= Integer.MAX_VALUE);
+    }
+
+    private boolean nextDouble() {
+        return nextToken() && parseNumber();
+    }
+
+    private boolean tokenEquals(byte[] word) {
+        if ((mTokEnd - mTokStart) != word.length) { return false; }
+        for (int i = 0; i < word.length; i++) {
+            if (mBuf.get(mTokStart + i) != word[i]) { return false; }
+        }
+        return true;
+    }
+
+    // [+-]digits[.digits][(e|E)[+-]digits] - the whole token must match
+    private boolean parseNumber() {
+        int i = mTokStart;
+        boolean neg = false;
+        byte c = mBuf.get(i);
+        if ((c == '-') || (c == '+')) {
+            neg = (c == '-');
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;         // digits seen in the mantissa
+        int scale = 0;          // power of 10 to apply to the mantissa
+        boolean any = false;
+        mIsInteger = true;
+
+        // integer part
+        while ((i < mTokEnd) && isDigit(c = mBuf.get(i))) {
+            if (digits < MAX_DIGITS) {
+                mantissa = (mantissa * 10) + (c - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                scale++;        // too many digits, drop the least significant
+            }
+            any = true;
+            i++;
+        }
+        // fraction
+        if ((i < mTokEnd) && (mBuf.get(i) == '.')) {
+            mIsInteger = false;
+            i++;
+            while ((i < mTokEnd) && isDigit(c = mBuf.get(i))) {
+                if (digits < MAX_DIGITS) {
+                    mantissa = (mantissa * 10) + (c - '0');
+                    if (mantissa != 0) digits++;
+                    scale--;
+                }
+                any = true;
+                i++;
+            }
+        }
+        if (!any) { return false; }
+        // exponent
+        if ((i < mTokEnd) && ((mBuf.get(i) == 'e') || (mBuf.get(i) == 'E'))) {
+            mIsInteger = false;
+            i++;
+            boolean expNeg = false;
+            if ((i < mTokEnd) && ((mBuf.get(i) == '-') || (mBuf.get(i) == '+'))) {
+                expNeg = (mBuf.get(i) == '-');
+                i++;
+            }
+            int exp = 0;
+            boolean expAny = false;
+            while ((i < mTokEnd) && isDigit(c = mBuf.get(i))) {
+                if (exp < 1000) exp = (exp * 10) + (c - '0');
+                expAny = true;
+                i++;
+            }
+            if (!expAny) { return false; }
+            scale += expNeg ? -exp : exp;
+        }
+        if (i != mTokEnd) { return false; }          // junk inside the token
+
+        double value = mantissa;
+        if (mantissa == 0) {
+            value = 0;                  // 0e400 is 0, not 0 * Infinity
+        } else if (scale > 0) {
+            value = (scale < POW10.length) ? value * POW10[scale] : value * Math.pow(10, scale);
+        } else if (scale < 0) {
+            value = (-scale < POW10.length) ? value / POW10[-scale] : value / Math.pow(10, -scale);
+        }
+        mNumber = neg ? -value : value;
+        return true;
+    }
+
+    private static boolean isSpace(byte c) {
+        return (c == ' ') || (c == '\t') || (c == '\r') || (c == '\n') || (c == 0);
+    }
+
+    private static boolean isDigit(byte c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    // ------------------------------------------------------------------------
+    // Random packets, as sent and truncated / corrupted, through this parser
+    // and the split() parser UDPServerSubSys used before it. They must agree
+    // except where the old one was stricter about spacing (runs of spaces,
+    // tabs) or looser about numbers (Java syntax like NaN, 1e5d, 0x1p3).
+    // Then the per packet cost of each on well formed packets.
+    public static void main(String[] args) {
+        Random rnd = new Random(1);
+        VisionPacketParser parser = new VisionPacketParser();
+        VisionRecord newRec = new VisionRecord(), oldRec = new VisionRecord();
+        ByteBuffer buf = ByteBuffer.allocateDirect(512);
+
+        int packets = 500000, agree = 0, accepted = 0, spacing = 0, javaSyntax = 0, other = 0;
+        for (int n = 0; n < packets; n++) {
+            String msg = randomPacket(rnd);
+            int mode = rnd.nextInt(4);
+            if ((mode & 1) != 0) { msg = corrupt(msg, rnd); }
+            if ((mode & 2) != 0) { msg = msg.substring(0, rnd.nextInt(msg.length() + 1)); }
+            byte[] bytes = msg.getBytes(StandardCharsets.ISO_8859_1);
+            buf.clear();
+            buf.put(bytes);
+            buf.flip();
+            boolean okNew = parser.parse(buf, bytes.length, newRec);
+            boolean okOld = parseSplit(msg, oldRec);
+            if ((okNew == okOld) && (!okNew || sameRecord(newRec, oldRec))) {
+                agree++;
+                if (okNew) { accepted++; }
+            } else if (hasSpacing(msg)) {
+                spacing++;
+            } else if (hasJavaSyntax(msg)) {
+                javaSyntax++;
+            } else if (++other <= 10) {
+                System.out.println("  MISMATCH new=" + okNew + " old=" + okOld + " [" + msg + "]");
+            }
+        }
+        System.out.println("Fuzz " + packets + " packets: agree=," + agree + ",(accepted=," + accepted +
+                "),spacing=," + spacing + ",java number syntax=," + javaSyntax + ",other=," + other);
+
+        // ---- timing, well formed packets only ----
+        int count = 10000;
+        byte[][] raw = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            raw[i] = randomPacket(rnd).getBytes(StandardCharsets.ISO_8859_1);
+        }
+        for (int pass = 0; pass < 5; pass++) {             // the last pass is the warmed up one
+            int ok = 0;
+            long a = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                if (parseSplit(new String(raw[i], 0, raw[i].length, StandardCharsets.ISO_8859_1), oldRec)) { ok++; }
+            }
+            long b = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                buf.clear();
+                buf.put(raw[i]);
+                buf.flip();
+                if (parser.parse(buf, raw[i].length, newRec)) { ok--; }
+            }
+            long c = System.nanoTime();
+            if (pass == 4) {
+                System.out.println("  split() ns/packet=," + Rmath.mRound((double) (b - a) / count, 1) +
+                        ",in place ns/packet=," + Rmath.mRound((double) (c - b) / count, 1) + ",net ok=," + ok);
+            }
+        }
+    }
+
+    // The parser UDPServerSubSys had before this class, for comparison
+    private static boolean parseSplit(String msg, VisionRecord rec) {
+        String[] fields = msg.trim().split(" ");
+        if (fields.length < 2) {
+            return false;
+        }
+        rec.clear();
+        if (fields[0].equals("front")) {
+            rec.camera = VisionRecord.CAMERA_FRONT;
+        } else if (fields[0].equals("rear") || fields[0].equals("back")) {
+            rec.camera = VisionRecord.CAMERA_REAR;
+        } else {
+            return false;
+        }
+        try {
+            rec.success = Integer.parseInt(fields[1]);
+            if (rec.success == 0) {
+                if (fields.length > 2) rec.timestamp = Double.parseDouble(fields[2]);
+                return true;
+            }
+            if ((rec.success != 1) || (fields.length < 8)) {
+                return false;
+            }
+            rec.ctrX = Integer.parseInt(fields[2]);
+            rec.topY = Integer.parseInt(fields[3]);
+            rec.heading = Double.parseDouble(fields[4]);
+            rec.distH = Double.parseDouble(fields[5]);
+            rec.distV = Double.parseDouble(fields[6]);
+            rec.distVRc = Double.parseDouble(fields[7]);
+            if (fields.length > 8) rec.timestamp = Double.parseDouble(fields[8]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static String randomPacket(Random rnd) {
+        String[] cams = { "front", "rear", "back" };
+        StringBuilder sb = new StringBuilder(cams[rnd.nextInt(cams.length)]);
+        if (rnd.nextInt(5) == 0) {
+            sb.append(" 0");
+        } else {
+            sb.append(" 1 ").append(rnd.nextInt(640)).append(" ").append(rnd.nextInt(480));
+            sb.append(" ").append(randomNumber(rnd, 30, true));
+            for (int i = 0; i < 3; i++) {
+                sb.append(" ").append(randomNumber(rnd, 300, false));
+            }
+        }
+        if (rnd.nextInt(4) != 0) {
+            sb.append(" ").append(String.format("%.6f", 1.55e9 + (rnd.nextDouble() * 1e7)));
+        }
+        if (rnd.nextInt(4) == 0) {
+            sb.append(" ").append(rnd.nextInt(640)).append(" ").append(rnd.nextInt(640)).append(" ")
+              .append(randomNumber(rnd, 1, true));
+        }
+        return sb.toString();
+    }
+
+    // the ways the vision side has printed numbers: %.Nf, repr, integers
+    private static String randomNumber(Random rnd, double range, boolean signed) {
+        double v = rnd.nextDouble() * range * (signed ? ((rnd.nextDouble() * 2) - 1) : 1);
+        switch (rnd.nextInt(4)) {
+            case 0:     return String.format("%." + rnd.nextInt(7) + "f", v);
+            case 1:     return Double.toString(v);
+            case 2:     return Double.toString(v * 1e-6);          // exponent form
+            default:    return Integer.toString((int) v);
+        }
+    }
+
+    // replace, insert or delete a few characters
+    private static String corrupt(String msg, Random rnd) {
+        String alphabet = "0123456789.-+eE xdfN\t";
+        StringBuilder sb = new StringBuilder(msg);
+        for (int k = rnd.nextInt(3); k >= 0; k--) {
+            int i = rnd.nextInt(sb.length() + 1);
+            char c = alphabet.charAt(rnd.nextInt(alphabet.length()));
+            switch (rnd.nextInt(3)) {
+                case 0:     if (i < sb.length()) { sb.setCharAt(i, c); } break;
+                case 1:     sb.insert(i, c); break;
+                default:    if (i < sb.length()) { sb.deleteCharAt(i); } break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean sameRecord(VisionRecord a, VisionRecord b) {
+        return (a.camera == b.camera) && (a.success == b.success) && (a.ctrX == b.ctrX) && (a.topY == b.topY) &&
+               sameDouble(a.heading, b.heading) && sameDouble(a.distH, b.distH) && sameDouble(a.distV, b.distV) &&
+               sameDouble(a.distVRc, b.distVRc) && sameDouble(a.timestamp, b.timestamp);
+    }
+
+    // the in place conversion can be an ulp off Double.parseDouble
+    private static boolean sameDouble(double a, double b) {
+        return (a == b) || (Math.abs(a - b) <= (2 * Math.ulp(b)));
+    }
+
+    private static boolean hasSpacing(String msg) {
+        String t = msg.trim();
+        return t.contains("  ") || (t.indexOf('\t') >= 0);
+    }
+
+    private static boolean hasJavaSyntax(String msg) {
+        String t = msg.trim();
+        int i = t.indexOf(' ');
+        String rest = (i < 0) ? "" : t.substring(i);
+        return rest.contains("N") || rest.contains("x") || rest.contains("d") || rest.contains("f");
+    }
+}
@@ -0,0 +1,44 @@
+package robot.utils;
+
+/**
+ * One parsed vision packet (see "Vision UDP Format.txt").
+ *
+ * Plain primitive fields so records can be preallocated in the
+ * VisionRecordQueue and copied in place - no Strings per packet.
+ */
+public class VisionRecord {
+    public static final int CAMERA_FRONT = 0;
+    public static final int CAMERA_REAR = 1;        // sent as "rear" (older code used "back")
+
+    public int    camera;           // CAMERA_FRONT or CAMERA_REAR
+    public int    success;          // 1 = target acquired, 0 = no target (only timestamp is valid)
+    public int    ctrX;             // pixels, centerline between the target pair
+    public int    topY;             // pixels, uppermost Y of the target pair
+    public double heading;          // degrees from straight ahead, + is to the right
+    public double distH;            // distance from the horizontal gap width
+    public double distV;            // distance from Y offset (normal height targets)
+    public double distVRc;          // distance from Y offset (rocket cargo target)
+    public double timestamp;        // Unix epoch seconds from the vision processor
+    public double rxTime;           // FPGA time (seconds) the packet arrived on the robot
+
+    public void clear() {
+        camera = CAMERA_FRONT;
+        success = 0;
+        ctrX = topY = 0;
+        heading = distH = distV = distVRc = 0;
+        timestamp = rxTime = 0;
+    }
+
+    public void copyFrom(VisionRecord r) {
+        camera = r.camera;
+        success = r.success;
+        ctrX = r.ctrX;
+        topY = r.topY;
+        heading = r.heading;
+        distH = r.distH;
+        distV = r.distV;
+        distVRc = r.distVRc;
+        timestamp = r.timestamp;
+        rxTime = r.rxTime;
+    }
+}
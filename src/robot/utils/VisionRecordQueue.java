@@ -0,0 +1,62 @@
+package robot.utils;
+
+/**
+ * Lock-free single-producer / single-consumer queue of VisionRecords.
+ *
+ * The UDP receiver thread is the only producer and the 20 ms robot loop is
+ * the only consumer. All slots are allocated up front; the producer fills a
+ * slot in place (claim() / publish()) and the consumer copies it out with
+ * poll(). The head and tail counters are volatile, which is all the
+ * ordering a single producer and single consumer need.
+ *
+ * If the loop falls behind and the queue fills, new packets are dropped and
+ * counted rather than overwriting records the consumer may be reading.
+ */
+public class VisionRecordQueue {
+    private final VisionRecord[] mSlots;
+    private final int mMask;
+
+    private volatile long mHead = 0;        // written only by the producer
+    private volatile long mTail = 0;        // written only by the consumer
+    private volatile long mDropped = 0;     // written only by the producer
+
+    // capacity is rounded up to a power of two
+    public VisionRecordQueue(int capacity) {
+        int size = 1;
+        while (size < capacity) { size <<= 1; }
+        mSlots = new VisionRecord[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new VisionRecord();
+        }
+        mMask = size - 1;
+    }
+
+    // ------------------------- Producer Methods -----------------------------
+    // Returns the next free slot to fill, or null (and counts a drop) if full
+    public VisionRecord claim() {
+        if ((mHead - mTail) > mMask) {
+            mDropped++;
+            return null;
+        }
+        return mSlots[(int) (mHead & mMask)];
+    }
+
+    // Make the slot returned by claim() visible to the consumer
+    public void publish() {
+        mHead = mHead + 1;
+    }
+
+    // ------------------------- Consumer Methods -----------------------------
+    // Copy the oldest record into dest, returns false if the queue is empty
+    public boolean poll(VisionRecord dest) {
+        if (mTail == mHead) {
+            return false;
+        }
+        dest.copyFrom(mSlots[(int) (mTail & mMask)]);
+        mTail = mTail + 1;
+        return true;
+    }
+
+    public int size()           { return (int) (mHead - mTail); }
+    public long getDropped()    { return mDropped; }
+}